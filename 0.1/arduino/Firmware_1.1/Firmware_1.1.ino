@@ -10,17 +10,19 @@
 // 定義 LCD 物件：使用 I2C 擴展
 hd44780_I2Cexp lcd;
 
-// 定義 PWM 物件：用於加熱元件 (pin 5, 頻率 ~7812 Hz)
-PwmOut heater_pwm(5);
+// 定義 PWM 物件：用於加熱元件 (pin 5、6, 頻率 ~7812 Hz)，每個加熱區一個
+PwmOut heater_pwm0(5);
+PwmOut heater_pwm1(6);
 
 // 定義步進馬達物件：驅動器類型 1，STEP 引腳 3，DIR 引腳 4
 AccelStepper stepper1(1, 3, 4);
 
 // 硬體引腳定義（集中管理，便於修改）
-const int PWM_pin = 5; // PWM 輸出給加熱元件
+const int PWM_pin = 5; // PWM 輸出給加熱元件（第 0 區，噴嘴）
 const int but1 = 7; // 按鈕輸入，用於切換馬達
 const int EN = 2; // 步進驅動器啟用引腳
 const int LED = 13; // LED 指示燈
+const int DIA_PIN = A1; // 線徑感測器類比輸出（霍爾式線徑感測器，電壓與線徑成正比）
 
 // 熱敏電阻參數 (NTC 100k, beta=3950, 系列電阻=4.7k, 用於高溫測量)
 const double BETA = 3950.0; // Beta 值
@@ -28,34 +30,138 @@ const double R0 = 100000.0; // 25°C 時電阻 (100k)
 const double SERIES_R = 4700.0; // 系列/上拉電阻 (4.7k)
 const double T0 = 298.15; // 25°C in Kelvin
 
-// PID 和溫度相關變數
-float set_temperature = 200.0; // 溫度設定點（預設 200°C）
-float temperature_read = 0.0; // 當前讀取溫度
-float PID_error = 0.0; // 當前誤差
-float previous_error = 0.0; // 上次誤差（用於微分項）
-float PID_value = 0.0; // 最終 PID 輸出
-float PID_p = 0.0; // 比例項
-float PID_i = 0.0; // 積分項
-float PID_d = 0.0; // 微分項
+// 加熱區：每區一組熱敏電阻、加熱器與 PID，所有迴圈都以區編號走訪，增加一區只需擴充下方陣列
+// 第 0 區為原本的噴嘴加熱器，命令與 EEPROM 地址維持不變；其他區的命令為 SET_TEMP<區>:，設定點存在 EEPROM 地址 2080+4×區
+const uint8_t ZONES = 2; // 加熱區數量
+const int ZONE_THERMISTOR[ZONES] = {A0, A2}; // 各區熱敏電阻類比引腳
+PwmOut *const ZONE_HEATER[ZONES] = {&heater_pwm0, &heater_pwm1}; // 各區加熱器 PWM
+const float ZONE_DEFAULT_TEMP[ZONES] = {200.0, 180.0}; // 各區預設設定點（°C）
+const int ZONE_EEPROM_BASE = 2080; // 第 1 區以後的設定點地址（校正表之後）
+struct Zone {
+  float set_temperature; // 溫度設定點
+  float temperature_read; // 當前讀取溫度
+  float previous_error; // 上次誤差（用於微分項）
+  float PID_value; // 最終 PID 輸出
+  float PID_i; // 積分項
+  uint8_t appliedPwm; // 實際輸出到加熱器的 PWM 值（超溫時為 0）
+  uint16_t dutySum; // 本取樣期間實際輸出的 PWM 總和，取平均後記錄（單次 PID_value 會讓 App 估出的加熱器增益偏低）
+};
+Zone zones[ZONES];
+
+// PID 參數（所有加熱區共用）
 const int kp = 90; // PID 比例增益
 const int ki = 30; // PID 積分增益
 const int kd = 80; // PID 微分增益
 const int max_PWM = 255; // PWM 最大值
+const char FIRMWARE_VERSION[] = "1.1"; // 韌體版本，隨設定一起回報
 
 // 步進馬達相關變數
 int max_speed = 1000; // 馬達最大速度（步/秒），移除 const 以允許藍牙修改
 int rotating_speed = 0; // 當前馬達速度
 bool activate_stepper = false; // 馬達啟用旗標
 
+// 遙測環形緩衝區：藍牙斷線期間持續記錄，重新連線後由 App 以 SYNC_FROM 補傳
+// 樣本為時間、速度，接著每區一組溫度與 duty；區數在 SYNC_BEGIN 中告知 App
+struct ZoneSample {
+  int16_t temp10; // 溫度 ×10（定點數）
+  uint8_t duty; // 取樣期間的平均加熱 PWM 值 (0-255)
+} __attribute__((packed));
+struct Sample {
+  uint32_t tick; // 記錄時間 millis()
+  uint16_t speed; // 馬達速度（步/秒）
+  ZoneSample zone[ZONES]; // 各區溫度與 duty
+} __attribute__((packed)); // 每筆 6 + 3×ZONES bytes，小端序傳送
+const uint16_t RING_SIZE = 1024; // 樣本數（每 500ms 一筆，約 8.5 分鐘）
+const uint8_t SAMPLE_EVERY = 2; // 每 2 次 PID 更新記錄一筆
+Sample ring[RING_SIZE]; // 環形緩衝區
+uint32_t nextSeq = 0; // 下一筆樣本序號（開機時歸零）
+uint8_t sampleDivider = 0; // 記錄分頻計數
+uint16_t bootId = 0; // 開機編號（EEPROM 地址 8，每次開機加 1），讓 App 區分不同開機的序號
+
+// 補傳狀態：每次 loop 最多送出一幀，且只在發送緩衝區有空間時送出，不阻塞 PID
+const int SYNC_FRAME_MAX = 240; // 單幀最大長度（小於 Serial1 發送緩衝區）
+const uint8_t SYNC_CHUNK = ((SYNC_FRAME_MAX - 32) * 3 / 4 - 2) / sizeof(Sample); // 每個 SYNC_DATA 幀的樣本數（扣除約 32 字元的標頭與 CRC 後 base64 放得下的筆數）
+bool syncActive = false; // 是否正在補傳
+uint32_t syncSeq = 0; // 下一筆要送出的序號
+uint32_t syncEnd = 0; // 本次補傳的結束序號（不含）
+
+// 命令回覆：組裝在固定緩衝區中，解析與回覆都不使用堆積（String 會在 UNO R4 的堆積上反覆配置造成碎片）
+const uint8_t REPLY_MAX = 240; // 回覆最大長度（與 SYNC_FRAME_MAX 相同，小於 Serial1 發送緩衝區），超出時截斷
+char replyBuf[REPLY_MAX + 1]; // 目前命令的回覆（不含前綴），以 '\0' 結尾
+uint8_t replyLen = 0; // 回覆長度
+
+// 命令去重快取：記錄最近執行的帶序號命令（序號 + 內容 CRC）及其回覆，App 重送時直接回覆
+const uint8_t REPLY_CACHE_SIZE = 8; // 大於 App 的在途命令窗口
+const uint8_t REPLY_CACHE_MAX = 48; // 快取回覆最大長度；查詢不佔快取，其餘回覆皆為簡短的確認或錯誤訊息
+struct CachedReply {
+  long seq; // 命令序號，-1 表示空位
+  uint16_t hash; // 命令內容 CRC16，避免 App 重啟後序號巧合相同
+  char reply[REPLY_CACHE_MAX + 1]; // 當時的回覆
+};
+CachedReply replyCache[REPLY_CACHE_SIZE];
+uint8_t replyCacheNext = 0; // 下一個覆蓋位置
+
+// 命令接收：每次 loop 只讀取已到達的位元組，不等待換行，步進脈衝和 PID 節拍不受命令傳輸影響
+const uint8_t CMD_MAX = 64; // 命令最大長度（含序號前綴），超過整行丟棄
+const uint8_t CMD_IDLE_MS = 20; // 從未送過換行的發送端（舊版 App），命令在線路閒置此時間後視為結束
+enum { CMD_NONE, CMD_READY, CMD_TOO_LONG }; // pollCommand 的結果
+char cmdBuf[CMD_MAX + 1]; // 接收中的命令，CMD_READY 時為去除空白、以 '\0' 結尾的命令
+uint8_t cmdLen = 0; // 已接收長度
+bool cmdOverflow = false; // 本行超過 CMD_MAX
+unsigned long cmdLastByte = 0; // 最後收到位元組的時間
+bool cmdTerminated = false; // 已收過 '\n' 或 '\r'：發送端會結束每條命令，之後不再以閒置切斷，藍牙停頓不會把一幀拆成兩條命令
+
+// 迴圈效能統計：GET_PERF 回報自上次查詢以來的統計並歸零，用於比較不同韌體版本的熱路徑
+const uint8_t PERF_BINS = 8; // 迴圈時間直方圖格數
+const uint16_t PERF_BOUNDS_US[PERF_BINS - 1] = {100, 250, 500, 1000, 2500, 5000, 10000}; // 各格上限（µs），最後一格為以上
+struct PerfStat {
+  uint32_t count; // 次數
+  uint64_t sumUs; // 總時間（µs），64 位元避免長時間未查詢時溢位
+  uint32_t maxUs; // 最長一次（µs）
+};
+PerfStat perfLoop, perfPid, perfLcd, perfBt; // 整個 loop、updatePIDAndHeater、updateLCD、handleBluetooth
+uint32_t perfHist[PERF_BINS]; // 迴圈時間直方圖
+uint32_t perfStepGapMaxUs = 0; // 馬達運轉時兩次 runSpeed() 之間的最長間隔（µs）
+unsigned long perfLastStepUs = 0; // 上次 runSpeed() 的時間，0 表示馬達未運轉
+unsigned long perfWindowStart = 0; // 本次統計開始時間（ms）
+
+// 熱敏電阻校正表：App 以參考點擬合 Steinhart-Hart 曲線後上傳，每個 ADC 值一筆溫度（0.1°C），取代 Beta 公式與 +6 偏移
+// 上傳流程：CAL_BEGIN、多個 CAL_DATA:<位移>,<base64>（直接寫入 EEPROM）、CAL_END:<整表 CRC16>，CRC 相符才啟用
+const uint16_t CAL_ENTRIES = 1024; // 表格筆數（10 位元 ADC）
+const int CAL_EEPROM_HEADER = 16; // 標頭地址（magic + CRC）
+const int CAL_EEPROM_DATA = 20; // 表格地址（2048 bytes）
+const uint16_t CAL_MAGIC = 0xCA1B; // 標頭有效標記
+const uint8_t CAL_CHUNK_MAX = 48; // 單個 CAL_DATA 幀最多位元組
+struct CalHeader {
+  uint16_t magic; // CAL_MAGIC 表示表格有效
+  uint16_t crc; // 表格的 CRC16
+};
+int16_t calTable[CAL_ENTRIES]; // 使用中的校正表（0.1°C）
+bool calActive = false; // 是否使用校正表（否則用 Beta 公式）
+bool calReceiving = false; // 是否正在上傳
+
+// 線徑串流：馬達運轉時以 DIA_RATE 設定的頻率送出 "DIA:<mm>"，App 據此微調拉絲速度
+// 每 DIA_READ_US 讀一次 ADC（約 112µs），分散讀取避免拉長步進間隔，送出時取平均，兼作低通濾波
+const float DIA_MM_PER_COUNT = 3.0 / 1023.0; // 感測器換算：0-5V 對應 0-3mm（依感測器校正修改）
+const float DIA_OFFSET_MM = 0.0; // 感測器零點偏移（mm）
+const uint8_t DIA_RATE_MAX = 50; // 最高送出頻率（Hz），9600 baud 下約佔一半頻寬
+const unsigned long DIA_READ_US = 2000; // ADC 讀取間隔（µs）
+uint8_t diaRateHz = 0; // 送出頻率，0 為關閉（開機預設關閉）
+unsigned long diaLastSend = 0; // 上次送出時間（ms）
+unsigned long diaLastRead = 0; // 上次讀取時間（µs）
+uint32_t diaSum = 0; // 本期間 ADC 讀值總和
+uint16_t diaCount = 0; // 本期間讀取次數
+
 // 時間和去彈跳相關變數
 unsigned long lastDebounceTime = 0; // 上次按鈕去彈跳時間
 unsigned long lastUpdateTime = 0; // 上次 PID/LCD 更新時間
 const int debounceDelay = 50; // 去彈跳延遲（ms）
 const int updateInterval = 250; // 更新間隔（ms）
 
-// 手動熱敏電阻溫度轉換函式 (取代 thermistor 函式庫)
-double readTemp() {
-  int adc = analogRead(A0); // 讀取 ADC 值 (0-1023)
+// 手動熱敏電阻溫度轉換函式 (取代 thermistor 函式庫)，各區熱敏電阻同型號，共用 Beta 參數與校正表
+double readTemp(int pin) {
+  int adc = analogRead(pin); // 讀取 ADC 值 (0-1023)
+  if (calActive) return calTable[adc] / 10.0; // 校正表：查表即可，不需 log()
   if (adc == 0) return 0.0; // 避免除零
   double R = SERIES_R / (1023.0 / adc - 1.0); // 計算熱敏電阻電阻 (電壓分壓器)
   double lnR = log(R / R0);
@@ -79,7 +185,7 @@ void setup() {
   pinMode(PWM_pin, OUTPUT); // PWM：輸出
 
   // 初始化 PWM 物件：設定頻率 ~7812 Hz (原 AVR 設定)，初始占空比 0%
-  heater_pwm.begin(7812.5f, 0.0f);
+  for (uint8_t z = 0; z < ZONES; z++) ZONE_HEATER[z]->begin(7812.5f, 0.0f);
 
   // 初始化 LCD 並開啟背光
   lcd.begin(16, 2);
@@ -87,26 +193,49 @@ void setup() {
 
   // 初始化藍牙並載入保存的設定
   Serial1.begin(9600);
-  EEPROM.get(0, set_temperature); // 載入保存的溫度 (地址 0)
+  for (uint8_t z = 0; z < ZONES; z++) {
+    memset(&zones[z], 0, sizeof(Zone));
+    EEPROM.get(zoneEepromAddress(z), zones[z].set_temperature); // 載入保存的溫度 (第 0 區地址 0)
+    if (isnan(zones[z].set_temperature) || zones[z].set_temperature < 0 || zones[z].set_temperature > 300) {
+      zones[z].set_temperature = ZONE_DEFAULT_TEMP[z]; // 未保存過（EEPROM 為 0xFF）
+    }
+  }
   EEPROM.get(4, max_speed); // 載入保存的速度 (地址 4, int 佔 4 bytes)
+  EEPROM.get(8, bootId); // 載入開機編號並加 1 (地址 8, uint16_t)
+  bootId++;
+  EEPROM.put(8, bootId);
+  loadCalibration(); // 載入校正表 (地址 16 起)，無效時使用 Beta 公式
+  for (int i = 0; i < REPLY_CACHE_SIZE; i++) replyCache[i].seq = -1; // 清空去重快取
 
   // 記錄初始時間
   lastUpdateTime = millis();
+  perfWindowStart = lastUpdateTime;
 }
 
 // 主迴圈：持續檢查按鈕、更新馬達、並定期更新 PID 和 LCD
 void loop() {
+  unsigned long loopStart = micros();
   handleButton(); // 處理按鈕輸入和去彈跳
+  unsigned long t = micros();
   handleBluetooth(); // 處理藍牙輸入和命令
+  perfAdd(perfBt, micros() - t);
+  serviceSync(); // 送出下一個補傳幀（如有）
+  serviceDiameter(); // 讀取線徑並依頻率送出
   updateStepper(); // 更新步進馬達狀態和速度
 
   // 非阻塞更新：每 250ms 執行一次 PID 和顯示
   unsigned long currentTime = millis();
   if (currentTime - lastUpdateTime >= updateInterval) {
     lastUpdateTime = currentTime;
+    t = micros();
     updatePIDAndHeater(); // 更新 PID 計算和 PWM 輸出
+    perfAdd(perfPid, micros() - t);
+    recordSample(); // 記錄遙測樣本
+    t = micros();
     updateLCD(); // 更新 LCD 顯示
+    perfAdd(perfLcd, micros() - t);
   }
+  perfLoopDone(micros() - loopStart);
 }
 
 // 函式：處理按鈕輸入和去彈跳邏輯
@@ -118,45 +247,370 @@ void handleButton() {
 }
 
 // 函式：處理藍牙輸入和命令解析
+// 命令可帶 "#<序號>:" 前綴，回覆也會帶相同前綴；重送的序號直接回覆快取結果，不會重複執行
 void handleBluetooth() {
-  if (Serial1.available() > 0) {
-    String command = Serial1.readStringUntil('\n');
-    command.trim();
-    if (command.startsWith("SET_TEMP:")) {
-      String valueStr = command.substring(9);
-      float newTemp = valueStr.toFloat();
-      if (newTemp >= 0 && newTemp <= 300) {
-        set_temperature = newTemp;
-        Serial1.println("OK: Temp set to " + String(newTemp));
-      } else {
-        Serial1.println("ERROR: Invalid temp");
-      }
-    } else if (command.startsWith("SET_SPEED:")) {
-      String valueStr = command.substring(10);
-      int newSpeed = valueStr.toInt();
-      if (newSpeed >= 0 && newSpeed <= 1000) {
-        max_speed = newSpeed; // 更新 max_speed
-        Serial1.println("OK: Speed set to " + String(newSpeed));
-      } else {
-        Serial1.println("ERROR: Invalid speed");
-      }
-    } else if (command == "START") {
-      activate_stepper = true;
-      Serial1.println("OK: Motor started");
-    } else if (command == "STOP") {
-      activate_stepper = false;
-      Serial1.println("OK: Motor stopped");
-    } else if (command == "GET_STATUS") {
-      String status = "TEMP:" + String(set_temperature) + ",SPEED:" + String(rotating_speed) + ",STATUS:" + (activate_stepper ? "ON" : "OFF") + ",CONNECTED:yes";
-      Serial1.println(status); // 發送機器狀態
-    } else if (command == "SAVE") {
-      EEPROM.put(0, set_temperature); // 保存溫度
-      EEPROM.put(4, max_speed); // 保存速度
-      Serial1.println("OK: Settings saved");
-    } else {
+  uint8_t status = pollCommand();
+  if (status == CMD_NONE) return;
+  if (status == CMD_TOO_LONG) {
+    Serial1.println("ERROR: Command too long");
+    return;
+  }
+  char *command = cmdBuf;
+  long seq = -1; // 無前綴的命令不去重
+  if (command[0] == '#') {
+    char *colon = strchr(command, ':');
+    if (colon == NULL) {
       Serial1.println("ERROR: Unknown command");
+      return;
+    }
+    seq = atol(command + 1);
+    command = colon + 1;
+  }
+  uint16_t hash = crc16((const uint8_t *)command, strlen(command));
+  const char *reply;
+  int cached = findCachedReply(seq, hash);
+  if (cached >= 0) {
+    reply = replyCache[cached].reply; // 重複命令：不再執行
+  } else {
+    executeCommand(command);
+    reply = replyBuf;
+    if (seq >= 0 && replyLen > 0 && strncmp(command, "GET_", 4) != 0) cacheReply(seq, hash, replyBuf); // 查詢不佔快取
+  }
+  if (reply[0] == '\0') return; // SYNC_FROM 的回覆由 serviceSync 送出
+  if (seq >= 0) {
+    Serial1.print("#");
+    Serial1.print(seq);
+    Serial1.print(":");
+  }
+  Serial1.println(reply);
+}
+
+// 函式：線徑串流。馬達停止時感測器下沒有移動的線材，不送出也不累積
+// 發送緩衝區空間不足時略過本次（讀值繼續累積到下次），不阻塞步進與 PID
+void serviceDiameter() {
+  if (diaRateHz == 0 || rotating_speed == 0) {
+    diaCount = 0;
+    diaSum = 0;
+    return;
+  }
+  unsigned long now = micros();
+  if (now - diaLastRead >= DIA_READ_US && diaCount < 1000) {
+    diaLastRead = now;
+    diaSum += analogRead(DIA_PIN);
+    diaCount++;
+  }
+  if (millis() - diaLastSend < 1000UL / diaRateHz || diaCount == 0) return;
+  if (Serial1.availableForWrite() < 12) return;
+  diaLastSend = millis();
+  float mm = DIA_OFFSET_MM + DIA_MM_PER_COUNT * diaSum / diaCount;
+  diaSum = 0;
+  diaCount = 0;
+  Serial1.print("DIA:");
+  Serial1.println(mm, 3);
+}
+
+// 函式：非阻塞讀取命令（App 端 CommandReader 為相同邏輯，供主機測試）
+// 只處理 Serial1 已收到的位元組，完成一條命令即返回，其餘位元組留待下次 loop
+uint8_t pollCommand() {
+  while (Serial1.available() > 0) {
+    char c = (char)Serial1.read();
+    cmdLastByte = millis();
+    if (c == '\n' || c == '\r') {
+      cmdTerminated = true;
+      uint8_t status = finishCommand();
+      if (status != CMD_NONE) return status;
+    } else if (cmdLen < CMD_MAX) {
+      cmdBuf[cmdLen++] = c;
+    } else {
+      cmdOverflow = true;
+    }
+  }
+  if (cmdTerminated || (cmdLen > 0 && cmdBuf[0] == '#')) return CMD_NONE; // 新版 App 的幀（帶序號或換行）只以換行結束
+  if ((cmdLen > 0 || cmdOverflow) && millis() - cmdLastByte >= CMD_IDLE_MS) return finishCommand();
+  return CMD_NONE;
+}
+
+// 函式：結束目前這一行：去除前後空白並重設接收狀態；空行傳回 CMD_NONE
+uint8_t finishCommand() {
+  bool dropped = cmdOverflow;
+  uint8_t start = 0;
+  uint8_t end = cmdLen;
+  cmdLen = 0;
+  cmdOverflow = false;
+  if (dropped) return CMD_TOO_LONG;
+  while (start < end && isspace(cmdBuf[start])) start++;
+  while (end > start && isspace(cmdBuf[end - 1])) end--;
+  if (start == end) return CMD_NONE;
+  memmove(cmdBuf, cmdBuf + start, end - start);
+  cmdBuf[end - start] = '\0';
+  return CMD_READY;
+}
+
+// 函式：執行一條命令，回覆（不含前綴）寫入 replyBuf；直接在 cmdBuf 上比對與解析，不複製命令
+void executeCommand(const char *command) {
+  replyClear();
+  if (strncmp(command, "SET_TEMP", 8) == 0) {
+    // SET_TEMP:<°C> 為第 0 區，SET_TEMP<區>:<°C> 為其他區；回覆 "OK: Temp<區> set to" 讓 App 得知是哪一區
+    const char *colon = strchr(command, ':');
+    int z = colon == NULL ? -1 : parseZone(command + 8, colon);
+    if (z < 0) {
+      replyText("ERROR: Unknown command");
+      return;
+    }
+    float newTemp = atof(colon + 1);
+    if (newTemp >= 0 && newTemp <= 300) {
+      zones[z].set_temperature = newTemp;
+      replyText("OK: Temp");
+      replyZoneSuffix(z);
+      replyText(" set to ");
+      replyFloat(newTemp, 2);
+      return;
+    }
+    replyText("ERROR: Invalid temp");
+  } else if (strncmp(command, "SET_SPEED:", 10) == 0) {
+    long newSpeed = atol(command + 10);
+    if (newSpeed >= 0 && newSpeed <= 1000) {
+      max_speed = newSpeed; // 更新 max_speed
+      replyText("OK: Speed set to ");
+      replyLong(newSpeed);
+      return;
+    }
+    replyText("ERROR: Invalid speed");
+  } else if (strcmp(command, "START") == 0) {
+    activate_stepper = true;
+    replyText("OK: Motor started");
+  } else if (strcmp(command, "STOP") == 0) {
+    activate_stepper = false;
+    replyText("OK: Motor stopped");
+  } else if (strcmp(command, "GET_STATUS") == 0) {
+    replyZoneTemperatures(); // 機器狀態
+    replyText(",SPEED:");
+    replyLong(rotating_speed);
+    replyText(activate_stepper ? ",STATUS:ON" : ",STATUS:OFF");
+    replyText(",CONNECTED:yes");
+  } else if (strcmp(command, "SAVE") == 0) {
+    for (uint8_t z = 0; z < ZONES; z++) EEPROM.put(zoneEepromAddress(z), zones[z].set_temperature); // 保存各區溫度
+    EEPROM.put(4, max_speed); // 保存速度
+    replyText("OK: Settings saved");
+  } else if (strcmp(command, "GET_CFG_VER") == 0) {
+    uint16_t version = replyConfigText(); // App 比對快取用的設定版本：先組出標準文字計算 CRC，再改寫為回覆
+    replyClear();
+    replyText("CFG_VER:");
+    replyHex(version);
+  } else if (strcmp(command, "GET_CONFIG") == 0) {
+    replyText("CONFIG:");
+    uint16_t version = replyConfigText();
+    replyText(",VER:");
+    replyHex(version);
+  } else if (strcmp(command, "GET_PERF") == 0) {
+    replyPerf(); // 迴圈效能統計，回報後歸零
+  } else if (strcmp(command, "GET_ADC") == 0) {
+    long sum = 0;
+    for (int i = 0; i < 16; i++) sum += analogRead(ZONE_THERMISTOR[0]); // 各區熱敏電阻同型號，以第 0 區校正
+    replyText("ADC:");
+    replyFloat(sum / 16.0, 2); // 16 次平均的原始 ADC 值，供 App 記錄校正點
+  } else if (strncmp(command, "DIA_RATE:", 9) == 0) {
+    long rate = atol(command + 9);
+    if (rate >= 0 && rate <= DIA_RATE_MAX) {
+      diaRateHz = rate;
+      diaSum = 0;
+      diaCount = 0;
+      diaLastSend = millis();
+      replyText("OK: Diameter rate ");
+      replyLong(rate);
+      return;
+    }
+    replyText("ERROR: Invalid rate");
+  } else if (strncmp(command, "CAL_", 4) == 0) {
+    calibrate(command); // 校正表上傳
+  } else if (strncmp(command, "SYNC_FROM:", 10) == 0) {
+    startSync(command + 10); // 開始補傳遙測樣本，不回覆
+  } else {
+    replyText("ERROR: Unknown command");
+  }
+}
+
+// 函式：處理校正表上傳命令（CAL_BEGIN、CAL_DATA、CAL_END、CAL_CLEAR），回覆寫入 replyBuf
+// 每個 CAL_DATA 幀寫入 EEPROM 會阻塞迴圈數十毫秒，因此上傳前須停止馬達
+void calibrate(const char *command) {
+  if (strcmp(command, "CAL_BEGIN") == 0) {
+    if (activate_stepper) {
+      replyText("ERROR: Stop motor before calibration");
+      return;
     }
+    CalHeader header = {0, 0};
+    EEPROM.put(CAL_EEPROM_HEADER, header); // 先作廢 EEPROM 中的表，上傳中斷時重開機改用 Beta 公式；使用中的表保留到 CAL_END
+    calReceiving = true;
+    replyText("OK: Calibration started");
+    return;
+  }
+  if (strcmp(command, "CAL_CLEAR") == 0) {
+    CalHeader header = {0, 0};
+    EEPROM.put(CAL_EEPROM_HEADER, header);
+    calActive = false;
+    calReceiving = false;
+    replyText("OK: Calibration cleared");
+    return;
+  }
+  bool data = strncmp(command, "CAL_DATA:", 9) == 0;
+  if (!data && strncmp(command, "CAL_END:", 8) != 0) {
+    replyText("ERROR: Unknown command");
+    return;
+  }
+  if (!calReceiving) {
+    replyText("ERROR: No calibration upload");
+    return;
+  }
+  if (!data) {
+    uint16_t crc = (uint16_t)strtol(command + 8, NULL, 16);
+    if (crc != calibrationCrc()) {
+      replyText("ERROR: Calibration checksum mismatch");
+      return;
+    }
+    CalHeader header = {CAL_MAGIC, crc};
+    EEPROM.put(CAL_EEPROM_HEADER, header); // 標頭最後寫入，表格完整才會生效
+    calReceiving = false;
+    loadCalibration();
+    replyText("OK: Calibration saved");
+    return;
+  }
+  const char *comma = strchr(command, ',');
+  if (comma == NULL) {
+    replyText("ERROR: Invalid calibration data");
+    return;
+  }
+  long offset = atol(command + 9);
+  uint8_t chunk[CAL_CHUNK_MAX];
+  int length = base64Decode(comma + 1, strlen(comma + 1), chunk, CAL_CHUNK_MAX);
+  if (offset < 0 || length < 0 || offset + length > CAL_ENTRIES * 2) {
+    replyText("ERROR: Invalid calibration data");
+    return;
+  }
+  for (int i = 0; i < length; i++) EEPROM.update(CAL_EEPROM_DATA + offset + i, chunk[i]); // 只寫入有變化的位元組
+  replyText("OK: Calibration data ");
+  replyLong(offset);
+}
+
+// 函式：EEPROM 中校正表的 CRC16
+uint16_t calibrationCrc() {
+  uint16_t crc = 0xFFFF;
+  for (int i = 0; i < CAL_ENTRIES * 2; i++) crc = crc16Update(crc, EEPROM.read(CAL_EEPROM_DATA + i));
+  return crc;
+}
+
+// 函式：從 EEPROM 載入校正表；標頭或 CRC 不符時停用，改用 Beta 公式
+void loadCalibration() {
+  CalHeader header;
+  EEPROM.get(CAL_EEPROM_HEADER, header);
+  calActive = header.magic == CAL_MAGIC && header.crc == calibrationCrc();
+  if (calActive) EEPROM.get(CAL_EEPROM_DATA, calTable);
+}
+
+// 函式：清空回覆
+void replyClear() {
+  replyLen = 0;
+  replyBuf[0] = '\0';
+}
+
+// 函式：附加文字到回覆，超出 REPLY_MAX 的部分捨棄
+void replyText(const char *text) {
+  while (*text != '\0' && replyLen < REPLY_MAX) replyBuf[replyLen++] = *text++;
+  replyBuf[replyLen] = '\0';
+}
+
+// 函式：附加十進位整數到回覆
+void replyLong(long value) {
+  char text[12];
+  snprintf(text, sizeof(text), "%ld", value);
+  replyText(text);
+}
+
+// 函式：附加十進位無號整數到回覆
+void replyUnsigned(unsigned long value) {
+  char text[11];
+  snprintf(text, sizeof(text), "%lu", value);
+  replyText(text);
+}
+
+// 函式：附加大寫十六進位數到回覆
+void replyHex(uint16_t value) {
+  char text[5];
+  snprintf(text, sizeof(text), "%X", value);
+  replyText(text);
+}
+
+// 函式：附加小數到回覆，格式與 String(value, decimals) 相同（App 以相同文字計算設定版本）
+void replyFloat(double value, uint8_t decimals) {
+  char text[24];
+  dtostrf(value, decimals + 2, decimals, text);
+  replyText(text);
+}
+
+// 函式：附加各區設定點，格式 "TEMP:<第 0 區>,TEMP1:<第 1 區>,..."
+void replyZoneTemperatures() {
+  for (uint8_t z = 0; z < ZONES; z++) {
+    replyText(z > 0 ? ",TEMP" : "TEMP");
+    replyZoneSuffix(z);
+    replyText(":");
+    replyFloat(zones[z].set_temperature, 2);
+  }
+}
+
+// 函式：解析 SET_TEMP 與冒號之間的區編號；須全為數字且為現有的區，否則傳回 -1（負數或雜字元不可當作陣列索引）
+int parseZone(const char *digits, const char *colon) {
+  if (digits == colon) return 0; // SET_TEMP:，第 0 區
+  int z = 0;
+  for (const char *p = digits; p < colon; p++) {
+    if (*p < '0' || *p > '9') return -1;
+    z = z * 10 + (*p - '0');
+    if (z >= ZONES) return -1;
+  }
+  return z == 0 ? -1 : z; // 第 0 區不加編號
+}
+
+// 函式：附加區編號在命令與欄位名稱中的寫法，第 0 區不加編號以相容舊版 App
+void replyZoneSuffix(uint8_t z) {
+  if (z > 0) replyLong(z);
+}
+
+// 函式：各區設定點的 EEPROM 地址
+int zoneEepromAddress(uint8_t z) {
+  return z == 0 ? 0 : ZONE_EEPROM_BASE + 4 * (z - 1);
+}
+
+// 函式：附加設定的標準文字（App 以相同格式計算版本），傳回這段文字的 CRC16，即設定版本；任一設定改變版本即不同
+uint16_t replyConfigText() {
+  uint8_t start = replyLen;
+  replyZoneTemperatures();
+  replyText(",SPEED:");
+  replyLong(max_speed);
+  replyText(",KP:");
+  replyLong(kp);
+  replyText(",KI:");
+  replyLong(ki);
+  replyText(",KD:");
+  replyLong(kd);
+  replyText(",FW:");
+  replyText(FIRMWARE_VERSION);
+  return crc16((const uint8_t *)replyBuf + start, replyLen - start);
+}
+
+// 函式：查找相同序號且內容相同的已執行命令，找不到傳回 -1
+int findCachedReply(long seq, uint16_t hash) {
+  if (seq < 0) return -1;
+  for (int i = 0; i < REPLY_CACHE_SIZE; i++) {
+    if (replyCache[i].seq == seq && replyCache[i].hash == hash) return i;
   }
+  return -1;
+}
+
+// 函式：記錄已執行命令的回覆，覆蓋最舊的一筆
+void cacheReply(long seq, uint16_t hash, const char *reply) {
+  replyCache[replyCacheNext].seq = seq;
+  replyCache[replyCacheNext].hash = hash;
+  strncpy(replyCache[replyCacheNext].reply, reply, REPLY_CACHE_MAX);
+  replyCache[replyCacheNext].reply[REPLY_CACHE_MAX] = '\0';
+  replyCacheNext = (replyCacheNext + 1) % REPLY_CACHE_SIZE;
 }
 
 // 函式：更新步進馬達狀態（LED、啟用、速度）
@@ -169,44 +623,255 @@ void updateStepper() {
 
   stepper1.setSpeed(rotating_speed); // 設定馬達速度
   stepper1.runSpeed(); // 產生脈衝（非阻塞，取代原 ISR）
+
+  // 記錄兩次 runSpeed() 之間的最長間隔，即步進脈衝最多被延遲多久
+  if (activate_stepper) {
+    unsigned long now = micros();
+    if (perfLastStepUs != 0 && now - perfLastStepUs > perfStepGapMaxUs) perfStepGapMaxUs = now - perfLastStepUs;
+    perfLastStepUs = now;
+  } else {
+    perfLastStepUs = 0;
+  }
 }
 
-// 函式：更新 PID 計算和 PWM 加熱輸出
+// 函式：更新各區的 PID 計算和 PWM 加熱輸出
 void updatePIDAndHeater() {
-  temperature_read = readTemp(); // 讀取溫度 (手動轉換)
+  for (uint8_t z = 0; z < ZONES; z++) updateZone(zones[z], *ZONE_HEATER[z], ZONE_THERMISTOR[z]);
+}
+
+// 函式：更新一區的 PID 計算和 PWM 加熱輸出
+void updateZone(Zone &zone, PwmOut &heater, int thermistorPin) {
+  zone.temperature_read = readTemp(thermistorPin); // 讀取溫度 (手動轉換)
 
   // 安全檢查：如果超過 300°C，關閉加熱並返回
-  if (temperature_read > 300) {
-    heater_pwm.pulse_perc(0.0f);
+  if (zone.temperature_read > 300) {
+    heater.pulse_perc(0.0f);
+    zone.appliedPwm = 0;
     return;
   }
 
-  PID_error = set_temperature - temperature_read + 6; // 計算誤差（加 6 為校準偏移）
+  float PID_error = zone.set_temperature - zone.temperature_read + (calActive ? 0 : 6); // 計算誤差（Beta 公式加 6 為校準偏移，校正表不需要）
 
   float dt = updateInterval / 1000.0; // 時間差（秒），基於更新間隔
 
-  PID_p = kp * PID_error; // 比例項
-  PID_i += ki * PID_error * dt; // 積分項（累加，乘以 dt）
-  PID_i = constrain(PID_i, -max_PWM, max_PWM); // 積分防飽和夾持
-  PID_d = kd * (PID_error - previous_error) / dt; // 微分項
+  float PID_p = kp * PID_error; // 比例項
+  zone.PID_i += ki * PID_error * dt; // 積分項（累加，乘以 dt）
+  zone.PID_i = constrain(zone.PID_i, -max_PWM, max_PWM); // 積分防飽和夾持
+  float PID_d = kd * (PID_error - zone.previous_error) / dt; // 微分項
 
-  PID_value = constrain(PID_p + PID_i + PID_d, 0, max_PWM); // 總 PID 值並夾持
-  heater_pwm.pulse_perc((PID_value / 255.0f) * 100.0f); // 輸出 PWM (百分比)
+  zone.PID_value = constrain(PID_p + zone.PID_i + PID_d, 0, max_PWM); // 總 PID 值並夾持
+  heater.pulse_perc((zone.PID_value / 255.0f) * 100.0f); // 輸出 PWM (百分比)
+  zone.appliedPwm = (uint8_t)zone.PID_value;
 
-  previous_error = PID_error; // 儲存本次誤差供下次使用
+  zone.previous_error = PID_error; // 儲存本次誤差供下次使用
 }
 
-// 函式：更新 LCD 顯示（避免閃爍，直接覆寫）
+// 函式：更新 LCD 顯示（避免閃爍，直接覆寫）；各區以 '/' 分隔，例如 "200/180 S:1000"
 void updateLCD() {
-  lcd.setCursor(0, 0); // 第一行
-  lcd.print("T: "); // 顯示 "T: "
-  lcd.print(temperature_read, 1); // 溫度（1 小數位）
-  lcd.print(" S: "); // 顯示 " S: "
+  lcd.setCursor(0, 0); // 第一行：各區溫度和速度
+  for (uint8_t z = 0; z < ZONES; z++) {
+    if (z > 0) lcd.print("/");
+    lcd.print(zones[z].temperature_read, 0); // 溫度（整數，多區時 1 小數位放不下）
+  }
+  lcd.print(" S:"); // 顯示 " S:"
   lcd.print(rotating_speed); // 速度
   lcd.print(" "); // 清除殘留字元
 
-  lcd.setCursor(0, 1); // 第二行
-  lcd.print("PID: "); // 顯示 "PID: "
-  lcd.print(PID_value); // PID 值
+  lcd.setCursor(0, 1); // 第二行：各區 PID 值
+  lcd.print("PID:"); // 顯示 "PID:"
+  for (uint8_t z = 0; z < ZONES; z++) {
+    lcd.print(z > 0 ? "/" : " ");
+    lcd.print(zones[z].PID_value, 0); // PID 值
+  }
   lcd.print(" "); // 清除殘留字元
-}
\ No newline at end of file
+}
+
+// 函式：每 SAMPLE_EVERY 次 PID 更新記錄一筆樣本到環形緩衝區，duty 為期間內實際輸出的平均值
+void recordSample() {
+  for (uint8_t z = 0; z < ZONES; z++) zones[z].dutySum += zones[z].appliedPwm;
+  if (++sampleDivider < SAMPLE_EVERY) return;
+  sampleDivider = 0;
+  Sample &sample = ring[nextSeq % RING_SIZE];
+  sample.tick = millis();
+  sample.speed = rotating_speed;
+  for (uint8_t z = 0; z < ZONES; z++) {
+    sample.zone[z].temp10 = (int16_t)lroundf(zones[z].temperature_read * 10.0f);
+    sample.zone[z].duty = (zones[z].dutySum + SAMPLE_EVERY / 2) / SAMPLE_EVERY; // 四捨五入
+    zones[z].dutySum = 0;
+  }
+  nextSeq++;
+}
+
+// 函式：處理 SYNC_FROM:<seq>[,<boot>]，回覆 SYNC_BEGIN:<boot>,<first>,<count>,<zones>，之後由 serviceSync 分幀送出
+// 舊版韌體的回覆沒有 <zones>，樣本為單區的舊格式（時間、溫度、速度、duty）
+void startSync(const char *args) {
+  uint32_t from = strtoul(args, NULL, 10);
+  const char *comma = strchr(args, ',');
+  if (comma != NULL && (uint16_t)atol(comma + 1) != bootId) {
+    from = 0; // App 記錄的是上一次開機的序號：從最舊樣本開始
+  }
+  uint32_t oldest = nextSeq > RING_SIZE ? nextSeq - RING_SIZE : 0;
+  if (from < oldest || from > nextSeq) from = oldest; // 已被覆寫或超出範圍
+  syncSeq = from;
+  syncEnd = nextSeq;
+  syncActive = true;
+  Serial1.print("SYNC_BEGIN:");
+  Serial1.print(bootId);
+  Serial1.print(",");
+  Serial1.print(from);
+  Serial1.print(",");
+  Serial1.print(syncEnd - from);
+  Serial1.print(",");
+  Serial1.println(ZONES);
+}
+
+// 函式：送出一個 SYNC_DATA:<seq>,<n>,<base64>*<crc16> 幀，全部送完後回覆 SYNC_END:<next>
+void serviceSync() {
+  if (!syncActive || Serial1.availableForWrite() < SYNC_FRAME_MAX) return;
+
+  uint32_t oldest = nextSeq > RING_SIZE ? nextSeq - RING_SIZE : 0;
+  if (syncSeq < oldest) syncSeq = oldest; // 傳送期間被覆寫的樣本已遺失，App 由序號跳躍得知
+  if (syncSeq >= syncEnd) {
+    Serial1.print("SYNC_END:");
+    Serial1.println(syncEnd);
+    syncActive = false;
+    return;
+  }
+
+  uint8_t n = (syncEnd - syncSeq < SYNC_CHUNK) ? (uint8_t)(syncEnd - syncSeq) : SYNC_CHUNK;
+  uint8_t raw[SYNC_CHUNK * sizeof(Sample)];
+  for (uint8_t i = 0; i < n; i++) {
+    memcpy(raw + i * sizeof(Sample), &ring[(syncSeq + i) % RING_SIZE], sizeof(Sample));
+  }
+  char encoded[(SYNC_CHUNK * sizeof(Sample) + 2) / 3 * 4 + 1];
+  base64Encode(raw, n * sizeof(Sample), encoded);
+
+  Serial1.print("SYNC_DATA:");
+  Serial1.print(syncSeq);
+  Serial1.print(",");
+  Serial1.print(n);
+  Serial1.print(",");
+  Serial1.print(encoded);
+  Serial1.print("*");
+  Serial1.println(crc16(raw, n * sizeof(Sample)), HEX);
+  syncSeq += n;
+}
+
+// 函式：累計一次計時
+void perfAdd(PerfStat &stat, uint32_t us) {
+  stat.count++;
+  stat.sumUs += us;
+  if (us > stat.maxUs) stat.maxUs = us;
+}
+
+// 函式：累計一次 loop 的時間並放入直方圖
+void perfLoopDone(uint32_t us) {
+  perfAdd(perfLoop, us);
+  uint8_t bin = 0;
+  while (bin < PERF_BINS - 1 && us >= PERF_BOUNDS_US[bin]) bin++;
+  perfHist[bin]++;
+}
+
+// 函式：附加平均/最長，格式 "<mean>/<max>"
+void replyPerfPair(const PerfStat &stat) {
+  uint32_t mean = stat.count > 0 ? (uint32_t)(stat.sumUs / stat.count) : 0;
+  replyUnsigned(mean);
+  replyText("/");
+  replyUnsigned(stat.maxUs);
+}
+
+// 函式：GET_PERF 回覆 PERF:MS:..,LOOPS:..,AVG:..,MAX:..,GAP:..,HIST:a/b/..,PID:..,LCD:..,BT:..,FW:..，並重新開始統計
+void replyPerf() {
+  uint32_t mean = perfLoop.count > 0 ? (uint32_t)(perfLoop.sumUs / perfLoop.count) : 0;
+  replyText("PERF:MS:");
+  replyUnsigned(millis() - perfWindowStart);
+  replyText(",LOOPS:");
+  replyUnsigned(perfLoop.count);
+  replyText(",AVG:");
+  replyUnsigned(mean);
+  replyText(",MAX:");
+  replyUnsigned(perfLoop.maxUs);
+  replyText(",GAP:");
+  replyUnsigned(perfStepGapMaxUs);
+  replyText(",HIST:");
+  for (uint8_t i = 0; i < PERF_BINS; i++) {
+    if (i > 0) replyText("/");
+    replyUnsigned(perfHist[i]);
+  }
+  replyText(",PID:");
+  replyPerfPair(perfPid);
+  replyText(",LCD:");
+  replyPerfPair(perfLcd);
+  replyText(",BT:");
+  replyPerfPair(perfBt);
+  replyText(",FW:");
+  replyText(FIRMWARE_VERSION);
+
+  memset(&perfLoop, 0, sizeof(perfLoop));
+  memset(&perfPid, 0, sizeof(perfPid));
+  memset(&perfLcd, 0, sizeof(perfLcd));
+  memset(&perfBt, 0, sizeof(perfBt));
+  memset(perfHist, 0, sizeof(perfHist));
+  perfStepGapMaxUs = 0;
+  perfWindowStart = millis();
+}
+
+// 函式：CRC-16/CCITT-FALSE (多項式 0x1021，初始值 0xFFFF)
+uint16_t crc16(const uint8_t *data, int length) {
+  uint16_t crc = 0xFFFF;
+  for (int i = 0; i < length; i++) crc = crc16Update(crc, data[i]);
+  return crc;
+}
+
+// 函式：CRC16 加入一個位元組
+uint16_t crc16Update(uint16_t crc, uint8_t data) {
+  crc ^= (uint16_t)data << 8;
+  for (uint8_t bit = 0; bit < 8; bit++) {
+    crc = (crc & 0x8000) ? (crc << 1) ^ 0x1021 : crc << 1;
+  }
+  return crc;
+}
+
+// 函式：Base64 編碼（含 '=' 補齊），輸出以 '\0' 結尾
+void base64Encode(const uint8_t *data, int length, char *out) {
+  static const char table[] = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+  int o = 0;
+  for (int i = 0; i < length; i += 3) {
+    uint32_t b = (uint32_t)data[i] << 16;
+    if (i + 1 < length) b |= (uint32_t)data[i + 1] << 8;
+    if (i + 2 < length) b |= data[i + 2];
+    out[o++] = table[(b >> 18) & 0x3F];
+    out[o++] = table[(b >> 12) & 0x3F];
+    out[o++] = i + 1 < length ? table[(b >> 6) & 0x3F] : '=';
+    out[o++] = i + 2 < length ? table[b & 0x3F] : '=';
+  }
+  out[o] = '\0';
+}
+
+// 函式：Base64 解碼（需含 '=' 補齊），傳回位元組數；格式錯誤或超過 max 時傳回 -1
+int base64Decode(const char *in, int length, uint8_t *out, int max) {
+  if (length % 4 != 0) return -1;
+  int o = 0;
+  for (int i = 0; i < length; i += 4) {
+    uint32_t b = 0;
+    int pad = 0;
+    for (int j = 0; j < 4; j++) {
+      char c = in[i + j];
+      int v;
+      if (c >= 'A' && c <= 'Z') v = c - 'A';
+      else if (c >= 'a' && c <= 'z') v = c - 'a' + 26;
+      else if (c >= '0' && c <= '9') v = c - '0' + 52;
+      else if (c == '+') v = 62;
+      else if (c == '/') v = 63;
+      else if (c == '=' && i + 4 == length && j >= 2) { v = 0; pad++; }
+      else return -1;
+      if (pad > 0 && c != '=') return -1;
+      b = (b << 6) | v;
+    }
+    for (int j = 0; j < 3 - pad; j++) {
+      if (o >= max) return -1;
+      out[o++] = (b >> (16 - 8 * j)) & 0xFF;
+    }
+  }
+  return o;
+}
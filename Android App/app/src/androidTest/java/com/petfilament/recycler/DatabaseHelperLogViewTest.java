@@ -0,0 +1,85 @@
+package com.petfilament.recycler;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.petfilament.recycler.core.LogStore;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for the log view over the compressed log tables.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperLogViewTest {
+
+    /**
+     * Rows inserted, two compression blocks, so some of them are compressed whatever was pending before.
+     */
+    private static final int ROWS = 512;
+
+    /**
+     * Returns the single integer a query yields.
+     * @param db Database.
+     * @param sql Query.
+     * @param args Arguments.
+     * @return Value.
+     */
+    private static long queryLong(SQLiteDatabase db, String sql, String... args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void viewNeverShowsACompressedRowWithoutItsMessage() throws InterruptedException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        DatabaseHelper helper = DatabaseHelper.getInstance(context);
+        // Distinct messages stay out of the dictionary and are compressed in blocks
+        String prefix = "view-test " + System.nanoTime() + " ";
+        long first = -1;
+        for (int i = 0; i < ROWS; i++) {
+            long id = helper.insertLog("IN", prefix + i);
+            if (first < 0) first = id;
+        }
+        String[] range = {String.valueOf(first), String.valueOf(first + ROWS - 1)};
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(context.getDatabasePath("bluetooth_logs.db").getPath(),
+                null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            long deadline = SystemClock.uptimeMillis() + 10_000;
+            long compressed;
+            while ((compressed = queryLong(db, "SELECT COUNT(*) FROM log_records WHERE _id BETWEEN ? AND ?"
+                    + " AND block_id IS NOT NULL", range)) == 0) {
+                assertTrue("no block was compressed", SystemClock.uptimeMillis() < deadline);
+                Thread.sleep(50);
+            }
+
+            assertEquals(0, queryLong(db, "SELECT COUNT(*) FROM bluetooth_logs WHERE message IS NULL"));
+            assertEquals(ROWS - compressed, queryLong(db, "SELECT COUNT(*) FROM bluetooth_logs"
+                    + " WHERE _id BETWEEN ? AND ?", range));
+        } finally {
+            db.close();
+        }
+
+        // The helper decodes the compressed rows the view leaves out
+        LogStore store = new LogStore(new LogStore.Dictionary());
+        helper.loadLogsAfter(first - 1, store);
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(first + i, store.getId(i));
+            assertEquals(prefix + i, store.getMessage(i));
+        }
+    }
+}
@@ -14,16 +14,59 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 import androidx.core.content.ContextCompat;
+import com.petfilament.recycler.core.CalibrationTable;
+import com.petfilament.recycler.core.CaptureJournal;
+import com.petfilament.recycler.core.CaptureRecorder;
+import com.petfilament.recycler.core.DiameterController;
+import com.petfilament.recycler.core.EventLoop;
+import com.petfilament.recycler.core.FrameCodec;
+import com.petfilament.recycler.core.HeaterEstimate;
+import com.petfilament.recycler.core.HeaterIdentifier;
+import com.petfilament.recycler.core.JournalReplayer;
+import com.petfilament.recycler.core.MachineConfig;
+import com.petfilament.recycler.core.PerfReport;
+import com.petfilament.recycler.core.ProtocolParser;
+import com.petfilament.recycler.core.Recipe;
+import com.petfilament.recycler.core.RecipeRunner;
+import com.petfilament.recycler.core.RunStatistics;
+import com.petfilament.recycler.core.RunTracker;
+import com.petfilament.recycler.core.Session;
+import com.petfilament.recycler.core.SessionSnapshot;
+import com.petfilament.recycler.core.TelemetryModel;
+import com.petfilament.recycler.core.TelemetrySample;
+import com.petfilament.recycler.core.ThroughputOptimizer;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * BluetoothManager class manages Bluetooth operations including scanning, connecting, disconnecting, and data transmission/reception.
  * It provides a callback interface for upper-layer applications to receive events related to device discovery, connection status, and data.
+ * Protocol decoding, telemetry and the outbound command queue live in the platform-independent {@link Session},
+ * raw capture and its replay in {@link CaptureRecorder}.
+ * Recipes run on their own scheduler thread, pause while the link is down and resume from {@link RecipeStore}
+ * after a reconnect or restart.
+ * <p>
+ * All mutable state, the session's included, is owned by one event-loop thread. Public methods post a message to
+ * it and return at once; commands that may be refused report so through {@link BluetoothCallback#onStartResult},
+ * and queries read values the loop publishes. Recipes and the diameter loop tick on their own threads but hand
+ * their commands to the loop. The blocking connect, the reader and the writer run on their own threads
+ * and post what happens to the loop, tagged with the link they belong to so late events of a closed link are
+ * dropped; the writer only takes frames the loop queued. Every callback is raised from the loop through the
+ * callback executor, the main thread by default, in the order the loop produced it.
  */
 public class BluetoothManager {
 
@@ -37,6 +80,77 @@ public class BluetoothManager {
      */
     private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
+    /**
+     * Size of each raw capture segment file.
+     */
+    private static final int CAPTURE_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Number of raw capture segments kept on disk.
+     */
+    private static final int CAPTURE_MAX_SEGMENTS = 8;
+
+    /**
+     * Name of the session snapshot file in the app's files directory.
+     */
+    private static final String SNAPSHOT_FILE = "session.snapshot";
+
+    /**
+     * Interval between telemetry backfill requests while connected, in milliseconds.
+     */
+    private static final long SYNC_INTERVAL_MS = 5000;
+
+    /**
+     * Interval between backfill requests while a throughput search runs, one sample period, in milliseconds;
+     * the search backs off within a sample of a sag.
+     */
+    private static final long OPTIMIZER_SYNC_INTERVAL_MS = 500;
+
+    /**
+     * Speed the throughput search starts at when the machine's speed is not known, steps/s.
+     */
+    private static final int OPTIMIZER_START_SPEED = 200;
+
+    /**
+     * Highest speed the firmware accepts, steps/s.
+     */
+    private static final int OPTIMIZER_MAX_SPEED = 1000;
+
+    /**
+     * Largest temperature sag a throughput search allows, °C.
+     */
+    private static final float OPTIMIZER_TOLERANCE_C = 5f;
+
+    /**
+     * Lowest pull speed the diameter loop may set, steps/s.
+     */
+    private static final int DIAMETER_MIN_SPEED = 50;
+
+    /**
+     * Highest pull speed the diameter loop may set, the firmware limit, steps/s.
+     */
+    private static final int DIAMETER_MAX_SPEED = 1000;
+
+    /**
+     * Shortest interval between diameter updates handed to the UI, in milliseconds.
+     */
+    private static final long DIAMETER_UI_INTERVAL_MS = 250;
+
+    /**
+     * Interval of the firmware loop-timing report in milliseconds; each report covers the time since the previous one.
+     */
+    private static final long PERF_INTERVAL_MS = 10000;
+
+    /**
+     * Interval at which queued calibration chunks are handed to the session, in milliseconds.
+     */
+    private static final long CALIBRATION_PACE_MS = 100;
+
+    /**
+     * Tolerance for the in-tolerance time of a run, °C; wide enough for the firmware's +6 °C regulation offset.
+     */
+    private static final float RUN_TOLERANCE_C = 10f;
+
     /**
      * Context for permission checks and broadcast registrations.
      */
@@ -48,15 +162,30 @@ public class BluetoothManager {
     private final BluetoothAdapter bluetoothAdapter;
 
     /**
-     * Bluetooth socket for connections.
+     * Thread owning every mutable field below that is not marked volatile.
+     */
+    private final EventLoop loop = new EventLoop("bt-loop");
+
+    /**
+     * Thread blocking in the socket connect, so the loop keeps serving while a link opens.
+     */
+    private final ExecutorService connectExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Bluetooth socket of the link being opened or open, null if none.
      */
     private BluetoothSocket bluetoothSocket;
 
     /**
-     * Thread for handling connected data transmission.
+     * Reader and writer threads of the open link, null if none.
      */
     private ConnectedThread connectedThread;
 
+    /**
+     * Number of the current link; I/O events of an earlier link carry an older number and are dropped.
+     */
+    private long linkGeneration;
+
     /**
      * List of discovered devices.
      */
@@ -68,214 +197,1203 @@ public class BluetoothManager {
     private final BluetoothCallback callback;
 
     /**
-     * Handler for main thread operations.
+     * Executor the callbacks are raised on.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Flag indicating if the broadcast receiver is registered.
+     */
+    private boolean isReceiverRegistered = false;
+
+    /**
+     * Database helper for logging, opened by the loop's first task so the constructor does no database work.
+     */
+    private DatabaseHelper databaseHelper;
+
+    /**
+     * Last known config of every device.
+     */
+    private final ConfigCache configCache;
+
+    /**
+     * Recipe text and progress.
+     */
+    private final RecipeStore recipeStore;
+
+    /**
+     * Thread running recipe ticks.
+     */
+    private final ScheduledExecutorService recipeExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Dedicated thread running the diameter loop, at the highest thread priority so its ticks are not delayed
+     * by recipe ticks or database writes.
+     */
+    private final ScheduledExecutorService diameterExecutor = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "diameter-control");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Memory-mapped mirror of the session for restoring the screen after process death, null if the file
+     * cannot be mapped.
+     */
+    private final SessionSnapshot snapshot;
+
+    /**
+     * What the snapshot held when this manager was created.
+     */
+    private final SessionSnapshot.State restoredState;
+
+    /**
+     * Running diameter loop, null if none.
+     */
+    private DiameterController diameterController;
+
+    /**
+     * Time of the last diameter update handed to the UI, System.nanoTime().
+     */
+    private long diameterPostedNanos;
+
+    /**
+     * Current or last recipe, null if none ran yet.
+     */
+    private RecipeRunner recipeRunner;
+
+    /**
+     * Current or last throughput search, null if none ran yet.
+     */
+    private ThroughputOptimizer optimizer;
+
+    /**
+     * Whether a recipe runs or is paused, published by the loop for {@link #isRecipeRunning()}.
+     */
+    private volatile boolean recipeActive;
+
+    /**
+     * Whether a throughput search runs, published by the loop for {@link #isOptimizing()}.
+     */
+    private volatile boolean optimizing;
+
+    /**
+     * Whether the diameter loop runs, published by the loop for {@link #isDiameterControlled()}.
+     */
+    private volatile boolean diameterControlled;
+
+    /**
+     * Whether raw capture runs, published by the loop for {@link #isCapturing()}.
+     */
+    private volatile boolean capturing;
+
+    /**
+     * Speed the last throughput search found on the current device, published by the loop for
+     * {@link #getRecommendedSpeed()}.
+     */
+    private volatile int recommendedSpeed;
+
+    /**
+     * Per-device speeds found by the throughput search.
+     */
+    private final RecommendedSpeedStore recommendedSpeedStore;
+
+    /**
+     * Run detection and statistics over the backfilled samples.
+     */
+    private final RunTracker runTracker = new RunTracker(RUN_TOLERANCE_C);
+
+    /**
+     * Online heater identification over the backfilled samples of {@link #heaterTarget}, one per heater zone.
+     */
+    private final HeaterIdentifier[] heaterIdentifiers = new HeaterIdentifier[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Device {@link #heaterIdentifiers} belong to.
+     */
+    private String heaterTarget;
+
+    /**
+     * Per-device heater baselines.
+     */
+    private final HeaterBaselineStore heaterBaselineStore;
+
+    /**
+     * Latest measured temperature of zone 0 from the backfilled samples, NaN while unknown; recipes drive zone 0.
+     * Published by the loop for the recipe thread.
+     */
+    private volatile float measuredTemperature = Float.NaN;
+
+    /**
+     * Latest telemetry snapshot, null while unknown.
+     */
+    private TelemetryModel latestTelemetry;
+
+    /**
+     * Raw byte capture; touched on the loop only.
+     */
+    private final CaptureRecorder captureRecorder;
+
+    /**
+     * Protocol session for the current connection.
+     */
+    private final Session session = new Session(new SessionListener());
+
+    /**
+     * Hands the commands of recipes, throughput searches and the diameter loop to the session on the loop,
+     * whichever thread they tick on.
+     */
+    private final RecipeRunner.CommandSink commandSink = session.sinkOn(loop);
+
+    /**
+     * Next telemetry backfill, null if none is scheduled.
+     */
+    private ScheduledFuture<?> syncTask;
+
+    /**
+     * Next retransmission check, null if none is scheduled.
+     */
+    private ScheduledFuture<?> retransmitTask;
+
+    /**
+     * Next loop-timing report request, null if none is scheduled.
+     */
+    private ScheduledFuture<?> perfTask;
+
+    /**
+     * Next calibration chunk hand-over, null if none is scheduled.
+     */
+    private ScheduledFuture<?> calibrationTask;
+
+    /**
+     * Periodic telemetry backfill; a request still being answered is not repeated.
+     */
+    private final Runnable syncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            syncTask = null;
+            if (session.getState() != Session.State.CONNECTED) return;
+            session.requestSync();
+            syncTask = loop.schedule(this, optimizing ? OPTIMIZER_SYNC_INTERVAL_MS : SYNC_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * Periodic retransmission of timed-out commands, kept on the loop so the writer only takes frames.
+     */
+    private final Runnable retransmitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            retransmitTask = null;
+            if (session.getState() != Session.State.CONNECTED) return;
+            session.retransmit();
+            retransmitTask = loop.schedule(this, Session.RETRANSMIT_CHECK_MS);
+        }
+    };
+
+    /**
+     * Periodic firmware loop-timing report.
+     */
+    private final Runnable perfRunnable = new Runnable() {
+        @Override
+        public void run() {
+            perfTask = null;
+            if (session.getState() != Session.State.CONNECTED) return;
+            session.send(PerfReport.CMD_GET_PERF);
+            perfTask = loop.schedule(this, PERF_INTERVAL_MS);
+        }
+    };
+
+    /**
+     * Calibration upload commands not yet queued.
+     */
+    private final ArrayDeque<String> pendingCalibration = new ArrayDeque<>();
+
+    /**
+     * Number of commands of the current calibration upload.
+     */
+    private int calibrationTotal;
+
+    /**
+     * Feeds the calibration upload to the session as its queue drains. CAL_END waits until every chunk is
+     * acknowledged, since a retransmitted chunk arriving after it would fail the checksum.
+     */
+    private final Runnable calibrationRunnable = new Runnable() {
+        @Override
+        public void run() {
+            calibrationTask = null;
+            if (session.getState() != Session.State.CONNECTED) {
+                pendingCalibration.clear();
+                return;
+            }
+            while (!pendingCalibration.isEmpty()) {
+                String command = pendingCalibration.peek();
+                if (command.startsWith(CalibrationTable.CMD_END) && !session.isIdle()) break;
+                if (!session.send(command)) break;
+                pendingCalibration.poll();
+            }
+            int queued = calibrationTotal - pendingCalibration.size();
+            int total = calibrationTotal;
+            deliver(() -> callback.onCalibrationProgress(queued, total));
+            if (!pendingCalibration.isEmpty()) calibrationTask = loop.schedule(this, CALIBRATION_PACE_MS);
+        }
+    };
+
+    /**
+     * Operations whose start the manager may refuse, reported through {@link BluetoothCallback#onStartResult}.
+     */
+    public enum Operation {
+        /**
+         * {@link #startRecipe(Recipe)}.
+         */
+        RECIPE,
+
+        /**
+         * {@link #startOptimizer()}.
+         */
+        OPTIMIZER,
+
+        /**
+         * {@link #startDiameterControl(double)}.
+         */
+        DIAMETER_CONTROL,
+
+        /**
+         * {@link #uploadCalibration(CalibrationTable)}.
+         */
+        CALIBRATION_UPLOAD,
+
+        /**
+         * {@link #startCapture()}.
+         */
+        CAPTURE
+    }
+
+    /**
+     * Interface for Bluetooth event callbacks.
+     */
+    public interface BluetoothCallback {
+        /**
+         * Called once the loop handled a start request, after the status queries reflect it.
+         * @param operation Operation requested.
+         * @param started true if it started, false if it was refused.
+         */
+        void onStartResult(Operation operation, boolean started);
+
+        /**
+         * Called when new devices are found or paired device list is updated.
+         * @param devices List of device names and MAC addresses.
+         */
+        void onDeviceFound(ArrayList<String> devices);
+
+        /**
+         * Called when Bluetooth connection is successful.
+         */
+        void onConnected();
+
+        /**
+         * Called when connection fails or disconnects.
+         * @param error Error message.
+         */
+        void onConnectionFailed(String error);
+
+        /**
+         * Called for every line received.
+         * @param data Received line.
+         */
+        void onDataReceived(String data);
+
+        /**
+         * Called when a received line updated the machine telemetry.
+         * @param telemetry Snapshot of the telemetry.
+         */
+        void onTelemetryUpdated(TelemetryModel telemetry);
+
+        /**
+         * Called when a command got no reply after all retries.
+         * @param command Command text.
+         */
+        void onCommandFailed(String command);
+
+        /**
+         * Called with the cached config when connecting, and again when the device reports a different one
+         * or acknowledges a setpoint.
+         * @param config Machine config.
+         */
+        void onConfigUpdated(MachineConfig config);
+
+        /**
+         * Called when a recipe step begins.
+         * @param index Step index.
+         * @param count Number of steps.
+         * @param step Step in recipe text form.
+         */
+        void onRecipeStep(int index, int count, String step);
+
+        /**
+         * Called when a recipe ends.
+         * @param completed true if all steps ran.
+         * @param reason Reason when not completed, or null if stopped by the user.
+         */
+        void onRecipeFinished(boolean completed, String reason);
+
+        /**
+         * Called with each firmware loop-timing report, after it was stored.
+         * @param report Report.
+         */
+        void onPerfReport(PerfReport report);
+
+        /**
+         * Called with each averaged raw thermistor reading requested by {@link #requestAdc()}.
+         * @param adc ADC value, fractional.
+         */
+        void onAdcReading(double adc);
+
+        /**
+         * Called as calibration upload commands are queued; the board's replies arrive as data.
+         * @param queued Commands queued so far.
+         * @param total Commands in the upload.
+         */
+        void onCalibrationProgress(int queued, int total);
+
+        /**
+         * Called after every batch of backfilled samples with the warm-up estimate and heater drift of each zone.
+         * @param estimates Snapshots, one per heater zone, zone 0 first.
+         */
+        void onHeaterEstimates(HeaterEstimate[] estimates);
+
+        /**
+         * Called with every batch of backfilled samples, e.g. to chart the zone temperatures.
+         * @param samples Samples in sequence order; not modified afterwards.
+         */
+        void onTelemetrySamples(List<TelemetrySample> samples);
+
+        /**
+         * Called when the throughput search tries a new speed.
+         * @param speed Speed in steps/s.
+         */
+        void onOptimizerProgress(int speed);
+
+        /**
+         * Called once when the throughput search ends.
+         * @param completed true if it converged.
+         * @param recommendedSpeed Highest speed that held, 0 if none did.
+         * @param reason Reason when not completed, otherwise null.
+         */
+        void onOptimizerFinished(boolean completed, int recommendedSpeed, String reason);
+
+        /**
+         * Called with the latest diameter reading, at most a few times per second.
+         * @param diameter Diameter in mm.
+         * @param speed Speed the diameter loop asks for, -1 while it is not running.
+         */
+        void onDiameter(double diameter, int speed);
+
+        /**
+         * Called when the diameter loop stops, whether asked to or not.
+         * @param reason Reason, or null if stopped by the user.
+         */
+        void onDiameterControlStopped(String reason);
+    }
+
+    /**
+     * Constructor to initialize the Bluetooth manager; callbacks are raised on the main thread.
+     * @param context Application context, usually an Activity.
+     * @param callback Interface for receiving Bluetooth events.
+     */
+    public BluetoothManager(Context context, BluetoothCallback callback) {
+        this(context, callback, new Handler(Looper.getMainLooper())::post);
+    }
+
+    /**
+     * Constructor to initialize the Bluetooth manager.
+     * @param context Application context, usually an Activity.
+     * @param callback Interface for receiving Bluetooth events.
+     * @param callbackExecutor Executor the callbacks are raised on, in the order the events happened.
+     */
+    public BluetoothManager(Context context, BluetoothCallback callback, Executor callbackExecutor) {
+        this.context = context;
+        configCache = new ConfigCache(context);
+        recipeStore = new RecipeStore(context);
+        heaterBaselineStore = new HeaterBaselineStore(context);
+        recommendedSpeedStore = new RecommendedSpeedStore(context);
+        captureRecorder = new CaptureRecorder(new File(context.getFilesDir(), "capture"), CAPTURE_SEGMENT_SIZE,
+                CAPTURE_MAX_SEGMENTS);
+        // Opening or upgrading the database and its queries stay off the caller, which draws the snapshot first
+        loop.execute(this::openDatabase);
+        SessionSnapshot mapped = null;
+        try {
+            mapped = new SessionSnapshot(new File(context.getFilesDir(), SNAPSHOT_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "無法開啟工作階段快照", e);
+        }
+        snapshot = mapped;
+        restoredState = mapped != null ? mapped.read() : new SessionSnapshot.State();
+        recipeActive = recipeStore.getProgress() != null;
+        this.callback = callback;
+        this.callbackExecutor = callbackExecutor;
+        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter == null) {
+            deliver(() -> callback.onConnectionFailed("設備不支援藍牙"));
+        }
+    }
+
+    /**
+     * Opens the database and continues the telemetry backfill and the open run where the stored rows end;
+     * runs on the loop before any other task.
+     */
+    private void openDatabase() {
+        databaseHelper = DatabaseHelper.getInstance(context);
+        long[] latest = databaseHelper.getLatestTelemetry();
+        if (latest != null) {
+            session.getTelemetrySync().resume((int) latest[0], latest[1]);
+        }
+        RunStatistics openRun = databaseHelper.getOpenRun();
+        if (openRun != null) {
+            runTracker.resume(openRun);
+        }
+    }
+
+    /**
+     * Checks if Bluetooth is enabled.
+     * @return true if enabled, false otherwise.
+     */
+    public boolean isBluetoothEnabled() {
+        if (bluetoothAdapter == null) return false;
+        if (!hasConnectPermission()) {
+            deliver(() -> callback.onConnectionFailed("無 BLUETOOTH_CONNECT 權限，無法檢查藍牙狀態"));
+            return false;
+        }
+        try {
+            return bluetoothAdapter.isEnabled();
+        } catch (SecurityException e) {
+            deliver(() -> callback.onConnectionFailed("安全異常，無法檢查藍牙狀態: " + e.getMessage()));
+            Log.e(TAG, "檢查藍牙啟用狀態失敗", e);
+            return false;
+        }
+    }
+
+    /**
+     * Enables Bluetooth if not already enabled.
+     * Requires BLUETOOTH_CONNECT permission on Android 12+.
+     * @return true if enabled or already enabled, false if permission insufficient.
+     */
+    public boolean enableBluetooth() {
+        if (bluetoothAdapter == null) return false;
+        if (!hasConnectPermission()) {
+            deliver(() -> callback.onConnectionFailed("無 BLUETOOTH_CONNECT 權限，無法啟用藍牙"));
+            return false;
+        }
+        try {
+            if (!bluetoothAdapter.isEnabled()) {
+                bluetoothAdapter.enable();
+            }
+            return true;
+        } catch (SecurityException e) {
+            deliver(() -> callback.onConnectionFailed("安全異常，無法啟用藍牙: " + e.getMessage()));
+            Log.e(TAG, "啟用藍牙失敗", e);
+            return false;
+        }
+    }
+
+    /**
+     * Starts Bluetooth device discovery and shows bonded devices.
+     */
+    public void startDiscovery() {
+        loop.execute(() -> {
+            if (bluetoothAdapter == null) return;
+            if (!hasScanPermission()) {
+                deliver(() -> callback.onConnectionFailed("無掃描權限"));
+                return;
+            }
+            discoveredDevices.clear();
+            try {
+                if (bluetoothAdapter.isDiscovering()) {
+                    bluetoothAdapter.cancelDiscovery();
+                }
+                bluetoothAdapter.startDiscovery();
+                showBondedDevices();
+            } catch (SecurityException e) {
+                deliver(() -> callback.onConnectionFailed("安全異常，無法開始掃描: " + e.getMessage()));
+                Log.e(TAG, "開始掃描失敗", e);
+            }
+        });
+    }
+
+    /**
+     * Stops Bluetooth discovery.
+     */
+    public void stopDiscovery() {
+        loop.execute(() -> {
+            if (bluetoothAdapter == null) return;
+            if (!hasScanPermission()) return;
+            try {
+                bluetoothAdapter.cancelDiscovery();
+            } catch (SecurityException e) {
+                Log.e(TAG, "停止掃描失敗", e);
+            }
+        });
+    }
+
+    /**
+     * Returns what the session snapshot held when this manager was created, e.g. after the process was killed
+     * in the background; render it before anything else.
+     * @return Restored state; empty if there was none.
+     */
+    public SessionSnapshot.State getRestoredState() {
+        return restoredState;
+    }
+
+    /**
+     * Reopens the link the restored session had; the outcome arrives at {@link BluetoothCallback#onConnected()}
+     * or {@link BluetoothCallback#onConnectionFailed(String)}.
+     * @return true if a reconnect was started.
+     */
+    public boolean resumeConnection() {
+        String target = restoredState.target;
+        if (!restoredState.reconnect || target == null || loop.isShutdown()) return false;
+        connect(target);
+        return true;
+    }
+
+    /**
+     * Connects to a device with the given MAC address, dropping the link already open. Returns at once; the
+     * outcome arrives at {@link BluetoothCallback#onConnected()} or
+     * {@link BluetoothCallback#onConnectionFailed(String)}.
+     * @param macAddress MAC address of the device.
+     */
+    public void connect(String macAddress) {
+        loop.execute(() -> openLink(macAddress));
+    }
+
+    /**
+     * Disconnects the Bluetooth connection at the user's request; a restored session does not reconnect.
+     */
+    public void disconnect() {
+        disconnect(false);
+    }
+
+    /**
+     * Disconnects the Bluetooth connection.
+     * @param reconnectOnRestore Whether the next restored session reopens it, e.g. when the Activity is only
+     *                           recreated for a configuration change.
+     */
+    public void disconnect(boolean reconnectOnRestore) {
+        loop.execute(() -> {
+            if (snapshot != null) snapshot.writeConnection(session.getTarget(), reconnectOnRestore);
+            closeLink("已斷開連接");
+        });
+    }
+
+    /**
+     * Loads the stored loop-timing reports. Queries the database, so call it off the main thread.
+     * @param limit Maximum number of reports.
+     * @return Reports, oldest first.
+     */
+    public List<PerfReport> loadPerfHistory(int limit) {
+        return DatabaseHelper.getInstance(context).loadPerf(limit);
+    }
+
+    /**
+     * Queues data for the connected device on the loop; the writer thread sends it and the loop logs it.
+     * @param data Data to send.
+     */
+    public void sendData(String data) {
+        loop.dispatch(() -> {
+            if (!session.send(data)) {
+                Log.w(TAG, "未連接或佇列已滿，丟棄命令: " + data);
+            }
+        });
+    }
+
+    /**
+     * Requests an averaged raw thermistor reading for a calibration point; it arrives at
+     * {@link BluetoothCallback#onAdcReading(double)}.
+     */
+    public void requestAdc() {
+        sendData(CalibrationTable.CMD_GET_ADC);
+    }
+
+    /**
+     * Uploads a calibration table, replacing an upload still in progress. Refused if not connected.
+     * @param table Table.
+     */
+    public void uploadCalibration(CalibrationTable table) {
+        loop.execute(() -> {
+            boolean started = session.getState() == Session.State.CONNECTED;
+            if (started) {
+                cancelCalibration();
+                pendingCalibration.addAll(table.toCommands());
+                calibrationTotal = pendingCalibration.size();
+                calibrationRunnable.run();
+            }
+            reportStart(Operation.CALIBRATION_UPLOAD, started);
+        });
+    }
+
+    /**
+     * Reverts the board to the Beta equation, abandoning an upload in progress.
+     */
+    public void clearCalibration() {
+        loop.execute(() -> {
+            cancelCalibration();
+            sendData(CalibrationTable.CMD_CLEAR);
+        });
+    }
+
+    /**
+     * Forgets the heater baseline of the current device, e.g. after the heater was replaced; the next
+     * identified model becomes the new baseline.
+     */
+    public void resetHeaterBaseline() {
+        loop.execute(() -> {
+            heaterBaselineStore.clear(session.getTarget());
+            for (HeaterIdentifier identifier : heaterIdentifiers) {
+                if (identifier != null) identifier.setBaseline(null);
+            }
+        });
+    }
+
+    /**
+     * Starts a recipe, ending the recipe, throughput search or diameter loop still running. Ramps begin at the machine's current setpoints.
+     * Refused if not connected or the machine's setpoints are not known yet.
+     * @param recipe Recipe.
+     */
+    public void startRecipe(Recipe recipe) {
+        loop.execute(() -> reportStart(Operation.RECIPE, beginRecipe(recipe)));
+    }
+
+    /**
+     * Starts a recipe; runs on the loop.
+     * @param recipe Recipe.
+     * @return false if not connected or the machine's setpoints are not known yet.
+     */
+    private boolean beginRecipe(Recipe recipe) {
+        if (session.getState() != Session.State.CONNECTED) return false;
+        MachineConfig config = session.getConfig();
+        TelemetryModel telemetry = latestTelemetry;
+        if (config == null && telemetry == null) return false;
+        float setTemperature = config != null ? config.setTemperatures[0] : telemetry.temperatures[0];
+        int speed = config != null ? config.maxSpeed : telemetry.speed;
+        if (recipeRunner != null) recipeRunner.stop(null);
+        if (optimizer != null) optimizer.stop("配方已開始");
+        endDiameterControl();
+        recipeStore.saveText(recipe.toString());
+        RecipeRunner runner = new RecipeRunner(recipe, commandSink, new RecipeListener());
+        recipeRunner = runner;
+        runner.begin(System.nanoTime(), setTemperature, speed);
+        runner.start(recipeExecutor, RecipeRunner.DEFAULT_PERIOD_MS, () -> measuredTemperature);
+        publishStatus();
+        return true;
+    }
+
+    /**
+     * Stops the running recipe; the machine keeps its current setpoints.
+     */
+    public void stopRecipe() {
+        loop.execute(() -> {
+            if (recipeRunner != null && !recipeRunner.isFinished()) {
+                recipeRunner.stop(null);
+            } else if (recipeStore.getProgress() != null) {
+                // Saved before a restart and not resumed yet
+                recipeStore.clearProgress();
+                publishStatus();
+                deliver(() -> callback.onRecipeFinished(false, null));
+            }
+        });
+    }
+
+    /**
+     * Returns whether a recipe is running or paused while the link is down.
+     * @return true if running.
+     */
+    public boolean isRecipeRunning() {
+        return recipeActive;
+    }
+
+    /**
+     * Returns the last recipe text entered.
+     * @return Recipe text, or an empty string.
+     */
+    public String getRecipeText() {
+        return recipeStore.getText();
+    }
+
+    /**
+     * Starts a search for the highest speed the heater can hold, from the machine's current speed, and leaves
+     * the motor running at the speed found. Ends the search or diameter loop still running. Refused if not
+     * connected or a recipe is running, since both would set the speed.
+     */
+    public void startOptimizer() {
+        loop.execute(() -> reportStart(Operation.OPTIMIZER, beginOptimizer()));
+    }
+
+    /**
+     * Starts a throughput search; runs on the loop.
+     * @return false if not connected or a recipe is running.
+     */
+    private boolean beginOptimizer() {
+        if (session.getState() != Session.State.CONNECTED || recipeActive) return false;
+        if (optimizer != null) optimizer.stop(null);
+        endDiameterControl();
+        MachineConfig config = session.getConfig();
+        int startSpeed = config != null && config.maxSpeed > 0 ? config.maxSpeed : OPTIMIZER_START_SPEED;
+        String target = session.getTarget();
+        optimizer = new ThroughputOptimizer(Math.min(startSpeed, OPTIMIZER_MAX_SPEED), OPTIMIZER_MAX_SPEED,
+                OPTIMIZER_TOLERANCE_C, commandSink, new OptimizerListener(target));
+        publishStatus();
+        // Poll at the sample rate from now on
+        if (syncTask != null) syncTask.cancel(false);
+        syncRunnable.run();
+        return true;
+    }
+
+    /**
+     * Ends the throughput search; the motor keeps its current speed.
+     */
+    public void stopOptimizer() {
+        loop.execute(() -> {
+            if (optimizer != null) optimizer.stop("已取消");
+        });
+    }
+
+    /**
+     * Returns whether a throughput search is running.
+     * @return true if running.
+     */
+    public boolean isOptimizing() {
+        return optimizing;
+    }
+
+    /**
+     * Starts holding the filament diameter by trimming the pull speed, from the machine's current speed, and
+     * asks the firmware to stream diameter readings. Ends the diameter loop still running. Refused if not
+     * connected, the speed is not known yet, or a recipe or throughput search is running, since both set the speed.
+     * @param targetDiameter Diameter to hold, mm.
+     * @throws IllegalArgumentException If the target is not positive.
+     */
+    public void startDiameterControl(double targetDiameter) {
+        if (!(targetDiameter > 0)) throw new IllegalArgumentException("Target diameter must be positive");
+        loop.execute(() -> reportStart(Operation.DIAMETER_CONTROL, beginDiameterControl(targetDiameter)));
+    }
+
+    /**
+     * Starts the diameter loop; runs on the loop.
+     * @param targetDiameter Diameter to hold, mm.
+     * @return false if not connected, the speed is not known yet, or a recipe or throughput search is running.
+     */
+    private boolean beginDiameterControl(double targetDiameter) {
+        if (session.getState() != Session.State.CONNECTED || recipeActive || optimizing) return false;
+        MachineConfig config = session.getConfig();
+        TelemetryModel telemetry = latestTelemetry;
+        if (config == null && telemetry == null) return false;
+        int speed = config != null ? config.maxSpeed : telemetry.speed;
+        if (diameterController != null) diameterController.stop();
+        DiameterController controller = new DiameterController(targetDiameter,
+                Math.max(DIAMETER_MIN_SPEED, Math.min(DIAMETER_MAX_SPEED, speed)), DIAMETER_MIN_SPEED,
+                DIAMETER_MAX_SPEED, commandSink);
+        diameterController = controller;
+        sendData(DiameterController.CMD_RATE + DiameterController.DEFAULT_RATE_HZ);
+        controller.start(diameterExecutor, DiameterController.DEFAULT_PERIOD_MS);
+        publishStatus();
+        return true;
+    }
+
+    /**
+     * Stops the diameter loop and the firmware's diameter stream; the motor keeps the last speed set.
+     */
+    public void stopDiameterControl() {
+        loop.execute(() -> {
+            if (diameterController == null) return;
+            endDiameterControl();
+            deliver(() -> callback.onDiameterControlStopped(null));
+        });
+    }
+
+    /**
+     * Returns whether the diameter loop runs.
+     * @return true if running.
+     */
+    public boolean isDiameterControlled() {
+        return diameterControlled;
+    }
+
+    /**
+     * Returns the speed the last throughput search found on the current device.
+     * @return Speed in steps/s, 0 if none.
+     */
+    public int getRecommendedSpeed() {
+        return recommendedSpeed;
+    }
+
+    /**
+     * Returns the event loop owning the manager's state, e.g. to show its queue delay.
+     * @return Event loop.
+     */
+    public EventLoop getEventLoop() {
+        return loop;
+    }
+
+    /**
+     * Stops the manager's threads once the messages already posted have been handled; call it last, after
+     * {@link #disconnect()} and {@link #stopCapture()}.
+     */
+    public void release() {
+        loop.execute(() -> {
+            recipeExecutor.shutdownNow();
+            diameterExecutor.shutdownNow();
+            connectExecutor.shutdownNow();
+        });
+        loop.shutdown();
+    }
+
+    /**
+     * Opens a link on the connect thread, closing the current one first; runs on the loop.
+     * @param macAddress MAC address of the device.
+     */
+    private void openLink(String macAddress) {
+        if (bluetoothAdapter == null) return;
+        if (!hasConnectPermission()) {
+            deliver(() -> callback.onConnectionFailed("無連接權限"));
+            return;
+        }
+        if (bluetoothSocket != null) closeLink("已斷開連接");
+        MachineConfig cached = configCache.load(macAddress);
+        session.setConfig(cached);
+        if (cached != null) {
+            deliver(() -> callback.onConfigUpdated(cached));
+        }
+        long generation = ++linkGeneration;
+        try {
+            session.connecting(macAddress);
+            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
+            BluetoothSocket socket = device.createRfcommSocketToServiceRecord(MY_UUID);
+            bluetoothAdapter.cancelDiscovery();
+            bluetoothSocket = socket;
+            connectExecutor.execute(() -> {
+                try {
+                    socket.connect();
+                    loop.execute(() -> onLinkOpened(generation, socket, macAddress));
+                } catch (IOException | SecurityException e) {
+                    Log.e(TAG, "連接失敗", e);
+                    loop.execute(() -> onLinkLost(generation, "連接失敗: " + e.getMessage()));
+                }
+            });
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "連接失敗", e);
+            onLinkLost(generation, "連接失敗: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts the reader and writer of a link whose socket connected; runs on the loop.
+     * @param generation Number of the link.
+     * @param socket Connected socket.
+     * @param macAddress MAC address of the device.
+     */
+    private void onLinkOpened(long generation, BluetoothSocket socket, String macAddress) {
+        if (generation != linkGeneration) {
+            closeQuietly(socket);
+            return;
+        }
+        connectedThread = new ConnectedThread(socket, generation);
+        session.connected();
+        connectedThread.start();
+        syncTask = loop.schedule(syncRunnable, SYNC_INTERVAL_MS);
+        perfTask = loop.schedule(perfRunnable, PERF_INTERVAL_MS);
+        retransmitTask = loop.schedule(retransmitRunnable, Session.RETRANSMIT_CHECK_MS);
+        if (snapshot != null) snapshot.writeConnection(macAddress, true);
+        recommendedSpeed = recommendedSpeedStore.load(macAddress);
+        deliver(callback::onConnected);
+    }
+
+    /**
+     * Closes a link that failed to open or broke, and reports it; runs on the loop.
+     * @param generation Number of the link.
+     * @param reason Error message.
+     */
+    private void onLinkLost(long generation, String reason) {
+        if (generation != linkGeneration) return;
+        closeLink(reason);
+        deliver(() -> callback.onConnectionFailed(reason));
+    }
+
+    /**
+     * Stops the link's timers and threads and closes its socket; events it still posts are dropped. Runs on
+     * the loop.
+     * @param reason Reason handed to the session.
+     */
+    private void closeLink(String reason) {
+        linkGeneration++;
+        if (syncTask != null) syncTask.cancel(false);
+        if (perfTask != null) perfTask.cancel(false);
+        if (retransmitTask != null) retransmitTask.cancel(false);
+        syncTask = null;
+        perfTask = null;
+        retransmitTask = null;
+        cancelCalibration();
+        session.disconnected(reason);
+        if (connectedThread != null) {
+            connectedThread.cancel();
+            connectedThread = null;
+        }
+        if (bluetoothSocket != null) {
+            closeQuietly(bluetoothSocket);
+            bluetoothSocket = null;
+        }
+    }
+
+    /**
+     * Closes a socket, logging a failure.
+     * @param socket Socket.
+     */
+    private static void closeQuietly(BluetoothSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "斷開連接失敗", e);
+        }
+    }
+
+    /**
+     * Drops the calibration chunks not yet handed to the session; runs on the loop.
+     */
+    private void cancelCalibration() {
+        if (calibrationTask != null) calibrationTask.cancel(false);
+        calibrationTask = null;
+        pendingCalibration.clear();
+    }
+
+    /**
+     * Stops the diameter loop and the firmware's diameter stream; runs on the loop.
+     */
+    private void endDiameterControl() {
+        DiameterController controller = diameterController;
+        if (controller == null) return;
+        diameterController = null;
+        controller.stop();
+        sendData(DiameterController.CMD_RATE + 0);
+        publishStatus();
+    }
+
+    /**
+     * Publishes what the status queries report; runs on the loop after every change.
+     */
+    private void publishStatus() {
+        recipeActive = recipeRunner != null ? !recipeRunner.isFinished() : recipeStore.getProgress() != null;
+        optimizing = optimizer != null && !optimizer.isFinished();
+        diameterControlled = diameterController != null;
+        capturing = captureRecorder.isRunning();
+    }
+
+    /**
+     * Reports the outcome of a start request; runs on the loop after the status is published.
+     * @param operation Operation requested.
+     * @param started true if it started.
+     */
+    private void reportStart(Operation operation, boolean started) {
+        deliver(() -> callback.onStartResult(operation, started));
+    }
+
+    /**
+     * Raises a callback on the callback executor.
+     * @param event Callback invocation.
+     */
+    private void deliver(Runnable event) {
+        callbackExecutor.execute(event);
+    }
+
+    /**
+     * Pauses the running recipe and saves where it stands; runs on the loop.
+     */
+    private void pauseRecipe() {
+        RecipeRunner runner = recipeRunner;
+        if (runner == null || runner.isFinished()) return;
+        runner.pause();
+        RecipeRunner.Progress progress = runner.getProgress(System.nanoTime());
+        recipeStore.saveProgress(progress);
+        if (snapshot != null) snapshot.writeRecipe(progress);
+    }
+
+    /**
+     * Continues the recipe saved in the store, if any, e.g. after a reconnect or an Activity restart; runs on
+     * the loop.
      */
-    private final Handler handler = new Handler(Looper.getMainLooper());
+    private void resumeRecipe() {
+        RecipeRunner.Progress progress = recipeStore.getProgress();
+        if (progress == null || recipeExecutor.isShutdown()) return;
+        RecipeRunner runner = recipeRunner;
+        if (runner == null || runner.isFinished()) {
+            try {
+                runner = new RecipeRunner(Recipe.parse(recipeStore.getText()), commandSink, new RecipeListener());
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "無法恢復配方", e);
+                recipeStore.clearProgress();
+                publishStatus();
+                return;
+            }
+            recipeRunner = runner;
+        }
+        runner.resume(progress, System.nanoTime());
+        runner.start(recipeExecutor, RecipeRunner.DEFAULT_PERIOD_MS, () -> measuredTemperature);
+        publishStatus();
+    }
 
     /**
-     * Flag indicating if the broadcast receiver is registered.
+     * Returns the config cached for the last connected device, to render before any connection.
+     * @return Config, or null if none is cached.
      */
-    private boolean isReceiverRegistered = false;
+    public MachineConfig getLastConfig() {
+        return configCache.load(configCache.getLastDevice());
+    }
 
     /**
-     * Database helper for logging.
+     * Returns the protocol session.
+     * @return Session.
      */
-    private DatabaseHelper databaseHelper;
+    public Session getSession() {
+        return session;
+    }
 
     /**
-     * Interface for Bluetooth event callbacks.
+     * Starts capturing every raw inbound and outbound chunk to the journal in the app's files directory.
+     * Refused if the journal cannot be opened.
      */
-    public interface BluetoothCallback {
-        /**
-         * Called when new devices are found or paired device list is updated.
-         * @param devices List of device names and MAC addresses.
-         */
-        void onDeviceFound(ArrayList<String> devices);
-
-        /**
-         * Called when Bluetooth connection is successful.
-         */
-        void onConnected();
-
-        /**
-         * Called when connection fails or disconnects.
-         * @param error Error message.
-         */
-        void onConnectionFailed(String error);
-
-        /**
-         * Called when data is received.
-         * @param data Received string data.
-         */
-        void onDataReceived(String data);
+    public void startCapture() {
+        loop.execute(() -> {
+            try {
+                captureRecorder.start();
+                publishStatus();
+            } catch (IOException e) {
+                Log.e(TAG, "開啟擷取日誌失敗", e);
+            }
+            reportStart(Operation.CAPTURE, captureRecorder.isRunning());
+        });
     }
 
     /**
-     * Constructor to initialize the Bluetooth manager.
-     * @param context Application context, usually an Activity.
-     * @param callback Interface for receiving Bluetooth events.
+     * Stops raw capture and closes the journal.
      */
-    public BluetoothManager(Context context, BluetoothCallback callback) {
-        this.context = context;
-        databaseHelper = new DatabaseHelper(context);
-        this.callback = callback;
-        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothAdapter == null) {
-            callback.onConnectionFailed("設備不支援藍牙");
-        }
+    public void stopCapture() {
+        loop.execute(this::closeCapture);
     }
 
     /**
-     * Checks if Bluetooth is enabled.
-     * @return true if enabled, false otherwise.
+     * Returns whether raw capture is running.
+     * @return true if capturing.
      */
-    public boolean isBluetoothEnabled() {
-        if (bluetoothAdapter == null) return false;
-        if (!hasConnectPermission()) {
-            callback.onConnectionFailed("無 BLUETOOTH_CONNECT 權限，無法檢查藍牙狀態");
-            return false;
-        }
-        try {
-            return bluetoothAdapter.isEnabled();
-        } catch (SecurityException e) {
-            callback.onConnectionFailed("安全異常，無法檢查藍牙狀態: " + e.getMessage());
-            Log.e(TAG, "檢查藍牙啟用狀態失敗", e);
-            return false;
-        }
+    public boolean isCapturing() {
+        return capturing;
     }
 
     /**
-     * Enables Bluetooth if not already enabled.
-     * Requires BLUETOOTH_CONNECT permission on Android 12+.
-     * @return true if enabled or already enabled, false if permission insufficient.
+     * Returns the directory holding the raw capture journal.
+     * @return Capture directory.
      */
-    public boolean enableBluetooth() {
-        if (bluetoothAdapter == null) return false;
-        if (!hasConnectPermission()) {
-            callback.onConnectionFailed("無 BLUETOOTH_CONNECT 權限，無法啟用藍牙");
-            return false;
-        }
-        try {
-            if (!bluetoothAdapter.isEnabled()) {
-                bluetoothAdapter.enable();
-            }
-            return true;
-        } catch (SecurityException e) {
-            callback.onConnectionFailed("安全異常，無法啟用藍牙: " + e.getMessage());
-            Log.e(TAG, "啟用藍牙失敗", e);
-            return false;
-        }
+    public File getCaptureDirectory() {
+        return captureRecorder.getDirectory();
     }
 
     /**
-     * Starts Bluetooth device discovery and shows bonded devices.
+     * Replays a capture journal through the same decode/persist/dispatch path as live data, handing each chunk
+     * to the loop and waiting for it. Blocks the calling thread, so call it off the main thread. Received
+     * chunks go into the session, so the replay is refused, or stopped, while a link is open.
+     * @param directory Journal directory.
+     * @param speed Speed factor, or {@link JournalReplayer#MAX_SPEED}.
+     * @return Replay statistics.
+     * @throws IOException If the journal cannot be read.
+     * @throws IllegalStateException If a link is open or opens during the replay.
      */
-    public void startDiscovery() {
-        if (bluetoothAdapter == null) return;
-        if (!hasScanPermission()) {
-            callback.onConnectionFailed("無掃描權限");
-            return;
-        }
-        discoveredDevices.clear();
-        try {
-            if (bluetoothAdapter.isDiscovering()) {
-                bluetoothAdapter.cancelDiscovery();
+    public JournalReplayer.Stats replayCapture(File directory, double speed) throws IOException {
+        return CaptureRecorder.replay(directory, speed, loop, session, new CaptureRecorder.ReplayTarget() {
+            @Override
+            public boolean isLinkOpen() {
+                return bluetoothSocket != null;
             }
-            bluetoothAdapter.startDiscovery();
-            showBondedDevices();
-        } catch (SecurityException e) {
-            callback.onConnectionFailed("安全異常，無法開始掃描: " + e.getMessage());
-            Log.e(TAG, "開始掃描失敗", e);
-        }
+
+            @Override
+            public void onCommand(String command) {
+                databaseHelper.insertLog("OUT", command);
+            }
+        });
     }
 
     /**
-     * Stops Bluetooth discovery.
+     * Captures a received chunk and feeds it to the session, which decodes, parses and reports its lines;
+     * runs on the loop.
+     * @param generation Number of the link the chunk was read from.
+     * @param buffer Received bytes.
      */
-    public void stopDiscovery() {
-        if (bluetoothAdapter == null) return;
-        if (!hasScanPermission()) return;
-        try {
-            bluetoothAdapter.cancelDiscovery();
-        } catch (SecurityException e) {
-            Log.e(TAG, "停止掃描失敗", e);
-        }
+    private void onReceived(long generation, byte[] buffer) {
+        if (generation != linkGeneration) return;
+        capture(CaptureJournal.DIRECTION_IN, buffer, buffer.length);
+        session.receive(buffer, buffer.length);
     }
 
     /**
-     * Connects to a device with the given MAC address.
-     * @param macAddress MAC address of the device.
+     * Captures and logs a command the writer sent; runs on the loop.
+     * @param command Command text.
+     * @param bytes Encoded frame.
      */
-    public void connect(String macAddress) {
-        if (bluetoothAdapter == null) return;
-        if (!hasConnectPermission()) {
-            callback.onConnectionFailed("無連接權限");
-            return;
-        }
-        try {
-            BluetoothDevice device = bluetoothAdapter.getRemoteDevice(macAddress);
-            bluetoothSocket = device.createRfcommSocketToServiceRecord(MY_UUID);
-            bluetoothAdapter.cancelDiscovery();
-            bluetoothSocket.connect();
-            connectedThread = new ConnectedThread(bluetoothSocket);
-            connectedThread.start();
-            callback.onConnected();
-        } catch (IOException | SecurityException e) {
-            callback.onConnectionFailed("連接失敗: " + e.getMessage());
-            Log.e(TAG, "連接失敗", e);
-        }
+    private void onSent(String command, byte[] bytes) {
+        capture(CaptureJournal.DIRECTION_OUT, bytes, bytes.length);
+        String logged = CaptureRecorder.loggedCommand(command);
+        if (logged != null) databaseHelper.insertLog("OUT", logged);
     }
 
     /**
-     * Disconnects the Bluetooth connection.
+     * Appends a raw chunk to the capture journal if capture is on; a failing journal turns capture off. Runs
+     * on the loop.
+     * @param direction Journal direction code.
+     * @param bytes Chunk bytes.
+     * @param length Chunk length.
      */
-    public void disconnect() {
+    private void capture(byte direction, byte[] bytes, int length) {
         try {
-            if (connectedThread != null) {
-                connectedThread.cancel();
-                connectedThread = null;
-            }
-            if (bluetoothSocket != null) {
-                bluetoothSocket.close();
-                bluetoothSocket = null;
-            }
+            captureRecorder.record(direction, bytes, length);
         } catch (IOException e) {
-            Log.e(TAG, "斷開連接失敗", e);
+            Log.e(TAG, "寫入擷取日誌失敗，停止擷取", e);
+            publishStatus();
         }
     }
 
     /**
-     * Sends data to the connected device and logs it.
-     * @param data Data to send.
+     * Closes the capture journal if open; runs on the loop.
      */
-    public void sendData(String data) {
-        if (connectedThread != null) {
-            connectedThread.write(data.getBytes());
-            databaseHelper.insertLog("OUT", data);
+    private void closeCapture() {
+        try {
+            captureRecorder.stop();
+        } catch (IOException e) {
+            Log.e(TAG, "關閉擷取日誌失敗", e);
         }
+        publishStatus();
     }
 
     /**
      * Registers the broadcast receiver for device discovery.
      */
     public void registerReceiver() {
-        if (!isReceiverRegistered) {
-            IntentFilter filter = new IntentFilter();
-            filter.addAction(BluetoothDevice.ACTION_FOUND);
-            filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
-            context.registerReceiver(discoveryReceiver, filter);
-            isReceiverRegistered = true;
-        }
+        loop.execute(() -> {
+            if (!isReceiverRegistered) {
+                IntentFilter filter = new IntentFilter();
+                filter.addAction(BluetoothDevice.ACTION_FOUND);
+                filter.addAction(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
+                context.registerReceiver(discoveryReceiver, filter);
+                isReceiverRegistered = true;
+            }
+        });
     }
 
     /**
      * Unregisters the broadcast receiver.
      */
     public void unregisterReceiver() {
-        if (isReceiverRegistered) {
-            context.unregisterReceiver(discoveryReceiver);
-            isReceiverRegistered = false;
-        }
+        loop.execute(() -> {
+            if (isReceiverRegistered) {
+                context.unregisterReceiver(discoveryReceiver);
+                isReceiverRegistered = false;
+            }
+        });
     }
 
     /**
@@ -302,11 +1420,11 @@ public class BluetoothManager {
     }
 
     /**
-     * Shows bonded (paired) devices.
+     * Shows bonded (paired) devices; runs on the loop.
      */
     private void showBondedDevices() {
         if (!hasConnectPermission()) {
-            callback.onConnectionFailed("無 BLUETOOTH_CONNECT 權限，無法獲取已配對設備");
+            deliver(() -> callback.onConnectionFailed("無 BLUETOOTH_CONNECT 權限，無法獲取已配對設備"));
             return;
         }
         try {
@@ -319,18 +1437,31 @@ public class BluetoothManager {
                     discoveredDevices.add(item);
                 }
             }
-            callback.onDeviceFound(new ArrayList<>(discoveredDevices));
+            ArrayList<String> devices = new ArrayList<>(discoveredDevices);
+            deliver(() -> callback.onDeviceFound(devices));
             if (bondedDevices.isEmpty()) {
-                callback.onConnectionFailed("未找到已配對的設備");
+                deliver(() -> callback.onConnectionFailed("未找到已配對的設備"));
             }
         } catch (SecurityException e) {
-            callback.onConnectionFailed("安全異常，無法獲取已配對設備: " + e.getMessage());
+            deliver(() -> callback.onConnectionFailed("安全異常，無法獲取已配對設備: " + e.getMessage()));
             Log.e(TAG, "獲取已配對設備失敗", e);
         }
     }
 
     /**
-     * Broadcast receiver for Bluetooth device discovery.
+     * Adds a discovered device to the list and reports the list if it changed; runs on the loop.
+     * @param item Device name and MAC address.
+     */
+    private void addDiscoveredDevice(String item) {
+        if (discoveredDevices.contains(item)) return;
+        discoveredDevices.add(item);
+        ArrayList<String> devices = new ArrayList<>(discoveredDevices);
+        deliver(() -> callback.onDeviceFound(devices));
+    }
+
+    /**
+     * Broadcast receiver for Bluetooth device discovery; reads the intent on the main thread and hands the
+     * device to the loop.
      */
     private final BroadcastReceiver discoveryReceiver = new BroadcastReceiver() {
         @Override
@@ -346,22 +1477,283 @@ public class BluetoothManager {
                         address = device.getAddress();
                     } catch (SecurityException e) {
                         Log.e(TAG, "獲取設備資訊失敗", e);
-                        callback.onConnectionFailed("安全異常，無法獲取設備資訊: " + e.getMessage());
+                        deliver(() -> callback.onConnectionFailed("安全異常，無法獲取設備資訊: " + e.getMessage()));
                     }
                     String item = name + " - " + address;
-                    if (!discoveredDevices.contains(item)) {
-                        discoveredDevices.add(item);
-                        callback.onDeviceFound(new ArrayList<>(discoveredDevices));
-                    }
+                    loop.execute(() -> addDiscoveredDevice(item));
                 }
             } else if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
-                callback.onDeviceFound(new ArrayList<>(discoveredDevices));
+                loop.execute(() -> {
+                    ArrayList<String> devices = new ArrayList<>(discoveredDevices);
+                    deliver(() -> callback.onDeviceFound(devices));
+                });
             }
         }
     };
 
     /**
-     * Inner thread class for handling data input/output after connection.
+     * Session listener that persists received lines and forwards events to the callback. The session changes
+     * state, sends, retransmits and receives on the loop, so every event arrives there.
+     */
+    private class SessionListener implements Session.Listener {
+        /**
+         * Pauses or resumes the work that needs the link; connection callbacks are raised by the link handling.
+         * @param state New state.
+         * @param detail Detail.
+         */
+        @Override
+        public void onStateChanged(Session.State state, String detail) {
+            Log.d(TAG, "連接狀態: " + state);
+            if (state == Session.State.CONNECTED) {
+                resumeRecipe();
+            } else if (state == Session.State.DISCONNECTED) {
+                pauseRecipe();
+                if (optimizer != null) optimizer.stop("連線中斷");
+                DiameterController controller = diameterController;
+                if (controller != null) {
+                    // The board keeps streaming; a new loop starts from the speed it reports after reconnecting
+                    diameterController = null;
+                    controller.stop();
+                    publishStatus();
+                    deliver(() -> callback.onDiameterControlStopped("連線中斷"));
+                }
+            }
+        }
+
+        /**
+         * Logs a received line and hands it to the callback. Sync frames go to the telemetry table and diameter
+         * readings to the run statistics instead.
+         * @param line Received line.
+         * @param kind Parsed kind.
+         */
+        @Override
+        public void onLine(String line, ProtocolParser.Kind kind) {
+            if (kind == ProtocolParser.Kind.SYNC || kind == ProtocolParser.Kind.DIAMETER) return;
+            databaseHelper.insertLog("IN", kind, line);
+            deliver(() -> callback.onDataReceived(line));
+        }
+
+        /**
+         * Mirrors a telemetry snapshot into the session snapshot and hands it to the callback.
+         * @param telemetry Snapshot.
+         */
+        @Override
+        public void onTelemetry(TelemetryModel telemetry) {
+            latestTelemetry = telemetry;
+            if (snapshot != null) snapshot.writeStatus(telemetry, System.currentTimeMillis());
+            deliver(() -> callback.onTelemetryUpdated(telemetry));
+        }
+
+        /**
+         * Stores backfilled samples and updates the run summaries and the heater estimate.
+         * @param samples Decoded samples.
+         */
+        @Override
+        public void onSamples(List<TelemetrySample> samples) {
+            databaseHelper.insertTelemetry(samples);
+            if (snapshot != null) snapshot.appendSamples(samples);
+            measuredTemperature = samples.get(samples.size() - 1).temperature;
+            deliver(() -> callback.onTelemetrySamples(samples));
+            String target = session.getTarget();
+            if (!Objects.equals(target, heaterTarget)) {
+                heaterTarget = target;
+                for (int zone = 0; zone < heaterIdentifiers.length; zone++) {
+                    heaterIdentifiers[zone] = new HeaterIdentifier(zone);
+                    heaterIdentifiers[zone].setBaseline(heaterBaselineStore.load(target, zone));
+                }
+            }
+            int zones = samples.get(samples.size() - 1).getZoneCount();
+            for (TelemetrySample sample : samples) {
+                for (int zone = 0; zone < zones; zone++) heaterIdentifiers[zone].accept(sample);
+            }
+            if (optimizer != null) {
+                for (TelemetrySample sample : samples) {
+                    if (!optimizer.accept(sample)) break;
+                }
+            }
+            MachineConfig config = session.getConfig();
+            TelemetryModel telemetry = latestTelemetry;
+            if (config == null && telemetry == null) {
+                Log.w(TAG, "設定溫度未知，略過運轉統計");
+                return;
+            }
+            float setTemperature = config != null ? config.setTemperatures[0] : telemetry.temperatures[0];
+            runTracker.setRecipe(recipeRunner != null && !recipeRunner.isFinished()
+                    ? recipeRunner.getRecipe().toString() : null);
+            for (RunStatistics run : runTracker.accept(samples, setTemperature, System.currentTimeMillis())) {
+                long id = databaseHelper.saveRun(run);
+                if (run.id < 0 && !run.finished) runTracker.setCurrentId(id);
+                if (snapshot != null) {
+                    if (run.id < 0) run.id = id;
+                    snapshot.writeRun(run);
+                }
+            }
+            HeaterEstimate[] estimates = new HeaterEstimate[zones];
+            for (int zone = 0; zone < zones; zone++) {
+                HeaterIdentifier identifier = heaterIdentifiers[zone];
+                float zoneSetpoint = config != null && zone < config.getZoneCount() ? config.setTemperatures[zone]
+                        : config == null && zone < telemetry.zones ? telemetry.temperatures[zone] : setTemperature;
+                estimates[zone] = identifier.estimate(zoneSetpoint);
+                if (identifier.getBaseline() == null && estimates[zone].model != null) {
+                    identifier.setBaseline(estimates[zone].model);
+                    heaterBaselineStore.save(target, zone, estimates[zone].model);
+                }
+            }
+            deliver(() -> callback.onHeaterEstimates(estimates));
+        }
+
+        /**
+         * Reports a command that got no reply after all retries.
+         * @param command Command text.
+         */
+        @Override
+        public void onCommandFailed(String command) {
+            Log.w(TAG, "命令未獲回應: " + command);
+            if (command.startsWith("CAL_") && !pendingCalibration.isEmpty()) {
+                // The table cannot be completed; the board keeps using the previous conversion
+                cancelCalibration();
+            }
+            deliver(() -> callback.onCommandFailed(command));
+        }
+
+        /**
+         * Stores a config received from or acknowledged by the device, mirrors its setpoints into the session
+         * snapshot and hands it to the callback.
+         * @param config Copy of the config.
+         */
+        @Override
+        public void onConfig(MachineConfig config) {
+            configCache.save(session.getTarget(), config);
+            if (snapshot != null) snapshot.writeSetpoints(config);
+            deliver(() -> callback.onConfigUpdated(config));
+        }
+
+        /**
+         * Stores a loop-timing report and hands it to the callback.
+         * @param report Report.
+         */
+        @Override
+        public void onPerf(PerfReport report) {
+            databaseHelper.insertPerf(report, System.currentTimeMillis());
+            deliver(() -> callback.onPerfReport(report));
+        }
+
+        /**
+         * Feeds a diameter reading to the diameter loop and the run in progress, and hands the latest one to the
+         * callback at most every {@link #DIAMETER_UI_INTERVAL_MS}.
+         * @param diameter Diameter in mm.
+         */
+        @Override
+        public void onDiameter(double diameter) {
+            long now = System.nanoTime();
+            DiameterController controller = diameterController;
+            if (controller != null) controller.accept(diameter, now);
+            runTracker.acceptDiameter(diameter);
+            if (now - diameterPostedNanos < DIAMETER_UI_INTERVAL_MS * 1_000_000L) return;
+            diameterPostedNanos = now;
+            int speed = controller != null ? controller.getSpeed() : -1;
+            deliver(() -> callback.onDiameter(diameter, speed));
+        }
+
+        /**
+         * Hands a raw thermistor reading to the callback.
+         * @param adc ADC value.
+         */
+        @Override
+        public void onAdc(double adc) {
+            deliver(() -> callback.onAdcReading(adc));
+        }
+    }
+
+    /**
+     * Recipe listener that saves the progress at every step and forwards events to the callback. Events come
+     * from the recipe thread, or from the loop when it stops the recipe, and are handled on the loop.
+     */
+    private class RecipeListener implements RecipeRunner.Listener {
+        /**
+         * Saves the progress and reports the step.
+         * @param index Step index.
+         * @param step Step.
+         */
+        @Override
+        public void onStep(int index, Recipe.Step step) {
+            loop.dispatch(() -> {
+                RecipeRunner runner = recipeRunner;
+                if (runner == null) return;
+                int count = runner.getRecipe().getSteps().size();
+                RecipeRunner.Progress progress = runner.getProgress(System.nanoTime());
+                recipeStore.saveProgress(progress);
+                if (snapshot != null) snapshot.writeRecipe(progress);
+                Log.d(TAG, "配方步驟 " + (index + 1) + "/" + count + ": " + step);
+                deliver(() -> callback.onRecipeStep(index, count, step.toString()));
+            });
+        }
+
+        /**
+         * Forgets the progress and reports the end.
+         * @param completed true if all steps ran.
+         * @param reason Reason when not completed.
+         */
+        @Override
+        public void onFinished(boolean completed, String reason) {
+            loop.dispatch(() -> {
+                recipeStore.clearProgress();
+                if (snapshot != null) snapshot.writeRecipe(null);
+                publishStatus();
+                deliver(() -> callback.onRecipeFinished(completed, reason));
+            });
+        }
+    }
+
+    /**
+     * Throughput search listener that stores the speed found and forwards events to the callback; the search
+     * runs on the loop.
+     */
+    private class OptimizerListener implements ThroughputOptimizer.Listener {
+        /**
+         * Device the search runs on.
+         */
+        private final String target;
+
+        /**
+         * Constructor.
+         * @param target MAC address of the device.
+         */
+        OptimizerListener(String target) {
+            this.target = target;
+        }
+
+        /**
+         * Reports the speed being tried.
+         * @param speed Speed in steps/s.
+         */
+        @Override
+        public void onTrying(int speed) {
+            Log.d(TAG, "吞吐量搜尋: 嘗試 " + speed);
+            deliver(() -> callback.onOptimizerProgress(speed));
+        }
+
+        /**
+         * Stores the speed found and reports the end.
+         * @param completed true if it converged.
+         * @param recommendedSpeed Highest speed that held.
+         * @param reason Reason when not completed.
+         */
+        @Override
+        public void onFinished(boolean completed, int recommendedSpeed, String reason) {
+            Log.d(TAG, "吞吐量搜尋結束: " + recommendedSpeed + (reason != null ? " (" + reason + ")" : ""));
+            if (completed) {
+                recommendedSpeedStore.save(target, recommendedSpeed);
+                if (target.equals(session.getTarget())) BluetoothManager.this.recommendedSpeed = recommendedSpeed;
+            }
+            publishStatus();
+            deliver(() -> callback.onOptimizerFinished(completed, recommendedSpeed, reason));
+        }
+    }
+
+    /**
+     * Inner thread class for handling data input/output after connection. It only moves bytes: every chunk
+     * read, command written and failure is posted to the loop with the link's number.
      */
     private class ConnectedThread extends Thread {
         /**
@@ -374,11 +1766,18 @@ public class BluetoothManager {
          */
         private final OutputStream mmOutStream;
 
+        /**
+         * Number of the link the streams belong to.
+         */
+        private final long generation;
+
         /**
          * Constructor to initialize streams.
          * @param socket Bluetooth socket.
+         * @param generation Number of the link.
          */
-        public ConnectedThread(BluetoothSocket socket) {
+        public ConnectedThread(BluetoothSocket socket, long generation) {
+            super("bt-reader");
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
             try {
@@ -389,51 +1788,97 @@ public class BluetoothManager {
             }
             mmInStream = tmpIn;
             mmOutStream = tmpOut;
+            this.generation = generation;
+            writerThread = new WriterThread(mmOutStream, generation);
         }
 
         /**
-         * Run method to continuously read data.
+         * Writer thread draining the session's command queue.
+         */
+        private final WriterThread writerThread;
+
+        /**
+         * Run method to start the writer and continuously read data.
          */
         @Override
         public void run() {
+            writerThread.start();
             byte[] buffer = new byte[1024];
             int bytes;
             while (true) {
                 try {
                     bytes = mmInStream.read(buffer);
-                    String data = new String(buffer, 0, bytes);
-                    databaseHelper.insertLog("IN", data);
-                    handler.post(() -> callback.onDataReceived(data));
+                    if (bytes < 0) throw new IOException("EOF");
+                    byte[] chunk = Arrays.copyOf(buffer, bytes);
+                    loop.execute(() -> onReceived(generation, chunk));
                 } catch (IOException e) {
-                    handler.post(() -> callback.onConnectionFailed("連接斷開: " + e.getMessage()));
+                    loop.execute(() -> onLinkLost(generation, "連接斷開: " + e.getMessage()));
                     break;
                 }
             }
         }
 
         /**
-         * Writes bytes to the output stream.
-         * @param bytes Data to write.
+         * Cancels the thread by stopping the writer and closing streams.
          */
-        public void write(byte[] bytes) {
+        public void cancel() {
+            writerThread.interrupt();
             try {
-                mmOutStream.write(bytes);
+                mmInStream.close();
+                mmOutStream.close();
             } catch (IOException e) {
-                Log.e(TAG, "發送數據失敗", e);
-                handler.post(() -> callback.onConnectionFailed("發送失敗: " + e.getMessage()));
+                Log.e(TAG, "關閉流失敗", e);
             }
         }
+    }
 
+    /**
+     * Thread that takes commands from the session queue and writes them; the loop retransmits and logs them.
+     */
+    private class WriterThread extends Thread {
         /**
-         * Cancels the thread by closing streams.
+         * Output stream for writing data.
          */
-        public void cancel() {
-            try {
-                mmInStream.close();
-                mmOutStream.close();
-            } catch (IOException e) {
-                Log.e(TAG, "關閉流失敗", e);
+        private final OutputStream mmOutStream;
+
+        /**
+         * Number of the link the stream belongs to.
+         */
+        private final long generation;
+
+        /**
+         * Constructor.
+         * @param outStream Output stream of the socket.
+         * @param generation Number of the link.
+         */
+        WriterThread(OutputStream outStream, long generation) {
+            super("bt-writer");
+            this.mmOutStream = outStream;
+            this.generation = generation;
+        }
+
+        /**
+         * Run method to send queued commands until interrupted.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                String command;
+                try {
+                    command = session.getCommandQueue().take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                byte[] bytes = FrameCodec.encodeLine(command);
+                try {
+                    mmOutStream.write(bytes);
+                } catch (IOException e) {
+                    Log.e(TAG, "發送數據失敗", e);
+                    loop.execute(() -> onLinkLost(generation, "發送失敗: " + e.getMessage()));
+                    return;
+                }
+                loop.execute(() -> onSent(command, bytes));
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.petfilament.recycler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.petfilament.recycler.core.MachineConfig;
+
+/**
+ * ConfigCache class stores the last known {@link MachineConfig} of every device, keyed by MAC address,
+ * so the control screen can show setpoints before the device answers. The entry is only a starting point:
+ * the session checks its version against the device after connecting and replaces it on mismatch.
+ */
+public class ConfigCache {
+
+    /**
+     * Name of the preferences file.
+     */
+    private static final String PREFS_NAME = "machine_config";
+
+    /**
+     * Key of the address of the last device a config was stored for.
+     */
+    private static final String KEY_LAST_DEVICE = "last_device";
+
+    /**
+     * Preferences holding one GET_CONFIG line per device.
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * Constructor.
+     * @param context Context used to open the preferences.
+     */
+    public ConfigCache(Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Loads the config stored for a device.
+     * @param macAddress MAC address of the device.
+     * @return Config, or null if none is stored or the entry is unreadable.
+     */
+    public MachineConfig load(String macAddress) {
+        if (macAddress == null) return null;
+        return MachineConfig.parse(preferences.getString(macAddress, null));
+    }
+
+    /**
+     * Stores the config of a device and remembers it as the last device.
+     * @param macAddress MAC address of the device.
+     * @param config Config to store.
+     */
+    public void save(String macAddress, MachineConfig config) {
+        if (macAddress == null || config == null) return;
+        preferences.edit()
+                .putString(macAddress, config.toLine())
+                .putString(KEY_LAST_DEVICE, macAddress)
+                .apply();
+    }
+
+    /**
+     * Returns the address of the last device a config was stored for.
+     * @return MAC address, or null.
+     */
+    public String getLastDevice() {
+        return preferences.getString(KEY_LAST_DEVICE, null);
+    }
+}
@@ -4,9 +4,14 @@ import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.View;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
@@ -15,7 +20,27 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import com.petfilament.recycler.core.CalibrationTable;
+import com.petfilament.recycler.core.EventLoop;
+import com.petfilament.recycler.core.HeaterEstimate;
+import com.petfilament.recycler.core.JournalReplayer;
+import com.petfilament.recycler.core.LinkStats;
+import com.petfilament.recycler.core.MachineConfig;
+import com.petfilament.recycler.core.PerfReport;
+import com.petfilament.recycler.core.Recipe;
+import com.petfilament.recycler.core.RunStatistics;
+import com.petfilament.recycler.core.Session;
+import com.petfilament.recycler.core.SessionSnapshot;
+import com.petfilament.recycler.core.SteinhartHart;
+import com.petfilament.recycler.core.TelemetryModel;
+import com.petfilament.recycler.core.TelemetrySample;
+import com.petfilament.recycler.core.ThroughputOptimizer;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import android.content.Intent;
 
 /**
@@ -73,6 +98,16 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
      */
     private Button buttonSave;
 
+    /**
+     * Spinner choosing the heater zone whose setpoint is edited.
+     */
+    private Spinner spinnerZone;
+
+    /**
+     * Adapter for the zone spinner, one entry per zone of the config.
+     */
+    private ArrayAdapter<String> zoneAdapter;
+
     /**
      * EditText for temperature.
      */
@@ -98,11 +133,162 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
      */
     private TextView textViewCurrentSpeed;
 
+    /**
+     * TextView for the warm-up estimate and heater drift; long press resets the heater baseline.
+     */
+    private TextView textViewHeater;
+
+    /**
+     * Button to start or stop the throughput search.
+     */
+    private Button buttonOptimize;
+
+    /**
+     * TextView for the throughput search progress and the recommended speed.
+     */
+    private TextView textViewOptimizer;
+
+    /**
+     * EditText for the target filament diameter in mm.
+     */
+    private EditText editTextDiameter;
+
+    /**
+     * Button to start or stop holding the diameter.
+     */
+    private Button buttonDiameter;
+
+    /**
+     * TextView for the streamed diameter and the speed the diameter loop sets.
+     */
+    private TextView textViewDiameter;
+
     /**
      * Button to view logs.
      */
     private Button buttonViewLogs;
 
+    /**
+     * Button to view the run history.
+     */
+    private Button buttonRunHistory;
+
+    /**
+     * CheckBox to toggle raw byte capture.
+     */
+    private CheckBox checkBoxCapture;
+
+    /**
+     * Button to replay the raw byte capture.
+     */
+    private Button buttonReplayCapture;
+
+    /**
+     * TextView for link quality.
+     */
+    private TextView textViewLinkStats;
+
+    /**
+     * EditText for the recipe.
+     */
+    private EditText editTextRecipe;
+
+    /**
+     * TextView for the recipe progress.
+     */
+    private TextView textViewRecipeStatus;
+
+    /**
+     * Button to run or stop the recipe.
+     */
+    private Button buttonRecipe;
+
+    /**
+     * TextView for the latest firmware loop-timing report.
+     */
+    private TextView textViewPerf;
+
+    /**
+     * Chart of the longest loop iteration per report.
+     */
+    private SparklineView sparklineLoopMax;
+
+    /**
+     * Chart of the longest pause between step calls per report.
+     */
+    private SparklineView sparklineStepGap;
+
+    /**
+     * Chart of the backfilled temperatures, one line per heater zone.
+     */
+    private SparklineView sparklineZoneTemperatures;
+
+    /**
+     * EditText for the reference temperature of the next calibration point.
+     */
+    private EditText editTextReferenceTemperature;
+
+    /**
+     * TextView listing the calibration points and the upload state.
+     */
+    private TextView textViewCalibration;
+
+    /**
+     * Button capturing a calibration point.
+     */
+    private Button buttonCapturePoint;
+
+    /**
+     * Button fitting and uploading the calibration table.
+     */
+    private Button buttonUploadCalibration;
+
+    /**
+     * Button reverting the board to its built-in conversion.
+     */
+    private Button buttonClearCalibration;
+
+    /**
+     * Calibration points as {ADC, reference °C}.
+     */
+    private final ArrayList<double[]> calibrationPoints = new ArrayList<>();
+
+    /**
+     * Reference temperature waiting for its ADC reading, NaN if none.
+     */
+    private double pendingReference = Double.NaN;
+
+    /**
+     * Number of stored reports charted when the screen opens.
+     */
+    private static final int PERF_HISTORY = 120;
+
+    /**
+     * Single background thread for loading the stored reports and replaying captures.
+     */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    /**
+     * Handler refreshing the link quality.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Refresh interval of the link quality in milliseconds.
+     */
+    private static final long LINK_STATS_INTERVAL_MS = 1000;
+
+    /**
+     * Periodic refresh of the link quality while connected.
+     */
+    private final Runnable linkStatsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            updateLinkStatsUI();
+            handler.postDelayed(this, LINK_STATS_INTERVAL_MS);
+        }
+    };
+
     /**
      * Permission request code.
      */
@@ -114,15 +300,45 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
     private String machineStatus = "IDLE";
 
     /**
-     * Current temperature.
+     * Current temperatures per zone, e.g. "200/180".
+     */
+    private String currentTemperatures = "0";
+
+    /**
+     * Summary of the run restored from the session snapshot, shown until live telemetry arrives; null if none.
      */
-    private float currentTemperature = 0;
+    private String restoredRun;
 
     /**
      * Current speed.
      */
     private int currentSpeed = 0;
 
+    /**
+     * Firmware version of the shown config, empty if unknown.
+     */
+    private String firmwareVersion = "";
+
+    /**
+     * Temperature text last filled in from a config; the field is not overwritten once the user changed it.
+     */
+    private String shownTemperature = "";
+
+    /**
+     * Config the setpoint fields were last filled in from, null before the first.
+     */
+    private MachineConfig shownConfig;
+
+    /**
+     * Speed text last filled in from a config; the field is not overwritten once the user changed it.
+     */
+    private String shownSpeed = "";
+
+    /**
+     * Fit summary of the calibration upload last requested, shown once the upload starts.
+     */
+    private String calibrationFitText = "";
+
     /**
      * onCreate method initializes UI, Bluetooth, adapter, listeners, and permissions.
      * @param savedInstanceState Saved instance state.
@@ -135,7 +351,7 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         // Initialize all UI components
         initializeViews();
 
-        // Initialize Bluetooth manager
+        // Initialize Bluetooth manager; it maps the session snapshot and leaves the database to its own thread
         bluetoothManager = new BluetoothManager(this, this);
 
         // Initialize device list adapter
@@ -143,11 +359,73 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         deviceAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         spinnerBluetoothDevices.setAdapter(deviceAdapter);
 
+        // One zone until a config reports more
+        zoneAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, new ArrayList<>());
+        zoneAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        zoneAdapter.add("Zone 0");
+        spinnerZone.setAdapter(zoneAdapter);
+
+        // Redraw the session the process had before it was killed, before any database or socket work
+        sparklineLoopMax.setLabel("Loop max", "µs");
+        sparklineStepGap.setLabel("Step gap max", "µs");
+        sparklineZoneTemperatures.setLabel("Zones", "°C");
+        restoreSession(bluetoothManager.getRestoredState());
+
+        // Show the last known setpoints until the device reports its own
+        MachineConfig lastConfig = bluetoothManager.getLastConfig();
+        if (lastConfig != null) {
+            onConfigUpdated(lastConfig);
+        }
+
+        // Show the last recipe and whether it is still running
+        editTextRecipe.setText(bluetoothManager.getRecipeText());
+        updateRecipeButton();
+        updateDiameterButton();
+
+        // Chart the stored loop-timing reports; new ones are appended as they arrive
+        loader.execute(() -> {
+            List<PerfReport> reports = bluetoothManager.loadPerfHistory(PERF_HISTORY);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                for (PerfReport report : reports) onPerfReport(report);
+            });
+        });
+
         // Set button click listeners
         setupButtonListeners();
 
         // Check and request necessary permissions
         checkAndRequestPermissions();
+
+        // Reopen the restored session's link in the background
+        if (bluetoothManager.resumeConnection()) {
+            textViewConnectionStatus.setText("Reconnecting...");
+        }
+    }
+
+    /**
+     * Shows what the session snapshot held: status, temperature chart, setpoints, run and recipe progress.
+     * @param state Restored state.
+     */
+    private void restoreSession(SessionSnapshot.State state) {
+        if (state.telemetry != null) onTelemetryUpdated(state.telemetry);
+        if (!state.samples.isEmpty()) onTelemetrySamples(state.samples);
+        if (state.setTemperatures != null) {
+            int zone = Math.max(0, Math.min(spinnerZone.getSelectedItemPosition(), state.setTemperatures.length - 1));
+            shownTemperature = String.format(Locale.US, "%.1f", state.setTemperatures[zone]);
+            shownSpeed = String.valueOf(state.maxSpeed);
+            editTextTemperature.setText(shownTemperature);
+            editTextSpeed.setText(shownSpeed);
+        }
+        RunStatistics run = state.run;
+        if (run != null && !run.finished) {
+            restoredRun = String.format(Locale.US, "運轉: %s, 平均誤差 %+.1f°C",
+                    formatDuration((run.endTick - run.startTick) / 1000.0), run.meanError);
+            updateMachineStatusUI();
+        }
+        if (state.recipe != null) {
+            textViewRecipeStatus.setText("配方: 步驟 " + (state.recipe.step + 1) + " (等待重新連接)");
+        }
     }
 
     /**
@@ -163,11 +441,34 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         buttonStart = findViewById(R.id.button_start);
         buttonStop = findViewById(R.id.button_stop);
         buttonSave = findViewById(R.id.button_save);
+        spinnerZone = findViewById(R.id.spinner_zone);
         editTextTemperature = findViewById(R.id.edittext_temperature);
         editTextSpeed = findViewById(R.id.edittext_speed);
         textViewCurrentTemperature = findViewById(R.id.textview_current_temperature);
         textViewCurrentSpeed = findViewById(R.id.textview_current_speed);
+        textViewHeater = findViewById(R.id.textview_heater);
+        buttonOptimize = findViewById(R.id.button_optimize);
+        textViewOptimizer = findViewById(R.id.textview_optimizer);
+        editTextDiameter = findViewById(R.id.edittext_diameter);
+        buttonDiameter = findViewById(R.id.button_diameter);
+        textViewDiameter = findViewById(R.id.textview_diameter);
         buttonViewLogs = findViewById(R.id.button_view_logs);
+        buttonRunHistory = findViewById(R.id.button_run_history);
+        checkBoxCapture = findViewById(R.id.checkbox_capture);
+        buttonReplayCapture = findViewById(R.id.button_replay_capture);
+        textViewLinkStats = findViewById(R.id.textview_link_stats);
+        editTextRecipe = findViewById(R.id.edittext_recipe);
+        textViewRecipeStatus = findViewById(R.id.textview_recipe_status);
+        buttonRecipe = findViewById(R.id.button_recipe);
+        textViewPerf = findViewById(R.id.textview_perf);
+        sparklineLoopMax = findViewById(R.id.sparkline_loop_max);
+        sparklineStepGap = findViewById(R.id.sparkline_step_gap);
+        sparklineZoneTemperatures = findViewById(R.id.sparkline_zone_temperatures);
+        editTextReferenceTemperature = findViewById(R.id.edittext_reference_temperature);
+        textViewCalibration = findViewById(R.id.textview_calibration);
+        buttonCapturePoint = findViewById(R.id.button_capture_point);
+        buttonUploadCalibration = findViewById(R.id.button_upload_calibration);
+        buttonClearCalibration = findViewById(R.id.button_clear_calibration);
     }
 
     /**
@@ -187,6 +488,7 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
 
         buttonDisconnect.setOnClickListener(v -> {
             bluetoothManager.disconnect();
+            handler.removeCallbacks(linkStatsUpdater);
             textViewConnectionStatus.setText("Not Connected");
             textViewConnectionStatus.setTextColor(getResources().getColor(android.R.color.holo_red_dark));
             setControlButtonsEnabled(false);
@@ -206,7 +508,13 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
             String temp = editTextTemperature.getText().toString();
             String speed = editTextSpeed.getText().toString();
             if (!temp.isEmpty() && !speed.isEmpty()) {
-                bluetoothManager.sendData("SET_TEMP:" + temp);
+                try {
+                    bluetoothManager.sendData(MachineConfig.setTemperatureCommand(
+                            spinnerZone.getSelectedItemPosition(), Float.parseFloat(temp)));
+                } catch (NumberFormatException e) {
+                    showToast("溫度格式錯誤");
+                    return;
+                }
                 bluetoothManager.sendData("SET_SPEED:" + speed);
                 showToast("設定已保存");
             } else {
@@ -214,10 +522,147 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
             }
         });
 
+        spinnerZone.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (shownConfig == null || position >= shownConfig.getZoneCount()) return;
+                shownTemperature = String.format(Locale.US, "%.1f", shownConfig.setTemperatures[position]);
+                editTextTemperature.setText(shownTemperature);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        buttonOptimize.setOnClickListener(v -> {
+            if (bluetoothManager.isOptimizing()) {
+                bluetoothManager.stopOptimizer();
+            } else {
+                bluetoothManager.startOptimizer();
+            }
+        });
+
+        buttonDiameter.setOnClickListener(v -> {
+            if (bluetoothManager.isDiameterControlled()) {
+                bluetoothManager.stopDiameterControl();
+                return;
+            }
+            double target;
+            try {
+                target = Double.parseDouble(editTextDiameter.getText().toString());
+            } catch (NumberFormatException e) {
+                target = 0;
+            }
+            if (!(target > 0)) {
+                showToast("請輸入目標線徑");
+            } else {
+                bluetoothManager.startDiameterControl(target);
+            }
+        });
+
         buttonViewLogs.setOnClickListener(v -> {
             Intent intent = new Intent(ControlActivity.this, LogActivity.class);
             startActivity(intent);
         });
+
+        buttonRunHistory.setOnClickListener(v -> {
+            Intent intent = new Intent(ControlActivity.this, RunHistoryActivity.class);
+            startActivity(intent);
+        });
+
+        buttonRecipe.setOnClickListener(v -> {
+            if (bluetoothManager.isRecipeRunning()) {
+                bluetoothManager.stopRecipe();
+                return;
+            }
+            Recipe recipe;
+            try {
+                recipe = Recipe.parse(editTextRecipe.getText().toString());
+            } catch (IllegalArgumentException e) {
+                showToast("配方格式錯誤: " + e.getMessage());
+                return;
+            }
+            bluetoothManager.startRecipe(recipe);
+        });
+
+        buttonCapturePoint.setOnClickListener(v -> {
+            // The probe reads the reference while the heater holds a steady temperature
+            try {
+                pendingReference = Double.parseDouble(editTextReferenceTemperature.getText().toString().trim());
+            } catch (NumberFormatException e) {
+                showToast("請輸入參考溫度");
+                return;
+            }
+            bluetoothManager.requestAdc();
+        });
+
+        buttonUploadCalibration.setOnClickListener(v -> {
+            if (calibrationPoints.size() < SteinhartHart.MIN_POINTS) {
+                showToast("至少需要 " + SteinhartHart.MIN_POINTS + " 個校正點");
+                return;
+            }
+            double[] adc = new double[calibrationPoints.size()];
+            double[] celsius = new double[adc.length];
+            for (int i = 0; i < adc.length; i++) {
+                adc[i] = calibrationPoints.get(i)[0];
+                celsius[i] = calibrationPoints.get(i)[1];
+            }
+            SteinhartHart curve;
+            try {
+                curve = SteinhartHart.fit(adc, celsius);
+            } catch (IllegalArgumentException e) {
+                showToast("無法擬合校正曲線: " + e.getMessage());
+                return;
+            }
+            calibrationFitText = String.format(Locale.US, "擬合最大誤差 %.2f°C，開始上傳", curve.maxResidual(adc, celsius));
+            bluetoothManager.uploadCalibration(CalibrationTable.fromCurve(curve));
+        });
+
+        buttonClearCalibration.setOnClickListener(v -> {
+            calibrationPoints.clear();
+            pendingReference = Double.NaN;
+            bluetoothManager.clearCalibration();
+            updateCalibrationUI(null);
+        });
+
+        textViewHeater.setOnLongClickListener(v -> {
+            bluetoothManager.resetHeaterBaseline();
+            showToast("已重設加熱器基準，下次辨識的模型將成為新基準");
+            return true;
+        });
+
+        checkBoxCapture.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked) {
+                bluetoothManager.startCapture();
+            } else {
+                bluetoothManager.stopCapture();
+            }
+        });
+
+        // Replays the capture unpaced through the live decode path, which doubles as a throughput check
+        buttonReplayCapture.setOnClickListener(v -> {
+            buttonReplayCapture.setEnabled(false);
+            loader.execute(() -> {
+                String message;
+                try {
+                    JournalReplayer.Stats stats = bluetoothManager.replayCapture(
+                            bluetoothManager.getCaptureDirectory(), JournalReplayer.MAX_SPEED);
+                    message = stats.records == 0 ? "沒有擷取資料可重播" : "重播完成: " + stats;
+                } catch (IllegalStateException e) {
+                    message = "連線中無法重播擷取資料";
+                } catch (IOException e) {
+                    Log.e("ControlActivity", "重播擷取資料失敗", e);
+                    message = "重播失敗: " + e.getMessage();
+                }
+                String result = message;
+                runOnUiThread(() -> {
+                    if (isFinishing()) return;
+                    buttonReplayCapture.setEnabled(true);
+                    showToast(result);
+                });
+            });
+        });
     }
 
     /**
@@ -324,8 +769,12 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        bluetoothManager.disconnect();
+        handler.removeCallbacks(linkStatsUpdater);
+        loader.shutdownNow();
+        bluetoothManager.disconnect(isChangingConfigurations());
+        bluetoothManager.stopCapture();
         bluetoothManager.unregisterReceiver();
+        bluetoothManager.release();
     }
 
     /**
@@ -339,15 +788,59 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         deviceAdapter.notifyDataSetChanged();
     }
 
+    /**
+     * Callback with the outcome of a start request; updates the controls it affects or says why it was refused.
+     * @param operation Operation requested.
+     * @param started true if it started.
+     */
+    @Override
+    public void onStartResult(BluetoothManager.Operation operation, boolean started) {
+        switch (operation) {
+            case OPTIMIZER:
+                if (started) {
+                    textViewOptimizer.setText("等待溫度穩定…");
+                    buttonOptimize.setText("Stop Search");
+                    updateDiameterButton();
+                } else {
+                    showToast("請先連接並停止配方");
+                }
+                break;
+            case DIAMETER_CONTROL:
+                showToast(started ? "線徑控制已啟動，馬達運轉時生效" : "請先連接並停止配方與速度搜尋");
+                updateDiameterButton();
+                break;
+            case RECIPE:
+                if (started) {
+                    updateRecipeButton();
+                    updateDiameterButton();
+                } else {
+                    showToast("未連接或尚未取得機器設定");
+                }
+                break;
+            case CALIBRATION_UPLOAD:
+                showToast(started ? calibrationFitText : "未連接");
+                break;
+            case CAPTURE:
+                if (!started) {
+                    checkBoxCapture.setChecked(false);
+                    showToast("無法開啟原始資料擷取");
+                }
+                break;
+        }
+    }
+
     /**
      * Callback when connected.
      */
     @Override
     public void onConnected() {
-        textViewConnectionStatus.setText("Connected");
+        textViewConnectionStatus.setText(connectedText());
         textViewConnectionStatus.setTextColor(getResources().getColor(android.R.color.holo_green_dark));
         setControlButtonsEnabled(true);
-        bluetoothManager.sendData("GET_STATUS");
+        handler.removeCallbacks(linkStatsUpdater);
+        handler.post(linkStatsUpdater);
+        int recommended = bluetoothManager.getRecommendedSpeed();
+        textViewOptimizer.setText(recommended > 0 ? "建議速度: " + recommended : "建議速度: -");
     }
 
     /**
@@ -356,6 +849,7 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
      */
     @Override
     public void onConnectionFailed(String error) {
+        handler.removeCallbacks(linkStatsUpdater);
         textViewConnectionStatus.setText("Not Connected");
         textViewConnectionStatus.setTextColor(getResources().getColor(android.R.color.holo_red_dark));
         setControlButtonsEnabled(false);
@@ -363,78 +857,298 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
     }
 
     /**
-     * Callback when data received.
-     * @param data Received data.
+     * Callback when a command got no reply after all retries.
+     * @param command Command text.
      */
     @Override
-    public void onDataReceived(String data) {
-        if (data.contains("STATUS_UPDATE:")) {
-            parseStatusData(data.replace("STATUS_UPDATE:", ""));
-        } else if (data.contains("TEMP:")) {
-            // Temperature info
-            String temp = data.replace("TEMP:", "").trim();
-            try {
-                currentTemperature = Float.parseFloat(temp);
-                textViewCurrentTemperature.setText("Current: " + (int)currentTemperature + "°C");
-            } catch (NumberFormatException e) {
-                e.printStackTrace();
-            }
-        } else if (data.contains("SPEED:")) {
-            // Speed info
-            String speed = data.replace("SPEED:", "").trim();
-            try {
-                currentSpeed = Integer.parseInt(speed);
-                textViewCurrentSpeed.setText("Current: " + currentSpeed + " mm/s");
-            } catch (NumberFormatException e) {
-                e.printStackTrace();
+    public void onCommandFailed(String command) {
+        showToast("命令未獲回應: " + command);
+    }
+
+    /**
+     * Callback when the machine config is known or changed; lists its heater zones and fills in the setpoints
+     * the user has not edited, the temperature being the one of the selected zone.
+     * @param config Machine config.
+     */
+    @Override
+    public void onConfigUpdated(MachineConfig config) {
+        shownConfig = config;
+        if (zoneAdapter.getCount() != config.getZoneCount()) {
+            zoneAdapter.clear();
+            for (int zone = 0; zone < config.getZoneCount(); zone++) zoneAdapter.add("Zone " + zone);
+        }
+        int zone = Math.max(0, Math.min(spinnerZone.getSelectedItemPosition(), config.getZoneCount() - 1));
+        String temperature = String.format(Locale.US, "%.1f", config.setTemperatures[zone]);
+        String speed = String.valueOf(config.maxSpeed);
+        if (editTextTemperature.getText().toString().equals(shownTemperature)) {
+            editTextTemperature.setText(temperature);
+        }
+        if (editTextSpeed.getText().toString().equals(shownSpeed)) {
+            editTextSpeed.setText(speed);
+        }
+        shownTemperature = temperature;
+        shownSpeed = speed;
+        firmwareVersion = config.firmwareVersion;
+        if (bluetoothManager.getSession().getState() == Session.State.CONNECTED) {
+            textViewConnectionStatus.setText(connectedText());
+        }
+    }
+
+    /**
+     * Returns the connection status text, with the firmware version once known.
+     * @return Status text.
+     */
+    private String connectedText() {
+        return firmwareVersion.isEmpty() ? "Connected" : "Connected (FW " + firmwareVersion + ")";
+    }
+
+    /**
+     * Callback when a recipe step begins.
+     * @param index Step index.
+     * @param count Number of steps.
+     * @param step Step text.
+     */
+    @Override
+    public void onRecipeStep(int index, int count, String step) {
+        textViewRecipeStatus.setText("配方: 步驟 " + (index + 1) + "/" + count + " " + step);
+        updateRecipeButton();
+    }
+
+    /**
+     * Callback when a recipe ends.
+     * @param completed true if all steps ran.
+     * @param reason Reason when not completed.
+     */
+    @Override
+    public void onRecipeFinished(boolean completed, String reason) {
+        textViewRecipeStatus.setText(completed ? "配方: 完成" : "配方: 已停止" + (reason == null ? "" : " (" + reason + ")"));
+        if (reason != null) showToast(reason);
+        updateRecipeButton();
+    }
+
+    /**
+     * Callback with a firmware loop-timing report: shows it and extends the charts.
+     * @param report Report.
+     */
+    @Override
+    public void onPerfReport(PerfReport report) {
+        textViewPerf.setText(String.format(Locale.US,
+                "韌體迴圈 (FW %s): 平均 %d µs, 最長 %d µs, ≥1 ms %.2f%%, 步進最大間隔 %d µs\n"
+                        + "PID %d/%d µs, LCD %d/%d µs, 藍牙 %d/%d µs (平均/最長)",
+                report.firmwareVersion, report.loopMeanMicros, report.loopMaxMicros, report.percentSlowerThan(1000),
+                report.stepGapMaxMicros, report.pidMeanMicros, report.pidMaxMicros, report.lcdMeanMicros,
+                report.lcdMaxMicros, report.bluetoothMeanMicros, report.bluetoothMaxMicros));
+        sparklineLoopMax.add(report.loopMaxMicros);
+        sparklineStepGap.add(report.stepGapMaxMicros);
+    }
+
+    /**
+     * Callback with a raw thermistor reading: completes the calibration point being captured.
+     * @param adc ADC value.
+     */
+    @Override
+    public void onAdcReading(double adc) {
+        if (Double.isNaN(pendingReference)) return;
+        calibrationPoints.add(new double[]{adc, pendingReference});
+        pendingReference = Double.NaN;
+        updateCalibrationUI(null);
+    }
+
+    /**
+     * Callback as the calibration upload is queued.
+     * @param queued Commands queued so far.
+     * @param total Commands in the upload.
+     */
+    @Override
+    public void onCalibrationProgress(int queued, int total) {
+        updateCalibrationUI(queued < total ? "上傳中 " + queued + "/" + total : "已上傳，等待韌體確認");
+    }
+
+    /**
+     * Callback with the heater estimates: shows the warm-up time with its range, the model and any drift of
+     * every zone, and turns the text red if any heater drifted.
+     * @param estimates Snapshots, one per zone.
+     */
+    @Override
+    public void onHeaterEstimates(HeaterEstimate[] estimates) {
+        StringBuilder text = new StringBuilder();
+        boolean drifted = false;
+        for (int zone = 0; zone < estimates.length; zone++) {
+            if (zone > 0) text.append("\n");
+            if (estimates.length > 1) text.append("區 ").append(zone).append(' ');
+            appendHeaterEstimate(text, estimates[zone]);
+            drifted |= estimates[zone].drifted;
+        }
+        textViewHeater.setText(text);
+        textViewHeater.setTextColor(drifted ? 0xFFE74C3C : 0xFF666666);
+    }
+
+    /**
+     * Callback with backfilled samples: extends the zone temperature chart.
+     * @param samples Samples in sequence order.
+     */
+    @Override
+    public void onTelemetrySamples(List<TelemetrySample> samples) {
+        for (TelemetrySample sample : samples) {
+            sparklineZoneTemperatures.push();
+            for (int zone = 0; zone < sample.getZoneCount(); zone++) {
+                sparklineZoneTemperatures.set(zone, sample.getTemperature(zone));
             }
-        } else if (data.contains("STATUS:")) {
-            // Status info
-            String status = data.replace("STATUS:", "").trim();
-            machineStatus = status;
-            updateMachineStatusUI();
+        }
+        sparklineZoneTemperatures.invalidate();
+    }
+
+    /**
+     * Describes one zone's heater estimate.
+     * @param text Text to append to.
+     * @param estimate Snapshot.
+     */
+    private void appendHeaterEstimate(StringBuilder text, HeaterEstimate estimate) {
+        text.append("預熱剩餘: ");
+        if (!estimate.hasEta()) {
+            text.append("估算中");
+        } else if (estimate.etaSeconds == 0) {
+            text.append("已達設定溫度");
+        } else if (Double.isInfinite(estimate.etaSeconds)) {
+            text.append(String.format(Locale.US, "無法達到 (全功率約 %.0f°C)", estimate.fullPowerTemperature));
+        } else {
+            text.append(formatDuration(estimate.etaSeconds)).append(" (")
+                    .append(formatDuration(estimate.etaLowSeconds)).append(" - ")
+                    .append(Double.isInfinite(estimate.etaHighSeconds) ? "∞" : formatDuration(estimate.etaHighSeconds))
+                    .append(')');
+        }
+        if (estimate.model != null) {
+            text.append(String.format(Locale.US, "\n加熱器: 增益 %.0f°C, τ %.0f s, 延遲 %.1f s",
+                    estimate.model.gain, estimate.model.tau, estimate.model.deadTime));
+        }
+        if (estimate.drifted) {
+            text.append(String.format(Locale.US, "\n⚠ 加熱能力較基準變化 %+.0f%%，請檢查加熱圈", estimate.gainDrift * 100));
+        }
+    }
+
+    /**
+     * Callback when the throughput search tries a new speed.
+     * @param speed Speed in steps/s.
+     */
+    @Override
+    public void onOptimizerProgress(int speed) {
+        textViewOptimizer.setText("嘗試速度 " + speed + "，持續 " + ThroughputOptimizer.DWELL_MS / 1000 + " 秒");
+    }
+
+    /**
+     * Callback when the throughput search ends: shows the recommended speed and copies it into the speed field.
+     * @param completed true if it converged.
+     * @param recommendedSpeed Highest speed that held, 0 if none did.
+     * @param reason Reason when not completed.
+     */
+    @Override
+    public void onOptimizerFinished(boolean completed, int recommendedSpeed, String reason) {
+        buttonOptimize.setText("Find Max Speed");
+        if (completed) {
+            textViewOptimizer.setText("建議速度: " + recommendedSpeed);
+            editTextSpeed.setText(String.valueOf(recommendedSpeed));
+        } else if (recommendedSpeed > 0) {
+            textViewOptimizer.setText("搜尋中止" + (reason != null ? " (" + reason + ")" : "") + "，已穩定: " + recommendedSpeed);
         } else {
-            // Other data, log it
-            Log.d("BluetoothData", "收到數據: " + data);
+            textViewOptimizer.setText("搜尋中止" + (reason != null ? ": " + reason : ""));
         }
     }
 
     /**
-     * Parses status data string.
-     * @param data Data to parse.
-     */
-    private void parseStatusData(String data) {
-        try {
-            String[] parts = data.split(",");
-            for (String part : parts) {
-                if (part.startsWith("TEMP:")) {
-                    String tempStr = part.replace("TEMP:", "").trim();
-                    currentTemperature = Float.parseFloat(tempStr);
-                    textViewCurrentTemperature.setText("Current: " + (int)currentTemperature + "°C");
-                } else if (part.startsWith("SPEED:")) {
-                    String speedStr = part.replace("SPEED:", "").trim();
-                    currentSpeed = Integer.parseInt(speedStr);
-                    textViewCurrentSpeed.setText("Current: " + currentSpeed + " mm/s");
-                } else if (part.startsWith("STATUS:")) {
-                    String status = part.replace("STATUS:", "").trim();
-                    machineStatus = status.equals("ON") ? "RUNNING" : "IDLE";
-                    updateMachineStatusUI();
-                }
-            }
-            showToast("狀態更新完成");
-        } catch (Exception e) {
-            e.printStackTrace();
-            showToast("解析狀態數據失敗");
+     * Callback with the latest diameter reading.
+     * @param diameter Diameter in mm.
+     * @param speed Speed the diameter loop asks for, -1 while it is not running.
+     */
+    @Override
+    public void onDiameter(double diameter, int speed) {
+        String text = String.format(Locale.US, "線徑: %.3f mm", diameter);
+        if (speed >= 0) text += "\n控制速度: " + speed;
+        textViewDiameter.setText(text);
+    }
+
+    /**
+     * Callback when the diameter loop stopped.
+     * @param reason Reason, or null if stopped by the user.
+     */
+    @Override
+    public void onDiameterControlStopped(String reason) {
+        updateDiameterButton();
+        if (reason != null) showToast("線徑控制已停止: " + reason);
+    }
+
+    /**
+     * Labels the diameter button after whether the diameter loop runs.
+     */
+    private void updateDiameterButton() {
+        buttonDiameter.setText(bluetoothManager.isDiameterControlled() ? "Release Diameter" : "Hold Diameter");
+    }
+
+    /**
+     * Formats seconds as m:ss.
+     * @param seconds Duration in seconds.
+     * @return Formatted duration.
+     */
+    private static String formatDuration(double seconds) {
+        long total = Math.round(seconds);
+        return String.format(Locale.US, "%d:%02d", total / 60, total % 60);
+    }
+
+    /**
+     * Lists the calibration points and the upload state.
+     * @param upload Upload state, or null if none.
+     */
+    private void updateCalibrationUI(String upload) {
+        StringBuilder text = new StringBuilder("校正點: " + calibrationPoints.size());
+        for (double[] point : calibrationPoints) {
+            text.append(String.format(Locale.US, "\n%.1f°C @ ADC %.2f", point[1], point[0]));
+        }
+        if (upload != null) text.append('\n').append(upload);
+        textViewCalibration.setText(text);
+    }
+
+    /**
+     * Labels the recipe button after whether a recipe is running.
+     */
+    private void updateRecipeButton() {
+        buttonRecipe.setText(bluetoothManager.isRecipeRunning() ? "Stop Recipe" : "Run Recipe");
+    }
+
+    /**
+     * Callback when data received.
+     * @param data Received line.
+     */
+    @Override
+    public void onDataReceived(String data) {
+        Log.d("BluetoothData", "收到數據: " + data);
+        if (data.toLowerCase(Locale.ROOT).contains("calibration") && !data.startsWith("OK: Calibration data")) {
+            // Outcome of CAL_BEGIN, CAL_END or CAL_CLEAR
+            updateCalibrationUI(data);
         }
     }
 
+    /**
+     * Callback when the telemetry changed.
+     * @param telemetry Snapshot of the telemetry.
+     */
+    @Override
+    public void onTelemetryUpdated(TelemetryModel telemetry) {
+        currentTemperatures = telemetry.formatTemperatures();
+        restoredRun = null;
+        currentSpeed = telemetry.speed;
+        machineStatus = telemetry.machineStatus;
+        textViewCurrentTemperature.setText("Current: " + currentTemperatures + "°C");
+        textViewCurrentSpeed.setText("Current: " + currentSpeed + " mm/s");
+        updateMachineStatusUI();
+    }
+
     /**
      * Updates machine status UI.
      */
     private void updateMachineStatusUI() {
         String displayText = "機器狀態: " + machineStatus + "\n"
-                + "溫度: " + (int)currentTemperature + "°C\n"
-                + "速度: " + currentSpeed + " mm/s";
+                + "溫度: " + currentTemperatures + "°C\n"
+                + "速度: " + currentSpeed + " mm/s"
+                + (restoredRun != null ? "\n" + restoredRun : "");
 
         textViewMachineStatus.setText(displayText);
 
@@ -448,6 +1162,25 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         }
     }
 
+    /**
+     * Shows the loss, retries and round-trip times of the command link.
+     */
+    private void updateLinkStatsUI() {
+        LinkStats stats = bluetoothManager.getSession().getLinkStats();
+        String text = String.format(Locale.US, "鏈路: 遺失 %.1f%%, 重傳 %d, 失敗 %d", stats.lossPercent(),
+                stats.retransmissions, stats.failures);
+        if (!Double.isNaN(stats.rttPercentileMillis(50))) {
+            text += String.format(Locale.US, ", RTT p50/p95/p99 %.0f/%.0f/%.0f ms", stats.rttPercentileMillis(50),
+                    stats.rttPercentileMillis(95), stats.rttPercentileMillis(99));
+        }
+        EventLoop loop = bluetoothManager.getEventLoop();
+        if (loop.getTaskCount() > 0) {
+            text += String.format(Locale.US, "\n事件迴圈: 平均延遲 %.2f ms, 最長 %.1f ms, 待處理 %d",
+                    loop.getMeanQueueDelayMillis(), loop.getMaxQueueDelayMillis(), loop.getPendingCount());
+        }
+        textViewLinkStats.setText(text);
+    }
+
     /**
      * Enables or disables control buttons.
      * @param enabled True to enable, false to disable.
@@ -456,6 +1189,8 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         buttonStart.setEnabled(enabled);
         buttonStop.setEnabled(enabled);
         buttonSave.setEnabled(enabled);
+        buttonOptimize.setEnabled(enabled);
+        buttonDiameter.setEnabled(enabled);
         buttonDisconnect.setEnabled(enabled);
 
         // Set button alpha
@@ -463,6 +1198,8 @@ public class ControlActivity extends AppCompatActivity implements BluetoothManag
         buttonStart.setAlpha(alpha);
         buttonStop.setAlpha(alpha);
         buttonSave.setAlpha(alpha);
+        buttonOptimize.setAlpha(alpha);
+        buttonDiameter.setAlpha(alpha);
         buttonDisconnect.setAlpha(alpha);
     }
 
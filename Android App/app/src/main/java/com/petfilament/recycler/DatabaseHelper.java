@@ -3,16 +3,37 @@ package com.petfilament.recycler;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import com.petfilament.recycler.core.LogBlock;
+import com.petfilament.recycler.core.LogStore;
+import com.petfilament.recycler.core.MessageInterner;
+import com.petfilament.recycler.core.PerfReport;
+import com.petfilament.recycler.core.ProtocolParser;
+import com.petfilament.recycler.core.QuantileSketch;
+import com.petfilament.recycler.core.RunStatistics;
+import com.petfilament.recycler.core.TelemetrySample;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * DatabaseHelper class manages SQLite database for Bluetooth logs.
+ * DatabaseHelper class manages SQLite database for Bluetooth logs, backfilled firmware telemetry, run summaries
+ * and firmware loop-timing reports.
+ * A single process-wide instance keeps one long-lived write connection in WAL mode plus a separate
+ * read-only connection, so history queries and exports never block the logging path and vice versa.
+ * Log rows store integer direction and type codes; repeated messages point into a dictionary table and
+ * the remaining free-form messages are compressed in blocks once enough of them accumulate.
  */
 public class DatabaseHelper extends SQLiteOpenHelper {
 
@@ -24,14 +45,96 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     /**
      * Database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 9;
 
     // Table name and columns
     /**
-     * Table name for logs.
+     * Name of the original log table, now a view with the same columns over the log tables below. Messages
+     * already compressed into a block read as NULL through the view; {@link #loadLogsAfter} decodes them.
      */
     private static final String TABLE_LOGS = "bluetooth_logs";
 
+    /**
+     * Table name for log rows: wall-clock time, direction and type codes, and the message as a dictionary
+     * reference, an inline payload, or a position in a compressed block.
+     */
+    private static final String TABLE_LOG_RECORDS = "log_records";
+
+    /**
+     * Table name for the message dictionary.
+     */
+    private static final String TABLE_LOG_MESSAGES = "log_messages";
+
+    /**
+     * Table name for compressed blocks of free-form messages.
+     */
+    private static final String TABLE_LOG_BLOCKS = "log_blocks";
+
+    /**
+     * Direction code for messages sent to the machine.
+     */
+    private static final int DIRECTION_OUT = 0;
+
+    /**
+     * Direction code for messages received from the machine.
+     */
+    private static final int DIRECTION_IN = 1;
+
+    /**
+     * Type code for commands sent to the machine.
+     */
+    private static final int TYPE_COMMAND = 0;
+
+    /**
+     * Type code for status reports.
+     */
+    private static final int TYPE_STATUS = 1;
+
+    /**
+     * Type code for single telemetry fields.
+     */
+    private static final int TYPE_TELEMETRY = 2;
+
+    /**
+     * Type code for acknowledgements ("OK: ...").
+     */
+    private static final int TYPE_ACK = 3;
+
+    /**
+     * Type code for errors ("ERROR: ...").
+     */
+    private static final int TYPE_ERROR = 4;
+
+    /**
+     * Type code for config replies.
+     */
+    private static final int TYPE_CONFIG = 5;
+
+    /**
+     * Type code for any other received line.
+     */
+    private static final int TYPE_OTHER = 6;
+
+    /**
+     * Type code for loop-timing reports.
+     */
+    private static final int TYPE_PERF = 7;
+
+    /**
+     * Free-form messages per compressed block.
+     */
+    private static final int BLOCK_ROWS = 256;
+
+    /**
+     * Maximum number of dictionary entries.
+     */
+    private static final int DICTIONARY_ENTRIES = 4096;
+
+    /**
+     * Recent distinct messages remembered as dictionary candidates.
+     */
+    private static final int INTERN_WINDOW = 256;
+
     /**
      * Column for ID.
      */
@@ -43,7 +146,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_TIMESTAMP = "timestamp";
 
     /**
-     * Column for direction ("IN" or "OUT").
+     * Column for direction ("IN" or "OUT" in the view, {@link #DIRECTION_IN} or {@link #DIRECTION_OUT} in the table).
      */
     private static final String COLUMN_DIRECTION = "direction";
 
@@ -52,116 +155,984 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      */
     private static final String COLUMN_MESSAGE = "message";
 
+    /**
+     * Column for the wall-clock time in seconds since the epoch (local time, as the old timestamp text).
+     */
+    private static final String COLUMN_TIME = "time";
+
+    /**
+     * Column for the type code.
+     */
+    private static final String COLUMN_TYPE = "type";
+
+    /**
+     * Column for the dictionary ID of the message, NULL for free-form messages.
+     */
+    private static final String COLUMN_MESSAGE_ID = "message_id";
+
+    /**
+     * Column for a free-form message not yet compressed.
+     */
+    private static final String COLUMN_PAYLOAD = "payload";
+
+    /**
+     * Column for the block holding a compressed free-form message.
+     */
+    private static final String COLUMN_BLOCK_ID = "block_id";
+
+    /**
+     * Column for the position of the message within its block.
+     */
+    private static final String COLUMN_BLOCK_INDEX = "block_index";
+
+    /**
+     * Column for the dictionary text.
+     */
+    private static final String COLUMN_TEXT = "text";
+
+    /**
+     * Column for the compressed block data.
+     */
+    private static final String COLUMN_DATA = "data";
+
+    /**
+     * Table name for firmware telemetry samples, keyed by (boot, seq) so repeated transfers are ignored.
+     */
+    private static final String TABLE_TELEMETRY = "telemetry";
+
+    /**
+     * Column for the firmware boot number.
+     */
+    private static final String COLUMN_BOOT = "boot";
+
+    /**
+     * Column for the sample sequence number within a boot.
+     */
+    private static final String COLUMN_SEQ = "seq";
+
+    /**
+     * Column for the firmware tick (milliseconds since boot).
+     */
+    private static final String COLUMN_TICK = "tick";
+
+    /**
+     * Column for the temperature in degrees Celsius, of zone 0; zone z &gt; 0 is in "temperature_z", NULL if
+     * the board has no such zone.
+     */
+    private static final String COLUMN_TEMPERATURE = "temperature";
+
+    /**
+     * Column for the motor speed.
+     */
+    private static final String COLUMN_SPEED = "speed";
+
+    /**
+     * Column for the heater duty (0-255), of zone 0; zone z &gt; 0 is in "duty_z", NULL if the board has no
+     * such zone.
+     */
+    private static final String COLUMN_DUTY = "duty";
+
+    /**
+     * Table name for run summaries, one row per motor start/stop, updated as samples arrive.
+     */
+    private static final String TABLE_RUNS = "runs";
+
+    /**
+     * Table name for firmware loop-timing reports, one row per GET_PERF reply, with the headline numbers in
+     * columns for comparing firmware versions and the whole reply for charting.
+     */
+    private static final String TABLE_PERF = "perf";
+
+    /**
+     * Run columns after the ID, in the order {@link #readRun} reads them.
+     */
+    private static final String[] RUN_COLUMNS = {"boot", "start_tick", "end_tick", "started_at", "finished", "samples",
+            "mean_temperature", "mean_error", "error_m2", "min_error", "max_error", "within_ms", "steps",
+            "latest_speed", "latest_within", "recipe", "error_sketch", "speed_sketch",
+            "diameter_sketch"};
+
+    /**
+     * Logging tag.
+     */
+    private static final String TAG = "DatabaseHelper";
+
+    /**
+     * WAL pages after which SQLite checkpoints on commit; a backstop for the background checkpoint.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 4000;
+
+    /**
+     * Size the WAL file is truncated to after a checkpoint.
+     */
+    private static final long WAL_SIZE_LIMIT = 4L * 1024 * 1024;
+
+    /**
+     * Interval of the background passive checkpoint in seconds.
+     */
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 30;
+
+    /**
+     * The single instance used by the whole app.
+     */
+    private static DatabaseHelper instance;
+
+    /**
+     * Listeners notified of appended rows, shared by all helper instances.
+     */
+    private static final CopyOnWriteArrayList<LogListener> logListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Interface for observers of newly appended log rows.
+     */
+    public interface LogListener {
+        /**
+         * Called on the writing thread right after a row is inserted. Keep it short.
+         * @param id Row ID of the new entry.
+         */
+        void onLogAppended(long id);
+    }
+
+    /**
+     * Context used to locate the database file.
+     */
+    private final Context context;
+
+    /**
+     * Long-lived write connection.
+     */
+    private SQLiteDatabase writeDb;
+
+    /**
+     * Long-lived read-only connection for queries.
+     */
+    private SQLiteDatabase readDb;
+
+    /**
+     * Precompiled log insert, guarded by its own monitor.
+     */
+    private SQLiteStatement insertLogStatement;
+
+    /**
+     * Precompiled dictionary insert, guarded by the log insert statement's monitor.
+     */
+    private SQLiteStatement insertMessageStatement;
+
+    /**
+     * Precompiled telemetry insert, guarded by its own monitor.
+     */
+    private SQLiteStatement insertTelemetryStatement;
+
+    /**
+     * Dictionary promotion, loaded from the dictionary table on open.
+     */
+    private final MessageInterner interner = new MessageInterner(DICTIONARY_ENTRIES, INTERN_WINDOW);
+
+    /**
+     * Number of free-form messages not yet compressed.
+     */
+    private final AtomicInteger pendingPayloads = new AtomicInteger();
+
+    /**
+     * Set while block compression is queued.
+     */
+    private final AtomicBoolean sealQueued = new AtomicBoolean(false);
+
+    /**
+     * Thread running periodic passive checkpoints and block compression.
+     */
+    private final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "db-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Constructor.
-     * @param context Context.
+     * @param context Application context.
      */
-    public DatabaseHelper(Context context) {
+    private DatabaseHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.context = context;
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Returns the process-wide helper, opening its connections on first use.
+     * @param context Any context; the application context is retained.
+     * @return Shared helper.
+     */
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+            instance.open();
+        }
+        return instance;
     }
 
     /**
-     * Creates the database table.
+     * Opens the write and read connections and starts the checkpoint schedule.
+     */
+    private void open() {
+        writeDb = getWritableDatabase();
+        insertLogStatement = writeDb.compileStatement("INSERT INTO " + TABLE_LOG_RECORDS + " (" + COLUMN_TIME + ", "
+                + COLUMN_DIRECTION + ", " + COLUMN_TYPE + ", " + COLUMN_MESSAGE_ID + ", " + COLUMN_PAYLOAD
+                + ") VALUES (?, ?, ?, ?, ?)");
+        insertMessageStatement = writeDb.compileStatement("INSERT INTO " + TABLE_LOG_MESSAGES + " ("
+                + COLUMN_TEXT + ") VALUES (?)");
+        StringBuilder zoneColumns = new StringBuilder();
+        StringBuilder zoneValues = new StringBuilder();
+        for (int zone = 1; zone < TelemetrySample.MAX_ZONES; zone++) {
+            zoneColumns.append(", ").append(zoneColumn(COLUMN_TEMPERATURE, zone))
+                    .append(", ").append(zoneColumn(COLUMN_DUTY, zone));
+            zoneValues.append(", ?, ?");
+        }
+        insertTelemetryStatement = writeDb.compileStatement("INSERT OR IGNORE INTO " + TABLE_TELEMETRY + " ("
+                + COLUMN_BOOT + ", " + COLUMN_SEQ + ", " + COLUMN_TICK + ", " + COLUMN_TEMPERATURE + ", "
+                + COLUMN_SPEED + ", " + COLUMN_DUTY + zoneColumns + ") VALUES (?, ?, ?, ?, ?, ?" + zoneValues + ")");
+        readDb = SQLiteDatabase.openDatabase(context.getDatabasePath(DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        loadDictionary();
+        checkpointer.scheduleWithFixedDelay(this::checkpoint,
+                CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Tunes the write connection: WAL with NORMAL sync (durable across app crashes, at most the last
+     * commits lost on power loss), a high auto-checkpoint backstop and a bounded WAL file.
+     * @param db SQLite database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        pragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        pragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT);
+    }
+
+    /**
+     * Creates the database tables.
      * @param db SQLite database.
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        String createTable = "CREATE TABLE " + TABLE_LOGS + " (" +
-                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                COLUMN_TIMESTAMP + " TEXT NOT NULL, " +
-                COLUMN_DIRECTION + " TEXT NOT NULL, " +
-                COLUMN_MESSAGE + " TEXT NOT NULL);";
-        db.execSQL(createTable);
+        createLogTables(db);
+        createLogView(db);
+        createTelemetryTable(db);
+        createRunsTable(db);
+        createPerfTable(db);
     }
 
     /**
-     * Upgrades the database by dropping and recreating the table.
+     * Upgrades the database step by step, keeping existing logs.
      * @param db SQLite database.
      * @param oldVersion Old version.
      * @param newVersion New version.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LOGS);
-        onCreate(db);
+        if (oldVersion < 2) {
+            createTelemetryTable(db);
+        }
+        if (oldVersion < 3) {
+            createRunsTable(db);
+        }
+        if (oldVersion < 4) {
+            migrateLogs(db);
+        }
+        if (oldVersion < 5) {
+            createPerfTable(db);
+        }
+        if (oldVersion >= 3 && oldVersion < 6) {
+            // Runs summarized before have no sketches; they are left out of percentile queries
+            db.execSQL("ALTER TABLE " + TABLE_RUNS + " ADD COLUMN recipe TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_RUNS + " ADD COLUMN error_sketch BLOB");
+            db.execSQL("ALTER TABLE " + TABLE_RUNS + " ADD COLUMN speed_sketch BLOB");
+        }
+        if (oldVersion >= 3 && oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + TABLE_RUNS + " ADD COLUMN diameter_sketch BLOB");
+        }
+        if (oldVersion >= 2 && oldVersion < 8) {
+            // Samples stored before are all single-zone; their extra zones stay NULL
+            for (int zone = 1; zone < TelemetrySample.MAX_ZONES; zone++) {
+                db.execSQL("ALTER TABLE " + TABLE_TELEMETRY + " ADD COLUMN " + zoneColumn(COLUMN_TEMPERATURE, zone) + " REAL");
+                db.execSQL("ALTER TABLE " + TABLE_TELEMETRY + " ADD COLUMN " + zoneColumn(COLUMN_DUTY, zone) + " INTEGER");
+            }
+        }
+        if (oldVersion >= 4 && oldVersion < 9) {
+            // The view showed compressed rows with a NULL message
+            db.execSQL("DROP VIEW " + TABLE_LOGS);
+            createLogView(db);
+        }
     }
 
     /**
-     * Inserts a log entry with timestamp.
+     * Creates the loop-timing report table.
+     * @param db SQLite database.
+     */
+    private static void createPerfTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_PERF + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "recorded_at INTEGER NOT NULL, " +
+                "firmware TEXT NOT NULL, " +
+                "loop_mean_us INTEGER NOT NULL, " +
+                "loop_max_us INTEGER NOT NULL, " +
+                "step_gap_max_us INTEGER NOT NULL, " +
+                "report TEXT NOT NULL);");
+    }
+
+    /**
+     * Creates the log record, dictionary and block tables. The partial index keeps finding the messages
+     * still to be compressed cheap however large the log grows.
+     * @param db SQLite database.
+     */
+    private static void createLogTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_LOG_MESSAGES + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_TEXT + " TEXT NOT NULL UNIQUE);");
+        db.execSQL("CREATE TABLE " + TABLE_LOG_BLOCKS + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_DATA + " BLOB NOT NULL);");
+        db.execSQL("CREATE TABLE " + TABLE_LOG_RECORDS + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_TIME + " INTEGER NOT NULL, " +
+                COLUMN_DIRECTION + " INTEGER NOT NULL, " +
+                COLUMN_TYPE + " INTEGER NOT NULL, " +
+                COLUMN_MESSAGE_ID + " INTEGER, " +
+                COLUMN_PAYLOAD + " TEXT, " +
+                COLUMN_BLOCK_ID + " INTEGER, " +
+                COLUMN_BLOCK_INDEX + " INTEGER);");
+        db.execSQL("CREATE INDEX " + TABLE_LOG_RECORDS + "_pending ON " + TABLE_LOG_RECORDS
+                + " (" + COLUMN_ID + ") WHERE " + COLUMN_PAYLOAD + " IS NOT NULL");
+    }
+
+    /**
+     * Creates the view with the original log table's columns. Messages compressed into {@link #TABLE_LOG_BLOCKS}
+     * cannot be decoded in SQL, so their rows are left out rather than shown with a NULL message; the view
+     * covers the history not compressed yet, and {@link #loadLogsAfter} reads all of it.
+     * @param db SQLite database.
+     */
+    private static void createLogView(SQLiteDatabase db) {
+        db.execSQL("CREATE VIEW " + TABLE_LOGS + " AS SELECT r." + COLUMN_ID + " AS " + COLUMN_ID + ", "
+                + "strftime('%Y-%m-%d %H:%M:%S', r." + COLUMN_TIME + ", 'unixepoch') AS " + COLUMN_TIMESTAMP + ", "
+                + "CASE r." + COLUMN_DIRECTION + " WHEN " + DIRECTION_IN + " THEN 'IN' ELSE 'OUT' END AS " + COLUMN_DIRECTION + ", "
+                + "COALESCE(m." + COLUMN_TEXT + ", r." + COLUMN_PAYLOAD + ") AS " + COLUMN_MESSAGE
+                + " FROM " + TABLE_LOG_RECORDS + " r LEFT JOIN " + TABLE_LOG_MESSAGES + " m ON m." + COLUMN_ID
+                + " = r." + COLUMN_MESSAGE_ID + " WHERE r." + COLUMN_BLOCK_ID + " IS NULL");
+    }
+
+    /**
+     * Moves the rows of the original log table into the new tables, keeping their IDs, and replaces the table
+     * with the view. Messages seen more than once seed the dictionary; the rest are left inline and compressed
+     * by the background task after opening. Types of migrated rows are derived from their prefixes.
+     * @param db SQLite database.
+     */
+    private static void migrateLogs(SQLiteDatabase db) {
+        createLogTables(db);
+        db.execSQL("INSERT INTO " + TABLE_LOG_MESSAGES + " (" + COLUMN_TEXT + ") SELECT " + COLUMN_MESSAGE
+                + " FROM " + TABLE_LOGS + " WHERE length(" + COLUMN_MESSAGE + ") <= " + MessageInterner.MAX_INTERNED_LENGTH
+                + " GROUP BY " + COLUMN_MESSAGE + " HAVING COUNT(*) > 1 ORDER BY COUNT(*) DESC LIMIT " + DICTIONARY_ENTRIES);
+        db.execSQL("INSERT INTO " + TABLE_LOG_RECORDS + " (" + COLUMN_ID + ", " + COLUMN_TIME + ", "
+                + COLUMN_DIRECTION + ", " + COLUMN_TYPE + ", " + COLUMN_MESSAGE_ID + ", " + COLUMN_PAYLOAD + ") "
+                + "SELECT l." + COLUMN_ID + ", CAST(strftime('%s', l." + COLUMN_TIMESTAMP + ") AS INTEGER), "
+                + "CASE l." + COLUMN_DIRECTION + " WHEN 'IN' THEN " + DIRECTION_IN + " ELSE " + DIRECTION_OUT + " END, "
+                + "CASE WHEN l." + COLUMN_DIRECTION + " <> 'IN' THEN " + TYPE_COMMAND
+                + " WHEN l." + COLUMN_MESSAGE + " LIKE 'OK:%' THEN " + TYPE_ACK
+                + " WHEN l." + COLUMN_MESSAGE + " LIKE 'ERROR:%' THEN " + TYPE_ERROR
+                + " WHEN l." + COLUMN_MESSAGE + " LIKE 'CFG_VER:%' OR l." + COLUMN_MESSAGE + " LIKE 'CONFIG:%' THEN " + TYPE_CONFIG
+                + " WHEN l." + COLUMN_MESSAGE + " LIKE '%,%' THEN " + TYPE_STATUS
+                + " ELSE " + TYPE_OTHER + " END, "
+                + "m." + COLUMN_ID + ", CASE WHEN m." + COLUMN_ID + " IS NULL THEN l." + COLUMN_MESSAGE + " END "
+                + "FROM " + TABLE_LOGS + " l LEFT JOIN " + TABLE_LOG_MESSAGES + " m ON m." + COLUMN_TEXT
+                + " = l." + COLUMN_MESSAGE);
+        db.execSQL("DROP TABLE " + TABLE_LOGS);
+        createLogView(db);
+    }
+
+    /**
+     * Creates the telemetry table. Rows are appended in arrival order, so the largest rowid is the newest sample.
+     * @param db SQLite database.
+     */
+    private static void createTelemetryTable(SQLiteDatabase db) {
+        StringBuilder zoneColumns = new StringBuilder();
+        for (int zone = 1; zone < TelemetrySample.MAX_ZONES; zone++) {
+            zoneColumns.append(zoneColumn(COLUMN_TEMPERATURE, zone)).append(" REAL, ")
+                    .append(zoneColumn(COLUMN_DUTY, zone)).append(" INTEGER, ");
+        }
+        db.execSQL("CREATE TABLE " + TABLE_TELEMETRY + " (" +
+                COLUMN_BOOT + " INTEGER NOT NULL, " +
+                COLUMN_SEQ + " INTEGER NOT NULL, " +
+                COLUMN_TICK + " INTEGER NOT NULL, " +
+                COLUMN_TEMPERATURE + " REAL NOT NULL, " +
+                COLUMN_SPEED + " INTEGER NOT NULL, " +
+                COLUMN_DUTY + " INTEGER NOT NULL, " +
+                zoneColumns +
+                "UNIQUE (" + COLUMN_BOOT + ", " + COLUMN_SEQ + "));");
+    }
+
+    /**
+     * Returns the column of a heater zone beyond zone 0.
+     * @param column Zone 0 column, {@link #COLUMN_TEMPERATURE} or {@link #COLUMN_DUTY}.
+     * @param zone Zone index, at least 1.
+     * @return Column name.
+     */
+    private static String zoneColumn(String column, int zone) {
+        return column + "_" + zone;
+    }
+
+    /**
+     * Creates the run summary table. The history is listed by ID, newest first, and percentile queries read
+     * every run in their window, so it needs no other index. Each run carries serialized
+     * {@link QuantileSketch}es of its setpoint error, speed and filament diameter.
+     * @param db SQLite database.
+     */
+    private static void createRunsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_RUNS + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "boot INTEGER NOT NULL, " +
+                "start_tick INTEGER NOT NULL, " +
+                "end_tick INTEGER NOT NULL, " +
+                "started_at INTEGER NOT NULL, " +
+                "finished INTEGER NOT NULL, " +
+                "samples INTEGER NOT NULL, " +
+                "mean_temperature REAL NOT NULL, " +
+                "mean_error REAL NOT NULL, " +
+                "error_m2 REAL NOT NULL, " +
+                "min_error REAL, " +
+                "max_error REAL, " +
+                "within_ms INTEGER NOT NULL, " +
+                "steps REAL NOT NULL, " +
+                "latest_speed INTEGER NOT NULL, " +
+                "latest_within INTEGER NOT NULL, " +
+                "recipe TEXT, " +
+                "error_sketch BLOB, " +
+                "speed_sketch BLOB, " +
+                "diameter_sketch BLOB);");
+    }
+
+    /**
+     * Registers a listener for appended rows.
+     * @param listener Listener.
+     */
+    public static void addLogListener(LogListener listener) {
+        logListeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Unregisters a listener for appended rows.
+     * @param listener Listener.
+     */
+    public static void removeLogListener(LogListener listener) {
+        logListeners.remove(listener);
+    }
+
+    /**
+     * Inserts a log entry with timestamp and publishes its row ID to the log listeners.
+     * Sent messages are typed as commands, received ones as other lines.
      * @param direction Direction ("IN" or "OUT").
      * @param message Message.
+     * @return Row ID of the new entry, or -1 on failure.
+     */
+    public long insertLog(String direction, String message) {
+        return insertLog(direction, null, message);
+    }
+
+    /**
+     * Inserts a log entry with timestamp and publishes its row ID to the log listeners. The message is stored
+     * as a dictionary reference if it is, or has just become, a dictionary entry, and inline otherwise.
+     * A failed write, e.g. a full disk or a locked database, is logged rather than thrown, since the callers
+     * run on the connection's event loop.
+     * @param direction Direction ("IN" or "OUT").
+     * @param kind Parsed kind of a received line, or null.
+     * @param message Message.
+     * @return Row ID of the new entry, or -1 on failure.
+     */
+    public long insertLog(String direction, ProtocolParser.Kind kind, String message) {
+        boolean inbound = "IN".equals(direction);
+        long now = System.currentTimeMillis();
+        long id;
+        long messageId;
+        synchronized (insertLogStatement) {
+            try {
+                messageId = interner.lookup(message);
+                if (messageId < 0 && interner.shouldIntern(message)) {
+                    insertMessageStatement.bindString(1, message);
+                    messageId = insertMessageStatement.executeInsert();
+                    if (messageId != -1) interner.put(message, messageId);
+                }
+                insertLogStatement.bindLong(1, (now + TimeZone.getDefault().getOffset(now)) / 1000);
+                insertLogStatement.bindLong(2, inbound ? DIRECTION_IN : DIRECTION_OUT);
+                insertLogStatement.bindLong(3, inbound ? typeCode(kind) : TYPE_COMMAND);
+                if (messageId >= 0) {
+                    insertLogStatement.bindLong(4, messageId);
+                    insertLogStatement.bindNull(5);
+                } else {
+                    insertLogStatement.bindNull(4);
+                    insertLogStatement.bindString(5, message);
+                }
+                id = insertLogStatement.executeInsert();
+            } catch (SQLException e) {
+                Log.e(TAG, "寫入日誌失敗", e);
+                return -1;
+            }
+        }
+        if (id != -1 && messageId < 0 && pendingPayloads.incrementAndGet() >= BLOCK_ROWS) {
+            scheduleSeal();
+        }
+        if (id != -1) {
+            for (LogListener listener : logListeners) {
+                listener.onLogAppended(id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Maps a parsed kind to its stored type code.
+     * @param kind Parsed kind, or null.
+     * @return Type code.
+     */
+    private static int typeCode(ProtocolParser.Kind kind) {
+        if (kind == null) return TYPE_OTHER;
+        switch (kind) {
+            case STATUS:
+                return TYPE_STATUS;
+            case TELEMETRY:
+                return TYPE_TELEMETRY;
+            case ACK:
+                return TYPE_ACK;
+            case ERROR:
+                return TYPE_ERROR;
+            case CONFIG:
+                return TYPE_CONFIG;
+            case PERF:
+                return TYPE_PERF;
+            default:
+                return TYPE_OTHER;
+        }
+    }
+
+    /**
+     * Loads the dictionary into the interner and counts the messages still to be compressed.
+     */
+    private void loadDictionary() {
+        Cursor cursor = readDb.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_TEXT + " FROM " + TABLE_LOG_MESSAGES, null);
+        if (cursor.moveToFirst()) {
+            do {
+                interner.put(cursor.getString(1), cursor.getLong(0));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        cursor = readDb.rawQuery("SELECT COUNT(*) FROM " + TABLE_LOG_RECORDS + " WHERE " + COLUMN_PAYLOAD + " IS NOT NULL", null);
+        if (cursor.moveToFirst()) {
+            pendingPayloads.set(cursor.getInt(0));
+        }
+        cursor.close();
+        if (pendingPayloads.get() >= BLOCK_ROWS) {
+            scheduleSeal();
+        }
+    }
+
+    /**
+     * Queues block compression on the background thread unless it is already queued.
+     */
+    private void scheduleSeal() {
+        if (sealQueued.compareAndSet(false, true)) {
+            checkpointer.execute(this::sealBlocks);
+        }
+    }
+
+    /**
+     * Compresses full blocks of free-form messages, oldest first.
+     */
+    private void sealBlocks() {
+        sealQueued.set(false);
+        try {
+            while (pendingPayloads.get() >= BLOCK_ROWS && sealBlock()) {
+                pendingPayloads.addAndGet(-BLOCK_ROWS);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "日誌壓縮失敗", e);
+        }
+    }
+
+    /**
+     * Compresses the oldest {@link #BLOCK_ROWS} free-form messages into one block and points their rows at it,
+     * in one transaction so readers see each row either inline or compressed.
+     * @return true if a block was written, false if fewer messages are pending.
+     */
+    private boolean sealBlock() {
+        long[] ids = new long[BLOCK_ROWS];
+        List<String> payloads = new ArrayList<>(BLOCK_ROWS);
+        Cursor cursor = writeDb.rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_PAYLOAD + " FROM " + TABLE_LOG_RECORDS
+                + " WHERE " + COLUMN_PAYLOAD + " IS NOT NULL ORDER BY " + COLUMN_ID + " LIMIT " + BLOCK_ROWS, null);
+        if (cursor.moveToFirst()) {
+            do {
+                ids[payloads.size()] = cursor.getLong(0);
+                payloads.add(cursor.getString(1));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        if (payloads.size() < BLOCK_ROWS) return false;
+
+        byte[] block = LogBlock.encode(payloads);
+        writeDb.beginTransactionNonExclusive();
+        try {
+            SQLiteStatement insertBlock = writeDb.compileStatement("INSERT INTO " + TABLE_LOG_BLOCKS + " ("
+                    + COLUMN_DATA + ") VALUES (?)");
+            insertBlock.bindBlob(1, block);
+            long blockId = insertBlock.executeInsert();
+            insertBlock.close();
+            SQLiteStatement update = writeDb.compileStatement("UPDATE " + TABLE_LOG_RECORDS + " SET "
+                    + COLUMN_BLOCK_ID + " = ?, " + COLUMN_BLOCK_INDEX + " = ?, " + COLUMN_PAYLOAD + " = NULL WHERE "
+                    + COLUMN_ID + " = ?");
+            for (int i = 0; i < BLOCK_ROWS; i++) {
+                update.bindLong(1, blockId);
+                update.bindLong(2, i);
+                update.bindLong(3, ids[i]);
+                update.executeUpdateDelete();
+            }
+            update.close();
+            writeDb.setTransactionSuccessful();
+        } finally {
+            writeDb.endTransaction();
+        }
+        return true;
+    }
+
+    /**
+     * Reads and decompresses a block.
+     * @param blockId Block ID.
+     * @return Messages in row order, empty if the block is missing or corrupt.
+     */
+    private String[] loadBlock(long blockId) {
+        Cursor cursor = readDb.rawQuery("SELECT " + COLUMN_DATA + " FROM " + TABLE_LOG_BLOCKS + " WHERE "
+                + COLUMN_ID + " = ?", new String[]{String.valueOf(blockId)});
+        String[] messages = new String[0];
+        try {
+            if (cursor.moveToFirst()) {
+                messages = LogBlock.decode(cursor.getBlob(0));
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "日誌區塊損壞: " + blockId, e);
+        }
+        cursor.close();
+        return messages;
+    }
+
+    /**
+     * Stores backfilled telemetry in one transaction; samples already stored are skipped. A failed write is
+     * logged and the whole batch rolled back.
+     * @param samples Samples to store.
+     * @return Number of new rows, or -1 on failure.
+     */
+    public int insertTelemetry(List<TelemetrySample> samples) {
+        int inserted = 0;
+        synchronized (insertTelemetryStatement) {
+            try {
+                writeDb.beginTransactionNonExclusive();
+                try {
+                    for (TelemetrySample sample : samples) {
+                        insertTelemetryStatement.bindLong(1, sample.boot);
+                        insertTelemetryStatement.bindLong(2, sample.seq);
+                        insertTelemetryStatement.bindLong(3, sample.tick);
+                        insertTelemetryStatement.bindDouble(4, sample.temperature);
+                        insertTelemetryStatement.bindLong(5, sample.speed);
+                        insertTelemetryStatement.bindLong(6, sample.duty);
+                        for (int zone = 1; zone < TelemetrySample.MAX_ZONES; zone++) {
+                            int index = 5 + 2 * zone;
+                            if (zone < sample.getZoneCount()) {
+                                insertTelemetryStatement.bindDouble(index, sample.getTemperature(zone));
+                                insertTelemetryStatement.bindLong(index + 1, sample.getDuty(zone));
+                            } else {
+                                insertTelemetryStatement.bindNull(index);
+                                insertTelemetryStatement.bindNull(index + 1);
+                            }
+                        }
+                        if (insertTelemetryStatement.executeInsert() != -1) inserted++;
+                    }
+                    writeDb.setTransactionSuccessful();
+                } finally {
+                    writeDb.endTransaction();
+                }
+            } catch (SQLException e) {
+                Log.e(TAG, "寫入遙測失敗", e);
+                return -1;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the boot and sequence number of the newest stored telemetry sample.
+     * @return {boot, seq}, or null if no telemetry is stored.
+     */
+    public long[] getLatestTelemetry() {
+        Cursor cursor = readDb.rawQuery("SELECT " + COLUMN_BOOT + ", " + COLUMN_SEQ + " FROM " + TABLE_TELEMETRY
+                + " ORDER BY rowid DESC LIMIT 1", null);
+        long[] latest = null;
+        if (cursor.moveToFirst()) {
+            latest = new long[]{cursor.getLong(0), cursor.getLong(1)};
+        }
+        cursor.close();
+        return latest;
+    }
+
+    /**
+     * Stores a loop-timing report.
+     * @param report Report.
+     * @param recordedAt Wall-clock time in milliseconds since the epoch.
+     * @return Row ID, or -1 on failure.
      */
-    public void insertLog(String direction, String message) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    public long insertPerf(PerfReport report, long recordedAt) {
         ContentValues values = new ContentValues();
-        String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new Date());
-        values.put(COLUMN_TIMESTAMP, timestamp);
-        values.put(COLUMN_DIRECTION, direction);
-        values.put(COLUMN_MESSAGE, message);
-        db.insert(TABLE_LOGS, null, values);
-        db.close();
+        values.put("recorded_at", recordedAt);
+        values.put("firmware", report.firmwareVersion);
+        values.put("loop_mean_us", report.loopMeanMicros);
+        values.put("loop_max_us", report.loopMaxMicros);
+        values.put("step_gap_max_us", report.stepGapMaxMicros);
+        values.put("report", report.toLine());
+        return writeDb.insert(TABLE_PERF, null, values);
     }
 
     /**
-     * Gets all logs in descending order (newest first).
-     * @return List of LogEntry.
+     * Loads the newest loop-timing reports.
+     * @param limit Maximum number of reports.
+     * @return Reports, oldest first.
      */
-    public ArrayList<LogEntry> getAllLogs() {
-        ArrayList<LogEntry> logs = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_LOGS, null, null, null, null, null, COLUMN_ID + " DESC");
+    public List<PerfReport> loadPerf(int limit) {
+        Cursor cursor = readDb.rawQuery("SELECT report FROM " + TABLE_PERF + " ORDER BY " + COLUMN_ID
+                + " DESC LIMIT ?", new String[]{String.valueOf(limit)});
+        List<PerfReport> reports = new ArrayList<>(cursor.getCount());
+        if (cursor.moveToLast()) {
+            do {
+                PerfReport report = PerfReport.parse(cursor.getString(0));
+                if (report != null) reports.add(report);
+            } while (cursor.moveToPrevious());
+        }
+        cursor.close();
+        return reports;
+    }
+
+    /**
+     * Inserts a new run summary or updates a stored one.
+     * @param run Run; its ID is -1 if not stored yet.
+     * @return Row ID of the run, or -1 on failure.
+     */
+    public long saveRun(RunStatistics run) {
+        ContentValues values = new ContentValues();
+        values.put("boot", run.boot);
+        values.put("start_tick", run.startTick);
+        values.put("end_tick", run.endTick);
+        values.put("started_at", run.startedAt);
+        values.put("finished", run.finished ? 1 : 0);
+        values.put("samples", run.samples);
+        values.put("mean_temperature", run.meanTemperature);
+        values.put("mean_error", run.meanError);
+        values.put("error_m2", run.errorM2);
+        values.put("min_error", run.minError);
+        values.put("max_error", run.maxError);
+        values.put("within_ms", run.withinToleranceMillis);
+        values.put("steps", run.steps);
+        values.put("latest_speed", run.latestSpeed);
+        values.put("latest_within", run.latestWithin ? 1 : 0);
+        values.put("recipe", run.recipe);
+        values.put("error_sketch", run.errorSketch.toBytes());
+        values.put("speed_sketch", run.speedSketch.toBytes());
+        values.put("diameter_sketch", run.diameterSketch.toBytes());
+        if (run.id < 0) {
+            return writeDb.insert(TABLE_RUNS, null, values);
+        }
+        try {
+            writeDb.update(TABLE_RUNS, values, COLUMN_ID + " = ?", new String[]{String.valueOf(run.id)});
+        } catch (SQLException e) {
+            Log.e(TAG, "更新運轉紀錄失敗", e);
+            return -1;
+        }
+        return run.id;
+    }
 
+    /**
+     * Returns the newest run that has not finished, to continue it after a restart.
+     * @return Run, or null if none is open.
+     */
+    public RunStatistics getOpenRun() {
+        Cursor cursor = readDb.rawQuery("SELECT " + COLUMN_ID + ", " + String.join(", ", RUN_COLUMNS) + " FROM "
+                + TABLE_RUNS + " WHERE finished = 0 ORDER BY " + COLUMN_ID + " DESC LIMIT 1", null);
+        RunStatistics run = cursor.moveToFirst() ? readRun(cursor) : null;
+        cursor.close();
+        return run;
+    }
+
+    /**
+     * Loads the newest run summaries.
+     * @param limit Maximum number of runs.
+     * @return Runs, newest first.
+     */
+    public List<RunStatistics> loadRuns(int limit) {
+        Cursor cursor = readDb.rawQuery("SELECT " + COLUMN_ID + ", " + String.join(", ", RUN_COLUMNS) + " FROM "
+                + TABLE_RUNS + " ORDER BY " + COLUMN_ID + " DESC LIMIT ?", new String[]{String.valueOf(limit)});
+        List<RunStatistics> runs = new ArrayList<>(cursor.getCount());
         if (cursor.moveToFirst()) {
             do {
-                long id = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_ID));
-                String timestamp = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP));
-                String direction = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DIRECTION));
-                String message = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE));
-                logs.add(new LogEntry(id, timestamp, direction, message));
+                runs.add(readRun(cursor));
             } while (cursor.moveToNext());
         }
+        cursor.close();
+        return runs;
+    }
 
+    /**
+     * Reads a run from a cursor positioned on a row of the ID followed by {@link #RUN_COLUMNS}.
+     * @param cursor Cursor.
+     * @return Run.
+     */
+    private static RunStatistics readRun(Cursor cursor) {
+        RunStatistics run = new RunStatistics();
+        run.id = cursor.getLong(0);
+        run.boot = cursor.getInt(1);
+        run.startTick = cursor.getLong(2);
+        run.endTick = cursor.getLong(3);
+        run.startedAt = cursor.getLong(4);
+        run.finished = cursor.getInt(5) != 0;
+        run.samples = cursor.getLong(6);
+        run.meanTemperature = cursor.getDouble(7);
+        run.meanError = cursor.getDouble(8);
+        run.errorM2 = cursor.getDouble(9);
+        run.minError = cursor.isNull(10) ? Double.NaN : cursor.getDouble(10);
+        run.maxError = cursor.isNull(11) ? Double.NaN : cursor.getDouble(11);
+        run.withinToleranceMillis = cursor.getLong(12);
+        run.steps = cursor.getDouble(13);
+        run.latestSpeed = cursor.getInt(14);
+        run.latestWithin = cursor.getInt(15) != 0;
+        run.recipe = cursor.getString(16);
+        run.errorSketch = readSketch(cursor, 17);
+        run.speedSketch = readSketch(cursor, 18);
+        run.diameterSketch = readSketch(cursor, 19);
+        return run;
+    }
+
+    /**
+     * Reads a serialized sketch column.
+     * @param cursor Cursor positioned on a row.
+     * @param column Column index.
+     * @return Sketch, empty if the column is null (runs stored before versions 6 and 7) or corrupt.
+     */
+    private static QuantileSketch readSketch(Cursor cursor, int column) {
+        if (cursor.isNull(column)) return new QuantileSketch();
+        try {
+            return QuantileSketch.fromBytes(cursor.getBlob(column));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "運轉分位數資料損壞", e);
+            return new QuantileSketch();
+        }
+    }
+
+    /**
+     * Merges the stored sketches of the runs started in a time window, optionally only those of one recipe.
+     * Only the two sketch columns are read, so the answer never depends on the size of the telemetry table.
+     * @param recipe Recipe text, or null for all runs.
+     * @param fromMillis Start of the window, wall-clock milliseconds, inclusive.
+     * @param toMillis End of the window, exclusive.
+     * @param error Sketch receiving the setpoint errors.
+     * @param speed Sketch receiving the speeds.
+     * @return Number of runs merged.
+     */
+    public int mergeRunSketches(String recipe, long fromMillis, long toMillis, QuantileSketch error,
+                                QuantileSketch speed) {
+        String where = "started_at >= ? AND started_at < ? AND error_sketch IS NOT NULL";
+        String[] args = {String.valueOf(fromMillis), String.valueOf(toMillis)};
+        if (recipe != null) {
+            where += " AND recipe = ?";
+            args = new String[]{args[0], args[1], recipe};
+        }
+        Cursor cursor = readDb.rawQuery("SELECT error_sketch, speed_sketch FROM " + TABLE_RUNS + " WHERE " + where,
+                args);
+        int runs = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                error.merge(readSketch(cursor, 0));
+                speed.merge(readSketch(cursor, 1));
+                runs++;
+            } while (cursor.moveToNext());
+        }
         cursor.close();
-        db.close();
-        return logs;
+        return runs;
     }
 
     /**
-     * Inner class representing a log entry.
+     * Returns the recipes that runs were attributed to, most recently run first.
+     * @param limit Maximum number of recipes.
+     * @return Recipe texts.
      */
-    public static class LogEntry {
-        /**
-         * ID.
-         */
-        public long id;
+    public List<String> loadRunRecipes(int limit) {
+        Cursor cursor = readDb.rawQuery("SELECT recipe FROM " + TABLE_RUNS + " WHERE recipe IS NOT NULL GROUP BY recipe"
+                + " ORDER BY MAX(" + COLUMN_ID + ") DESC LIMIT ?", new String[]{String.valueOf(limit)});
+        List<String> recipes = new ArrayList<>(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            do {
+                recipes.add(cursor.getString(0));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return recipes;
+    }
 
-        /**
-         * Timestamp.
-         */
-        public String timestamp;
+    /**
+     * Loads the logs with an ID greater than the given one into a columnar store, oldest first.
+     * Times are stored as wall-clock seconds so no Date objects are created per row; compressed messages
+     * are decoded one block at a time, and consecutive rows mostly share a block.
+     * @param afterId Largest ID already known to the caller, 0 for all.
+     * @param out Store receiving the rows.
+     * @return Number of rows loaded.
+     */
+    public int loadLogsAfter(long afterId, LogStore out) {
+        Cursor cursor = readDb.rawQuery("SELECT r." + COLUMN_ID + ", r." + COLUMN_TIME + ", r." + COLUMN_DIRECTION + ", "
+                + "COALESCE(m." + COLUMN_TEXT + ", r." + COLUMN_PAYLOAD + "), r." + COLUMN_BLOCK_ID + ", r." + COLUMN_BLOCK_INDEX
+                + " FROM " + TABLE_LOG_RECORDS + " r LEFT JOIN " + TABLE_LOG_MESSAGES + " m ON m." + COLUMN_ID
+                + " = r." + COLUMN_MESSAGE_ID + " WHERE r." + COLUMN_ID + " > ? ORDER BY r." + COLUMN_ID + " ASC",
+                new String[]{String.valueOf(afterId)});
 
-        /**
-         * Direction.
-         */
-        public String direction;
+        int count = 0;
+        long blockId = -1;
+        String[] block = null;
+        if (cursor.moveToFirst()) {
+            do {
+                String message = cursor.getString(3);
+                if (message == null) {
+                    if (cursor.getLong(4) != blockId) {
+                        blockId = cursor.getLong(4);
+                        block = loadBlock(blockId);
+                    }
+                    int index = cursor.getInt(5);
+                    message = index < block.length ? block[index] : "";
+                }
+                out.append(cursor.getLong(0), cursor.getLong(1), cursor.getInt(2) == DIRECTION_IN, message);
+                count++;
+            } while (cursor.moveToNext());
+        }
 
-        /**
-         * Message.
-         */
-        public String message;
+        cursor.close();
+        return count;
+    }
 
-        /**
-         * Constructor.
-         * @param id ID.
-         * @param timestamp Timestamp.
-         * @param direction Direction.
-         * @param message Message.
-         */
-        public LogEntry(long id, String timestamp, String direction, String message) {
-            this.id = id;
-            this.timestamp = timestamp;
-            this.direction = direction;
-            this.message = message;
+    /**
+     * Runs a passive checkpoint, copying committed WAL pages into the database without blocking readers.
+     */
+    private void checkpoint() {
+        try {
+            pragma(writeDb, "PRAGMA wal_checkpoint(PASSIVE)");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "WAL 檢查點失敗", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs a PRAGMA that returns a row, discarding the result.
+     * @param db SQLite database.
+     * @param sql PRAGMA statement.
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        cursor.moveToFirst();
+        cursor.close();
+    }
+}
@@ -0,0 +1,89 @@
+package com.petfilament.recycler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.petfilament.recycler.core.HeaterModel;
+import com.petfilament.recycler.core.TelemetrySample;
+
+import java.util.Locale;
+
+/**
+ * HeaterBaselineStore class keeps the first heater model identified on every device, keyed by MAC address,
+ * so a heater band that weakens over weeks is still compared with how it performed when new. Zone 0 is stored
+ * under the bare address, as before boards had several heater zones, and zone z under "&lt;address&gt;/z".
+ */
+public class HeaterBaselineStore {
+
+    /**
+     * Name of the preferences file.
+     */
+    private static final String PREFS_NAME = "heater_baseline";
+
+    /**
+     * Preferences holding one "gain,tau,deadTime,ambient" entry per device.
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * Constructor.
+     * @param context Context used to open the preferences.
+     */
+    public HeaterBaselineStore(Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Loads the baseline of a heater zone.
+     * @param macAddress MAC address of the device.
+     * @param zone Heater zone.
+     * @return Baseline, or null if none is stored or the entry is unreadable.
+     */
+    public HeaterModel load(String macAddress, int zone) {
+        if (macAddress == null) return null;
+        String entry = preferences.getString(key(macAddress, zone), null);
+        if (entry == null) return null;
+        String[] parts = entry.split(",");
+        if (parts.length != 4) return null;
+        try {
+            return new HeaterModel(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                    Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the baseline of a heater zone.
+     * @param macAddress MAC address of the device.
+     * @param zone Heater zone.
+     * @param model Baseline to store.
+     */
+    public void save(String macAddress, int zone, HeaterModel model) {
+        if (macAddress == null || model == null) return;
+        preferences.edit()
+                .putString(key(macAddress, zone), String.format(Locale.ROOT, "%.3f,%.3f,%.3f,%.3f",
+                        model.gain, model.tau, model.deadTime, model.ambient))
+                .apply();
+    }
+
+    /**
+     * Forgets the baselines of all zones of a device, e.g. after a heater was replaced.
+     * @param macAddress MAC address of the device.
+     */
+    public void clear(String macAddress) {
+        if (macAddress == null) return;
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int zone = 0; zone < TelemetrySample.MAX_ZONES; zone++) editor.remove(key(macAddress, zone));
+        editor.apply();
+    }
+
+    /**
+     * Returns the preferences key of a zone.
+     * @param macAddress MAC address of the device.
+     * @param zone Heater zone.
+     * @return Key.
+     */
+    private static String key(String macAddress, int zone) {
+        return zone == 0 ? macAddress : macAddress + "/" + zone;
+    }
+}
@@ -6,19 +6,28 @@ import android.widget.Button;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
+import com.petfilament.recycler.core.LogStore;
 
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * LogActivity class displays the Bluetooth logs.
+ * LogActivity class displays the Bluetooth logs and tails new entries as they are written.
  */
-public class LogActivity extends AppCompatActivity {
+public class LogActivity extends AppCompatActivity implements DatabaseHelper.LogListener {
 
     /**
      * RecyclerView for displaying logs.
      */
     private RecyclerView recyclerViewLogs;
 
+    /**
+     * Layout manager of the RecyclerView, used to check whether the user is at the top.
+     */
+    private LinearLayoutManager layoutManager;
+
     /**
      * Button to go back.
      */
@@ -35,7 +44,27 @@ public class LogActivity extends AppCompatActivity {
     private DatabaseHelper databaseHelper;
 
     /**
-     * onCreate method initializes UI, database, RecyclerView, and loads logs.
+     * Message dictionary shared by the adapter's store and the batches loaded for it.
+     */
+    private final LogStore.Dictionary dictionary = new LogStore.Dictionary();
+
+    /**
+     * Single background thread for loading and tail queries.
+     */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    /**
+     * Set while a tail query is queued, so bursts of inserts collapse into one query.
+     */
+    private final AtomicBoolean tailQueued = new AtomicBoolean(false);
+
+    /**
+     * Newest ID already queried, owned by the loader thread.
+     */
+    private long lastQueriedId = 0;
+
+    /**
+     * onCreate method initializes UI, database, RecyclerView, and loads logs in the background.
      * @param savedInstanceState Saved instance state.
      */
     @Override
@@ -48,15 +77,75 @@ public class LogActivity extends AppCompatActivity {
         buttonBack = findViewById(R.id.button_back);
 
         // Initialize database
-        databaseHelper = new DatabaseHelper(this);
+        databaseHelper = DatabaseHelper.getInstance(this);
 
-        // Set up RecyclerView with linear layout, load all logs, set adapter
-        recyclerViewLogs.setLayoutManager(new LinearLayoutManager(this));
-        ArrayList<DatabaseHelper.LogEntry> logs = databaseHelper.getAllLogs();
-        logsAdapter = new LogsAdapter(logs);
+        // Set up RecyclerView with an empty adapter; rows arrive from the loader thread
+        layoutManager = new LinearLayoutManager(this);
+        recyclerViewLogs.setLayoutManager(layoutManager);
+        logsAdapter = new LogsAdapter(new LogStore(dictionary));
         recyclerViewLogs.setAdapter(logsAdapter);
 
+        // Listen before the first load so no row falls between the snapshot and the tail
+        DatabaseHelper.addLogListener(this);
+        scheduleTail();
+
         // Back button listener to finish activity
         buttonBack.setOnClickListener(v -> finish());
     }
-}
\ No newline at end of file
+
+    /**
+     * onDestroy method stops tailing and the loader thread.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        DatabaseHelper.removeLogListener(this);
+        loader.shutdownNow();
+    }
+
+    /**
+     * Called on the writing thread when a row is appended.
+     * @param id Row ID of the new entry.
+     */
+    @Override
+    public void onLogAppended(long id) {
+        scheduleTail();
+    }
+
+    /**
+     * Queues a tail query unless one is already pending.
+     */
+    private void scheduleTail() {
+        if (tailQueued.compareAndSet(false, true)) {
+            try {
+                loader.execute(this::loadNewRows);
+            } catch (RejectedExecutionException e) {
+                // Activity already destroyed; the writer may still hold an old listener snapshot
+            }
+        }
+    }
+
+    /**
+     * Queries rows newer than the last queried ID on the loader thread and hands them to the main thread.
+     */
+    private void loadNewRows() {
+        tailQueued.set(false);
+        LogStore newer = new LogStore(dictionary);
+        if (databaseHelper.loadLogsAfter(lastQueriedId, newer) == 0) return;
+        lastQueriedId = newer.getId(newer.size() - 1);
+        runOnUiThread(() -> appendRows(newer));
+    }
+
+    /**
+     * Inserts new rows at the top, keeping the visible window pinned unless the user is at the top.
+     * @param newer Batch of new rows, oldest first.
+     */
+    private void appendRows(LogStore newer) {
+        if (isFinishing()) return;
+        boolean atTop = logsAdapter.getItemCount() == 0 || layoutManager.findFirstCompletelyVisibleItemPosition() == 0;
+        logsAdapter.appendLogs(newer);
+        if (atTop) {
+            recyclerViewLogs.scrollToPosition(0);
+        }
+    }
+}
@@ -7,8 +7,7 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
-
-import java.util.ArrayList;
+import com.petfilament.recycler.core.LogStore;
 
 /**
  * LogsAdapter class is a RecyclerView adapter for binding log data to list items.
@@ -16,18 +15,30 @@ import java.util.ArrayList;
 public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.ViewHolder> {
 
     /**
-     * List of log data from DatabaseHelper.
+     * Columnar log rows, oldest first; position 0 shows the newest entry.
      */
-    private final ArrayList<DatabaseHelper.LogEntry> logs;
+    private final LogStore logs;
 
     /**
-     * Constructor to initialize log list.
-     * @param logs List of log entries.
+     * Constructor to initialize log store.
+     * @param logs Columnar log rows, oldest first.
      */
-    public LogsAdapter(ArrayList<DatabaseHelper.LogEntry> logs) {
+    public LogsAdapter(LogStore logs) {
         this.logs = logs;
     }
 
+    /**
+     * Appends newer rows and notifies exactly the inserted range at the top of the list.
+     * Must be called on the main thread.
+     * @param newer Batch of newer rows sharing this adapter's dictionary; not used afterwards.
+     */
+    public void appendLogs(LogStore newer) {
+        int count = newer.size();
+        if (count == 0) return;
+        logs.appendAll(newer);
+        notifyItemRangeInserted(0, count);
+    }
+
     /**
      * Creates a new ViewHolder using simple_list_item_2 layout.
      * @param parent Parent ViewGroup.
@@ -42,15 +53,16 @@ public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.ViewHolder> {
     }
 
     /**
-     * Binds data to ViewHolder, displaying timestamp + direction and message.
+     * Binds data to ViewHolder, formatting timestamp + direction into the holder's buffer without allocating.
      * @param holder ViewHolder.
      * @param position Position.
      */
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        DatabaseHelper.LogEntry log = logs.get(position);
-        holder.textViewPrimary.setText("[" + log.timestamp + "] " + log.direction + ":");
-        holder.textViewSecondary.setText(log.message);
+        int row = logs.size() - 1 - position;
+        int length = logs.formatHeader(row, holder.headerBuffer);
+        holder.textViewPrimary.setText(holder.headerBuffer, 0, length);
+        holder.textViewSecondary.setText(logs.getMessage(row));
     }
 
     /**
@@ -76,6 +88,11 @@ public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.ViewHolder> {
          */
         TextView textViewSecondary;
 
+        /**
+         * Reusable buffer for the timestamp + direction text.
+         */
+        final char[] headerBuffer = new char[LogStore.HEADER_LENGTH];
+
         /**
          * Constructor to initialize TextViews.
          * @param itemView Item view.
@@ -0,0 +1,79 @@
+package com.petfilament.recycler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.petfilament.recycler.core.RecipeRunner;
+
+/**
+ * RecipeStore class keeps the last entered recipe and the progress of the running one, so a recipe
+ * continues after the Activity or the app was restarted.
+ */
+public class RecipeStore {
+
+    /**
+     * Name of the preferences file.
+     */
+    private static final String PREFS_NAME = "recipe";
+
+    /**
+     * Key of the recipe text.
+     */
+    private static final String KEY_TEXT = "text";
+
+    /**
+     * Key of the progress of the running recipe; absent when none runs.
+     */
+    private static final String KEY_PROGRESS = "progress";
+
+    /**
+     * Preferences holding the recipe.
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * Constructor.
+     * @param context Context used to open the preferences.
+     */
+    public RecipeStore(Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the last recipe text.
+     * @return Recipe text, or an empty string.
+     */
+    public String getText() {
+        return preferences.getString(KEY_TEXT, "");
+    }
+
+    /**
+     * Stores the recipe text.
+     * @param text Recipe text.
+     */
+    public void saveText(String text) {
+        preferences.edit().putString(KEY_TEXT, text).apply();
+    }
+
+    /**
+     * Returns the progress of the recipe that was running.
+     * @return Progress, or null if no recipe was running.
+     */
+    public RecipeRunner.Progress getProgress() {
+        return RecipeRunner.Progress.parse(preferences.getString(KEY_PROGRESS, null));
+    }
+
+    /**
+     * Stores the progress of the running recipe.
+     * @param progress Progress.
+     */
+    public void saveProgress(RecipeRunner.Progress progress) {
+        preferences.edit().putString(KEY_PROGRESS, progress.toString()).apply();
+    }
+
+    /**
+     * Forgets the progress once the recipe ended.
+     */
+    public void clearProgress() {
+        preferences.edit().remove(KEY_PROGRESS).apply();
+    }
+}
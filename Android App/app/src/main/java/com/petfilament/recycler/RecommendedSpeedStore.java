@@ -0,0 +1,49 @@
+package com.petfilament.recycler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * RecommendedSpeedStore class keeps the highest speed the last throughput search found on every device,
+ * keyed by MAC address, so it can be offered again on the next connect.
+ */
+public class RecommendedSpeedStore {
+
+    /**
+     * Name of the preferences file.
+     */
+    private static final String PREFS_NAME = "recommended_speed";
+
+    /**
+     * Preferences holding one speed per device.
+     */
+    private final SharedPreferences preferences;
+
+    /**
+     * Constructor.
+     * @param context Context used to open the preferences.
+     */
+    public RecommendedSpeedStore(Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Loads the recommended speed of a device.
+     * @param macAddress MAC address of the device.
+     * @return Speed in steps/s, 0 if none is stored.
+     */
+    public int load(String macAddress) {
+        if (macAddress == null) return 0;
+        return preferences.getInt(macAddress, 0);
+    }
+
+    /**
+     * Stores the recommended speed of a device.
+     * @param macAddress MAC address of the device.
+     * @param speed Speed in steps/s.
+     */
+    public void save(String macAddress, int speed) {
+        if (macAddress == null || speed <= 0) return;
+        preferences.edit().putInt(macAddress, speed).apply();
+    }
+}
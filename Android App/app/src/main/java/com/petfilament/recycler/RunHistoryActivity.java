@@ -0,0 +1,131 @@
+package com.petfilament.recycler;
+
+import android.os.Bundle;
+import android.widget.Button;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.petfilament.recycler.core.QuantileSketch;
+import com.petfilament.recycler.core.RunStatistics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * RunHistoryActivity class lists the stored run summaries, newest first, under the percentiles of the last
+ * {@link #PERCENTILE_DAYS} days for all runs and per recipe. It reads only the runs table, percentiles included
+ * (they merge the per-run sketches), so it opens instantly regardless of the size of the log and telemetry tables.
+ */
+public class RunHistoryActivity extends AppCompatActivity {
+
+    /**
+     * Maximum number of runs listed.
+     */
+    private static final int MAX_RUNS = 500;
+
+    /**
+     * Days covered by the percentile summary.
+     */
+    private static final int PERCENTILE_DAYS = 30;
+
+    /**
+     * Maximum number of recipes summarized.
+     */
+    private static final int MAX_RECIPES = 3;
+
+    /**
+     * Longest recipe text shown before it is cut.
+     */
+    private static final int RECIPE_LABEL_LENGTH = 32;
+
+    /**
+     * Adapter for the runs RecyclerView.
+     */
+    private RunsAdapter runsAdapter;
+
+    /**
+     * Single background thread for the query.
+     */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+    /**
+     * onCreate method initializes the list and loads the runs in the background.
+     * @param savedInstanceState Saved instance state.
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_run_history);
+
+        RecyclerView recyclerViewRuns = findViewById(R.id.recyclerview_runs);
+        recyclerViewRuns.setLayoutManager(new LinearLayoutManager(this));
+        runsAdapter = new RunsAdapter();
+        recyclerViewRuns.setAdapter(runsAdapter);
+
+        TextView textViewPercentiles = findViewById(R.id.textview_run_percentiles);
+        DatabaseHelper databaseHelper = DatabaseHelper.getInstance(this);
+        loader.execute(() -> {
+            List<RunStatistics> runs = databaseHelper.loadRuns(MAX_RUNS);
+            String percentiles = summarizePercentiles(databaseHelper);
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                runsAdapter.setRuns(runs);
+                textViewPercentiles.setText(percentiles);
+            });
+        });
+
+        Button buttonBack = findViewById(R.id.button_back);
+        buttonBack.setOnClickListener(v -> finish());
+    }
+
+    /**
+     * Builds the percentile summary of the recent runs, all together and per recipe; called on the loader thread.
+     * @param databaseHelper Database.
+     * @return Summary text.
+     */
+    private static String summarizePercentiles(DatabaseHelper databaseHelper) {
+        long now = System.currentTimeMillis();
+        long from = now - PERCENTILE_DAYS * 24L * 3600 * 1000;
+        StringBuilder text = new StringBuilder();
+        text.append(summarize(databaseHelper, null, from, now, "近 " + PERCENTILE_DAYS + " 天全部"));
+        for (String recipe : databaseHelper.loadRunRecipes(MAX_RECIPES)) {
+            String label = recipe.length() > RECIPE_LABEL_LENGTH
+                    ? recipe.substring(0, RECIPE_LABEL_LENGTH) + "…" : recipe;
+            text.append('\n').append(summarize(databaseHelper, recipe, from, now, "配方 " + label));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Merges the sketches of one group of runs into a line.
+     * @param databaseHelper Database.
+     * @param recipe Recipe text, or null for all runs.
+     * @param from Start of the window, wall-clock milliseconds.
+     * @param to End of the window.
+     * @param label Label of the group.
+     * @return Line of text.
+     */
+    private static String summarize(DatabaseHelper databaseHelper, String recipe, long from, long to, String label) {
+        QuantileSketch error = new QuantileSketch();
+        QuantileSketch speed = new QuantileSketch();
+        int runs = databaseHelper.mergeRunSketches(recipe, from, to, error, speed);
+        if (runs == 0) return label + ": 無運轉";
+        QuantileSketch deviation = error.absolute();
+        return String.format(Locale.US, "%s (%d 次): 偏差 p50/p95/p99 %.1f/%.1f/%.1f°C, 速度 p50/p99 %.0f/%.0f 步/秒",
+                label, runs, deviation.quantile(0.5), deviation.quantile(0.95), deviation.quantile(0.99),
+                speed.quantile(0.5), speed.quantile(0.99));
+    }
+
+    /**
+     * onDestroy method stops the loader thread.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        loader.shutdownNow();
+    }
+}
@@ -0,0 +1,119 @@
+package com.petfilament.recycler;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+import com.petfilament.recycler.core.RunStatistics;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RunsAdapter class is a RecyclerView adapter for binding run summaries to list items.
+ */
+public class RunsAdapter extends RecyclerView.Adapter<RunsAdapter.ViewHolder> {
+
+    /**
+     * Filament pulled per stepper step, mm: a NEMA 17 (200 steps/rev) on a TMC2208 at its default 1/8
+     * microstepping turning an 8 mm drive gear. Adjust for a different puller.
+     */
+    static final double FILAMENT_MM_PER_STEP = Math.PI * 8.0 / 1600.0;
+
+    /**
+     * Runs, newest first.
+     */
+    private final List<RunStatistics> runs = new ArrayList<>();
+
+    /**
+     * Start time formatter, used on the main thread only.
+     */
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
+
+    /**
+     * Replaces the runs shown. Must be called on the main thread.
+     * @param newRuns Runs, newest first.
+     */
+    public void setRuns(List<RunStatistics> newRuns) {
+        runs.clear();
+        runs.addAll(newRuns);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Creates a new ViewHolder using simple_list_item_2 layout.
+     * @param parent Parent ViewGroup.
+     * @param viewType View type.
+     * @return New ViewHolder.
+     */
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(android.R.layout.simple_list_item_2, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Binds a run: start time, duration and length on the first line, temperature statistics on the second and,
+     * when a diameter sensor streamed during the run, the diameter median and spread below.
+     * @param holder ViewHolder.
+     * @param position Position.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        RunStatistics run = runs.get(position);
+        long seconds = run.getDurationMillis() / 1000;
+        holder.textViewPrimary.setText(String.format(Locale.US, "%s  %d:%02d:%02d  %.2f m%s",
+                dateFormat.format(new Date(run.startedAt)), seconds / 3600, seconds / 60 % 60, seconds % 60,
+                run.getFilamentMetres(FILAMENT_MM_PER_STEP), run.finished ? "" : "  (運轉中)"));
+        String statistics = String.format(Locale.US,
+                "平均 %.1f°C, 誤差 %+.1f±%.1f°C (%.1f~%.1f), 偏差 p99 %.1f°C, 在範圍內 %.0f%%",
+                run.meanTemperature, run.meanError, run.getErrorStdDev(), run.minError, run.maxError,
+                run.getDeviationPercentile(99), run.getWithinTolerancePercent());
+        if (run.diameterSketch.getCount() > 0) {
+            statistics += String.format(Locale.US, "\n線徑 %.3f mm (p1 %.3f ~ p99 %.3f)", run.getDiameterPercentile(50),
+                    run.getDiameterPercentile(1), run.getDiameterPercentile(99));
+        }
+        holder.textViewSecondary.setText(statistics);
+    }
+
+    /**
+     * Returns the number of runs.
+     * @return Item count.
+     */
+    @Override
+    public int getItemCount() {
+        return runs.size();
+    }
+
+    /**
+     * Inner ViewHolder class holding list item views.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        /**
+         * Primary TextView for start, duration and length.
+         */
+        TextView textViewPrimary;
+
+        /**
+         * Secondary TextView for temperature statistics.
+         */
+        TextView textViewSecondary;
+
+        /**
+         * Constructor to initialize TextViews.
+         * @param itemView Item view.
+         */
+        public ViewHolder(@NonNull View itemView) {
+            super(itemView);
+            textViewPrimary = itemView.findViewById(android.R.id.text1);
+            textViewSecondary = itemView.findViewById(android.R.id.text2);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.petfilament.recycler;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.petfilament.recycler.core.ChannelRing;
+import com.petfilament.recycler.core.TelemetrySample;
+
+import java.util.Locale;
+
+/**
+ * SparklineView class draws a small line chart of the latest values, scaled from zero to the largest one,
+ * with that maximum and the latest value as labels. Values are kept in a fixed {@link ChannelRing}, oldest
+ * overwritten; a row can carry one value per channel, e.g. per heater zone, each drawn as its own line.
+ */
+public class SparklineView extends View {
+
+    /**
+     * Number of values kept.
+     */
+    private static final int CAPACITY = 120;
+
+    /**
+     * Line colors per channel.
+     */
+    private static final int[] COLORS = {
+            Color.parseColor("#8338EC"), Color.parseColor("#FF006E"),
+            Color.parseColor("#3A86FF"), Color.parseColor("#FB5607")
+    };
+
+    /**
+     * Values in a ring, one channel per line.
+     */
+    private final ChannelRing values = new ChannelRing(TelemetrySample.MAX_ZONES, CAPACITY);
+
+    /**
+     * Number of channels drawn, the highest one set so far plus one.
+     */
+    private int channels = 1;
+
+    /**
+     * Label drawn before the numbers, e.g. "Loop max".
+     */
+    private String label = "";
+
+    /**
+     * Unit drawn after the numbers, e.g. "µs".
+     */
+    private String unit = "";
+
+    /**
+     * Paint of the line.
+     */
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * Paint of the labels.
+     */
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    /**
+     * Reused line path.
+     */
+    private final Path path = new Path();
+
+    /**
+     * Constructor used by layout inflation.
+     * @param context Context.
+     * @param attrs Attributes.
+     */
+    public SparklineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(3f);
+        textPaint.setColor(Color.DKGRAY);
+        textPaint.setTextSize(28f);
+    }
+
+    /**
+     * Sets the label and unit drawn with the numbers.
+     * @param label Label.
+     * @param unit Unit.
+     */
+    public void setLabel(String label, String unit) {
+        this.label = label;
+        this.unit = unit;
+        invalidate();
+    }
+
+    /**
+     * Appends a value on the first channel and redraws. Must be called on the main thread.
+     * @param value Value.
+     */
+    public void add(float value) {
+        values.push();
+        values.set(0, value);
+        invalidate();
+    }
+
+    /**
+     * Appends a row with every channel absent; fill it with {@link #set} and call {@link #invalidate()} once
+     * done. Must be called on the main thread.
+     */
+    public void push() {
+        values.push();
+    }
+
+    /**
+     * Sets a channel of the newest row. Must be called on the main thread.
+     * @param channel Channel index, below {@link TelemetrySample#MAX_ZONES}.
+     * @param value Value.
+     */
+    public void set(int channel, float value) {
+        values.set(channel, value);
+        if (channel >= channels) channels = channel + 1;
+    }
+
+    /**
+     * Draws the line and labels.
+     * @param canvas Canvas.
+     */
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float top = getPaddingTop() + 32f;
+        float width = getWidth() - getPaddingRight() - left;
+        float height = getHeight() - getPaddingBottom() - top;
+        int count = values.size();
+        if (count == 0 || width <= 0 || height <= 0) {
+            canvas.drawText(label + ": -", left, top - 6f, textPaint);
+            return;
+        }
+        float max = 0;
+        StringBuilder latest = new StringBuilder();
+        for (int channel = 0; channel < channels; channel++) {
+            float channelMax = values.getMax(channel);
+            if (channelMax > max) max = channelMax;
+            if (channel > 0) latest.append('/');
+            float value = values.get(channel, count - 1);
+            latest.append(Float.isNaN(value) ? "-" : String.format(Locale.US, "%.0f", value));
+        }
+        canvas.drawText(String.format(Locale.US, "%s: %s %s (max %.0f)", label, latest, unit, max),
+                left, top - 6f, textPaint);
+
+        float step = count > 1 ? width / (CAPACITY - 1) : 0;
+        float scale = max > 0 ? height / max : 0;
+        for (int channel = 0; channel < channels; channel++) {
+            path.rewind();
+            boolean drawing = false;
+            for (int i = 0; i < count; i++) {
+                float value = values.get(channel, i);
+                if (Float.isNaN(value)) {
+                    drawing = false;
+                    continue;
+                }
+                float x = left + i * step;
+                float y = top + height - value * scale;
+                if (drawing) {
+                    path.lineTo(x, y);
+                } else {
+                    path.moveTo(x, y);
+                    drawing = true;
+                }
+            }
+            linePaint.setColor(COLORS[channel % COLORS.length]);
+            canvas.drawPath(path, linePaint);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.petfilament.recycler.core;
+
+/**
+ * Base64Codec class encodes and decodes padded standard Base64.
+ * java.util.Base64 needs API 26 on Android and the app's minSdk is 24, so the core carries its own.
+ */
+public final class Base64Codec {
+
+    /**
+     * Base64 alphabet.
+     */
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+
+    /**
+     * Reverse lookup, -1 for characters outside the alphabet.
+     */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        java.util.Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) VALUES[ALPHABET[i]] = (byte) i;
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private Base64Codec() {
+    }
+
+    /**
+     * Encodes bytes with '=' padding.
+     * @param data Bytes.
+     * @return Base64 text.
+     */
+    public static String encode(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) b |= (data[i + 1] & 0xFF) << 8;
+            if (i + 2 < data.length) b |= data[i + 2] & 0xFF;
+            out.append(ALPHABET[b >> 18 & 0x3F]).append(ALPHABET[b >> 12 & 0x3F]);
+            out.append(i + 1 < data.length ? ALPHABET[b >> 6 & 0x3F] : '=');
+            out.append(i + 2 < data.length ? ALPHABET[b & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Decodes a padded Base64 range of a string.
+     * @param text Text.
+     * @param start Start of the Base64 range.
+     * @param end End of the range, exclusive.
+     * @return Decoded bytes.
+     * @throws IllegalArgumentException If the range is not valid padded Base64.
+     */
+    public static byte[] decode(String text, int start, int end) {
+        int length = end - start;
+        if (length % 4 != 0) throw new IllegalArgumentException("Base64 length " + length);
+        int padding = 0;
+        if (length > 0 && text.charAt(end - 1) == '=') padding++;
+        if (length > 1 && text.charAt(end - 2) == '=') padding++;
+        byte[] out = new byte[length / 4 * 3 - padding];
+        int o = 0;
+        for (int i = start; i < end; i += 4) {
+            int b = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = text.charAt(i + j);
+                int v;
+                if (c == '=' && i + 4 == end && j >= 4 - padding) {
+                    v = 0;
+                } else if (c >= 128 || (v = VALUES[c]) < 0) {
+                    throw new IllegalArgumentException("Invalid Base64 character '" + c + "'");
+                }
+                b = b << 6 | v;
+            }
+            out[o++] = (byte) (b >> 16);
+            if (o < out.length) out[o++] = (byte) (b >> 8);
+            if (o < out.length) out[o++] = (byte) b;
+        }
+        return out;
+    }
+}
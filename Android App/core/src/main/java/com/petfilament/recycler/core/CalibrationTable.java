@@ -0,0 +1,166 @@
+package com.petfilament.recycler.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * CalibrationTable class is the ADC-to-temperature table the firmware keeps in EEPROM in place of the
+ * Beta equation: one signed 16-bit entry in tenths of a degree per ADC value, 2 KB in all, little-endian
+ * as the board stores it. It is built from a {@link SteinhartHart} curve in the app and travels as
+ * "CAL_BEGIN", a series of "CAL_DATA:&lt;offset&gt;,&lt;base64&gt;" chunks and "CAL_END:&lt;crc&gt;",
+ * where the CRC covers the whole table; the board only switches to it when the CRC matches.
+ */
+public final class CalibrationTable {
+
+    /**
+     * Number of entries, one per ADC value.
+     */
+    public static final int ENTRIES = Thermistor.ADC_MAX + 1;
+
+    /**
+     * Size of the table in bytes.
+     */
+    public static final int BYTES = ENTRIES * 2;
+
+    /**
+     * Table bytes per CAL_DATA frame, so a numbered frame stays within the firmware's 64-character command limit.
+     */
+    public static final int CHUNK_BYTES = 24;
+
+    /**
+     * Command requesting the averaged raw ADC value.
+     */
+    public static final String CMD_GET_ADC = "GET_ADC";
+
+    /**
+     * Prefix of the GET_ADC reply.
+     */
+    public static final String ADC_PREFIX = "ADC:";
+
+    /**
+     * Command starting an upload.
+     */
+    public static final String CMD_BEGIN = "CAL_BEGIN";
+
+    /**
+     * Prefix of a table chunk.
+     */
+    public static final String CMD_DATA = "CAL_DATA:";
+
+    /**
+     * Prefix of the command that checks and activates an upload.
+     */
+    public static final String CMD_END = "CAL_END:";
+
+    /**
+     * Command reverting the board to the Beta equation.
+     */
+    public static final String CMD_CLEAR = "CAL_CLEAR";
+
+    /**
+     * Temperatures in tenths of a degree, indexed by ADC value.
+     */
+    private final short[] tenths;
+
+    /**
+     * Constructor.
+     * @param tenths Temperatures in tenths of a degree, one per ADC value; not copied.
+     */
+    private CalibrationTable(short[] tenths) {
+        this.tenths = tenths;
+    }
+
+    /**
+     * Tabulates a curve. ADC 0 and 1023 (shorted and open thermistor) are evaluated half a count inside the
+     * range; a short thus reads far above the safety limit instead of 0 °C as with the Beta equation.
+     * @param curve Fitted curve.
+     * @return Table.
+     */
+    public static CalibrationTable fromCurve(SteinhartHart curve) {
+        short[] tenths = new short[ENTRIES];
+        for (int adc = 0; adc < ENTRIES; adc++) {
+            double celsius = curve.toCelsius(Math.min(Math.max(adc, 0.5), Thermistor.ADC_MAX - 0.5));
+            double value = Double.isNaN(celsius) ? Short.MIN_VALUE : Math.round(celsius * 10);
+            tenths[adc] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+        return new CalibrationTable(tenths);
+    }
+
+    /**
+     * Reads a table in its stored form.
+     * @param data Table bytes, little-endian.
+     * @return Table.
+     * @throws IllegalArgumentException If data is not {@link #BYTES} long.
+     */
+    public static CalibrationTable fromBytes(byte[] data) {
+        if (data.length != BYTES) throw new IllegalArgumentException("Table is " + data.length + " bytes");
+        short[] tenths = new short[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            tenths[i] = (short) ((data[2 * i] & 0xFF) | data[2 * i + 1] << 8);
+        }
+        return new CalibrationTable(tenths);
+    }
+
+    /**
+     * Returns the table in its stored form.
+     * @return Table bytes, little-endian.
+     */
+    public byte[] toBytes() {
+        byte[] data = new byte[BYTES];
+        for (int i = 0; i < ENTRIES; i++) {
+            data[2 * i] = (byte) tenths[i];
+            data[2 * i + 1] = (byte) (tenths[i] >> 8);
+        }
+        return data;
+    }
+
+    /**
+     * Returns the CRC the board checks the upload against.
+     * @return CRC-16 of the table bytes.
+     */
+    public int checksum() {
+        byte[] data = toBytes();
+        return Crc16.compute(data, 0, data.length);
+    }
+
+    /**
+     * Converts an ADC value as the calibrated readTemp() does.
+     * @param adc ADC value (0-1023).
+     * @return Temperature in °C.
+     */
+    public double toCelsius(int adc) {
+        return tenths[adc] / 10.0;
+    }
+
+    /**
+     * Parses a GET_ADC reply.
+     * @param line "ADC:&lt;value&gt;" line.
+     * @return Averaged ADC value, NaN if the line is malformed.
+     */
+    public static double parseAdc(String line) {
+        if (!line.startsWith(ADC_PREFIX)) return Double.NaN;
+        try {
+            return Double.parseDouble(line.substring(ADC_PREFIX.length()).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Returns the commands that upload the table, in order.
+     * @return CAL_BEGIN, the CAL_DATA chunks and CAL_END.
+     */
+    public List<String> toCommands() {
+        byte[] data = toBytes();
+        List<String> commands = new ArrayList<>();
+        commands.add(CMD_BEGIN);
+        for (int offset = 0; offset < BYTES; offset += CHUNK_BYTES) {
+            byte[] chunk = new byte[Math.min(CHUNK_BYTES, BYTES - offset)];
+            System.arraycopy(data, offset, chunk, 0, chunk.length);
+            commands.add(CMD_DATA + offset + "," + Base64Codec.encode(chunk));
+        }
+        commands.add(CMD_END + Integer.toHexString(Crc16.compute(data, 0, data.length)).toUpperCase(Locale.ROOT));
+        return commands;
+    }
+}
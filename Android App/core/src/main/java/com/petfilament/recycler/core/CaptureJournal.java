@@ -0,0 +1,359 @@
+package com.petfilament.recycler.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * CaptureJournal class appends raw link byte chunks to memory-mapped, append-only segment files.
+ * Each record is [long nanoTime][byte direction][int length][bytes]; a segment is closed and a new one
+ * mapped once the next record does not fit, and the oldest segments are deleted beyond a fixed count.
+ * Appending is a bounds check and a memory copy, so it can sit inside the Bluetooth read loop.
+ */
+public class CaptureJournal implements Closeable {
+
+    /**
+     * Direction code for bytes received from the machine.
+     */
+    public static final byte DIRECTION_IN = 1;
+
+    /**
+     * Direction code for bytes sent to the machine.
+     */
+    public static final byte DIRECTION_OUT = 2;
+
+    /**
+     * Segment file magic ("PFJ1").
+     */
+    private static final int MAGIC = 0x50464A31;
+
+    /**
+     * Segment header: magic, wall-clock start (ms), monotonic start (ns).
+     */
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    /**
+     * Record header: timestamp (ns), direction, length.
+     */
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 4;
+
+    /**
+     * Segment file name suffix.
+     */
+    private static final String SUFFIX = ".pfj";
+
+    /**
+     * Directory holding the segment files.
+     */
+    private final File directory;
+
+    /**
+     * Size of each segment file in bytes.
+     */
+    private final int segmentSize;
+
+    /**
+     * Number of segments kept on disk.
+     */
+    private final int maxSegments;
+
+    /**
+     * Channel of the current segment.
+     */
+    private FileChannel channel;
+
+    /**
+     * Mapping of the current segment.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Index of the current segment.
+     */
+    private long segmentIndex;
+
+    /**
+     * Constructor. Continues numbering after any segments already in the directory.
+     * @param directory Directory holding the segment files.
+     * @param segmentSize Size of each segment file in bytes.
+     * @param maxSegments Number of segments kept on disk.
+     * @throws IOException If the first segment cannot be mapped.
+     */
+    public CaptureJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE || maxSegments < 1) {
+            throw new IllegalArgumentException("segmentSize or maxSegments too small");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        File[] existing = listSegments(directory);
+        segmentIndex = existing.length == 0 ? 0 : indexOf(existing[existing.length - 1]) + 1;
+        openSegment();
+    }
+
+    /**
+     * Appends one chunk. Chunks larger than a segment are split across records.
+     * @param direction {@link #DIRECTION_IN} or {@link #DIRECTION_OUT}.
+     * @param data Source array.
+     * @param offset Offset of the chunk.
+     * @param length Length of the chunk.
+     * @throws IOException If rotating to a new segment fails.
+     */
+    public synchronized void append(byte direction, byte[] data, int offset, int length) throws IOException {
+        if (buffer == null) throw new IOException("Journal closed");
+        long now = System.nanoTime();
+        int maxPayload = segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE;
+        do {
+            int chunk = Math.min(length, maxPayload);
+            if (buffer.remaining() < RECORD_HEADER_SIZE + chunk) {
+                rotate();
+            }
+            buffer.putLong(now);
+            buffer.put(direction);
+            buffer.putInt(chunk);
+            buffer.put(data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        } while (length > 0);
+    }
+
+    /**
+     * Flushes the current segment to storage.
+     */
+    public synchronized void flush() {
+        if (buffer != null) buffer.force();
+    }
+
+    /**
+     * Closes the journal, trimming the current segment to its written length.
+     * @throws IOException If the segment cannot be trimmed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer == null) return;
+        finishSegment();
+        buffer = null;
+    }
+
+    /**
+     * Returns the directory holding the segment files.
+     * @return Directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the current segment and maps the next one, deleting the oldest beyond the limit.
+     * @throws IOException If the next segment cannot be mapped.
+     */
+    private void rotate() throws IOException {
+        finishSegment();
+        segmentIndex++;
+        openSegment();
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segments[i].delete()) break;
+        }
+    }
+
+    /**
+     * Creates and maps the segment for the current index and writes its header.
+     * @throws IOException If the segment cannot be mapped.
+     */
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.US, "capture-%010d%s", segmentIndex, SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(System.nanoTime());
+    }
+
+    /**
+     * Forces the current segment and trims the file to the written length.
+     * @throws IOException If the file cannot be trimmed.
+     */
+    private void finishSegment() throws IOException {
+        int written = buffer.position();
+        buffer.force();
+        channel.truncate(written);
+        channel.close();
+    }
+
+    /**
+     * Lists segment files in index order.
+     * @param directory Directory to list.
+     * @return Segment files, oldest first.
+     */
+    static File[] listSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("capture-") && name.endsWith(SUFFIX));
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> Long.compare(indexOf(a), indexOf(b)));
+        return files;
+    }
+
+    /**
+     * Parses the segment index from a segment file name.
+     * @param file Segment file.
+     * @return Segment index.
+     */
+    private static long indexOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring("capture-".length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Record class holds one decoded journal record. Reused by {@link Reader} to avoid allocation.
+     */
+    public static final class Record {
+        /**
+         * Monotonic capture time in nanoseconds, as written. Its origin is that of the writing process and
+         * boot, so it only compares with records of the same segment.
+         */
+        public long nanoTime;
+
+        /**
+         * Wall-clock capture time in nanoseconds since the epoch: the segment's wall-clock start plus the
+         * record's monotonic offset into the segment. Comparable across segments.
+         */
+        public long wallNanos;
+
+        /**
+         * {@link #DIRECTION_IN} or {@link #DIRECTION_OUT}.
+         */
+        public byte direction;
+
+        /**
+         * Payload bytes; only the first {@link #length} are valid.
+         */
+        public byte[] data = new byte[1024];
+
+        /**
+         * Payload length.
+         */
+        public int length;
+    }
+
+    /**
+     * Reader class iterates the records of all segments in a directory, oldest first.
+     */
+    public static final class Reader implements Closeable {
+        /**
+         * Segment files to read.
+         */
+        private final File[] segments;
+
+        /**
+         * Index of the next segment to open.
+         */
+        private int nextSegment;
+
+        /**
+         * Mapping of the segment being read.
+         */
+        private MappedByteBuffer buffer;
+
+        /**
+         * Wall-clock start of the segment being read in milliseconds since the epoch.
+         */
+        private long segmentWallMillis;
+
+        /**
+         * Monotonic start of the segment being read in nanoseconds.
+         */
+        private long segmentMonoNanos;
+
+        /**
+         * Constructor.
+         * @param directory Journal directory.
+         */
+        public Reader(File directory) {
+            this.segments = listSegments(directory);
+        }
+
+        /**
+         * Reads the next record.
+         * @param record Record to fill.
+         * @return false when all segments are exhausted.
+         * @throws IOException If a segment cannot be mapped or is corrupt.
+         */
+        public boolean next(Record record) throws IOException {
+            int length;
+            while (true) {
+                while (buffer == null || buffer.remaining() < RECORD_HEADER_SIZE) {
+                    if (nextSegment == segments.length) return false;
+                    openNext();
+                }
+                record.nanoTime = buffer.getLong();
+                record.direction = buffer.get();
+                length = buffer.getInt();
+                if (record.direction != 0) break;
+                // Zero-filled tail of a segment that was not closed cleanly
+                buffer = null;
+            }
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Corrupt record in " + segments[nextSegment - 1]);
+            }
+            if (record.data.length < length) {
+                record.data = new byte[Math.max(length, record.data.length * 2)];
+            }
+            buffer.get(record.data, 0, length);
+            record.length = length;
+            record.wallNanos = segmentWallMillis * 1_000_000L + (record.nanoTime - segmentMonoNanos);
+            return true;
+        }
+
+        /**
+         * Returns the wall-clock start of the segment holding the last record read.
+         * @return Milliseconds since the epoch.
+         */
+        public long getSegmentWallMillis() {
+            return segmentWallMillis;
+        }
+
+        /**
+         * Returns the monotonic start of the segment holding the last record read.
+         * @return Nanoseconds on the writing process's monotonic clock.
+         */
+        public long getSegmentMonoNanos() {
+            return segmentMonoNanos;
+        }
+
+        /**
+         * Maps the next segment and validates its header.
+         * @throws IOException If the segment cannot be mapped or has a bad header.
+         */
+        private void openNext() throws IOException {
+            File file = segments[nextSegment++];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+                buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a capture segment: " + file);
+            }
+            segmentWallMillis = buffer.getLong();
+            segmentMonoNanos = buffer.getLong();
+        }
+
+        /**
+         * Releases the current mapping.
+         */
+        @Override
+        public void close() {
+            buffer = null;
+        }
+    }
+}
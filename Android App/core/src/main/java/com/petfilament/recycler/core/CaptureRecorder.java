@@ -0,0 +1,159 @@
+package com.petfilament.recycler.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CaptureRecorder class owns the raw capture of a link: it opens and closes the {@link CaptureJournal} on request,
+ * journals the chunks a transport reads and writes while capture is on, and replays a journal through a
+ * {@link Session} the way live data arrives. Not thread-safe; use it from the loop that owns the session.
+ */
+public class CaptureRecorder {
+
+    /**
+     * Interface receiving what a replay produces besides the session's own callbacks.
+     */
+    public interface ReplayTarget {
+        /**
+         * Returns whether a live link feeds the session; checked before every chunk.
+         * @return true if a link is open.
+         */
+        boolean isLinkOpen();
+
+        /**
+         * Called for every replayed command that would have been logged when sent.
+         * @param command Bare command.
+         */
+        void onCommand(String command);
+    }
+
+    /**
+     * Directory holding the journal.
+     */
+    private final File directory;
+
+    /**
+     * Size of each segment file in bytes.
+     */
+    private final int segmentSize;
+
+    /**
+     * Number of segments kept on disk.
+     */
+    private final int maxSegments;
+
+    /**
+     * Open journal, or null while capture is off.
+     */
+    private CaptureJournal journal;
+
+    /**
+     * Constructor.
+     * @param directory Directory holding the journal.
+     * @param segmentSize Size of each segment file in bytes.
+     * @param maxSegments Number of segments kept on disk.
+     */
+    public CaptureRecorder(File directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Opens the journal unless capture is already on.
+     * @throws IOException If the journal cannot be opened.
+     */
+    public void start() throws IOException {
+        if (journal == null) journal = new CaptureJournal(directory, segmentSize, maxSegments);
+    }
+
+    /**
+     * Closes the journal if capture is on.
+     * @throws IOException If the last segment cannot be trimmed; capture is off regardless.
+     */
+    public void stop() throws IOException {
+        CaptureJournal open = journal;
+        if (open == null) return;
+        journal = null;
+        open.close();
+    }
+
+    /**
+     * Returns whether capture is on.
+     * @return true if capturing.
+     */
+    public boolean isRunning() {
+        return journal != null;
+    }
+
+    /**
+     * Returns the directory holding the journal.
+     * @return Capture directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Journals a chunk if capture is on.
+     * @param direction {@link CaptureJournal#DIRECTION_IN} or {@link CaptureJournal#DIRECTION_OUT}.
+     * @param data Chunk bytes.
+     * @param length Chunk length.
+     * @throws IOException If the journal fails; capture is then off.
+     */
+    public void record(byte direction, byte[] data, int length) throws IOException {
+        if (journal == null) return;
+        try {
+            journal.append(direction, data, 0, length);
+        } catch (IOException e) {
+            try {
+                stop();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the command to log for a sent frame.
+     * @param frame Frame as written, without line terminator.
+     * @return The bare command, or null for a backfill request, which is not logged.
+     */
+    public static String loggedCommand(String frame) {
+        String command = ReliableCommandChannel.unframe(frame);
+        return command.startsWith(TelemetrySync.CMD_SYNC_FROM) ? null : command;
+    }
+
+    /**
+     * Replays a journal, handing each chunk to the loop and waiting for it: received chunks go into the session,
+     * sent frames to the target as logged commands. Blocks the calling thread.
+     * @param directory Journal directory.
+     * @param speed Speed factor, or {@link JournalReplayer#MAX_SPEED}.
+     * @param loop Loop owning the session.
+     * @param session Session decoding the received chunks.
+     * @param target Receiver of the commands.
+     * @return Replay statistics.
+     * @throws IOException If the journal cannot be read.
+     * @throws IllegalStateException If a link is open or opens during the replay.
+     */
+    public static JournalReplayer.Stats replay(File directory, double speed, EventLoop loop, Session session,
+                                               ReplayTarget target) throws IOException {
+        return new JournalReplayer(directory).replay(speed, (direction, data, length) -> loop.call(() -> {
+            if (target.isLinkOpen() || session.getState() != Session.State.DISCONNECTED) {
+                throw new IllegalStateException("Cannot replay while a link is open");
+            }
+            if (direction == CaptureJournal.DIRECTION_IN) {
+                session.receive(data, length);
+                return null;
+            }
+            // Writers journal one encoded frame per record
+            for (String frame : new String(data, 0, length, StandardCharsets.US_ASCII).split("\n")) {
+                String command = loggedCommand(frame.trim());
+                if (command != null && !command.isEmpty()) target.onCommand(command);
+            }
+            return null;
+        }));
+    }
+}
@@ -0,0 +1,197 @@
+package com.petfilament.recycler.core;
+
+import java.util.Arrays;
+
+/**
+ * ChannelRing class keeps the last rows of a multi-channel series, such as one temperature per heater zone,
+ * in one primitive array per channel. {@link #push()} starts a row, overwriting the oldest once the ring is
+ * full, and {@link #set} fills its channels; a channel not set in a row holds NaN and is skipped by the
+ * statistics. A running sum per channel makes {@link #getMean} constant time, so detectors can test a window
+ * on every sample, and nothing is allocated after construction. Not thread-safe.
+ */
+public final class ChannelRing {
+
+    /**
+     * Values per channel, each a ring of {@link #capacity}.
+     */
+    private final float[][] values;
+
+    /**
+     * Sum of the values present per channel.
+     */
+    private final double[] sums;
+
+    /**
+     * Number of values present per channel.
+     */
+    private final int[] counts;
+
+    /**
+     * Rows kept at most.
+     */
+    private final int capacity;
+
+    /**
+     * Position of the next row.
+     */
+    private int head;
+
+    /**
+     * Rows in the ring.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     * @param channels Number of channels.
+     * @param capacity Rows kept at most.
+     * @throws IllegalArgumentException If either is not positive.
+     */
+    public ChannelRing(int channels, int capacity) {
+        if (channels <= 0 || capacity <= 0) throw new IllegalArgumentException("Need channels > 0 and capacity > 0");
+        this.values = new float[channels][capacity];
+        this.sums = new double[channels];
+        this.counts = new int[channels];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Starts a new row with every channel absent, dropping the oldest row if the ring is full.
+     */
+    public void push() {
+        if (size == capacity) {
+            for (int channel = 0; channel < values.length; channel++) remove(channel, values[channel][head]);
+        } else {
+            size++;
+        }
+        for (float[] channel : values) channel[head] = Float.NaN;
+        head = head == capacity - 1 ? 0 : head + 1;
+    }
+
+    /**
+     * Sets a channel of the newest row.
+     * @param channel Channel index.
+     * @param value Value; NaN marks it absent.
+     * @throws IllegalStateException If no row was pushed.
+     */
+    public void set(int channel, float value) {
+        if (size == 0) throw new IllegalStateException("push() a row first");
+        int newest = head == 0 ? capacity - 1 : head - 1;
+        remove(channel, values[channel][newest]);
+        values[channel][newest] = value;
+        if (!Float.isNaN(value)) {
+            sums[channel] += value;
+            counts[channel]++;
+        }
+    }
+
+    /**
+     * Removes every row.
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Returns the number of channels.
+     * @return Channel count.
+     */
+    public int getChannelCount() {
+        return values.length;
+    }
+
+    /**
+     * Returns the number of rows kept at most.
+     * @return Capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return Rows in the ring.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the ring holds {@link #getCapacity()} rows.
+     * @return true once full.
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns a value.
+     * @param channel Channel index.
+     * @param index Row, 0 for the oldest and size() - 1 for the newest.
+     * @return Value, NaN if absent.
+     */
+    public float get(int channel, int index) {
+        int position = head - size + index;
+        return values[channel][position < 0 ? position + capacity : position];
+    }
+
+    /**
+     * Returns the number of values present in a channel.
+     * @param channel Channel index.
+     * @return Count.
+     */
+    public int getCount(int channel) {
+        return counts[channel];
+    }
+
+    /**
+     * Returns the mean of the values present in a channel.
+     * @param channel Channel index.
+     * @return Mean, NaN if there are none.
+     */
+    public double getMean(int channel) {
+        return counts[channel] > 0 ? sums[channel] / counts[channel] : Double.NaN;
+    }
+
+    /**
+     * Returns the smallest value present in a channel; scans the ring.
+     * @param channel Channel index.
+     * @return Minimum, NaN if there are none.
+     */
+    public float getMin(int channel) {
+        float min = Float.NaN;
+        for (int i = 0; i < size; i++) {
+            float value = get(channel, i);
+            if (!Float.isNaN(value) && !(value >= min)) min = value;
+        }
+        return min;
+    }
+
+    /**
+     * Returns the largest value present in a channel; scans the ring.
+     * @param channel Channel index.
+     * @return Maximum, NaN if there are none.
+     */
+    public float getMax(int channel) {
+        float max = Float.NaN;
+        for (int i = 0; i < size; i++) {
+            float value = get(channel, i);
+            if (!Float.isNaN(value) && !(value <= max)) max = value;
+        }
+        return max;
+    }
+
+    /**
+     * Takes a value out of a channel's running sum.
+     * @param channel Channel index.
+     * @param value Value leaving the ring, NaN if absent.
+     */
+    private void remove(int channel, float value) {
+        if (Float.isNaN(value)) return;
+        sums[channel] -= value;
+        counts[channel]--;
+    }
+}
@@ -0,0 +1,126 @@
+package com.petfilament.recycler.core;
+
+import java.util.ArrayList;
+import java.util.ListIterator;
+
+/**
+ * CommandQueue class is a bounded FIFO of outbound commands drained by a single writer thread,
+ * or polled by {@link ReliableCommandChannel} as its backlog.
+ * A setpoint command ("SET_TEMP:", "SET_SPEED:") that is still waiting replaces the queued one with the
+ * same key, so repeated Save presses or ramps never back up the link with stale values.
+ */
+public class CommandQueue {
+
+    /**
+     * Queued commands.
+     */
+    private final ArrayList<String> pending = new ArrayList<>();
+
+    /**
+     * Maximum number of queued commands.
+     */
+    private final int capacity;
+
+    /**
+     * Constructor.
+     * @param capacity Maximum number of queued commands.
+     */
+    public CommandQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queues a command, coalescing it with a waiting setpoint of the same key.
+     * @param command Command text.
+     * @return false if the queue is full.
+     */
+    public synchronized boolean offer(String command) {
+        String key = setpointKey(command);
+        if (key != null) {
+            // Replace a waiting setpoint in place, keeping its position
+            for (ListIterator<String> it = pending.listIterator(); it.hasNext(); ) {
+                if (it.next().startsWith(key)) {
+                    it.set(command);
+                    return true;
+                }
+            }
+        }
+        if (pending.size() >= capacity) return false;
+        pending.add(command);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Takes the next command, waiting until one is queued.
+     * @return Command text.
+     * @throws InterruptedException If the writer thread is interrupted.
+     */
+    public synchronized String take() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        return pending.remove(0);
+    }
+
+    /**
+     * Takes the next command, waiting at most the given time.
+     * @param timeoutMillis Maximum wait in milliseconds.
+     * @return Command text, or null if none was queued in time.
+     * @throws InterruptedException If the writer thread is interrupted.
+     */
+    public synchronized String poll(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (pending.isEmpty()) {
+            long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+            if (remaining <= 0) return null;
+            wait(remaining);
+        }
+        return pending.remove(0);
+    }
+
+    /**
+     * Takes the next command without waiting.
+     * @return Command text, or null if the queue is empty.
+     */
+    public synchronized String poll() {
+        return pending.isEmpty() ? null : pending.remove(0);
+    }
+
+    /**
+     * Returns the next command without removing it.
+     * @return Command text, or null if the queue is empty.
+     */
+    public synchronized String peek() {
+        return pending.isEmpty() ? null : pending.get(0);
+    }
+
+    /**
+     * Drops all queued commands.
+     */
+    public synchronized void clear() {
+        pending.clear();
+    }
+
+    /**
+     * Returns the number of queued commands.
+     * @return Queue length.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the coalescing key of a setpoint command.
+     * @param command Command text.
+     * @return "SET_TEMP:", "SET_TEMP&lt;zone&gt;:" or "SET_SPEED:", or null for other commands.
+     */
+    private static String setpointKey(String command) {
+        if (command.startsWith("SET_TEMP")) {
+            int colon = command.indexOf(':');
+            return colon < 0 ? null : command.substring(0, colon + 1);
+        }
+        if (command.startsWith("SET_SPEED:")) return "SET_SPEED:";
+        return null;
+    }
+}
@@ -0,0 +1,142 @@
+package com.petfilament.recycler.core;
+
+/**
+ * CommandReader class is the host-side twin of the firmware's pollCommand(): an incremental, allocation-free
+ * command parser over a fixed char buffer. It takes whatever bytes have arrived, one at a time, and reports a
+ * command when a '\n' or '\r' ends it or, for senders that omit the terminator, once the line has been idle for
+ * {@link #IDLE_MILLIS}. The idle cutoff only serves such legacy senders: it is off for a line starting with a
+ * "#seq:" prefix and for good once a terminator has been seen, so a frame split by a pause on the radio link
+ * is never run in halves. It never waits for bytes, so the caller's loop keeps its timing while a command
+ * trickles in. A line longer than {@link #MAX_LENGTH} is dropped whole. Not thread-safe.
+ */
+public class CommandReader {
+
+    /**
+     * Longest command, sequence prefix included, as CMD_MAX in the firmware.
+     */
+    public static final int MAX_LENGTH = 64;
+
+    /**
+     * Idle time ending an unterminated command of a sender that never sent a terminator, as CMD_IDLE_MS in the
+     * firmware.
+     */
+    public static final long IDLE_MILLIS = 20;
+
+    /**
+     * Firmware reply to a dropped overlong line.
+     */
+    public static final String ERROR_TOO_LONG = "ERROR: Command too long";
+
+    /**
+     * Outcome of feeding a byte or checking for idleness.
+     */
+    public enum Result {
+        /**
+         * No command completed.
+         */
+        NONE,
+        /**
+         * A command completed; read it with {@link #getCommand()}.
+         */
+        READY,
+        /**
+         * An overlong line ended and was dropped.
+         */
+        TOO_LONG
+    }
+
+    /**
+     * Bytes of the line being received.
+     */
+    private final char[] buffer = new char[MAX_LENGTH];
+
+    /**
+     * Number of buffered chars.
+     */
+    private int length;
+
+    /**
+     * Set once the line exceeded the buffer.
+     */
+    private boolean overflow;
+
+    /**
+     * Set once a '\n' or '\r' arrived; the sender terminates its commands, so idleness no longer ends one.
+     */
+    private boolean terminated;
+
+    /**
+     * Time of the latest byte.
+     */
+    private long lastByteMillis;
+
+    /**
+     * Offset of the completed command in the buffer.
+     */
+    private int commandStart;
+
+    /**
+     * Length of the completed command.
+     */
+    private int commandLength;
+
+    /**
+     * Takes one received byte.
+     * @param b Byte value.
+     * @param nowMillis Current time in milliseconds.
+     * @return {@link Result#READY} or {@link Result#TOO_LONG} if the byte ended a line.
+     */
+    public Result accept(int b, long nowMillis) {
+        lastByteMillis = nowMillis;
+        char c = (char) (b & 0xFF);
+        if (c == '\n' || c == '\r') {
+            terminated = true;
+            return finish();
+        }
+        if (length < MAX_LENGTH) {
+            buffer[length++] = c;
+        } else {
+            overflow = true;
+        }
+        return Result.NONE;
+    }
+
+    /**
+     * Ends an unterminated line once no byte arrived for {@link #IDLE_MILLIS}, unless the sender terminates its
+     * commands: it sent a terminator before or the line carries a "#seq:" prefix.
+     * @param nowMillis Current time in milliseconds.
+     * @return {@link Result#READY} or {@link Result#TOO_LONG} if the line ended.
+     */
+    public Result checkIdle(long nowMillis) {
+        if (terminated || (length > 0 && buffer[0] == '#')) return Result.NONE;
+        if ((length > 0 || overflow) && nowMillis - lastByteMillis >= IDLE_MILLIS) return finish();
+        return Result.NONE;
+    }
+
+    /**
+     * Returns the command completed by the latest {@link Result#READY}. Call before feeding further bytes.
+     * @return Command with surrounding whitespace removed.
+     */
+    public String getCommand() {
+        return new String(buffer, commandStart, commandLength);
+    }
+
+    /**
+     * Ends the current line: trims it and resets the receive state. Blank lines are ignored.
+     * @return Outcome for the line.
+     */
+    private Result finish() {
+        boolean dropped = overflow;
+        int start = 0;
+        int end = length;
+        length = 0;
+        overflow = false;
+        if (dropped) return Result.TOO_LONG;
+        while (start < end && buffer[start] <= ' ') start++;
+        while (end > start && buffer[end - 1] <= ' ') end--;
+        if (start == end) return Result.NONE;
+        commandStart = start;
+        commandLength = end - start;
+        return Result.READY;
+    }
+}
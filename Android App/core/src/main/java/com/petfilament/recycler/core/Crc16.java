@@ -0,0 +1,32 @@
+package com.petfilament.recycler.core;
+
+/**
+ * Crc16 class computes CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF), the checksum the
+ * firmware's crc16() puts on bulk transfers.
+ */
+public final class Crc16 {
+
+    /**
+     * Not instantiable.
+     */
+    private Crc16() {
+    }
+
+    /**
+     * Computes the checksum of a byte range.
+     * @param data Bytes.
+     * @param offset Offset of the first byte.
+     * @param length Number of bytes.
+     * @return CRC, 0-0xFFFF.
+     */
+    public static int compute(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+}
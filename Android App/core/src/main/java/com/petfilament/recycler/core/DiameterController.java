@@ -0,0 +1,350 @@
+package com.petfilament.recycler.core;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiameterController class holds the filament diameter at a target by trimming the pull speed. The firmware
+ * streams "DIA:&lt;mm&gt;" readings at {@link #DEFAULT_RATE_HZ} while the motor runs; {@link #accept} collects them
+ * from the reader thread and every control tick averages what arrived since the previous one.
+ * <p>
+ * Pulling faster draws the same material out thinner, the cross-section going as 1/speed, so in logarithms
+ * the plant is a unit gain: a speed change of ln(v1/v0) changes ln(d²) by the same amount once the filament
+ * reaches the sensor. The controller therefore runs a PI loop on e = ln(d²/target²) acting on ln(speed), with
+ * gains that hold at any operating point; the integral only moves while the speed is inside its limits.
+ * Readings older than {@link #STALE_MS} hold the speed, so a stopped motor or a silent sensor never winds
+ * the loop up.
+ * <p>
+ * SET_SPEED goes out at most every {@link #MIN_COMMAND_INTERVAL_MS} and only when the rounded speed changed,
+ * which bounds the command rate on the 9600 baud link whatever the tick rate. {@link #update} is the whole
+ * control step and takes the time as a System.nanoTime() value, so tests run it in virtual time against a
+ * {@link SimulatedExtruder}; {@link #start} drives it from a scheduled executor on a fixed grid of deadlines,
+ * as {@link RecipeRunner} does. Methods are synchronized.
+ */
+public class DiameterController {
+
+    /**
+     * Prefix of a diameter reading.
+     */
+    public static final String PREFIX = "DIA:";
+
+    /**
+     * Command setting the streaming rate in Hz; 0 turns it off.
+     */
+    public static final String CMD_RATE = "DIA_RATE:";
+
+    /**
+     * Streaming rate requested while the controller runs, Hz.
+     */
+    public static final int DEFAULT_RATE_HZ = 20;
+
+    /**
+     * Control tick period in milliseconds, two readings at the default rate.
+     */
+    public static final long DEFAULT_PERIOD_MS = 100;
+
+    /**
+     * Shortest interval between two SET_SPEED commands, in milliseconds.
+     */
+    public static final long MIN_COMMAND_INTERVAL_MS = 250;
+
+    /**
+     * Age after which the latest reading no longer counts, in milliseconds.
+     */
+    public static final long STALE_MS = 1000;
+
+    /**
+     * Proportional gain on ln(d²/target²).
+     */
+    public static final double KP = 0.3;
+
+    /**
+     * Integral gain per second; with the proportional term it leaves about 60° of phase margin over a 1.5 s
+     * sensor transport delay.
+     */
+    public static final double KI = 0.5;
+
+    /**
+     * Receiver of the commands, usually {@link Session#send}.
+     */
+    private final RecipeRunner.CommandSink sink;
+
+    /**
+     * Target diameter in mm.
+     */
+    private final double target;
+
+    /**
+     * Lowest speed sent, steps/s.
+     */
+    private final int minSpeed;
+
+    /**
+     * Highest speed sent, steps/s.
+     */
+    private final int maxSpeed;
+
+    /**
+     * ln of the speed the loop started at; the integral is kept relative to it.
+     */
+    private final double baseLog;
+
+    /**
+     * Integral term, in ln(speed).
+     */
+    private double integral;
+
+    /**
+     * Sum of the readings since the last tick, mm.
+     */
+    private double readingSum;
+
+    /**
+     * Number of readings since the last tick.
+     */
+    private int readingCount;
+
+    /**
+     * Arrival time of the latest reading, System.nanoTime(); valid once {@link #readings} is non-zero.
+     */
+    private long lastReadingNanos;
+
+    /**
+     * Readings accepted in total.
+     */
+    private long readings;
+
+    /**
+     * Mean of the readings of the last tick that had any, mm; NaN before the first.
+     */
+    private double diameter = Double.NaN;
+
+    /**
+     * Speed the loop asks for, steps/s.
+     */
+    private int speed;
+
+    /**
+     * Speed last handed to the sink.
+     */
+    private int sentSpeed;
+
+    /**
+     * Time of the last SET_SPEED handed to the sink, System.nanoTime(); valid once {@link #commands} is non-zero.
+     */
+    private long sentNanos;
+
+    /**
+     * SET_SPEED commands handed to the sink.
+     */
+    private long commands;
+
+    /**
+     * Time of the previous tick, System.nanoTime(); valid once {@link #ticks} is non-zero.
+     */
+    private long lastTickNanos;
+
+    /**
+     * Ticks run so far.
+     */
+    private long ticks;
+
+    /**
+     * Executor running the ticks, null unless started.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Pending tick, null unless running on an executor.
+     */
+    private ScheduledFuture<?> future;
+
+    /**
+     * Tick period in nanoseconds.
+     */
+    private long periodNanos;
+
+    /**
+     * Constructor.
+     * @param targetDiameter Diameter to hold, mm.
+     * @param startSpeed Speed the motor runs at, steps/s.
+     * @param minSpeed Lowest speed sent, steps/s.
+     * @param maxSpeed Highest speed sent, steps/s.
+     * @param sink Receiver of the commands.
+     * @throws IllegalArgumentException If the target is not positive or the speeds are out of order.
+     */
+    public DiameterController(double targetDiameter, int startSpeed, int minSpeed, int maxSpeed,
+                              RecipeRunner.CommandSink sink) {
+        if (!(targetDiameter > 0) || minSpeed <= 0 || startSpeed < minSpeed || maxSpeed < startSpeed) {
+            throw new IllegalArgumentException("Need targetDiameter > 0 and 0 < minSpeed <= startSpeed <= maxSpeed");
+        }
+        this.target = targetDiameter;
+        this.minSpeed = minSpeed;
+        this.maxSpeed = maxSpeed;
+        this.sink = sink;
+        this.baseLog = Math.log(startSpeed);
+        this.speed = startSpeed;
+        this.sentSpeed = startSpeed;
+    }
+
+    /**
+     * Parses a diameter reading.
+     * @param line Line without terminator.
+     * @return Diameter in mm, or NaN if the line is not a valid reading.
+     */
+    public static double parse(String line) {
+        if (!line.startsWith(PREFIX)) return Double.NaN;
+        try {
+            double value = Double.parseDouble(line.substring(PREFIX.length()).trim());
+            return value > 0 ? value : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Adds a reading; called on the thread receiving them.
+     * @param diameterMm Diameter in mm.
+     * @param nowNanos Arrival time, System.nanoTime().
+     */
+    public synchronized void accept(double diameterMm, long nowNanos) {
+        if (!(diameterMm > 0)) return;
+        readingSum += diameterMm;
+        readingCount++;
+        readings++;
+        lastReadingNanos = nowNanos;
+    }
+
+    /**
+     * Runs one control step: averages the readings since the previous step, moves the speed and sends it if due.
+     * @param nowNanos Current System.nanoTime().
+     */
+    public synchronized void update(long nowNanos) {
+        double dt = ticks > 0 ? (nowNanos - lastTickNanos) / 1e9 : 0;
+        lastTickNanos = nowNanos;
+        ticks++;
+        boolean fresh = readingCount > 0 && nowNanos - lastReadingNanos <= TimeUnit.MILLISECONDS.toNanos(STALE_MS);
+        if (readingCount > 0) diameter = readingSum / readingCount;
+        readingSum = 0;
+        readingCount = 0;
+        if (fresh) {
+            double error = 2 * Math.log(diameter / target);
+            double proposed = integral + KI * error * Math.min(dt, STALE_MS / 1000.0);
+            double log = baseLog + KP * error + proposed;
+            // Conditional integration: the integral does not grow further into a limit
+            boolean low = log < Math.log(minSpeed) && proposed < integral;
+            boolean high = log > Math.log(maxSpeed) && proposed > integral;
+            if (!low && !high) integral = proposed;
+            long wanted = Math.round(Math.exp(baseLog + KP * error + integral));
+            speed = (int) Math.max(minSpeed, Math.min(maxSpeed, wanted));
+        }
+        flush(nowNanos);
+    }
+
+    /**
+     * Runs the loop on an executor, ticking on a fixed grid of deadlines until stopped. A dedicated
+     * single-thread executor keeps the ticks from queueing behind other work.
+     * @param executor Executor running the ticks.
+     * @param periodMillis Tick period in milliseconds.
+     */
+    public synchronized void start(ScheduledExecutorService executor, long periodMillis) {
+        this.executor = executor;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        schedule(System.nanoTime());
+    }
+
+    /**
+     * Stops the ticks; the motor keeps the last speed sent.
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * Returns whether the loop runs on an executor.
+     * @return true between {@link #start} and {@link #stop}.
+     */
+    public synchronized boolean isRunning() {
+        return future != null;
+    }
+
+    /**
+     * Returns the target diameter.
+     * @return Diameter in mm.
+     */
+    public double getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns the mean reading of the latest tick that had readings.
+     * @return Diameter in mm, NaN before the first reading.
+     */
+    public synchronized double getDiameter() {
+        return diameter;
+    }
+
+    /**
+     * Returns the speed the loop asks for.
+     * @return Speed in steps/s.
+     */
+    public synchronized int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Returns the number of readings accepted.
+     * @return Reading count.
+     */
+    public synchronized long getReadingCount() {
+        return readings;
+    }
+
+    /**
+     * Returns the number of SET_SPEED commands sent.
+     * @return Command count.
+     */
+    public synchronized long getCommandCount() {
+        return commands;
+    }
+
+    /**
+     * Sends the speed if it changed and the last command is old enough; a refused one is offered again on
+     * the next tick.
+     * @param nowNanos Current System.nanoTime().
+     */
+    private void flush(long nowNanos) {
+        if (speed == sentSpeed) return;
+        if (commands > 0 && nowNanos - sentNanos < TimeUnit.MILLISECONDS.toNanos(MIN_COMMAND_INTERVAL_MS)) return;
+        if (!sink.send("SET_SPEED:" + speed)) return;
+        sentSpeed = speed;
+        sentNanos = nowNanos;
+        commands++;
+    }
+
+    /**
+     * Schedules the tick due at a deadline.
+     * @param deadline System.nanoTime() at which the tick is due.
+     */
+    private void schedule(long deadline) {
+        long delay = Math.max(0, deadline - System.nanoTime());
+        future = executor.schedule(() -> tick(deadline), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs one scheduled tick and schedules the next on the grid, skipping deadlines already past.
+     * @param deadline Deadline of this tick.
+     */
+    private synchronized void tick(long deadline) {
+        if (future == null) return;
+        long now = System.nanoTime();
+        update(now);
+        long next = deadline + periodNanos;
+        if (next <= now) next += ((now - next) / periodNanos + 1) * periodNanos;
+        schedule(next);
+    }
+}
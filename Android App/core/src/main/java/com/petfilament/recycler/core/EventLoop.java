@@ -0,0 +1,247 @@
+package com.petfilament.recycler.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * EventLoop class runs tasks one at a time on a single named thread, in the order they were posted, so the state
+ * they touch has a single owner and needs neither locks nor volatile fields. Other threads hand work to it with
+ * {@link #execute}, {@link #schedule} or, when they need an answer, {@link #call}; a task already on the loop
+ * reaches it directly through {@link #dispatch} or {@link #call}.
+ * <p>
+ * Each task's queue delay, from when it was due to when it started, is measured on the loop and published for
+ * other threads. A task that throws is reported to the loop thread's uncaught exception handler, as an
+ * exception on any other thread would be; on Android the default handler ends the process. Only if the handler
+ * returns does the loop carry on with the next task.
+ */
+public final class EventLoop implements Executor {
+
+    /**
+     * Interval at which {@link #call} checks whether a shut-down loop has finished, in milliseconds.
+     */
+    private static final long TERMINATION_POLL_MS = 20;
+
+    /**
+     * Single worker thread and timer queue; tasks due at the same time run in submission order.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Loop thread, null until the first task starts it.
+     */
+    private volatile Thread thread;
+
+    /**
+     * Set by {@link #shutdown()}; tasks posted afterwards are dropped.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Tasks run so far; written by the loop only.
+     */
+    private volatile long taskCount;
+
+    /**
+     * Sum of the queue delays in nanoseconds; written by the loop only.
+     */
+    private volatile long totalDelayNanos;
+
+    /**
+     * Longest queue delay in nanoseconds; written by the loop only.
+     */
+    private volatile long maxDelayNanos;
+
+    /**
+     * Constructor; the thread starts with the first task.
+     * @param name Thread name.
+     */
+    public EventLoop(String name) {
+        executor = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread loopThread = new Thread(task, name);
+            thread = loopThread;
+            return loopThread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Queues a task behind those already posted, even when called on the loop. Dropped after {@link #shutdown()}.
+     * @param task Task.
+     */
+    @Override
+    public void execute(Runnable task) {
+        post(task);
+    }
+
+    /**
+     * Runs a task on the loop: at once when called on the loop thread, so it keeps its place among the effects
+     * of the current task, otherwise queued like {@link #execute}.
+     * @param task Task.
+     */
+    public void dispatch(Runnable task) {
+        if (inLoop()) {
+            task.run();
+        } else {
+            post(task);
+        }
+    }
+
+    /**
+     * Runs a task on the loop after a delay.
+     * @param task Task.
+     * @param delayMillis Delay in milliseconds.
+     * @return Future to cancel the task with, or null after {@link #shutdown()}.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        if (closed) return null;
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        try {
+            return executor.schedule(() -> runMeasured(task, due), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs a task on the loop and waits for its result. On the loop thread it runs at once. After
+     * {@link #shutdown()} it waits until the tasks posted before have run and the loop thread has ended, then
+     * runs on the calling thread, which is the only one left to own the state. Never call it from a thread the
+     * loop itself waits for.
+     * @param task Task.
+     * @param <T> Result type.
+     * @return Result of the task.
+     * @throws RuntimeException What the task threw, unchanged if unchecked, otherwise wrapped in an
+     * IllegalStateException; also an IllegalStateException if the caller is interrupted while waiting.
+     */
+    public <T> T call(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        if (inLoop()) {
+            future.run();
+        } else {
+            post(future);
+        }
+        while (true) {
+            try {
+                return future.get(TERMINATION_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Not posted, or dropped by the shutdown: once the loop thread is gone the caller runs it
+                if (executor.isTerminated()) future.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the event loop", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the caller runs on the loop thread.
+     * @return true on the loop.
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stops the loop once the tasks already posted have run; pending delayed tasks are dropped and tasks posted
+     * afterwards are ignored. Does not wait.
+     */
+    public void shutdown() {
+        if (closed) return;
+        closed = true;
+        // Shut down from the loop so every task posted before this call still runs
+        try {
+            executor.execute(executor::shutdown);
+        } catch (RejectedExecutionException e) {
+            // Already shut down
+        }
+    }
+
+    /**
+     * Returns whether {@link #shutdown()} was called.
+     * @return true once shut down.
+     */
+    public boolean isShutdown() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of tasks run so far.
+     * @return Task count.
+     */
+    public long getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the number of tasks waiting, including delayed ones not due yet.
+     * @return Pending tasks.
+     */
+    public int getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the mean time tasks waited between being due and starting.
+     * @return Mean queue delay in milliseconds, NaN before the first task.
+     */
+    public double getMeanQueueDelayMillis() {
+        long count = taskCount;
+        return count > 0 ? totalDelayNanos / 1e6 / count : Double.NaN;
+    }
+
+    /**
+     * Returns the longest time a task waited between being due and starting.
+     * @return Maximum queue delay in milliseconds.
+     */
+    public double getMaxQueueDelayMillis() {
+        return maxDelayNanos / 1e6;
+    }
+
+    /**
+     * Queues a task to run now.
+     * @param task Task.
+     * @return false if the loop is shut down and the task was dropped.
+     */
+    private boolean post(Runnable task) {
+        if (closed) return false;
+        long due = System.nanoTime();
+        try {
+            executor.execute(() -> runMeasured(task, due));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs a task on the loop and records its queue delay.
+     * @param task Task.
+     * @param dueNanos When the task became due, System.nanoTime().
+     */
+    private void runMeasured(Runnable task, long dueNanos) {
+        long delay = Math.max(0, System.nanoTime() - dueNanos);
+        totalDelayNanos += delay;
+        if (delay > maxDelayNanos) maxDelayNanos = delay;
+        taskCount++;
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Thread current = Thread.currentThread();
+            Thread.UncaughtExceptionHandler handler = current.getUncaughtExceptionHandler();
+            if (handler != null) handler.uncaughtException(current, e);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.petfilament.recycler.core;
+
+/**
+ * FirmwarePid class is a bit-for-bit replica of updatePIDAndHeater() in Firmware_1.1.
+ * All controller state is kept in float, as on the board, so simulated runs follow the same rounding.
+ */
+public final class FirmwarePid {
+
+    /**
+     * PID update interval in milliseconds (updateInterval in the firmware).
+     */
+    public static final int UPDATE_INTERVAL_MS = 250;
+
+    /**
+     * Maximum PWM value, also used as the integral clamp.
+     */
+    public static final int MAX_PWM = 255;
+
+    /**
+     * Calibration offset added to the error in the firmware while it converts with the Beta equation.
+     */
+    public static final float ERROR_OFFSET = 6f;
+
+    /**
+     * Temperature above which the firmware switches the heater off.
+     */
+    public static final float SAFETY_LIMIT = 300f;
+
+    /**
+     * Proportional gain compiled into Firmware_1.1.
+     */
+    public static final float FIRMWARE_KP = 90f;
+
+    /**
+     * Integral gain compiled into Firmware_1.1.
+     */
+    public static final float FIRMWARE_KI = 30f;
+
+    /**
+     * Derivative gain compiled into Firmware_1.1.
+     */
+    public static final float FIRMWARE_KD = 80f;
+
+    /**
+     * Proportional gain.
+     */
+    private final float kp;
+
+    /**
+     * Integral gain.
+     */
+    private final float ki;
+
+    /**
+     * Derivative gain.
+     */
+    private final float kd;
+
+    /**
+     * Offset added to the error term.
+     */
+    private final float errorOffset;
+
+    /**
+     * Uploaded conversion table, null while the Beta equation is used.
+     */
+    private CalibrationTable calibration;
+
+    /**
+     * Temperature setpoint (set_temperature).
+     */
+    private float setTemperature;
+
+    /**
+     * Last temperature reading (temperature_read).
+     */
+    private float temperatureRead;
+
+    /**
+     * Error of the previous update (previous_error).
+     */
+    private float previousError;
+
+    /**
+     * Integral term (PID_i).
+     */
+    private float pidI;
+
+    /**
+     * Clamped controller output (PID_value).
+     */
+    private float pidValue;
+
+    /**
+     * Heater duty cycle actually applied, 0-1.
+     */
+    private float duty;
+
+    /**
+     * Constructor using the firmware's error offset.
+     * @param kp Proportional gain.
+     * @param ki Integral gain.
+     * @param kd Derivative gain.
+     */
+    public FirmwarePid(float kp, float ki, float kd) {
+        this(kp, ki, kd, ERROR_OFFSET);
+    }
+
+    /**
+     * Constructor.
+     * @param kp Proportional gain.
+     * @param ki Integral gain.
+     * @param kd Derivative gain.
+     * @param errorOffset Offset added to the error term.
+     */
+    public FirmwarePid(float kp, float ki, float kd, float errorOffset) {
+        this.kp = kp;
+        this.ki = ki;
+        this.kd = kd;
+        this.errorOffset = errorOffset;
+    }
+
+    /**
+     * Sets the temperature setpoint.
+     * @param setTemperature Setpoint in °C.
+     */
+    public void setSetTemperature(float setTemperature) {
+        this.setTemperature = setTemperature;
+    }
+
+    /**
+     * Returns the temperature setpoint.
+     * @return Setpoint in °C.
+     */
+    public float getSetTemperature() {
+        return setTemperature;
+    }
+
+    /**
+     * Returns the temperature the controller regulates the reading to.
+     * @return Setpoint plus error offset.
+     */
+    public float getTarget() {
+        return setTemperature + getErrorOffset();
+    }
+
+    /**
+     * Switches the conversion as a calibration upload does; a table replaces the error offset as well.
+     * @param calibration Table, or null for the Beta equation.
+     */
+    public void setCalibration(CalibrationTable calibration) {
+        this.calibration = calibration;
+    }
+
+    /**
+     * Returns the offset in effect.
+     * @return Offset in °C, 0 with a calibration table.
+     */
+    private float getErrorOffset() {
+        return calibration != null ? 0f : errorOffset;
+    }
+
+    /**
+     * Clears the controller state, as after a reset of the board.
+     */
+    public void reset() {
+        temperatureRead = 0f;
+        previousError = 0f;
+        pidI = 0f;
+        pidValue = 0f;
+        duty = 0f;
+    }
+
+    /**
+     * Runs one 250 ms update from a raw ADC sample.
+     * @param adc ADC value (0-1023).
+     * @return Heater duty cycle applied, 0-1.
+     */
+    public float update(int adc) {
+        temperatureRead = (float) (calibration != null ? calibration.toCelsius(adc) : Thermistor.toCelsius(adc));
+
+        if (temperatureRead > SAFETY_LIMIT) {
+            duty = 0f;
+            return duty;
+        }
+
+        float pidError = setTemperature - temperatureRead + getErrorOffset();
+        float dt = (float) (UPDATE_INTERVAL_MS / 1000.0);
+
+        float pidP = kp * pidError;
+        pidI += ki * pidError * dt;
+        pidI = constrain(pidI, -MAX_PWM, MAX_PWM);
+        float pidD = kd * (pidError - previousError) / dt;
+
+        pidValue = constrain(pidP + pidI + pidD, 0, MAX_PWM);
+        duty = pidValue / 255.0f;
+
+        previousError = pidError;
+        return duty;
+    }
+
+    /**
+     * Returns the last temperature reading.
+     * @return Temperature in °C.
+     */
+    public float getTemperatureRead() {
+        return temperatureRead;
+    }
+
+    /**
+     * Returns the clamped controller output.
+     * @return PID value, 0-255.
+     */
+    public float getPidValue() {
+        return pidValue;
+    }
+
+    /**
+     * Returns the heater duty cycle applied by the last update.
+     * @return Duty cycle, 0-1.
+     */
+    public float getDuty() {
+        return duty;
+    }
+
+    /**
+     * Returns the integral term.
+     * @return PID_i.
+     */
+    public float getIntegral() {
+        return pidI;
+    }
+
+    /**
+     * Same semantics as the Arduino constrain() macro.
+     * @param amt Value.
+     * @param low Lower bound.
+     * @param high Upper bound.
+     * @return Clamped value.
+     */
+    private static float constrain(float amt, float low, float high) {
+        return amt < low ? low : (amt > high ? high : amt);
+    }
+}
@@ -0,0 +1,100 @@
+package com.petfilament.recycler.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FrameCodec class turns the raw link byte stream into protocol lines and commands into bytes.
+ * The firmware terminates every reply with println() ("\r\n"); a read may contain part of a line,
+ * or several lines, so bytes are accumulated until a terminator arrives.
+ */
+public class FrameCodec {
+
+    /**
+     * Interface receiving decoded lines.
+     */
+    public interface LineListener {
+        /**
+         * Called for every complete line, without its terminator.
+         * @param line Decoded line.
+         */
+        void onLine(String line);
+    }
+
+    /**
+     * Bytes of the line being assembled.
+     */
+    private final byte[] line;
+
+    /**
+     * Number of bytes in the line being assembled.
+     */
+    private int length;
+
+    /**
+     * Set when the current line overflowed and is being discarded up to its terminator.
+     */
+    private boolean discarding;
+
+    /**
+     * Constructor.
+     * @param maxLineLength Longest line accepted; longer lines are dropped.
+     */
+    public FrameCodec(int maxLineLength) {
+        this.line = new byte[maxLineLength];
+    }
+
+    /**
+     * Feeds received bytes, emitting every completed line.
+     * @param data Received bytes.
+     * @param offset Offset of the first byte.
+     * @param count Number of bytes.
+     * @param listener Receiver of completed lines.
+     */
+    public void decode(byte[] data, int offset, int count, LineListener listener) {
+        for (int i = offset, end = offset + count; i < end; i++) {
+            byte b = data[i];
+            if (b == '\n') {
+                if (!discarding) {
+                    int n = length;
+                    if (n > 0 && line[n - 1] == '\r') n--;
+                    if (n > 0) listener.onLine(new String(line, 0, n, StandardCharsets.US_ASCII));
+                }
+                length = 0;
+                discarding = false;
+            } else if (discarding) {
+                continue;
+            } else if (length == line.length) {
+                discarding = true;
+            } else {
+                line[length++] = b;
+            }
+        }
+    }
+
+    /**
+     * Drops any partially received line, e.g. after a reconnect.
+     */
+    public void reset() {
+        length = 0;
+        discarding = false;
+    }
+
+    /**
+     * Encodes a command for the wire.
+     * @param command Command text.
+     * @return Bytes to send.
+     */
+    public static byte[] encode(String command) {
+        return command.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes a command followed by '\n', which ends it on the firmware at once instead of after the idle
+     * timeout (one second for the older readStringUntil() builds, {@link CommandReader#IDLE_MILLIS} now).
+     * @param command Command text.
+     * @return Bytes to send.
+     */
+    public static byte[] encodeLine(String command) {
+        return (command + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,54 @@
+package com.petfilament.recycler.core;
+
+/**
+ * HeaterEstimate class is a snapshot of what {@link HeaterIdentifier} knows about the heater: the warm-up
+ * time to the setpoint at full power with a two-sigma range, and how far the heater moved from its
+ * baseline. Fields are public and immutable once built, so a snapshot can be handed to the UI thread.
+ */
+public class HeaterEstimate {
+
+    /**
+     * Identified model, null until its gain is known well enough to compare.
+     */
+    public HeaterModel model;
+
+    /**
+     * Seconds until the setpoint is reached at full power; 0 once there, infinite if the heater cannot
+     * reach it, NaN while unknown.
+     */
+    public double etaSeconds = Double.NaN;
+
+    /**
+     * Optimistic end of the two-sigma range of {@link #etaSeconds}.
+     */
+    public double etaLowSeconds = Double.NaN;
+
+    /**
+     * Pessimistic end of the two-sigma range of {@link #etaSeconds}; infinite if the setpoint may be out of reach.
+     */
+    public double etaHighSeconds = Double.NaN;
+
+    /**
+     * Temperature the heater settles at on full power, °C; NaN while unknown.
+     */
+    public double fullPowerTemperature = Double.NaN;
+
+    /**
+     * Relative change of the full-power temperature rise from the baseline (-0.3 = 30% weaker heater), NaN
+     * without a baseline or while the rise is uncertain.
+     */
+    public double gainDrift = Double.NaN;
+
+    /**
+     * Whether the rise moved further from the baseline than {@link HeaterIdentifier#DRIFT_LIMIT}.
+     */
+    public boolean drifted;
+
+    /**
+     * Returns whether a warm-up time is known.
+     * @return true if {@link #etaSeconds} is not NaN.
+     */
+    public boolean hasEta() {
+        return !Double.isNaN(etaSeconds);
+    }
+}
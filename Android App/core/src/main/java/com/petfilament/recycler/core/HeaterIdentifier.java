@@ -0,0 +1,315 @@
+package com.petfilament.recycler.core;
+
+/**
+ * HeaterIdentifier class fits the {@link HeaterModel} FOPDT plant online from the backfilled telemetry, so the
+ * app can tell how long warm-up will take and notice when the heater weakens. It is the recursive form of
+ * {@link HeaterModel#fit}: for every candidate dead time the ARX model T[n+1] = a*T[n] + b*u[n-d] + c is
+ * tracked by exponentially forgetting recursive least squares, and the dead time with the smallest
+ * prediction error wins. Each sample costs a fixed amount of work on preallocated arrays, independent of how
+ * long the stream has run. Forgetting is suspended while the covariance is large, so hours at a steady
+ * setpoint (no excitation) do not blow the estimate up. It follows one heater zone of the samples; a board with
+ * several zones takes one identifier per zone. Not thread-safe; feed it from one thread.
+ */
+public class HeaterIdentifier {
+
+    /**
+     * Largest dead time tried, in samples.
+     */
+    public static final int MAX_DEAD_STEPS = 16;
+
+    /**
+     * Forgetting factor per sample; older samples lose weight with a time constant of 500 samples (about 4 minutes).
+     */
+    public static final double FORGETTING = 0.998;
+
+    /**
+     * Interval between firmware samples in seconds (SAMPLE_EVERY PID updates).
+     */
+    public static final double SAMPLE_INTERVAL_S = SimulatedExtruder.SAMPLE_EVERY * FirmwarePid.UPDATE_INTERVAL_MS / 1000.0;
+
+    /**
+     * Updates needed before a warm-up time is given.
+     */
+    public static final int MIN_SAMPLES = 60;
+
+    /**
+     * Largest relative standard error of the gain for the model to be reported, and of the full-power rise
+     * for it to be compared with the baseline.
+     */
+    public static final double MAX_GAIN_ERROR = 0.1;
+
+    /**
+     * Relative change of the full-power rise from the baseline that is flagged as drift.
+     */
+    public static final double DRIFT_LIMIT = 0.2;
+
+    /**
+     * Temperature scale of the regressors, °C per unit, to keep the covariance well conditioned.
+     */
+    private static final double SCALE = 100.0;
+
+    /**
+     * Initial covariance diagonal.
+     */
+    private static final double INITIAL_COVARIANCE = 1000.0;
+
+    /**
+     * Covariance trace above which forgetting is suspended.
+     */
+    private static final double MAX_COVARIANCE_TRACE = 0.5;
+
+    /**
+     * Longest gap between consecutive samples in milliseconds; a longer one restarts the delay line.
+     */
+    private static final long MAX_GAP_MS = 750;
+
+    /**
+     * Number of candidate dead times.
+     */
+    private static final int DELAYS = MAX_DEAD_STEPS + 1;
+
+    /**
+     * Heater zone followed.
+     */
+    private final int zone;
+
+    /**
+     * Parameters [a, b, c/SCALE] per dead time.
+     */
+    private final double[][] theta = new double[DELAYS][3];
+
+    /**
+     * Covariance per dead time, 3x3 row-major.
+     */
+    private final double[][] covariance = new double[DELAYS][9];
+
+    /**
+     * Exponentially weighted sum of squared prediction errors per dead time.
+     */
+    private final double[] errorSum = new double[DELAYS];
+
+    /**
+     * Exponentially weighted number of prediction errors per dead time.
+     */
+    private final double[] errorWeight = new double[DELAYS];
+
+    /**
+     * Updates per dead time.
+     */
+    private final long[] updates = new long[DELAYS];
+
+    /**
+     * Recent duty cycles (0-1), a ring of the last {@link #DELAYS} samples.
+     */
+    private final float[] duty = new float[DELAYS];
+
+    /**
+     * Scratch vector P*x.
+     */
+    private final double[] px = new double[3];
+
+    /**
+     * Next write position in {@link #duty}.
+     */
+    private int head;
+
+    /**
+     * Consecutive samples in the delay line, capped at {@link #DELAYS}.
+     */
+    private int history;
+
+    /**
+     * Temperature of the previous sample.
+     */
+    private float lastTemperature = Float.NaN;
+
+    /**
+     * Tick of the previous sample.
+     */
+    private long lastTick;
+
+    /**
+     * Boot number of the previous sample.
+     */
+    private int lastBoot = -1;
+
+    /**
+     * Model the drift is measured against, null if none.
+     */
+    private HeaterModel baseline;
+
+    /**
+     * Constructor following zone 0.
+     */
+    public HeaterIdentifier() {
+        this(0);
+    }
+
+    /**
+     * Constructor.
+     * @param zone Heater zone followed.
+     */
+    public HeaterIdentifier(int zone) {
+        this.zone = zone;
+        for (int d = 0; d < DELAYS; d++) {
+            theta[d][0] = 1;
+            covariance[d][0] = covariance[d][4] = covariance[d][8] = INITIAL_COVARIANCE;
+        }
+    }
+
+    /**
+     * Adds one sample. Samples must arrive in sequence order; a board reset or lost samples restart the delay
+     * line but keep the fitted parameters. Samples without the zone are ignored.
+     * @param sample Sample.
+     */
+    public void accept(TelemetrySample sample) {
+        if (zone >= sample.getZoneCount()) return;
+        float temperature = sample.getTemperature(zone);
+        if (sample.boot != lastBoot || sample.tick <= lastTick || sample.tick - lastTick > MAX_GAP_MS) {
+            history = 0;
+        } else {
+            double t = lastTemperature / SCALE;
+            double y = temperature / SCALE;
+            for (int d = 0; d < history; d++) {
+                update(d, t, duty[(head - 1 - d + DELAYS) % DELAYS], y);
+            }
+        }
+        duty[head] = sample.getDuty(zone) / (float) FirmwarePid.MAX_PWM;
+        head = (head + 1) % DELAYS;
+        if (history < DELAYS) history++;
+        lastTemperature = temperature;
+        lastTick = sample.tick;
+        lastBoot = sample.boot;
+    }
+
+    /**
+     * Returns the heater zone followed.
+     * @return Zone index.
+     */
+    public int getZone() {
+        return zone;
+    }
+
+    /**
+     * One recursive least-squares step for a dead time, with regressors [t, u, 1].
+     * @param d Dead time in samples.
+     * @param t Previous temperature, scaled.
+     * @param u Duty d samples before the previous one.
+     * @param y New temperature, scaled.
+     */
+    private void update(int d, double t, double u, double y) {
+        double[] th = theta[d];
+        double[] p = covariance[d];
+        double e = y - (th[0] * t + th[1] * u + th[2]);
+        px[0] = p[0] * t + p[1] * u + p[2];
+        px[1] = p[3] * t + p[4] * u + p[5];
+        px[2] = p[6] * t + p[7] * u + p[8];
+        double lambda = p[0] + p[4] + p[8] > MAX_COVARIANCE_TRACE ? 1.0 : FORGETTING;
+        double den = lambda + t * px[0] + u * px[1] + px[2];
+        for (int i = 0; i < 3; i++) {
+            th[i] += px[i] / den * e;
+            for (int j = 0; j < 3; j++) p[3 * i + j] = (p[3 * i + j] - px[i] * px[j] / den) / lambda;
+        }
+        errorSum[d] = FORGETTING * errorSum[d] + e * e;
+        errorWeight[d] = FORGETTING * errorWeight[d] + 1;
+        updates[d]++;
+    }
+
+    /**
+     * Returns the dead time with the smallest weighted prediction error.
+     * @return Dead time in samples, -1 before the first update.
+     */
+    private int bestDelay() {
+        int best = -1;
+        for (int d = 0; d < DELAYS; d++) {
+            if (updates[d] == 0) continue;
+            if (best < 0 || errorSum[d] / errorWeight[d] < errorSum[best] / errorWeight[best]) best = d;
+        }
+        return best;
+    }
+
+    /**
+     * Sets the model the gain is compared with, typically the first one identified on a healthy heater.
+     * @param baseline Baseline, or null to stop comparing.
+     */
+    public void setBaseline(HeaterModel baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * Returns the baseline.
+     * @return Baseline, or null.
+     */
+    public HeaterModel getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Estimates the warm-up time from the latest sample and compares the heater with the baseline.
+     * Gain and ambient can only be told apart while the duty varies; at full power, or holding a setpoint with a
+     * nearly constant duty, only their sum, the full-power temperature, is observable. That sum is all the
+     * warm-up time needs, and drift is measured on it too, as the rise above the baseline's ambient.
+     * @param setTemperature Setpoint, °C.
+     * @return New snapshot.
+     */
+    public HeaterEstimate estimate(float setTemperature) {
+        HeaterEstimate estimate = new HeaterEstimate();
+        int d = bestDelay();
+        if (d < 0 || updates[d] < MIN_SAMPLES) return estimate;
+        double a = theta[d][0];
+        double b = theta[d][1];
+        double c = theta[d][2];
+        if (!(a > 0 && a < 1)) return estimate;
+        double[] p = covariance[d];
+        double variance = errorSum[d] / errorWeight[d];
+
+        double full = (b + c) / (1 - a);
+        double fullSd = SCALE * Math.sqrt(variance * quadratic(p, full / (1 - a), 1 / (1 - a), 1 / (1 - a)));
+        estimate.fullPowerTemperature = full * SCALE;
+        estimate.etaSeconds = warmup(setTemperature, estimate.fullPowerTemperature, a);
+        estimate.etaLowSeconds = warmup(setTemperature, estimate.fullPowerTemperature + 2 * fullSd, a);
+        estimate.etaHighSeconds = warmup(setTemperature, estimate.fullPowerTemperature - 2 * fullSd, a);
+
+        double gain = SCALE * b / (1 - a);
+        double gainSd = SCALE * Math.sqrt(variance * quadratic(p, b / ((1 - a) * (1 - a)), 1 / (1 - a), 0));
+        if (gain > 0 && gainSd <= MAX_GAIN_ERROR * gain) {
+            estimate.model = new HeaterModel(gain, -SAMPLE_INTERVAL_S / Math.log(a), d * SAMPLE_INTERVAL_S,
+                    SCALE * c / (1 - a));
+        }
+        if (baseline != null) {
+            double rise = estimate.fullPowerTemperature - baseline.ambient;
+            if (rise > 0 && fullSd <= MAX_GAIN_ERROR * rise) {
+                estimate.gainDrift = rise / baseline.gain - 1;
+                estimate.drifted = Math.abs(estimate.gainDrift) > DRIFT_LIMIT;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the time for the first-order response at full power to reach the setpoint.
+     * @param setTemperature Setpoint, °C.
+     * @param full Full-power temperature, °C.
+     * @param a Decay factor per sample.
+     * @return Seconds, 0 if already there, infinite if out of reach.
+     */
+    private double warmup(float setTemperature, double full, double a) {
+        if (lastTemperature >= setTemperature) return 0;
+        if (full <= setTemperature) return Double.POSITIVE_INFINITY;
+        return Math.log((full - setTemperature) / (full - lastTemperature)) / Math.log(a) * SAMPLE_INTERVAL_S;
+    }
+
+    /**
+     * Returns g' P g for a symmetric 3x3 matrix.
+     * @param p Matrix, row-major.
+     * @param g0 First component of g.
+     * @param g1 Second component of g.
+     * @param g2 Third component of g.
+     * @return Quadratic form.
+     */
+    private static double quadratic(double[] p, double g0, double g1, double g2) {
+        return g0 * (p[0] * g0 + p[1] * g1 + p[2] * g2)
+                + g1 * (p[3] * g0 + p[4] * g1 + p[5] * g2)
+                + g2 * (p[6] * g0 + p[7] * g1 + p[8] * g2);
+    }
+}
@@ -0,0 +1,152 @@
+package com.petfilament.recycler.core;
+
+import java.util.Locale;
+
+/**
+ * HeaterModel class describes the hot end as a first-order-plus-dead-time (FOPDT) plant:
+ * tau * dT/dt = gain * u(t - deadTime) - (T - ambient), with u the heater duty cycle (0-1).
+ */
+public final class HeaterModel {
+
+    /**
+     * Steady-state temperature rise at 100% duty, in °C.
+     */
+    public final double gain;
+
+    /**
+     * Time constant in seconds.
+     */
+    public final double tau;
+
+    /**
+     * Dead time in seconds.
+     */
+    public final double deadTime;
+
+    /**
+     * Ambient temperature in °C.
+     */
+    public final double ambient;
+
+    /**
+     * Constructor.
+     * @param gain Steady-state temperature rise at 100% duty (°C).
+     * @param tau Time constant (s).
+     * @param deadTime Dead time (s).
+     * @param ambient Ambient temperature (°C).
+     */
+    public HeaterModel(double gain, double tau, double deadTime, double ambient) {
+        if (tau <= 0 || deadTime < 0) {
+            throw new IllegalArgumentException("tau must be > 0 and deadTime >= 0");
+        }
+        this.gain = gain;
+        this.tau = tau;
+        this.deadTime = deadTime;
+        this.ambient = ambient;
+    }
+
+    /**
+     * Returns the exact zero-order-hold decay factor for a step of dt seconds.
+     * @param dt Step in seconds.
+     * @return exp(-dt / tau).
+     */
+    public double decay(double dt) {
+        return Math.exp(-dt / tau);
+    }
+
+    /**
+     * Returns the dead time rounded to whole steps of dt seconds.
+     * @param dt Step in seconds.
+     * @return Dead time in steps.
+     */
+    public int deadSteps(double dt) {
+        return (int) Math.round(deadTime / dt);
+    }
+
+    /**
+     * Fits a model from recorded telemetry sampled at a fixed interval.
+     * For every candidate dead time the ARX form T[n+1] = a*T[n] + b*u[n-d] + c is solved by least squares,
+     * and the dead time with the smallest residual wins.
+     * @param temperature Measured temperatures (°C).
+     * @param duty Heater duty cycles (0-1) applied at the same instants.
+     * @param dt Sample interval in seconds.
+     * @param maxDeadSteps Largest dead time to try, in samples.
+     * @return Fitted model.
+     * @throws IllegalArgumentException If the data does not describe a stable heating plant.
+     */
+    public static HeaterModel fit(float[] temperature, float[] duty, double dt, int maxDeadSteps) {
+        int n = Math.min(temperature.length, duty.length);
+        if (n < maxDeadSteps + 8) {
+            throw new IllegalArgumentException("Not enough samples to fit: " + n);
+        }
+
+        double bestSse = Double.MAX_VALUE;
+        double[] best = null;
+        int bestD = 0;
+        double[] theta = new double[3];
+        for (int d = 0; d <= maxDeadSteps; d++) {
+            // Normal equations for [a, b, c] with regressors [T[k], u[k-d], 1]
+            double s11 = 0, s12 = 0, s13 = 0, s22 = 0, s23 = 0, s33 = 0;
+            double r1 = 0, r2 = 0, r3 = 0;
+            for (int k = d; k < n - 1; k++) {
+                double x1 = temperature[k];
+                double x2 = duty[k - d];
+                double y = temperature[k + 1];
+                s11 += x1 * x1; s12 += x1 * x2; s13 += x1;
+                s22 += x2 * x2; s23 += x2; s33 += 1;
+                r1 += x1 * y; r2 += x2 * y; r3 += y;
+            }
+            if (!solve3(s11, s12, s13, s22, s23, s33, r1, r2, r3, theta)) continue;
+
+            double sse = 0;
+            for (int k = d; k < n - 1; k++) {
+                double e = temperature[k + 1] - (theta[0] * temperature[k] + theta[1] * duty[k - d] + theta[2]);
+                sse += e * e;
+            }
+            if (sse < bestSse) {
+                bestSse = sse;
+                best = theta.clone();
+                bestD = d;
+            }
+        }
+
+        if (best == null || best[0] <= 0 || best[0] >= 1 || best[1] <= 0) {
+            throw new IllegalArgumentException("Telemetry does not describe a stable heater");
+        }
+        double a = best[0];
+        return new HeaterModel(best[1] / (1 - a), -dt / Math.log(a), bestD * dt, best[2] / (1 - a));
+    }
+
+    /**
+     * Solves a symmetric 3x3 system by Cramer's rule.
+     * @param s11 Matrix entry (1,1).
+     * @param s12 Matrix entry (1,2).
+     * @param s13 Matrix entry (1,3).
+     * @param s22 Matrix entry (2,2).
+     * @param s23 Matrix entry (2,3).
+     * @param s33 Matrix entry (3,3).
+     * @param r1 Right-hand side 1.
+     * @param r2 Right-hand side 2.
+     * @param r3 Right-hand side 3.
+     * @param out Receives the solution.
+     * @return false if the system is singular.
+     */
+    private static boolean solve3(double s11, double s12, double s13, double s22, double s23, double s33,
+                                  double r1, double r2, double r3, double[] out) {
+        double det = s11 * (s22 * s33 - s23 * s23) - s12 * (s12 * s33 - s23 * s13) + s13 * (s12 * s23 - s22 * s13);
+        if (Math.abs(det) < 1e-12) return false;
+        out[0] = (r1 * (s22 * s33 - s23 * s23) - s12 * (r2 * s33 - s23 * r3) + s13 * (r2 * s23 - s22 * r3)) / det;
+        out[1] = (s11 * (r2 * s33 - s23 * r3) - r1 * (s12 * s33 - s23 * s13) + s13 * (s12 * r3 - r2 * s13)) / det;
+        out[2] = (s11 * (s22 * r3 - r2 * s23) - s12 * (s12 * r3 - r2 * s13) + r1 * (s12 * s23 - s22 * s13)) / det;
+        return true;
+    }
+
+    /**
+     * Returns a readable description of the model.
+     * @return Description.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "K=%.1f°C tau=%.1fs L=%.2fs Ta=%.1f°C", gain, tau, deadTime, ambient);
+    }
+}
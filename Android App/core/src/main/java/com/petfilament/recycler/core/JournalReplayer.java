@@ -0,0 +1,126 @@
+package com.petfilament.recycler.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JournalReplayer class feeds a {@link CaptureJournal} back through a receive pipeline,
+ * either paced at the captured rate times a speed factor or as fast as the pipeline accepts.
+ * Replaying at maximum speed doubles as a throughput benchmark of the pipeline.
+ * Pacing follows each record's wall-clock time, since segments written by different processes or boots
+ * have unrelated monotonic origins; a record stamped before its predecessor, e.g. after the wall clock was
+ * set back, is replayed at once.
+ */
+public class JournalReplayer {
+
+    /**
+     * Speed factor meaning "no pacing".
+     */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    /**
+     * Interface receiving replayed chunks.
+     */
+    public interface Sink {
+        /**
+         * Called for every replayed chunk. The array is reused after the call returns.
+         * @param direction {@link CaptureJournal#DIRECTION_IN} or {@link CaptureJournal#DIRECTION_OUT}.
+         * @param data Chunk bytes.
+         * @param length Chunk length.
+         */
+        void onChunk(byte direction, byte[] data, int length);
+    }
+
+    /**
+     * Directory of the journal to replay.
+     */
+    private final File directory;
+
+    /**
+     * Constructor.
+     * @param directory Directory of the journal to replay.
+     */
+    public JournalReplayer(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replays the whole journal on the calling thread.
+     * @param speed Speed factor: 1 for real time, N for N times faster, {@link #MAX_SPEED} for unpaced.
+     * @param sink Receiver of the chunks.
+     * @return Replay statistics.
+     * @throws IOException If the journal cannot be read.
+     */
+    public Stats replay(double speed, Sink sink) throws IOException {
+        if (!(speed > 0)) throw new IllegalArgumentException("speed must be > 0");
+        boolean paced = speed != MAX_SPEED;
+        Stats stats = new Stats();
+        CaptureJournal.Record record = new CaptureJournal.Record();
+        long startWall = System.nanoTime();
+        long firstCaptured = 0;
+
+        try (CaptureJournal.Reader reader = new CaptureJournal.Reader(directory)) {
+            while (reader.next(record)) {
+                if (stats.records == 0) firstCaptured = record.wallNanos;
+                stats.capturedNanos = Math.max(stats.capturedNanos, record.wallNanos - firstCaptured);
+                if (paced) {
+                    long due = startWall + (long) (stats.capturedNanos / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                sink.onChunk(record.direction, record.data, record.length);
+                stats.records++;
+                stats.bytes += record.length;
+            }
+        }
+        stats.elapsedNanos = System.nanoTime() - startWall;
+        return stats;
+    }
+
+    /**
+     * Stats class holds the outcome of one replay.
+     */
+    public static final class Stats {
+        /**
+         * Records replayed.
+         */
+        public long records;
+
+        /**
+         * Payload bytes replayed.
+         */
+        public long bytes;
+
+        /**
+         * Time span covered by the capture in nanoseconds.
+         */
+        public long capturedNanos;
+
+        /**
+         * Wall-clock duration of the replay in nanoseconds.
+         */
+        public long elapsedNanos;
+
+        /**
+         * Returns the replay throughput.
+         * @return Records per second.
+         */
+        public double recordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns a readable summary.
+         * @return Summary.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d records, %d bytes in %.1f ms (%.0f records/s, capture span %.1f s)",
+                    records, bytes, elapsedNanos / 1e6, recordsPerSecond(), capturedNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.petfilament.recycler.core;
+
+import java.util.Arrays;
+
+/**
+ * LinkStats class holds the link-quality counters kept by {@link ReliableCommandChannel}:
+ * transmissions, replies, retransmissions, abandoned commands and the round-trip times of recent commands.
+ */
+public class LinkStats {
+
+    /**
+     * Number of round-trip times kept for the percentiles.
+     */
+    private static final int RTT_WINDOW = 256;
+
+    /**
+     * Commands sent for the first time.
+     */
+    public long commands;
+
+    /**
+     * Commands sent again after a timeout.
+     */
+    public long retransmissions;
+
+    /**
+     * Replies matched to a command in flight.
+     */
+    public long replies;
+
+    /**
+     * Replies to a command already answered, e.g. the original reply arriving after a retransmission.
+     */
+    public long duplicateReplies;
+
+    /**
+     * Commands given up after the last retry.
+     */
+    public long failures;
+
+    /**
+     * Commands currently awaiting a reply.
+     */
+    public int inFlight;
+
+    /**
+     * Recent round-trip times in nanoseconds, used as a ring.
+     */
+    private final long[] rttNanos = new long[RTT_WINDOW];
+
+    /**
+     * Number of round-trip times recorded so far.
+     */
+    private long rttCount;
+
+    /**
+     * Records the round-trip time of a command answered on its first transmission.
+     * @param nanos Round-trip time in nanoseconds.
+     */
+    void recordRtt(long nanos) {
+        rttNanos[(int) (rttCount++ % RTT_WINDOW)] = nanos;
+    }
+
+    /**
+     * Returns the share of transmissions that got no reply, ignoring those still in flight.
+     * @return Loss in percent, 0 before anything was sent.
+     */
+    public double lossPercent() {
+        long answered = commands + retransmissions - inFlight;
+        if (answered <= 0) return 0;
+        long lost = Math.max(0, answered - replies - duplicateReplies);
+        return 100.0 * lost / answered;
+    }
+
+    /**
+     * Returns a percentile of the recent round-trip times (nearest rank).
+     * @param percentile Percentile, 0-100.
+     * @return Round-trip time in milliseconds, or NaN if none was recorded.
+     */
+    public double rttPercentileMillis(double percentile) {
+        int count = (int) Math.min(rttCount, RTT_WINDOW);
+        if (count == 0) return Double.NaN;
+        long[] sorted = Arrays.copyOf(rttNanos, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)] / 1e6;
+    }
+
+    /**
+     * Returns an independent copy, safe to hand to another thread.
+     * @return Copy of these statistics.
+     */
+    public LinkStats copy() {
+        LinkStats copy = new LinkStats();
+        copy.commands = commands;
+        copy.retransmissions = retransmissions;
+        copy.replies = replies;
+        copy.duplicateReplies = duplicateReplies;
+        copy.failures = failures;
+        copy.inFlight = inFlight;
+        System.arraycopy(rttNanos, 0, copy.rttNanos, 0, RTT_WINDOW);
+        copy.rttCount = rttCount;
+        return copy;
+    }
+}
@@ -0,0 +1,116 @@
+package com.petfilament.recycler.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * LogBlock class packs a run of free-form log messages into one deflate-compressed block and back.
+ * The uncompressed layout is [int count] then [short length][UTF-8 bytes] per message; compressing many
+ * near-identical lines together lets deflate share their common text, which one row at a time cannot.
+ */
+public final class LogBlock {
+
+    /**
+     * Longest message kept, in UTF-8 bytes; longer ones are truncated.
+     */
+    public static final int MAX_MESSAGE_BYTES = 0xFFFF;
+
+    /**
+     * Utility class.
+     */
+    private LogBlock() {
+    }
+
+    /**
+     * Compresses messages into a block.
+     * @param messages Messages in row order.
+     * @return Compressed block.
+     */
+    public static byte[] encode(List<String> messages) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(messages.size() * 32 + 4);
+        writeInt(raw, messages.size());
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, MAX_MESSAGE_BYTES);
+            raw.write(length >>> 8);
+            raw.write(length);
+            raw.write(bytes, 0, length);
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw.toByteArray());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.size() / 4 + 16);
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                compressed.write(chunk, 0, n);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses a block.
+     * @param block Block produced by {@link #encode(List)}.
+     * @return Messages in row order.
+     * @throws IllegalArgumentException If the block is corrupt.
+     */
+    public static String[] decode(byte[] block) {
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(block.length * 4);
+        try {
+            inflater.setInput(block);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated log block");
+                }
+                raw.write(chunk, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt log block", e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(raw.toByteArray());
+        try {
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / 2) {
+                throw new IllegalArgumentException("Bad log block count " + count);
+            }
+            String[] messages = new String[count];
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getShort() & 0xFFFF;
+                messages[i] = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+            return messages;
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) throw e;
+            throw new IllegalArgumentException("Truncated log block", e);
+        }
+    }
+
+    /**
+     * Writes a big-endian int.
+     * @param out Stream.
+     * @param value Value.
+     */
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
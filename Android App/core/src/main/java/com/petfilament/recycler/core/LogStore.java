@@ -0,0 +1,287 @@
+package com.petfilament.recycler.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * LogStore class keeps log rows in columnar, primitive arrays: IDs, times, a direction bitset and
+ * message indexes into a shared {@link Dictionary}. Repeated messages such as "OK: Motor started" are
+ * stored once, so a row costs about 20 bytes instead of four objects.
+ * Rows are kept oldest first. A store is not thread-safe; build batches on one thread and hand them over.
+ */
+public class LogStore {
+
+    /**
+     * Initial column capacity.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Length of "[yyyy-MM-dd HH:mm:ss] OUT:", the longest header.
+     */
+    public static final int HEADER_LENGTH = 27;
+
+    /**
+     * Dictionary shared with other stores of the same log.
+     */
+    private final Dictionary dictionary;
+
+    /**
+     * Row IDs.
+     */
+    private long[] ids;
+
+    /**
+     * Row times in seconds since the epoch, as wall-clock time.
+     */
+    private long[] times;
+
+    /**
+     * Bitset of rows with direction "IN".
+     */
+    private long[] inbound;
+
+    /**
+     * Dictionary index of each row's message.
+     */
+    private int[] messages;
+
+    /**
+     * Number of rows.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     * @param dictionary Dictionary shared with other stores of the same log.
+     */
+    public LogStore(Dictionary dictionary) {
+        this.dictionary = dictionary;
+        ids = new long[INITIAL_CAPACITY];
+        times = new long[INITIAL_CAPACITY];
+        inbound = new long[INITIAL_CAPACITY >>> 6];
+        messages = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends one row.
+     * @param id Row ID.
+     * @param time Wall-clock time in seconds since the epoch.
+     * @param isInbound true for direction "IN".
+     * @param message Message text, interned into the dictionary.
+     */
+    public void append(long id, long time, boolean isInbound, String message) {
+        ensureCapacity(size + 1);
+        ids[size] = id;
+        times[size] = time;
+        if (isInbound) inbound[size >>> 6] |= 1L << size;
+        messages[size] = dictionary.intern(message);
+        size++;
+    }
+
+    /**
+     * Appends all rows of another store sharing the same dictionary.
+     * An empty store takes over the other store's arrays instead of copying.
+     * @param other Store to append; must not be used afterwards.
+     */
+    public void appendAll(LogStore other) {
+        if (other.dictionary != dictionary) {
+            throw new IllegalArgumentException("Stores must share a dictionary");
+        }
+        if (size == 0) {
+            ids = other.ids;
+            times = other.times;
+            inbound = other.inbound;
+            messages = other.messages;
+            size = other.size;
+            return;
+        }
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.ids, 0, ids, size, other.size);
+        System.arraycopy(other.times, 0, times, size, other.size);
+        System.arraycopy(other.messages, 0, messages, size, other.size);
+        for (int i = 0; i < other.size; i++) {
+            if (other.isInbound(i)) {
+                int row = size + i;
+                inbound[row >>> 6] |= 1L << row;
+            }
+        }
+        size += other.size;
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return Row count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the ID of a row.
+     * @param row Row index, oldest first.
+     * @return Row ID.
+     */
+    public long getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Returns the time of a row.
+     * @param row Row index, oldest first.
+     * @return Wall-clock time in seconds since the epoch.
+     */
+    public long getTime(int row) {
+        return times[row];
+    }
+
+    /**
+     * Returns whether a row was received from the machine.
+     * @param row Row index, oldest first.
+     * @return true for direction "IN".
+     */
+    public boolean isInbound(int row) {
+        return (inbound[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Returns the message of a row; the same String instance for every row with that text.
+     * @param row Row index, oldest first.
+     * @return Message text.
+     */
+    public String getMessage(int row) {
+        return dictionary.get(messages[row]);
+    }
+
+    /**
+     * Formats "[yyyy-MM-dd HH:mm:ss] IN:" for a row into a caller-owned buffer without allocating.
+     * @param row Row index, oldest first.
+     * @param out Buffer of at least {@link #HEADER_LENGTH} chars.
+     * @return Number of chars written.
+     */
+    public int formatHeader(int row, char[] out) {
+        long seconds = times[row];
+        long days = Math.floorDiv(seconds, 86400L);
+        int secondOfDay = (int) Math.floorMod(seconds, 86400L);
+
+        // Civil date from days since 1970-01-01 (proleptic Gregorian)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+
+        int p = 0;
+        out[p++] = '[';
+        p = digits(out, p, year, 4);
+        out[p++] = '-';
+        p = digits(out, p, month, 2);
+        out[p++] = '-';
+        p = digits(out, p, day, 2);
+        out[p++] = ' ';
+        p = digits(out, p, secondOfDay / 3600, 2);
+        out[p++] = ':';
+        p = digits(out, p, secondOfDay / 60 % 60, 2);
+        out[p++] = ':';
+        p = digits(out, p, secondOfDay % 60, 2);
+        out[p++] = ']';
+        out[p++] = ' ';
+        if (isInbound(row)) {
+            out[p++] = 'I';
+            out[p++] = 'N';
+        } else {
+            out[p++] = 'O';
+            out[p++] = 'U';
+            out[p++] = 'T';
+        }
+        out[p++] = ':';
+        return p;
+    }
+
+    /**
+     * Writes a zero-padded decimal number.
+     * @param out Buffer.
+     * @param p Write position.
+     * @param value Non-negative value.
+     * @param width Number of digits.
+     * @return New write position.
+     */
+    private static int digits(char[] out, int p, int value, int width) {
+        for (int i = p + width - 1; i >= p; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return p + width;
+    }
+
+    /**
+     * Grows the columns to hold at least the given number of rows.
+     * @param capacity Required capacity.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) return;
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        ids = Arrays.copyOf(ids, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        messages = Arrays.copyOf(messages, newCapacity);
+        inbound = Arrays.copyOf(inbound, (newCapacity + 63) >>> 6);
+    }
+
+    /**
+     * Dictionary class interns message texts to dense indexes. Safe to intern on one thread while
+     * another thread reads.
+     */
+    public static final class Dictionary {
+        /**
+         * Index of each interned text.
+         */
+        private final HashMap<String, Integer> indexes = new HashMap<>();
+
+        /**
+         * Interned texts by index.
+         */
+        private String[] entries = new String[64];
+
+        /**
+         * Number of interned texts.
+         */
+        private int size;
+
+        /**
+         * Returns the index of a text, adding it if new.
+         * @param text Text.
+         * @return Index.
+         */
+        public synchronized int intern(String text) {
+            Integer index = indexes.get(text);
+            if (index != null) return index;
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size] = text;
+            indexes.put(text, size);
+            return size++;
+        }
+
+        /**
+         * Returns the text for an index.
+         * @param index Index returned by {@link #intern(String)}.
+         * @return Text.
+         */
+        public synchronized String get(int index) {
+            return entries[index];
+        }
+
+        /**
+         * Returns the number of distinct texts.
+         * @return Distinct text count.
+         */
+        public synchronized int size() {
+            return size;
+        }
+    }
+}
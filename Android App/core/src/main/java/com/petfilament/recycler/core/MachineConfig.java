@@ -0,0 +1,203 @@
+package com.petfilament.recycler.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * MachineConfig class holds the configuration a board reports with GET_CONFIG: setpoints, PID gains and
+ * firmware version, plus the config version. The version is the CRC16 of the canonical text
+ * "TEMP:..,SPEED:..,KP:..,KI:..,KD:..,FW:.." exactly as the firmware formats it, so GET_CFG_VER is enough
+ * to tell whether a cached copy is still current, and the app can follow acknowledged setpoint changes
+ * without asking again. Boards with several heater zones report one "TEMP&lt;z&gt;:" setpoint per zone after
+ * "TEMP:", which is zone 0.
+ */
+public class MachineConfig {
+
+    /**
+     * Command requesting the config version.
+     */
+    public static final String CMD_GET_CFG_VER = "GET_CFG_VER";
+
+    /**
+     * Command requesting the whole config.
+     */
+    public static final String CMD_GET_CONFIG = "GET_CONFIG";
+
+    /**
+     * Prefix of the GET_CFG_VER reply.
+     */
+    public static final String VERSION_PREFIX = "CFG_VER:";
+
+    /**
+     * Prefix of the GET_CONFIG reply.
+     */
+    public static final String CONFIG_PREFIX = "CONFIG:";
+
+    /**
+     * Temperature setpoints per heater zone in °C, at least one.
+     */
+    public float[] setTemperatures = new float[1];
+
+    /**
+     * Stepper speed setting, steps/s.
+     */
+    public int maxSpeed;
+
+    /**
+     * PID proportional gain.
+     */
+    public int kp;
+
+    /**
+     * PID integral gain.
+     */
+    public int ki;
+
+    /**
+     * PID derivative gain.
+     */
+    public int kd;
+
+    /**
+     * Firmware version, e.g. "1.1".
+     */
+    public String firmwareVersion = "";
+
+    /**
+     * Config version (hex CRC16 of the canonical text).
+     */
+    public String version = "";
+
+    /**
+     * Parses a GET_CONFIG reply.
+     * @param line "CONFIG:TEMP:..[,TEMP1:..],SPEED:..,KP:..,KI:..,KD:..,FW:..,VER:..".
+     * @return Config, or null if the line is malformed or skips a zone.
+     */
+    public static MachineConfig parse(String line) {
+        if (line == null || !line.startsWith(CONFIG_PREFIX)) return null;
+        MachineConfig config = new MachineConfig();
+        float[] temperatures = new float[TelemetrySample.MAX_ZONES];
+        int zones = 0;
+        int fields = 0;
+        try {
+            for (String field : line.substring(CONFIG_PREFIX.length()).split(",")) {
+                int colon = field.indexOf(':');
+                if (colon < 0) return null;
+                String value = field.substring(colon + 1).trim();
+                int zone = field.startsWith("TEMP") ? ProtocolParser.parseZone(field, 4, colon) : -1;
+                if (zone >= 0) {
+                    if (zone != zones) return null;
+                    temperatures[zones++] = Float.parseFloat(value);
+                    if (zone == 0) fields++;
+                    continue;
+                }
+                switch (field.substring(0, colon)) {
+                    case "SPEED": config.maxSpeed = Integer.parseInt(value); break;
+                    case "KP": config.kp = Integer.parseInt(value); break;
+                    case "KI": config.ki = Integer.parseInt(value); break;
+                    case "KD": config.kd = Integer.parseInt(value); break;
+                    case "FW": config.firmwareVersion = value; break;
+                    case "VER": config.version = value; break;
+                    default: continue;
+                }
+                fields++;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (fields != 7) return null;
+        config.setTemperatures = Arrays.copyOf(temperatures, zones);
+        return config;
+    }
+
+    /**
+     * Returns the config as a GET_CONFIG reply, also used to store it.
+     * @return Line.
+     */
+    public String toLine() {
+        return CONFIG_PREFIX + canonicalText() + ",VER:" + version;
+    }
+
+    /**
+     * Computes the version the firmware reports for these values.
+     * @return Hex CRC16, upper case without leading zeros.
+     */
+    public String computeVersion() {
+        byte[] text = canonicalText().getBytes(StandardCharsets.US_ASCII);
+        return Integer.toHexString(Crc16.compute(text, 0, text.length)).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the number of heater zones.
+     * @return Zone count, at least 1.
+     */
+    public int getZoneCount() {
+        return setTemperatures.length;
+    }
+
+    /**
+     * Returns the command setting the setpoint of a zone: "SET_TEMP:" for zone 0, "SET_TEMP&lt;z&gt;:" for the others.
+     * @param zone Zone index.
+     * @param temperature Setpoint in °C.
+     * @return Command.
+     */
+    public static String setTemperatureCommand(int zone, float temperature) {
+        return "SET_TEMP" + (zone == 0 ? "" : String.valueOf(zone)) + ":" + temperature;
+    }
+
+    /**
+     * Returns a copy with another temperature setpoint for one zone and the matching version.
+     * @param zone Zone index; a zone beyond the known ones is ignored.
+     * @param temperature Setpoint in °C.
+     * @return New config.
+     */
+    public MachineConfig withSetTemperature(int zone, float temperature) {
+        MachineConfig copy = copy();
+        if (zone < copy.setTemperatures.length) copy.setTemperatures[zone] = temperature;
+        copy.version = copy.computeVersion();
+        return copy;
+    }
+
+    /**
+     * Returns a copy with another speed setting and the matching version.
+     * @param speed Speed, steps/s.
+     * @return New config.
+     */
+    public MachineConfig withMaxSpeed(int speed) {
+        MachineConfig copy = copy();
+        copy.maxSpeed = speed;
+        copy.version = copy.computeVersion();
+        return copy;
+    }
+
+    /**
+     * Returns an independent copy, safe to hand to another thread.
+     * @return Copy of this config.
+     */
+    public MachineConfig copy() {
+        MachineConfig copy = new MachineConfig();
+        copy.setTemperatures = setTemperatures.clone();
+        copy.maxSpeed = maxSpeed;
+        copy.kp = kp;
+        copy.ki = ki;
+        copy.kd = kd;
+        copy.firmwareVersion = firmwareVersion;
+        copy.version = version;
+        return copy;
+    }
+
+    /**
+     * Returns the text the version is computed over, formatted as configText() in the firmware.
+     * @return Canonical text.
+     */
+    private String canonicalText() {
+        StringBuilder text = new StringBuilder();
+        for (int zone = 0; zone < setTemperatures.length; zone++) {
+            text.append(zone == 0 ? "TEMP:" : ",TEMP" + zone + ":")
+                    .append(String.format(Locale.US, "%.2f", setTemperatures[zone]));
+        }
+        return text.append(String.format(Locale.US, ",SPEED:%d,KP:%d,KI:%d,KD:%d,FW:%s",
+                maxSpeed, kp, ki, kd, firmwareVersion)).toString();
+    }
+}
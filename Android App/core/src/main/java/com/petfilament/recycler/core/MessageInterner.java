@@ -0,0 +1,93 @@
+package com.petfilament.recycler.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MessageInterner class decides which log messages go into the stored message dictionary. A message is
+ * promoted the second time it is seen within a window of recent distinct messages, so fixed replies such
+ * as "OK: Motor started" and unchanged status lines are stored once, while one-off lines (ramp setpoints,
+ * changing values) stay free-form. The dictionary is capped so a stream of unique lines cannot grow it
+ * without bound. Thread-safe.
+ */
+public class MessageInterner {
+
+    /**
+     * Longest message promoted, in chars.
+     */
+    public static final int MAX_INTERNED_LENGTH = 200;
+
+    /**
+     * Maximum number of dictionary entries.
+     */
+    private final int maxEntries;
+
+    /**
+     * Dictionary ID of each promoted message.
+     */
+    private final HashMap<String, Long> ids = new HashMap<>();
+
+    /**
+     * Recently seen messages not yet promoted, least recently seen first.
+     */
+    private final LinkedHashMap<String, Boolean> candidates;
+
+    /**
+     * Constructor.
+     * @param maxEntries Maximum number of dictionary entries.
+     * @param window Number of recent distinct messages remembered as candidates.
+     */
+    public MessageInterner(int maxEntries, int window) {
+        if (maxEntries < 1 || window < 1) {
+            throw new IllegalArgumentException("Sizes must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.candidates = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > window;
+            }
+        };
+    }
+
+    /**
+     * Records a stored dictionary entry, e.g. when loading the dictionary.
+     * @param message Message text.
+     * @param id Dictionary ID.
+     */
+    public synchronized void put(String message, long id) {
+        ids.put(message, id);
+        candidates.remove(message);
+    }
+
+    /**
+     * Returns the dictionary ID of a message.
+     * @param message Message text.
+     * @return Dictionary ID, or -1 if the message is not in the dictionary.
+     */
+    public synchronized long lookup(String message) {
+        Long id = ids.get(message);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Records a sighting of a message not in the dictionary.
+     * @param message Message text.
+     * @return true if the message should now be added with {@link #put(String, long)}.
+     */
+    public synchronized boolean shouldIntern(String message) {
+        if (ids.size() >= maxEntries || message.length() > MAX_INTERNED_LENGTH) return false;
+        if (candidates.remove(message) != null) return true;
+        candidates.put(message, Boolean.TRUE);
+        return false;
+    }
+
+    /**
+     * Returns the number of dictionary entries.
+     * @return Entry count.
+     */
+    public synchronized int size() {
+        return ids.size();
+    }
+}
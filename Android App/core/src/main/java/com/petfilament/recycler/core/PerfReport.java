@@ -0,0 +1,209 @@
+package com.petfilament.recycler.core;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * PerfReport class holds the firmware's loop-timing profile as GET_PERF reports it: loop iteration time
+ * (count, mean, max and a coarse histogram), the cost of handleBluetooth(), updatePIDAndHeater() and
+ * updateLCD(), and the worst gap between two runSpeed() calls while the motor runs. The board resets its
+ * counters on every report, so each report covers the time since the previous one.
+ */
+public class PerfReport {
+
+    /**
+     * Command requesting a report.
+     */
+    public static final String CMD_GET_PERF = "GET_PERF";
+
+    /**
+     * Prefix of the reply.
+     */
+    public static final String PREFIX = "PERF:";
+
+    /**
+     * Upper bounds of the loop time histogram bins in microseconds, as PERF_BOUNDS_US in the firmware;
+     * the last bin holds everything above the last bound.
+     */
+    public static final int[] HISTOGRAM_BOUNDS_US = {100, 250, 500, 1000, 2500, 5000, 10000};
+
+    /**
+     * Length of the reporting window in milliseconds.
+     */
+    public long windowMillis;
+
+    /**
+     * Number of loop iterations.
+     */
+    public long loops;
+
+    /**
+     * Mean loop iteration time in microseconds.
+     */
+    public long loopMeanMicros;
+
+    /**
+     * Longest loop iteration in microseconds.
+     */
+    public long loopMaxMicros;
+
+    /**
+     * Longest gap between two step calls while the motor ran, in microseconds; 0 if it did not run.
+     */
+    public long stepGapMaxMicros;
+
+    /**
+     * Loop iterations per histogram bin.
+     */
+    public long[] histogram = new long[HISTOGRAM_BOUNDS_US.length + 1];
+
+    /**
+     * Mean and longest updatePIDAndHeater() call in microseconds.
+     */
+    public long pidMeanMicros, pidMaxMicros;
+
+    /**
+     * Mean and longest updateLCD() call in microseconds.
+     */
+    public long lcdMeanMicros, lcdMaxMicros;
+
+    /**
+     * Mean and longest handleBluetooth() call in microseconds.
+     */
+    public long bluetoothMeanMicros, bluetoothMaxMicros;
+
+    /**
+     * Firmware version, e.g. "1.1".
+     */
+    public String firmwareVersion = "";
+
+    /**
+     * Parses a GET_PERF reply.
+     * @param line "PERF:MS:..,LOOPS:..,AVG:..,MAX:..,GAP:..,HIST:a/b/..,PID:mean/max,LCD:mean/max,BT:mean/max,FW:..".
+     * @return Report, or null if the line is malformed.
+     */
+    public static PerfReport parse(String line) {
+        if (line == null || !line.startsWith(PREFIX)) return null;
+        PerfReport report = new PerfReport();
+        int fields = 0;
+        try {
+            for (String field : line.substring(PREFIX.length()).split(",")) {
+                int colon = field.indexOf(':');
+                if (colon < 0) return null;
+                String value = field.substring(colon + 1).trim();
+                long[] pair;
+                switch (field.substring(0, colon)) {
+                    case "MS": report.windowMillis = Long.parseLong(value); break;
+                    case "LOOPS": report.loops = Long.parseLong(value); break;
+                    case "AVG": report.loopMeanMicros = Long.parseLong(value); break;
+                    case "MAX": report.loopMaxMicros = Long.parseLong(value); break;
+                    case "GAP": report.stepGapMaxMicros = Long.parseLong(value); break;
+                    case "HIST":
+                        report.histogram = parseList(value, HISTOGRAM_BOUNDS_US.length + 1);
+                        if (report.histogram == null) return null;
+                        break;
+                    case "PID":
+                        if ((pair = parseList(value, 2)) == null) return null;
+                        report.pidMeanMicros = pair[0];
+                        report.pidMaxMicros = pair[1];
+                        break;
+                    case "LCD":
+                        if ((pair = parseList(value, 2)) == null) return null;
+                        report.lcdMeanMicros = pair[0];
+                        report.lcdMaxMicros = pair[1];
+                        break;
+                    case "BT":
+                        if ((pair = parseList(value, 2)) == null) return null;
+                        report.bluetoothMeanMicros = pair[0];
+                        report.bluetoothMaxMicros = pair[1];
+                        break;
+                    case "FW": report.firmwareVersion = value; break;
+                    default: continue;
+                }
+                fields++;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return fields == 10 ? report : null;
+    }
+
+    /**
+     * Returns the report as a GET_PERF reply.
+     * @return Line.
+     */
+    public String toLine() {
+        StringBuilder hist = new StringBuilder();
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) hist.append('/');
+            hist.append(histogram[i]);
+        }
+        return String.format(Locale.US, "%sMS:%d,LOOPS:%d,AVG:%d,MAX:%d,GAP:%d,HIST:%s,PID:%d/%d,LCD:%d/%d,BT:%d/%d,FW:%s",
+                PREFIX, windowMillis, loops, loopMeanMicros, loopMaxMicros, stepGapMaxMicros, hist,
+                pidMeanMicros, pidMaxMicros, lcdMeanMicros, lcdMaxMicros, bluetoothMeanMicros, bluetoothMaxMicros,
+                firmwareVersion);
+    }
+
+    /**
+     * Returns the histogram bin of a loop time.
+     * @param micros Loop time in microseconds.
+     * @return Bin index.
+     */
+    public static int histogramBin(long micros) {
+        int bin = 0;
+        while (bin < HISTOGRAM_BOUNDS_US.length && micros >= HISTOGRAM_BOUNDS_US[bin]) bin++;
+        return bin;
+    }
+
+    /**
+     * Returns the share of loop iterations at or above a time, from the histogram.
+     * @param micros One of {@link #HISTOGRAM_BOUNDS_US}.
+     * @return Percent, 0 if there were no loops.
+     */
+    public double percentSlowerThan(int micros) {
+        long total = 0;
+        long slower = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            total += histogram[i];
+            if (i > 0 && HISTOGRAM_BOUNDS_US[i - 1] >= micros) slower += histogram[i];
+        }
+        return total > 0 ? 100.0 * slower / total : 0;
+    }
+
+    /**
+     * Returns an independent copy, safe to hand to another thread.
+     * @return Copy of this report.
+     */
+    public PerfReport copy() {
+        PerfReport copy = new PerfReport();
+        copy.windowMillis = windowMillis;
+        copy.loops = loops;
+        copy.loopMeanMicros = loopMeanMicros;
+        copy.loopMaxMicros = loopMaxMicros;
+        copy.stepGapMaxMicros = stepGapMaxMicros;
+        copy.histogram = Arrays.copyOf(histogram, histogram.length);
+        copy.pidMeanMicros = pidMeanMicros;
+        copy.pidMaxMicros = pidMaxMicros;
+        copy.lcdMeanMicros = lcdMeanMicros;
+        copy.lcdMaxMicros = lcdMaxMicros;
+        copy.bluetoothMeanMicros = bluetoothMeanMicros;
+        copy.bluetoothMaxMicros = bluetoothMaxMicros;
+        copy.firmwareVersion = firmwareVersion;
+        return copy;
+    }
+
+    /**
+     * Parses a '/'-separated list of numbers.
+     * @param text List text.
+     * @param count Required number of values.
+     * @return Values, or null if the count differs.
+     * @throws NumberFormatException If a value is malformed.
+     */
+    private static long[] parseList(String text, int count) {
+        String[] parts = text.split("/");
+        if (parts.length != count) return null;
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) values[i] = Long.parseLong(parts[i].trim());
+        return values;
+    }
+}
@@ -0,0 +1,222 @@
+package com.petfilament.recycler.core;
+
+import java.util.Locale;
+
+/**
+ * PidSimulator class runs the firmware control law in closed loop against a {@link HeaterModel}.
+ * Each tick reproduces one pass of the 250 ms block in loop(): the plant temperature is quantised through
+ * the thermistor ADC, {@link FirmwarePid} computes the duty, and the plant advances by one interval.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class PidSimulator {
+
+    /**
+     * Simulation step in seconds (the firmware's 250 ms dt).
+     */
+    public static final double DT = FirmwarePid.UPDATE_INTERVAL_MS / 1000.0;
+
+    /**
+     * Plant model.
+     */
+    private final HeaterModel model;
+
+    /**
+     * Temperature setpoint in °C.
+     */
+    private final float setTemperature;
+
+    /**
+     * Initial plant temperature in °C.
+     */
+    private final double startTemperature;
+
+    /**
+     * Number of 250 ms ticks to simulate.
+     */
+    private final int ticks;
+
+    /**
+     * Half-width of the settling band in °C.
+     */
+    private final float tolerance;
+
+    /**
+     * Offset added to the error term, 6 on current firmware.
+     */
+    private final float errorOffset;
+
+    /**
+     * Plant decay factor per tick.
+     */
+    private final double decay;
+
+    /**
+     * Plant dead time in ticks.
+     */
+    private final int deadSteps;
+
+    /**
+     * Constructor using the firmware's error offset.
+     * @param model Plant model.
+     * @param setTemperature Setpoint in °C.
+     * @param startTemperature Initial plant temperature in °C.
+     * @param durationSeconds Simulated time in seconds.
+     * @param tolerance Half-width of the settling band in °C.
+     */
+    public PidSimulator(HeaterModel model, float setTemperature, double startTemperature,
+                        double durationSeconds, float tolerance) {
+        this(model, setTemperature, startTemperature, durationSeconds, tolerance, FirmwarePid.ERROR_OFFSET);
+    }
+
+    /**
+     * Constructor.
+     * @param model Plant model.
+     * @param setTemperature Setpoint in °C.
+     * @param startTemperature Initial plant temperature in °C.
+     * @param durationSeconds Simulated time in seconds.
+     * @param tolerance Half-width of the settling band in °C.
+     * @param errorOffset Offset added to the error term.
+     */
+    public PidSimulator(HeaterModel model, float setTemperature, double startTemperature,
+                        double durationSeconds, float tolerance, float errorOffset) {
+        this.model = model;
+        this.setTemperature = setTemperature;
+        this.startTemperature = startTemperature;
+        this.ticks = (int) Math.ceil(durationSeconds / DT);
+        this.tolerance = tolerance;
+        this.errorOffset = errorOffset;
+        this.decay = model.decay(DT);
+        this.deadSteps = model.deadSteps(DT);
+    }
+
+    /**
+     * Simulates one set of gains.
+     * @param kp Proportional gain.
+     * @param ki Integral gain.
+     * @param kd Derivative gain.
+     * @return Simulation result.
+     */
+    public Result simulate(float kp, float ki, float kd) {
+        Result result = new Result(kp, ki, kd);
+        simulate(result);
+        return result;
+    }
+
+    /**
+     * Simulates the gains stored in the given result and fills in its metrics.
+     * @param result Result holding the gains to simulate.
+     */
+    void simulate(Result result) {
+        FirmwarePid pid = new FirmwarePid(result.kp, result.ki, result.kd, errorOffset);
+        pid.setSetTemperature(setTemperature);
+        float target = pid.getTarget();
+
+        // Duty history acts as the dead-time delay line
+        float[] delay = new float[deadSteps + 1];
+        int head = 0;
+
+        double plant = startTemperature;
+        double rise = model.gain * (1 - decay);
+        float peak = -Float.MAX_VALUE;
+        int lastOutside = -1;
+        double absErrorSum = 0;
+
+        for (int tick = 0; tick < ticks; tick++) {
+            float duty = pid.update(Thermistor.toAdc(plant));
+            float reading = pid.getTemperatureRead();
+
+            if (reading > peak) peak = reading;
+            float error = reading - target;
+            if (error > tolerance || error < -tolerance) lastOutside = tick;
+            absErrorSum += Math.abs(error);
+
+            delay[head] = duty;
+            head = head == deadSteps ? 0 : head + 1;
+            float applied = delay[head];
+            plant = model.ambient + (plant - model.ambient) * decay + applied * rise;
+        }
+
+        result.overshoot = Math.max(0f, peak - target);
+        result.settlingSeconds = lastOutside == ticks - 1 ? Float.POSITIVE_INFINITY : (float) ((lastOutside + 1) * DT);
+        result.meanAbsError = (float) (absErrorSum / ticks);
+    }
+
+    /**
+     * Result class holds the gains of one candidate and its closed-loop metrics.
+     */
+    public static final class Result implements Comparable<Result> {
+        /**
+         * Proportional gain.
+         */
+        public final float kp;
+
+        /**
+         * Integral gain.
+         */
+        public final float ki;
+
+        /**
+         * Derivative gain.
+         */
+        public final float kd;
+
+        /**
+         * Time after which the reading stays inside the tolerance band, infinite if it never settles.
+         */
+        public float settlingSeconds;
+
+        /**
+         * Peak reading above the control target in °C.
+         */
+        public float overshoot;
+
+        /**
+         * Mean absolute error over the whole run in °C.
+         */
+        public float meanAbsError;
+
+        /**
+         * Constructor.
+         * @param kp Proportional gain.
+         * @param ki Integral gain.
+         * @param kd Derivative gain.
+         */
+        public Result(float kp, float ki, float kd) {
+            this.kp = kp;
+            this.ki = ki;
+            this.kd = kd;
+        }
+
+        /**
+         * Returns whether the run settled inside the tolerance band.
+         * @return true if settled.
+         */
+        public boolean isSettled() {
+            return settlingSeconds != Float.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Orders by settling time, then overshoot, then mean absolute error.
+         * @param other Other result.
+         * @return Comparison result.
+         */
+        @Override
+        public int compareTo(Result other) {
+            int c = Float.compare(settlingSeconds, other.settlingSeconds);
+            if (c != 0) return c;
+            c = Float.compare(overshoot, other.overshoot);
+            if (c != 0) return c;
+            return Float.compare(meanAbsError, other.meanAbsError);
+        }
+
+        /**
+         * Returns a readable summary of the result.
+         * @return Summary.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "kp=%.2f ki=%.2f kd=%.2f settle=%.1fs overshoot=%.2f°C mae=%.2f°C",
+                    kp, ki, kd, settlingSeconds, overshoot, meanAbsError);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.petfilament.recycler.core;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * PidSweep class evaluates many kp/ki/kd candidates with {@link PidSimulator} in parallel on a fork-join pool
+ * and ranks them by settling time and overshoot.
+ */
+public final class PidSweep {
+
+    /**
+     * Candidates per leaf task; one simulation is a few thousand ticks, so small leaves balance well.
+     */
+    private static final int LEAF_SIZE = 16;
+
+    /**
+     * Simulator shared by all tasks.
+     */
+    private final PidSimulator simulator;
+
+    /**
+     * Candidates to evaluate.
+     */
+    private final PidSimulator.Result[] candidates;
+
+    /**
+     * Constructor.
+     * @param simulator Simulator shared by all tasks.
+     * @param candidates Candidates to evaluate.
+     */
+    private PidSweep(PidSimulator simulator, PidSimulator.Result[] candidates) {
+        this.simulator = simulator;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Creates a sweep over a regular grid; each range is inclusive and sampled at the given number of points.
+     * @param simulator Simulator.
+     * @param kp Range of kp as {min, max}.
+     * @param ki Range of ki as {min, max}.
+     * @param kd Range of kd as {min, max}.
+     * @param points Points per axis.
+     * @return Sweep.
+     */
+    public static PidSweep grid(PidSimulator simulator, float[] kp, float[] ki, float[] kd, int points) {
+        PidSimulator.Result[] candidates = new PidSimulator.Result[points * points * points];
+        int i = 0;
+        for (int a = 0; a < points; a++) {
+            for (int b = 0; b < points; b++) {
+                for (int c = 0; c < points; c++) {
+                    candidates[i++] = new PidSimulator.Result(lerp(kp, a, points), lerp(ki, b, points), lerp(kd, c, points));
+                }
+            }
+        }
+        return new PidSweep(simulator, candidates);
+    }
+
+    /**
+     * Creates a sweep of uniformly random candidates.
+     * @param simulator Simulator.
+     * @param kp Range of kp as {min, max}.
+     * @param ki Range of ki as {min, max}.
+     * @param kd Range of kd as {min, max}.
+     * @param count Number of candidates.
+     * @param seed Random seed, so sweeps are reproducible.
+     * @return Sweep.
+     */
+    public static PidSweep random(PidSimulator simulator, float[] kp, float[] ki, float[] kd, int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        PidSimulator.Result[] candidates = new PidSimulator.Result[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = new PidSimulator.Result(
+                    (float) random.nextDouble(kp[0], Math.nextUp(kp[1])),
+                    (float) random.nextDouble(ki[0], Math.nextUp(ki[1])),
+                    (float) random.nextDouble(kd[0], Math.nextUp(kd[1])));
+        }
+        return new PidSweep(simulator, candidates);
+    }
+
+    /**
+     * Runs the sweep on the common fork-join pool.
+     * @return Candidates ranked best first.
+     */
+    public PidSimulator.Result[] run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs the sweep on the given pool.
+     * @param pool Fork-join pool.
+     * @return Candidates ranked best first.
+     */
+    public PidSimulator.Result[] run(ForkJoinPool pool) {
+        pool.invoke(new SimulateTask(0, candidates.length));
+        PidSimulator.Result[] ranked = candidates.clone();
+        Arrays.sort(ranked);
+        return ranked;
+    }
+
+    /**
+     * Returns the number of candidates in the sweep.
+     * @return Candidate count.
+     */
+    public int size() {
+        return candidates.length;
+    }
+
+    /**
+     * Linear interpolation of the i-th of n points in a range.
+     * @param range Range as {min, max}.
+     * @param i Point index.
+     * @param n Number of points.
+     * @return Value.
+     */
+    private static float lerp(float[] range, int i, int n) {
+        if (n == 1) return range[0];
+        return range[0] + (range[1] - range[0]) * i / (n - 1);
+    }
+
+    /**
+     * Fork-join task simulating a slice of the candidate array.
+     */
+    private final class SimulateTask extends RecursiveAction {
+        /**
+         * Serialization version; tasks are never serialized, ForkJoinTask is merely Serializable.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First candidate index, inclusive.
+         */
+        private final int from;
+
+        /**
+         * Last candidate index, exclusive.
+         */
+        private final int to;
+
+        /**
+         * Constructor.
+         * @param from First candidate index, inclusive.
+         * @param to Last candidate index, exclusive.
+         */
+        SimulateTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Splits until the slice is small enough, then simulates it.
+         */
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    simulator.simulate(candidates[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SimulateTask(from, mid), new SimulateTask(mid, to));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.petfilament.recycler.core;
+
+/**
+ * ProtocolParser class interprets firmware lines and applies them to a {@link TelemetryModel}.
+ * It accepts the GET_STATUS reply ("TEMP:..,TEMP1:..,SPEED:..,STATUS:ON,CONNECTED:yes", optionally prefixed
+ * with "STATUS_UPDATE:"), single "TEMP:", "TEMP&lt;zone&gt;:", "SPEED:" and "STATUS:" fields, "OK:"/"ERROR:" replies, and classifies
+ * telemetry backfill lines ("SYNC_...") for {@link TelemetrySync}, config replies for {@link MachineConfig},
+ * loop profiles for {@link PerfReport}, raw readings for {@link CalibrationTable} and diameter readings for
+ * {@link DiameterController}.
+ */
+public class ProtocolParser {
+
+    /**
+     * Kind of a parsed line.
+     */
+    public enum Kind {
+        /**
+         * Multi-field status report.
+         */
+        STATUS,
+        /**
+         * Single telemetry field.
+         */
+        TELEMETRY,
+        /**
+         * Command acknowledgement ("OK: ...").
+         */
+        ACK,
+        /**
+         * Command error ("ERROR: ...").
+         */
+        ERROR,
+        /**
+         * Telemetry backfill line ("SYNC_...").
+         */
+        SYNC,
+        /**
+         * Config version or config reply ("CFG_VER:...", "CONFIG:...").
+         */
+        CONFIG,
+        /**
+         * Loop-timing profile ("PERF:...").
+         */
+        PERF,
+
+        /**
+         * Averaged raw thermistor reading for calibration ("ADC:...").
+         */
+        ADC,
+        /**
+         * Filament diameter reading ("DIA:...").
+         */
+        DIAMETER,
+        /**
+         * Anything else, or a malformed field.
+         */
+        UNKNOWN
+    }
+
+    /**
+     * Prefix some firmware builds put before the status report.
+     */
+    private static final String STATUS_UPDATE_PREFIX = "STATUS_UPDATE:";
+
+    /**
+     * Parses one line, updating the model for telemetry fields.
+     * @param line Line without terminator.
+     * @param model Model to update.
+     * @return Kind of the line.
+     */
+    public Kind parse(String line, TelemetryModel model) {
+        if (line.startsWith("OK:")) return Kind.ACK;
+        if (line.startsWith("ERROR:")) return Kind.ERROR;
+        if (line.startsWith(TelemetrySync.PREFIX)) return Kind.SYNC;
+        if (line.startsWith(MachineConfig.VERSION_PREFIX) || line.startsWith(MachineConfig.CONFIG_PREFIX)) {
+            return Kind.CONFIG;
+        }
+        if (line.startsWith(PerfReport.PREFIX)) return Kind.PERF;
+        if (line.startsWith(CalibrationTable.ADC_PREFIX)) return Kind.ADC;
+        if (line.startsWith(DiameterController.PREFIX)) return Kind.DIAMETER;
+
+        int start = line.startsWith(STATUS_UPDATE_PREFIX) ? STATUS_UPDATE_PREFIX.length() : 0;
+        boolean multiField = start > 0 || line.indexOf(',') >= 0;
+        boolean any = false;
+        try {
+            while (start < line.length()) {
+                int end = line.indexOf(',', start);
+                if (end < 0) end = line.length();
+                any |= applyField(line, start, end, model, multiField);
+                start = end + 1;
+            }
+        } catch (NumberFormatException e) {
+            return Kind.UNKNOWN;
+        }
+        if (!any) return Kind.UNKNOWN;
+        return multiField ? Kind.STATUS : Kind.TELEMETRY;
+    }
+
+    /**
+     * Applies one KEY:VALUE field.
+     * @param line Whole line.
+     * @param start Start of the field.
+     * @param end End of the field, exclusive.
+     * @param model Model to update.
+     * @param inStatusReport true inside a multi-field report, where STATUS is ON/OFF.
+     * @return true if the field was recognised.
+     * @throws NumberFormatException If a numeric field is malformed.
+     */
+    private boolean applyField(String line, int start, int end, TelemetryModel model, boolean inStatusReport) {
+        int colon = line.indexOf(':', start);
+        if (colon < 0 || colon >= end) return false;
+        String value = line.substring(colon + 1, end).trim();
+        int zone = line.startsWith("TEMP", start) ? parseZone(line, start + 4, colon) : -1;
+        if (zone >= 0) {
+            model.temperatures[zone] = Float.parseFloat(value);
+            model.zones = Math.max(model.zones, zone + 1);
+        } else if (line.startsWith("SPEED", start) && colon - start == 5) {
+            model.speed = Integer.parseInt(value);
+        } else if (line.startsWith("STATUS", start) && colon - start == 6) {
+            if (inStatusReport) {
+                model.machineStatus = value.equals("ON") ? TelemetryModel.STATUS_RUNNING : TelemetryModel.STATUS_IDLE;
+            } else {
+                model.machineStatus = value;
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the zone number after "TEMP"; no number is zone 0.
+     * @param line Whole line.
+     * @param start Position after "TEMP".
+     * @param colon Position of the colon ending the key.
+     * @return Zone index, or -1 if the key is not a zone temperature.
+     */
+    static int parseZone(String line, int start, int colon) {
+        if (start == colon) return 0;
+        if (colon - start > 1) return -1;
+        int zone = Character.digit(line.charAt(start), 10);
+        return zone > 0 && zone < TelemetrySample.MAX_ZONES ? zone : -1;
+    }
+}
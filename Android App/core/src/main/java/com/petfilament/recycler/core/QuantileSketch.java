@@ -0,0 +1,458 @@
+package com.petfilament.recycler.core;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * QuantileSketch class is a DDSketch-style quantile sketch: a value x is counted in bucket
+ * ceil(log_gamma |x|) with gamma = (1 + a) / (1 - a), so every quantile it returns is within a relative error
+ * a = {@link #RELATIVE_ACCURACY} of a value that holds that rank. Adding a value is a logarithm and an array
+ * increment; two sketches merge exactly by adding bucket counts, which gives the same sketch as adding all
+ * values to one. Per-run sketches can thus be stored and combined into percentiles over any set of runs
+ * without the raw samples. Negative values have their own buckets; magnitudes up to {@link #MIN_VALUE} count
+ * as zero. Each sign keeps at most {@link #MAX_BUCKETS} buckets, collapsing the smallest magnitudes beyond that.
+ * Not thread-safe.
+ */
+public final class QuantileSketch {
+
+    /**
+     * Relative accuracy of the returned quantiles.
+     */
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    /**
+     * Largest magnitude counted as zero.
+     */
+    public static final double MIN_VALUE = 1e-3;
+
+    /**
+     * Largest number of buckets per sign; with 1% accuracy they span about 18 decades.
+     */
+    public static final int MAX_BUCKETS = 2048;
+
+    /**
+     * Version byte of the serialized form.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Ratio between consecutive bucket bounds.
+     */
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+    /**
+     * Natural logarithm of {@link #GAMMA}.
+     */
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    /**
+     * Buckets of positive values.
+     */
+    private final Buckets positive = new Buckets();
+
+    /**
+     * Buckets of the magnitudes of negative values.
+     */
+    private final Buckets negative = new Buckets();
+
+    /**
+     * Number of values counted as zero.
+     */
+    private long zeroCount;
+
+    /**
+     * Smallest value added, NaN while empty.
+     */
+    private double min = Double.NaN;
+
+    /**
+     * Largest value added, NaN while empty.
+     */
+    private double max = Double.NaN;
+
+    /**
+     * Adds a value. NaN and infinite values are ignored.
+     * @param value Value.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return;
+        if (value > MIN_VALUE) {
+            positive.add(key(value), 1);
+        } else if (value < -MIN_VALUE) {
+            negative.add(key(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        updateRange(value, value);
+    }
+
+    /**
+     * Adds all values of another sketch.
+     * @param other Sketch to merge; not modified.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.getCount() == 0) return;
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        updateRange(other.min, other.max);
+    }
+
+    /**
+     * Returns a sketch of the magnitudes of the values, e.g. the deviation from a setpoint regardless of sign.
+     * Buckets depend only on the magnitude, so this is exact.
+     * @return New sketch.
+     */
+    public QuantileSketch absolute() {
+        QuantileSketch result = new QuantileSketch();
+        if (getCount() == 0) return result;
+        result.positive.merge(positive);
+        result.positive.merge(negative);
+        result.zeroCount = zeroCount;
+        result.min = min >= 0 ? min : max <= 0 ? -max : 0;
+        result.max = Math.max(Math.abs(min), Math.abs(max));
+        return result;
+    }
+
+    /**
+     * Returns an independent copy.
+     * @return Copy of this sketch.
+     */
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Returns the value at a quantile: the value of rank floor(q * (count - 1)) in sorted order, within the
+     * relative accuracy and clamped to the exact minimum and maximum, which are returned for the first and last rank.
+     * @param q Quantile, 0-1.
+     * @return Value, NaN if the sketch is empty.
+     * @throws IllegalArgumentException If q is outside 0-1.
+     */
+    public double quantile(double q) {
+        if (!(q >= 0 && q <= 1)) throw new IllegalArgumentException("Quantile must be in [0, 1]: " + q);
+        long count = getCount();
+        if (count == 0) return Double.NaN;
+        long rank = (long) (q * (count - 1));
+        if (rank == 0) return min;
+        if (rank == count - 1) return max;
+        double value;
+        if (rank < negative.total) {
+            // Most negative first: ascending rank runs down the magnitudes
+            value = -value(negative.keyAtRank(negative.total - 1 - rank));
+        } else if (rank < negative.total + zeroCount) {
+            value = 0;
+        } else {
+            value = value(positive.keyAtRank(rank - negative.total - zeroCount));
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Returns the number of values added.
+     * @return Count.
+     */
+    public long getCount() {
+        return positive.total + negative.total + zeroCount;
+    }
+
+    /**
+     * Returns the smallest value added.
+     * @return Minimum, NaN if empty.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value added.
+     * @return Maximum, NaN if empty.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Serializes the sketch: version, minimum, maximum, zero count, then for the negative and positive buckets
+     * the number of buckets, the lowest key and the counts, all integers as unsigned LEB128 varints.
+     * @return Bytes, typically a few hundred for a run.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + 2 * (positive.span() + negative.span()));
+        out.write(FORMAT_VERSION);
+        writeDouble(out, min);
+        writeDouble(out, max);
+        writeVarint(out, zeroCount);
+        negative.write(out);
+        positive.write(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads a serialized sketch.
+     * @param data Bytes produced by {@link #toBytes()}.
+     * @return Sketch.
+     * @throws IllegalArgumentException If the data is corrupt or of another version.
+     */
+    public static QuantileSketch fromBytes(byte[] data) {
+        if (data.length == 0 || data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown sketch format");
+        }
+        Reader in = new Reader(data);
+        in.position = 1;
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.min = in.readDouble();
+        sketch.max = in.readDouble();
+        sketch.zeroCount = in.readVarint();
+        sketch.negative.read(in);
+        sketch.positive.read(in);
+        if (in.position != data.length || sketch.zeroCount < 0
+                || (sketch.getCount() == 0) != Double.isNaN(sketch.min) || sketch.min > sketch.max) {
+            throw new IllegalArgumentException("Corrupt sketch");
+        }
+        return sketch;
+    }
+
+    /**
+     * Widens the minimum and maximum.
+     * @param low New low value.
+     * @param high New high value.
+     */
+    private void updateRange(double low, double high) {
+        min = Double.isNaN(min) ? low : Math.min(min, low);
+        max = Double.isNaN(max) ? high : Math.max(max, high);
+    }
+
+    /**
+     * Returns the bucket of a magnitude.
+     * @param magnitude Magnitude above {@link #MIN_VALUE}.
+     * @return Key.
+     */
+    private static int key(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    /**
+     * Returns the representative magnitude of a bucket, within the relative accuracy of all its values.
+     * @param key Key.
+     * @return Magnitude.
+     */
+    private static double value(int key) {
+        return 2 * Math.pow(GAMMA, key) / (GAMMA + 1);
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     * @param out Stream.
+     * @param value Non-negative value.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes a double, big-endian.
+     * @param out Stream.
+     * @param value Value.
+     */
+    private static void writeDouble(ByteArrayOutputStream out, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) out.write((int) (bits >>> shift));
+    }
+
+    /**
+     * Cursor over serialized bytes.
+     */
+    private static final class Reader {
+        /**
+         * Bytes.
+         */
+        final byte[] data;
+
+        /**
+         * Next byte to read.
+         */
+        int position;
+
+        /**
+         * Constructor.
+         * @param data Bytes.
+         */
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Reads an unsigned LEB128 varint.
+         * @return Value.
+         * @throws IllegalArgumentException If the data ends early or the value is too long.
+         */
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) throw new IllegalArgumentException("Truncated sketch");
+                int b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Corrupt sketch");
+        }
+
+        /**
+         * Reads a big-endian double.
+         * @return Value.
+         * @throws IllegalArgumentException If the data ends early.
+         */
+        double readDouble() {
+            if (position + 8 > data.length) throw new IllegalArgumentException("Truncated sketch");
+            long bits = 0;
+            for (int i = 0; i < 8; i++) bits = bits << 8 | (data[position++] & 0xFF);
+            return Double.longBitsToDouble(bits);
+        }
+    }
+
+    /**
+     * Bucket counts of one sign, a dense array over the keys from {@link #low} to {@link #high}.
+     */
+    private static final class Buckets {
+        /**
+         * Counts; index i holds key {@link #offset} + i.
+         */
+        long[] counts = new long[0];
+
+        /**
+         * Key of counts[0].
+         */
+        int offset;
+
+        /**
+         * Lowest key in use.
+         */
+        int low;
+
+        /**
+         * Highest key in use.
+         */
+        int high;
+
+        /**
+         * Sum of the counts.
+         */
+        long total;
+
+        /**
+         * Adds to a bucket, collapsing the lowest buckets if the key range would exceed {@link #MAX_BUCKETS}.
+         * @param key Key.
+         * @param n Count to add.
+         */
+        void add(int key, long n) {
+            long collapsed = 0;
+            if (total == 0) {
+                low = high = key;
+            } else if (key < low) {
+                // Too small to keep its own bucket: counted in the lowest one
+                key = Math.max(key, high - MAX_BUCKETS + 1);
+                low = Math.min(low, key);
+            } else if (key > high) {
+                int newLow = Math.max(low, key - MAX_BUCKETS + 1);
+                for (int k = low; k < newLow && k <= high; k++) {
+                    collapsed += counts[k - offset];
+                    counts[k - offset] = 0;
+                }
+                low = newLow;
+                high = key;
+            }
+            if (low < offset || high >= offset + counts.length) resize();
+            counts[low - offset] += collapsed;
+            counts[key - offset] += n;
+            total += n;
+        }
+
+        /**
+         * Reallocates the counts to cover the keys in use with room to grow, at least doubling.
+         */
+        private void resize() {
+            int span = high - low + 1;
+            int length = Math.min(Math.max(Math.max(span + 32, 2 * counts.length), 64), MAX_BUCKETS + 64);
+            long[] resized = new long[length];
+            int newOffset = low - (length - span) / 2;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) continue;
+                resized[offset + i - newOffset] = counts[i];
+            }
+            counts = resized;
+            offset = newOffset;
+        }
+
+        /**
+         * Adds all buckets of another set.
+         * @param other Buckets; not modified.
+         */
+        void merge(Buckets other) {
+            if (other.total == 0) return;
+            for (int k = other.low; k <= other.high; k++) {
+                long n = other.counts[k - other.offset];
+                if (n != 0) add(k, n);
+            }
+        }
+
+        /**
+         * Returns the key holding a rank, counting from the lowest key.
+         * @param rank Rank, below {@link #total}.
+         * @return Key.
+         */
+        int keyAtRank(long rank) {
+            long seen = 0;
+            for (int k = low; k < high; k++) {
+                seen += counts[k - offset];
+                if (seen > rank) return k;
+            }
+            return high;
+        }
+
+        /**
+         * Returns the number of keys in use.
+         * @return Span, 0 if empty.
+         */
+        int span() {
+            return total == 0 ? 0 : high - low + 1;
+        }
+
+        /**
+         * Writes the span, the zigzag-encoded lowest key and the counts.
+         * @param out Stream.
+         */
+        void write(ByteArrayOutputStream out) {
+            int span = span();
+            writeVarint(out, span);
+            if (span == 0) return;
+            writeVarint(out, (low << 1) ^ (low >> 31));
+            for (int k = low; k <= high; k++) writeVarint(out, counts[k - offset]);
+        }
+
+        /**
+         * Reads what {@link #write} wrote into these empty buckets.
+         * @param in Reader.
+         * @throws IllegalArgumentException If the data is corrupt.
+         */
+        void read(Reader in) {
+            long span = in.readVarint();
+            if (span == 0) return;
+            if (span > MAX_BUCKETS) throw new IllegalArgumentException("Corrupt sketch");
+            long zigzag = in.readVarint();
+            // Keys of finite doubles stay within about ±36000
+            if (zigzag > 1 << 20) throw new IllegalArgumentException("Corrupt sketch");
+            int first = (int) (zigzag >>> 1) ^ -(int) (zigzag & 1);
+            for (int i = 0; i < span; i++) {
+                long n = in.readVarint();
+                if (n < 0) throw new IllegalArgumentException("Corrupt sketch");
+                if (n != 0) add(first + i, n);
+            }
+        }
+    }
+}
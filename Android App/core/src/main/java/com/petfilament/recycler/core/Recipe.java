@@ -0,0 +1,211 @@
+package com.petfilament.recycler.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recipe class is a multi-step extrusion profile run by {@link RecipeRunner}. The text form is one step per
+ * ';'-separated item:
+ * <ul>
+ * <li>"TEMP:&lt;°C&gt;[@&lt;°C/min&gt;]" sets the temperature, ramping at the given rate if one is given;</li>
+ * <li>"SPEED:&lt;steps/s&gt;[@&lt;steps/s per s&gt;]" sets the speed, ramping likewise;</li>
+ * <li>"HOLD:&lt;s&gt;" waits;</li>
+ * <li>"WAIT_TEMP:&lt;±°C&gt;[,&lt;timeout s&gt;]" waits until the measured temperature is that close to the
+ * setpoint, failing the recipe after the timeout;</li>
+ * <li>"START" and "STOP" switch the motor.</li>
+ * </ul>
+ * For example "TEMP:180@10;WAIT_TEMP:3;START;SPEED:400@20;HOLD:120".
+ */
+public final class Recipe {
+
+    /**
+     * Kind of a step.
+     */
+    public enum Type {
+        /**
+         * Temperature setpoint, optionally ramped.
+         */
+        TEMP,
+        /**
+         * Speed setting, optionally ramped.
+         */
+        SPEED,
+        /**
+         * Fixed wait.
+         */
+        HOLD,
+        /**
+         * Wait for the measured temperature to reach the setpoint.
+         */
+        WAIT_TEMP,
+        /**
+         * Start the motor.
+         */
+        START,
+        /**
+         * Stop the motor.
+         */
+        STOP
+    }
+
+    /**
+     * One step of a recipe.
+     */
+    public static final class Step {
+        /**
+         * Kind of the step.
+         */
+        public final Type type;
+
+        /**
+         * Target temperature or speed; tolerance in °C for WAIT_TEMP.
+         */
+        public final float value;
+
+        /**
+         * Ramp rate per minute (TEMP) or per second (SPEED); 0 sets the target at once.
+         */
+        public final float rate;
+
+        /**
+         * Duration of a HOLD or timeout of a WAIT_TEMP in milliseconds; 0 waits without timeout.
+         */
+        public final long durationMillis;
+
+        /**
+         * Constructor.
+         * @param type Kind of the step.
+         * @param value Target or tolerance.
+         * @param rate Ramp rate, 0 for none.
+         * @param durationMillis Duration or timeout in milliseconds.
+         */
+        public Step(Type type, float value, float rate, long durationMillis) {
+            this.type = type;
+            this.value = value;
+            this.rate = rate;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * Returns the step in recipe text form.
+         * @return Step text.
+         */
+        @Override
+        public String toString() {
+            switch (type) {
+                case TEMP:
+                case SPEED:
+                    return type + ":" + number(value) + (rate > 0 ? "@" + number(rate) : "");
+                case HOLD:
+                    return type + ":" + number(durationMillis / 1000f);
+                case WAIT_TEMP:
+                    return type + ":" + number(value) + (durationMillis > 0 ? "," + number(durationMillis / 1000f) : "");
+                default:
+                    return type.toString();
+            }
+        }
+    }
+
+    /**
+     * Steps in order.
+     */
+    private final List<Step> steps;
+
+    /**
+     * Constructor.
+     * @param steps Steps in order.
+     */
+    public Recipe(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    /**
+     * Parses the text form of a recipe.
+     * @param text Steps separated by ';'; blanks and empty items are ignored.
+     * @return Recipe.
+     * @throws IllegalArgumentException If a step is malformed or the recipe is empty.
+     */
+    public static Recipe parse(String text) {
+        List<Step> steps = new ArrayList<>();
+        for (String item : text.split(";")) {
+            String step = item.trim().toUpperCase(Locale.ROOT);
+            if (step.isEmpty()) continue;
+            try {
+                steps.add(parseStep(step));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed step: " + item.trim());
+            }
+        }
+        if (steps.isEmpty()) throw new IllegalArgumentException("Empty recipe");
+        return new Recipe(steps);
+    }
+
+    /**
+     * Returns the steps.
+     * @return Unmodifiable list of steps.
+     */
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns the recipe in text form, accepted by {@link #parse}.
+     * @return Recipe text.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Step step : steps) {
+            if (text.length() > 0) text.append(';');
+            text.append(step);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses one step.
+     * @param step Upper-case step text.
+     * @return Step.
+     */
+    private static Step parseStep(String step) {
+        int colon = step.indexOf(':');
+        Type type = Type.valueOf(colon < 0 ? step : step.substring(0, colon).trim());
+        String args = colon < 0 ? "" : step.substring(colon + 1).trim();
+        switch (type) {
+            case TEMP:
+            case SPEED: {
+                int at = args.indexOf('@');
+                float value = Float.parseFloat(at < 0 ? args : args.substring(0, at));
+                float rate = at < 0 ? 0 : Float.parseFloat(args.substring(at + 1));
+                if (value < 0 || !(rate >= 0)) throw new IllegalArgumentException(step);
+                return new Step(type, value, rate, 0);
+            }
+            case HOLD: {
+                float seconds = Float.parseFloat(args);
+                if (!(seconds >= 0)) throw new IllegalArgumentException(step);
+                return new Step(type, 0, 0, Math.round(seconds * 1000));
+            }
+            case WAIT_TEMP: {
+                int comma = args.indexOf(',');
+                float tolerance = Float.parseFloat(comma < 0 ? args : args.substring(0, comma));
+                float timeout = comma < 0 ? 0 : Float.parseFloat(args.substring(comma + 1));
+                if (!(tolerance > 0) || !(timeout >= 0)) throw new IllegalArgumentException(step);
+                return new Step(type, tolerance, 0, Math.round(timeout * 1000));
+            }
+            default:
+                if (!args.isEmpty()) throw new IllegalArgumentException(step);
+                return new Step(type, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Formats a number without a trailing ".0".
+     * @param value Value.
+     * @return Text.
+     */
+    private static String number(float value) {
+        return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
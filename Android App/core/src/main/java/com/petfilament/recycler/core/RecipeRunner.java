@@ -0,0 +1,535 @@
+package com.petfilament.recycler.core;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * RecipeRunner class executes a {@link Recipe} by sending SET_TEMP, SET_SPEED, START and STOP commands.
+ * Ramp setpoints are computed from the time elapsed since the step began, and a timed step ends at its
+ * nominal end time rather than at the tick that noticed it, so late ticks never accumulate into drift.
+ * A ramp only sends a new setpoint once it moved by the firmware-visible resolution, and the session's
+ * command channel coalesces setpoints that are still waiting, so a slow link sees at most one pending
+ * setpoint per kind.
+ * <p>
+ * {@link #update} is the whole state machine and takes the time as a System.nanoTime() value, so tests can
+ * run recipes in virtual time against a {@link SimulatedExtruder}; {@link #start} drives it from a scheduled
+ * executor on a fixed grid of deadlines, skipping ticks that are already past instead of bunching them.
+ * Methods are synchronized.
+ */
+public class RecipeRunner {
+
+    /**
+     * Interface for recipe events, called on the thread running the recipe.
+     */
+    public interface Listener {
+        /**
+         * Called when a step begins.
+         * @param index Step index.
+         * @param step Step.
+         */
+        void onStep(int index, Recipe.Step step);
+
+        /**
+         * Called once when the recipe ends.
+         * @param completed true if all steps ran, false if it failed or was stopped.
+         * @param reason Reason when not completed, otherwise null.
+         */
+        void onFinished(boolean completed, String reason);
+    }
+
+    /**
+     * Receiver of the commands, usually {@link Session#send}.
+     */
+    public interface CommandSink {
+        /**
+         * Sends a command.
+         * @param command Command text.
+         * @return false if it could not be queued; it is offered again on the next tick.
+         */
+        boolean send(String command);
+    }
+
+    /**
+     * Saved position in a recipe, to resume it after a restart.
+     */
+    public static final class Progress {
+        /**
+         * Index of the current step.
+         */
+        public final int step;
+
+        /**
+         * Time spent in the current step, in milliseconds.
+         */
+        public final long stepElapsedMillis;
+
+        /**
+         * Temperature setpoint the recipe last commanded.
+         */
+        public final float setTemperature;
+
+        /**
+         * Speed the recipe last commanded.
+         */
+        public final int speed;
+
+        /**
+         * Value the current ramp started from.
+         */
+        public final float rampFrom;
+
+        /**
+         * Constructor.
+         * @param step Index of the current step.
+         * @param stepElapsedMillis Time spent in the current step.
+         * @param setTemperature Temperature setpoint.
+         * @param speed Speed.
+         * @param rampFrom Value the current ramp started from.
+         */
+        public Progress(int step, long stepElapsedMillis, float setTemperature, int speed, float rampFrom) {
+            this.step = step;
+            this.stepElapsedMillis = stepElapsedMillis;
+            this.setTemperature = setTemperature;
+            this.speed = speed;
+            this.rampFrom = rampFrom;
+        }
+
+        /**
+         * Parses the text form written by {@link #toString()}.
+         * @param text "step,elapsedMs,setTemperature,speed,rampFrom".
+         * @return Progress, or null if the text is malformed.
+         */
+        public static Progress parse(String text) {
+            if (text == null) return null;
+            String[] fields = text.split(",");
+            if (fields.length != 5) return null;
+            try {
+                return new Progress(Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+                        Float.parseFloat(fields[2]), Integer.parseInt(fields[3]), Float.parseFloat(fields[4]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the text form.
+         * @return "step,elapsedMs,setTemperature,speed,rampFrom".
+         */
+        @Override
+        public String toString() {
+            return step + "," + stepElapsedMillis + "," + setTemperature + "," + speed + "," + rampFrom;
+        }
+    }
+
+    /**
+     * Default tick period in milliseconds; the firmware PID runs every 250 ms.
+     */
+    public static final long DEFAULT_PERIOD_MS = FirmwarePid.UPDATE_INTERVAL_MS;
+
+    /**
+     * Smallest temperature change a ramp sends, in °C.
+     */
+    private static final float TEMP_RESOLUTION = 0.5f;
+
+    /**
+     * Smallest speed change a ramp sends, in steps/s.
+     */
+    private static final int SPEED_RESOLUTION = 10;
+
+    /**
+     * Recipe being run.
+     */
+    private final Recipe recipe;
+
+    /**
+     * Receiver of the commands.
+     */
+    private final CommandSink sink;
+
+    /**
+     * Receiver of recipe events.
+     */
+    private final Listener listener;
+
+    /**
+     * Index of the current step, -1 before {@link #begin}.
+     */
+    private int stepIndex = -1;
+
+    /**
+     * Nominal start time of the current step.
+     */
+    private long stepStartNanos;
+
+    /**
+     * Temperature setpoint last commanded (or the machine's when the recipe began).
+     */
+    private float setTemperature;
+
+    /**
+     * Speed last commanded (or the machine's when the recipe began).
+     */
+    private int speed;
+
+    /**
+     * Value the current ramp started from.
+     */
+    private float rampFrom;
+
+    /**
+     * Temperature last handed to the sink, NaN if none.
+     */
+    private float sentTemperature = Float.NaN;
+
+    /**
+     * Speed last handed to the sink, -1 if none.
+     */
+    private int sentSpeed = -1;
+
+    /**
+     * Set once the recipe ended.
+     */
+    private boolean finished;
+
+    /**
+     * Executor running the ticks, null when not scheduled.
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Pending tick, null when not scheduled.
+     */
+    private ScheduledFuture<?> future;
+
+    /**
+     * Tick period in nanoseconds.
+     */
+    private long periodNanos;
+
+    /**
+     * Source of the measured temperature for WAIT_TEMP, NaN while unknown.
+     */
+    private DoubleSupplier measuredTemperature;
+
+    /**
+     * Ticks run so far.
+     */
+    private long ticks;
+
+    /**
+     * Ticks skipped because their deadline had already passed.
+     */
+    private long skippedTicks;
+
+    /**
+     * Largest delay of a tick behind its deadline, in nanoseconds.
+     */
+    private long maxLatenessNanos;
+
+    /**
+     * Constructor.
+     * @param recipe Recipe to run.
+     * @param sink Receiver of the commands.
+     * @param listener Receiver of recipe events.
+     */
+    public RecipeRunner(Recipe recipe, CommandSink sink, Listener listener) {
+        this.recipe = recipe;
+        this.sink = sink;
+        this.listener = listener;
+    }
+
+    /**
+     * Begins the first step.
+     * @param nowNanos Current System.nanoTime().
+     * @param setTemperature Machine's temperature setpoint, the start of a first temperature ramp.
+     * @param speed Machine's speed setting, the start of a first speed ramp.
+     */
+    public synchronized void begin(long nowNanos, float setTemperature, int speed) {
+        this.setTemperature = setTemperature;
+        this.speed = speed;
+        finished = false;
+        enterStep(0, nowNanos);
+    }
+
+    /**
+     * Continues a recipe from saved progress. Time spent away is not counted, so holds only get longer.
+     * @param progress Saved progress.
+     * @param nowNanos Current System.nanoTime().
+     */
+    public synchronized void resume(Progress progress, long nowNanos) {
+        setTemperature = progress.setTemperature;
+        speed = progress.speed;
+        sentTemperature = Float.NaN;
+        sentSpeed = -1;
+        finished = false;
+        enterStep(progress.step, nowNanos - TimeUnit.MILLISECONDS.toNanos(progress.stepElapsedMillis));
+        rampFrom = progress.rampFrom;
+    }
+
+    /**
+     * Runs the recipe up to the given time, sending the commands that are due.
+     * @param nowNanos Current System.nanoTime().
+     * @param measured Measured temperature in °C, NaN if unknown.
+     * @return true while the recipe is running.
+     */
+    public synchronized boolean update(long nowNanos, float measured) {
+        if (stepIndex < 0) return false;
+        while (!finished) {
+            long end = runStep(nowNanos, measured);
+            if (end == Long.MIN_VALUE) break;
+            enterStep(stepIndex + 1, end);
+        }
+        return !finished;
+    }
+
+    /**
+     * Ends the recipe without sending anything further.
+     * @param reason Reason reported to the listener.
+     */
+    public synchronized void stop(String reason) {
+        if (finished) return;
+        finish(false, reason);
+    }
+
+    /**
+     * Stops the scheduled ticks but keeps the position, e.g. while the link is down. Save it with
+     * {@link #getProgress} to continue later without counting the time away.
+     */
+    public synchronized void pause() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * Runs the recipe on an executor, ticking on a fixed grid of deadlines until it ends or is stopped.
+     * @param executor Executor running the ticks.
+     * @param periodMillis Tick period in milliseconds.
+     * @param measuredTemperature Source of the measured temperature, NaN while unknown.
+     */
+    public synchronized void start(ScheduledExecutorService executor, long periodMillis,
+                                   DoubleSupplier measuredTemperature) {
+        this.executor = executor;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.measuredTemperature = measuredTemperature;
+        schedule(System.nanoTime());
+    }
+
+    /**
+     * Returns whether the recipe has ended.
+     * @return true once finished or stopped.
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the index of the current step.
+     * @return Step index, -1 before the recipe began.
+     */
+    public synchronized int getStepIndex() {
+        return stepIndex;
+    }
+
+    /**
+     * Returns the recipe being run.
+     * @return Recipe.
+     */
+    public Recipe getRecipe() {
+        return recipe;
+    }
+
+    /**
+     * Returns the position in the recipe, to resume it later.
+     * @param nowNanos Current System.nanoTime().
+     * @return Progress.
+     */
+    public synchronized Progress getProgress(long nowNanos) {
+        long elapsed = Math.max(0, TimeUnit.NANOSECONDS.toMillis(nowNanos - stepStartNanos));
+        return new Progress(Math.max(0, stepIndex), elapsed, setTemperature, speed, rampFrom);
+    }
+
+    /**
+     * Returns the number of scheduled ticks run so far.
+     * @return Tick count.
+     */
+    public synchronized long getTickCount() {
+        return ticks;
+    }
+
+    /**
+     * Returns the number of scheduled ticks skipped because they were already overdue.
+     * @return Skipped ticks.
+     */
+    public synchronized long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * Returns the largest delay of a scheduled tick behind its deadline.
+     * @return Lateness in milliseconds.
+     */
+    public synchronized double getMaxLatenessMillis() {
+        return maxLatenessNanos / 1e6;
+    }
+
+    /**
+     * Schedules the tick due at a deadline.
+     * @param deadline System.nanoTime() at which the tick is due.
+     */
+    private void schedule(long deadline) {
+        long delay = Math.max(0, deadline - System.nanoTime());
+        future = executor.schedule(() -> tick(deadline), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs one scheduled tick and schedules the next on the grid.
+     * @param deadline Deadline of this tick.
+     */
+    private void tick(long deadline) {
+        float measured = (float) measuredTemperature.getAsDouble();
+        synchronized (this) {
+            if (future == null) return;
+            long now = System.nanoTime();
+            ticks++;
+            maxLatenessNanos = Math.max(maxLatenessNanos, now - deadline);
+            if (!update(now, measured)) return;
+            long next = deadline + periodNanos;
+            if (next <= now) {
+                long missed = (now - next) / periodNanos + 1;
+                skippedTicks += missed;
+                next += missed * periodNanos;
+            }
+            schedule(next);
+        }
+    }
+
+    /**
+     * Begins a step, or finishes the recipe after the last one.
+     * @param index Step index.
+     * @param startNanos Nominal start time of the step.
+     */
+    private void enterStep(int index, long startNanos) {
+        List<Recipe.Step> steps = recipe.getSteps();
+        if (index >= steps.size()) {
+            stepIndex = steps.size();
+            finish(true, null);
+            return;
+        }
+        stepIndex = index;
+        stepStartNanos = startNanos;
+        Recipe.Step step = steps.get(index);
+        rampFrom = step.type == Recipe.Type.SPEED ? speed : setTemperature;
+        listener.onStep(index, step);
+    }
+
+    /**
+     * Advances the current step.
+     * @param nowNanos Current time.
+     * @param measured Measured temperature, NaN if unknown.
+     * @return Nominal end time if the step is complete, otherwise Long.MIN_VALUE.
+     */
+    private long runStep(long nowNanos, float measured) {
+        Recipe.Step step = recipe.getSteps().get(stepIndex);
+        long elapsed = nowNanos - stepStartNanos;
+        switch (step.type) {
+            case TEMP: {
+                long duration = rampNanos(rampFrom, step.value, step.rate / 60f);
+                boolean done = elapsed >= duration;
+                setTemperature = done ? step.value : ramp(rampFrom, step.value, step.rate / 60f, elapsed);
+                boolean sent = sendTemperature(done);
+                return done && sent ? stepStartNanos + duration : Long.MIN_VALUE;
+            }
+            case SPEED: {
+                long duration = rampNanos(rampFrom, step.value, step.rate);
+                boolean done = elapsed >= duration;
+                speed = Math.round(done ? step.value : ramp(rampFrom, step.value, step.rate, elapsed));
+                boolean sent = sendSpeed(done);
+                return done && sent ? stepStartNanos + duration : Long.MIN_VALUE;
+            }
+            case HOLD: {
+                long duration = TimeUnit.MILLISECONDS.toNanos(step.durationMillis);
+                return elapsed >= duration ? stepStartNanos + duration : Long.MIN_VALUE;
+            }
+            case WAIT_TEMP:
+                if (!Float.isNaN(measured) && Math.abs(measured - setTemperature) <= step.value) return nowNanos;
+                if (step.durationMillis > 0 && elapsed >= TimeUnit.MILLISECONDS.toNanos(step.durationMillis)) {
+                    finish(false, String.format(Locale.US, "等待溫度逾時 (步驟 %d)", stepIndex + 1));
+                }
+                return Long.MIN_VALUE;
+            default:
+                return sink.send(step.type.toString()) ? stepStartNanos : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Sends the temperature setpoint if it moved enough since the last one sent.
+     * @param last true for the ramp's final value, which is always sent.
+     * @return true if the current setpoint has been handed to the sink.
+     */
+    private boolean sendTemperature(boolean last) {
+        float value = Math.round(setTemperature * 10) / 10f;
+        if (value == sentTemperature) return true;
+        if (!last && !Float.isNaN(sentTemperature) && Math.abs(value - sentTemperature) < TEMP_RESOLUTION) return true;
+        if (!sink.send(String.format(Locale.US, "SET_TEMP:%.1f", value))) return false;
+        sentTemperature = value;
+        return true;
+    }
+
+    /**
+     * Sends the speed if it moved enough since the last one sent.
+     * @param last true for the ramp's final value, which is always sent.
+     * @return true if the current speed has been handed to the sink.
+     */
+    private boolean sendSpeed(boolean last) {
+        if (speed == sentSpeed) return true;
+        if (!last && sentSpeed >= 0 && Math.abs(speed - sentSpeed) < SPEED_RESOLUTION) return true;
+        if (!sink.send("SET_SPEED:" + speed)) return false;
+        sentSpeed = speed;
+        return true;
+    }
+
+    /**
+     * Ends the recipe, cancels the schedule and notifies the listener.
+     * @param completed true if all steps ran.
+     * @param reason Reason when not completed.
+     */
+    private void finish(boolean completed, String reason) {
+        finished = true;
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        listener.onFinished(completed, reason);
+    }
+
+    /**
+     * Returns the duration of a ramp.
+     * @param from Start value.
+     * @param to Target value.
+     * @param ratePerSecond Rate per second, 0 for a step change.
+     * @return Duration in nanoseconds.
+     */
+    private static long rampNanos(float from, float to, float ratePerSecond) {
+        if (!(ratePerSecond > 0)) return 0;
+        return (long) (Math.abs(to - from) / ratePerSecond * 1e9);
+    }
+
+    /**
+     * Returns the value of a ramp after some time.
+     * @param from Start value.
+     * @param to Target value.
+     * @param ratePerSecond Rate per second.
+     * @param elapsedNanos Time since the ramp began.
+     * @return Value, not beyond the target.
+     */
+    private static float ramp(float from, float to, float ratePerSecond, long elapsedNanos) {
+        float delta = (float) (ratePerSecond * elapsedNanos / 1e9);
+        return to >= from ? Math.min(to, from + delta) : Math.max(to, from - delta);
+    }
+}
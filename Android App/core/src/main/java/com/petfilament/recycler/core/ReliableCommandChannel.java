@@ -0,0 +1,332 @@
+package com.petfilament.recycler.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ReliableCommandChannel class numbers outbound commands ("#&lt;seq&gt;:&lt;command&gt;"), keeps a window of them
+ * in flight and retransmits those whose reply (echoing the same prefix) does not arrive in time.
+ * The firmware remembers the replies of recent numbered commands and answers a retransmission from that cache
+ * without applying the command again, so a lost reply never causes a double START or SAVE.
+ * <p>
+ * Commands touching the same state (SET_TEMP, SET_SPEED, START/STOP) are never in flight together, and SAVE or
+ * unknown commands wait for an empty window, so a retransmission can never overtake a later command with the
+ * same effect; queries ("GET_...") go out freely. GET_STATUS is numbered for the statistics but never
+ * retransmitted: the next poll replaces it.
+ * The timeout follows the measured round-trip time (RFC 6298, Karn's rule) and doubles on every retry.
+ * Methods are synchronized; time is passed in as System.nanoTime() values.
+ */
+public class ReliableCommandChannel {
+
+    /**
+     * Prefix of a sequence number on commands and replies.
+     */
+    public static final String SEQ_PREFIX = "#";
+
+    /**
+     * Sequence numbers wrap at this value.
+     */
+    private static final int SEQ_MODULUS = 65536;
+
+    /**
+     * Timeout before the first round-trip time is measured.
+     */
+    private static final long INITIAL_RTO_NANOS = 1_000_000_000L;
+
+    /**
+     * Lower bound of the timeout.
+     */
+    private static final long MIN_RTO_NANOS = 300_000_000L;
+
+    /**
+     * Upper bound of the timeout, also after backoff.
+     */
+    private static final long MAX_RTO_NANOS = 8_000_000_000L;
+
+    /**
+     * One command awaiting its reply.
+     */
+    private static class Entry {
+        /**
+         * Sequence number.
+         */
+        final int seq;
+
+        /**
+         * Command without prefix.
+         */
+        final String command;
+
+        /**
+         * Time of the latest transmission.
+         */
+        long sentAt;
+
+        /**
+         * Number of transmissions so far.
+         */
+        int attempts = 1;
+
+        /**
+         * Constructor.
+         * @param seq Sequence number.
+         * @param command Command without prefix.
+         * @param sentAt Time of the first transmission.
+         */
+        Entry(int seq, String command, long sentAt) {
+            this.seq = seq;
+            this.command = command;
+            this.sentAt = sentAt;
+        }
+
+        /**
+         * Returns the command as sent on the wire.
+         * @return Numbered command.
+         */
+        String frame() {
+            return SEQ_PREFIX + seq + ":" + command;
+        }
+    }
+
+    /**
+     * Commands not yet sent; setpoints coalesce here.
+     */
+    private final CommandQueue backlog;
+
+    /**
+     * Commands sent and not yet answered, oldest first.
+     */
+    private final ArrayList<Entry> inFlight = new ArrayList<>();
+
+    /**
+     * Maximum number of commands in flight.
+     */
+    private final int window;
+
+    /**
+     * Retransmissions before a command is given up.
+     */
+    private final int maxRetries;
+
+    /**
+     * Link statistics.
+     */
+    private final LinkStats stats = new LinkStats();
+
+    /**
+     * Next sequence number; starts at a random value so a restarted app does not reuse recent numbers.
+     */
+    private int nextSeq;
+
+    /**
+     * Smoothed round-trip time, or -1 before the first measurement.
+     */
+    private long srttNanos = -1;
+
+    /**
+     * Round-trip time variation.
+     */
+    private long rttvarNanos;
+
+    /**
+     * Current timeout for a first transmission.
+     */
+    private long rtoNanos = INITIAL_RTO_NANOS;
+
+    /**
+     * Constructor.
+     * @param window Maximum number of commands in flight.
+     * @param capacity Maximum number of commands waiting to be sent.
+     * @param maxRetries Retransmissions before a command is given up.
+     */
+    public ReliableCommandChannel(int window, int capacity, int maxRetries) {
+        this.window = window;
+        this.backlog = new CommandQueue(capacity);
+        this.maxRetries = maxRetries;
+        this.nextSeq = new Random().nextInt(SEQ_MODULUS);
+    }
+
+    /**
+     * Queues a command for numbering and transmission by {@link #pump}.
+     * @param command Command text without prefix.
+     * @return false if the backlog is full.
+     */
+    public synchronized boolean submit(String command) {
+        return backlog.offer(command);
+    }
+
+    /**
+     * Retransmits timed-out commands, gives up those out of retries and sends waiting commands the window allows.
+     * @param nowNanos Current System.nanoTime().
+     * @param frames List receiving the numbered commands to write, in order.
+     * @param failed List receiving the commands given up.
+     */
+    public synchronized void pump(long nowNanos, List<String> frames, List<String> failed) {
+        for (Iterator<Entry> it = inFlight.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (nowNanos - entry.sentAt < timeout(entry)) continue;
+            if (isProbe(entry.command)) {
+                it.remove();
+            } else if (entry.attempts > maxRetries) {
+                it.remove();
+                stats.failures++;
+                failed.add(entry.command);
+            } else {
+                entry.attempts++;
+                entry.sentAt = nowNanos;
+                stats.retransmissions++;
+                frames.add(entry.frame());
+            }
+        }
+        while (inFlight.size() < window) {
+            String command = backlog.peek();
+            if (command == null || conflictsWithInFlight(command)) break;
+            backlog.poll();
+            Entry entry = new Entry(nextSeq, command, nowNanos);
+            nextSeq = (nextSeq + 1) % SEQ_MODULUS;
+            inFlight.add(entry);
+            stats.commands++;
+            frames.add(entry.frame());
+        }
+        stats.inFlight = inFlight.size();
+    }
+
+    /**
+     * Matches a received line to the command it answers and strips its sequence number.
+     * @param line Received line.
+     * @param nowNanos Current System.nanoTime().
+     * @return The line without prefix; the same instance if it carried none.
+     */
+    public synchronized String acknowledge(String line, long nowNanos) {
+        if (!line.startsWith(SEQ_PREFIX)) return line;
+        int colon = line.indexOf(':');
+        int seq;
+        try {
+            seq = Integer.parseInt(line.substring(SEQ_PREFIX.length(), colon));
+        } catch (RuntimeException e) {
+            // No colon or not a number: not a numbered reply
+            return line;
+        }
+        String reply = line.substring(colon + 1);
+        for (Iterator<Entry> it = inFlight.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.seq != seq) continue;
+            it.remove();
+            stats.replies++;
+            stats.inFlight = inFlight.size();
+            // Karn: a retransmitted command's reply cannot be matched to one transmission
+            if (entry.attempts == 1) updateRto(nowNanos - entry.sentAt);
+            return reply;
+        }
+        stats.duplicateReplies++;
+        return reply;
+    }
+
+    /**
+     * Returns the command a sent frame carries, without its sequence number.
+     * @param frame Frame as written to the link, without line terminator.
+     * @return The bare command; the same instance if the frame was not numbered.
+     */
+    public static String unframe(String frame) {
+        if (!frame.startsWith(SEQ_PREFIX)) return frame;
+        int colon = frame.indexOf(':');
+        if (colon <= SEQ_PREFIX.length()) return frame;
+        for (int i = SEQ_PREFIX.length(); i < colon; i++) {
+            if (frame.charAt(i) < '0' || frame.charAt(i) > '9') return frame;
+        }
+        return frame.substring(colon + 1);
+    }
+
+    /**
+     * Drops all waiting and in-flight commands, e.g. when the link closes. Statistics are kept.
+     */
+    public synchronized void reset() {
+        backlog.clear();
+        inFlight.clear();
+        stats.inFlight = 0;
+    }
+
+    /**
+     * Returns whether no command is waiting or in flight.
+     * @return true if idle.
+     */
+    public synchronized boolean isIdle() {
+        return inFlight.isEmpty() && backlog.size() == 0;
+    }
+
+    /**
+     * Returns a snapshot of the link statistics.
+     * @return Statistics.
+     */
+    public synchronized LinkStats getStats() {
+        return stats.copy();
+    }
+
+    /**
+     * Returns the timeout of an in-flight command, doubled for every retransmission.
+     * @param entry Command.
+     * @return Timeout in nanoseconds.
+     */
+    private long timeout(Entry entry) {
+        return Math.min(MAX_RTO_NANOS, rtoNanos << Math.min(entry.attempts - 1, 16));
+    }
+
+    /**
+     * Updates the timeout from a round-trip time measurement (RFC 6298).
+     * @param rttNanos Round-trip time.
+     */
+    private void updateRto(long rttNanos) {
+        stats.recordRtt(rttNanos);
+        if (srttNanos < 0) {
+            srttNanos = rttNanos;
+            rttvarNanos = rttNanos / 2;
+        } else {
+            rttvarNanos = (3 * rttvarNanos + Math.abs(srttNanos - rttNanos)) / 4;
+            srttNanos = (7 * srttNanos + rttNanos) / 8;
+        }
+        rtoNanos = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, srttNanos + 4 * rttvarNanos));
+    }
+
+    /**
+     * Returns whether a command may not be in flight together with the ones already sent.
+     * @param command Waiting command.
+     * @return true if it has to wait.
+     */
+    private boolean conflictsWithInFlight(String command) {
+        String key = stateKey(command);
+        if (key == null) return false;
+        for (Entry entry : inFlight) {
+            String other = stateKey(entry.command);
+            if (other == null) continue;
+            if (key.equals("*") || other.equals("*") || key.equals(other)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the machine state a command changes.
+     * @param command Command text.
+     * @return Key shared by commands with the same effect, "*" for commands ordered against all others,
+     * or null for read-only commands.
+     */
+    private static String stateKey(String command) {
+        if (command.startsWith("GET_")) return null;
+        if (command.startsWith("SET_TEMP") && command.indexOf(':') > 0) {
+            return command.substring(0, command.indexOf(':')); // One key per heater zone
+        }
+        if (command.startsWith("SET_SPEED:")) return "SET_SPEED";
+        if (command.equals("START") || command.equals("STOP")) return "MOTOR";
+        return "*";
+    }
+
+    /**
+     * Returns whether a command is a status poll, which is never retransmitted.
+     * @param command Command text.
+     * @return true for GET_STATUS.
+     */
+    private static boolean isProbe(String command) {
+        return command.equals(Session.CMD_GET_STATUS);
+    }
+}
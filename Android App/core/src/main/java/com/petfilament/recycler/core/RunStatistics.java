@@ -0,0 +1,235 @@
+package com.petfilament.recycler.core;
+
+/**
+ * RunStatistics class is the summary of one extrusion run, from motor start to stop, updated one sample at a
+ * time (Welford's method for the temperature error, {@link QuantileSketch} for its tail, the speed and the
+ * filament diameter), so storing it never requires rescanning telemetry. Fields are public so they can be
+ * stored and restored column by column.
+ */
+public class RunStatistics {
+
+    /**
+     * Longest gap between two samples counted in full; longer gaps (lost samples) count as this long.
+     */
+    public static final long MAX_SAMPLE_GAP_MS = 2000;
+
+    /**
+     * Storage ID, -1 until stored.
+     */
+    public long id = -1;
+
+    /**
+     * Firmware boot number of the run.
+     */
+    public int boot;
+
+    /**
+     * Firmware tick of the first sample.
+     */
+    public long startTick;
+
+    /**
+     * Firmware tick of the latest sample.
+     */
+    public long endTick;
+
+    /**
+     * Wall-clock start time in milliseconds since the epoch.
+     */
+    public long startedAt;
+
+    /**
+     * Set once the motor stopped.
+     */
+    public boolean finished;
+
+    /**
+     * Text of the recipe running when the run started, null if none.
+     */
+    public String recipe;
+
+    /**
+     * Number of samples.
+     */
+    public long samples;
+
+    /**
+     * Mean temperature in °C.
+     */
+    public double meanTemperature;
+
+    /**
+     * Mean of temperature minus setpoint in °C.
+     */
+    public double meanError;
+
+    /**
+     * Sum of squared deviations of the error from its mean (Welford's M2).
+     */
+    public double errorM2;
+
+    /**
+     * Smallest temperature minus setpoint in °C.
+     */
+    public double minError = Double.NaN;
+
+    /**
+     * Largest temperature minus setpoint in °C.
+     */
+    public double maxError = Double.NaN;
+
+    /**
+     * Distribution of temperature minus setpoint in °C.
+     */
+    public QuantileSketch errorSketch = new QuantileSketch();
+
+    /**
+     * Distribution of the sampled motor speed in steps/s.
+     */
+    public QuantileSketch speedSketch = new QuantileSketch();
+
+    /**
+     * Distribution of the streamed filament diameter in mm; empty without a diameter sensor.
+     */
+    public QuantileSketch diameterSketch = new QuantileSketch();
+
+    /**
+     * Time with the temperature within the tolerance of the setpoint, in milliseconds.
+     */
+    public long withinToleranceMillis;
+
+    /**
+     * Stepper steps, integrated from the sampled speed.
+     */
+    public double steps;
+
+    /**
+     * Speed of the latest sample, credited for the time until the next one.
+     */
+    public int latestSpeed;
+
+    /**
+     * Whether the latest sample was within tolerance.
+     */
+    public boolean latestWithin;
+
+    /**
+     * Adds one sample. The time since the previous sample is credited at the previous sample's speed.
+     * @param sample Sample of this run.
+     * @param setTemperature Setpoint in effect, °C.
+     * @param tolerance Tolerance for the in-tolerance time, °C.
+     */
+    public void add(TelemetrySample sample, float setTemperature, float tolerance) {
+        double error = sample.temperature - setTemperature;
+        if (samples > 0) {
+            long dt = Math.min(MAX_SAMPLE_GAP_MS, Math.max(0, sample.tick - endTick));
+            steps += latestSpeed * dt / 1000.0;
+            if (latestWithin) withinToleranceMillis += dt;
+        } else {
+            startTick = sample.tick;
+            minError = error;
+            maxError = error;
+        }
+        samples++;
+        meanTemperature += (sample.temperature - meanTemperature) / samples;
+        double delta = error - meanError;
+        meanError += delta / samples;
+        errorM2 += delta * (error - meanError);
+        minError = Math.min(minError, error);
+        maxError = Math.max(maxError, error);
+        errorSketch.add(error);
+        speedSketch.add(sample.speed);
+        endTick = sample.tick;
+        latestSpeed = sample.speed;
+        latestWithin = Math.abs(error) <= tolerance;
+    }
+
+    /**
+     * Adds one filament diameter reading.
+     * @param diameter Diameter in mm.
+     */
+    public void addDiameter(double diameter) {
+        diameterSketch.add(diameter);
+    }
+
+    /**
+     * Returns a percentile of the filament diameter.
+     * @param percentile Percentile, 0-100.
+     * @return Diameter in mm, NaN if no reading arrived during the run.
+     */
+    public double getDiameterPercentile(double percentile) {
+        return diameterSketch.quantile(percentile / 100);
+    }
+
+    /**
+     * Returns the run duration.
+     * @return Milliseconds from the first to the latest sample.
+     */
+    public long getDurationMillis() {
+        return endTick - startTick;
+    }
+
+    /**
+     * Returns the standard deviation of temperature minus setpoint.
+     * @return Population standard deviation in °C, 0 with fewer than two samples.
+     */
+    public double getErrorStdDev() {
+        return samples > 1 ? Math.sqrt(errorM2 / samples) : 0;
+    }
+
+    /**
+     * Returns a percentile of the deviation from the setpoint regardless of sign.
+     * @param percentile Percentile, 0-100.
+     * @return Deviation in °C, NaN for an empty run.
+     */
+    public double getDeviationPercentile(double percentile) {
+        return errorSketch.absolute().quantile(percentile / 100);
+    }
+
+    /**
+     * Returns the share of the run spent within tolerance.
+     * @return Percent, 0 for an empty run.
+     */
+    public double getWithinTolerancePercent() {
+        long duration = getDurationMillis();
+        return duration > 0 ? 100.0 * withinToleranceMillis / duration : 0;
+    }
+
+    /**
+     * Returns the filament length pulled.
+     * @param millimetresPerStep Filament per stepper step, mm.
+     * @return Length in metres.
+     */
+    public double getFilamentMetres(double millimetresPerStep) {
+        return steps * millimetresPerStep / 1000.0;
+    }
+
+    /**
+     * Returns an independent copy, safe to hand to another thread.
+     * @return Copy of these statistics.
+     */
+    public RunStatistics copy() {
+        RunStatistics copy = new RunStatistics();
+        copy.id = id;
+        copy.boot = boot;
+        copy.startTick = startTick;
+        copy.endTick = endTick;
+        copy.startedAt = startedAt;
+        copy.finished = finished;
+        copy.recipe = recipe;
+        copy.samples = samples;
+        copy.meanTemperature = meanTemperature;
+        copy.meanError = meanError;
+        copy.errorM2 = errorM2;
+        copy.minError = minError;
+        copy.maxError = maxError;
+        copy.errorSketch = errorSketch.copy();
+        copy.speedSketch = speedSketch.copy();
+        copy.diameterSketch = diameterSketch.copy();
+        copy.withinToleranceMillis = withinToleranceMillis;
+        copy.steps = steps;
+        copy.latestSpeed = latestSpeed;
+        copy.latestWithin = latestWithin;
+        return copy;
+    }
+}
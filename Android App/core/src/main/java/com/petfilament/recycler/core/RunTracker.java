@@ -0,0 +1,117 @@
+package com.petfilament.recycler.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RunTracker class splits the backfilled sample stream into runs and keeps their {@link RunStatistics} current.
+ * A run starts with the first sample whose motor speed is non-zero and ends with the first one at zero, so it
+ * follows START/STOP from the app as well as the board's button; a board reset also ends it. Because it works
+ * on firmware samples, runs recorded while the app was away are summarized once they are backfilled.
+ * Not thread-safe; feed it from one thread.
+ */
+public class RunTracker {
+
+    /**
+     * Tolerance for the in-tolerance time, °C.
+     */
+    private final float tolerance;
+
+    /**
+     * Run in progress, null while the motor is stopped.
+     */
+    private RunStatistics current;
+
+    /**
+     * Recipe text given to runs that start from now on, null if none.
+     */
+    private String recipe;
+
+    /**
+     * Constructor.
+     * @param tolerance Tolerance for the in-tolerance time, °C.
+     */
+    public RunTracker(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Continues a stored run that had not finished, e.g. after an app restart.
+     * @param run Stored run.
+     */
+    public void resume(RunStatistics run) {
+        current = run.copy();
+    }
+
+    /**
+     * Sets the recipe that runs starting from now on are attributed to.
+     * @param recipe Recipe text, or null if no recipe is running.
+     */
+    public void setRecipe(String recipe) {
+        this.recipe = recipe;
+    }
+
+    /**
+     * Adds a batch of samples.
+     * @param samples Samples in sequence order.
+     * @param setTemperature Setpoint in effect, °C.
+     * @param nowMillis Current wall-clock time, used to date a run by its ticks relative to the newest sample.
+     * @return Copies of the runs that changed, in order; finished ones have {@link RunStatistics#finished} set.
+     */
+    public List<RunStatistics> accept(List<TelemetrySample> samples, float setTemperature, long nowMillis) {
+        List<RunStatistics> changed = new ArrayList<>();
+        if (samples.isEmpty()) return changed;
+        long newestTick = samples.get(samples.size() - 1).tick;
+        for (TelemetrySample sample : samples) {
+            if (current != null && (sample.boot != current.boot || sample.tick < current.endTick)) {
+                // The board restarted, which stops the motor
+                current.finished = true;
+                changed.add(current.copy());
+                current = null;
+            }
+            if (current == null) {
+                if (sample.speed == 0) continue;
+                current = new RunStatistics();
+                current.boot = sample.boot;
+                current.recipe = recipe;
+                current.startedAt = nowMillis - Math.max(0, newestTick - sample.tick);
+            }
+            current.add(sample, setTemperature, tolerance);
+            if (sample.speed == 0) {
+                current.finished = true;
+                changed.add(current.copy());
+                current = null;
+            }
+        }
+        if (current != null) changed.add(current.copy());
+        return changed;
+    }
+
+    /**
+     * Adds a filament diameter reading to the run in progress. Runs open with the backfilled samples, so
+     * readings that arrive before the first sample of a run are not counted.
+     * @param diameter Diameter in mm.
+     * @return true if a run was in progress.
+     */
+    public boolean acceptDiameter(double diameter) {
+        if (current == null) return false;
+        current.addDiameter(diameter);
+        return true;
+    }
+
+    /**
+     * Records the storage ID of the run in progress, returned with it from then on.
+     * @param id Storage ID.
+     */
+    public void setCurrentId(long id) {
+        if (current != null) current.id = id;
+    }
+
+    /**
+     * Returns the run in progress.
+     * @return Copy of the run, or null while the motor is stopped.
+     */
+    public RunStatistics getCurrent() {
+        return current == null ? null : current.copy();
+    }
+}
@@ -0,0 +1,504 @@
+package com.petfilament.recycler.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Session class is the connection state machine between the app and one extruder.
+ * Transports report link events (connecting, connected, bytes, disconnected); the session decodes lines,
+ * keeps the {@link TelemetryModel} current, backfills the firmware's sample history through {@link TelemetrySync},
+ * keeps the cached {@link MachineConfig} in step with the board (asking for the whole config only when
+ * the version differs) and hands outbound commands to the transport's writer through a {@link ReliableCommandChannel}, which numbers,
+ * acknowledges and retransmits them.
+ * Received bytes must come from a single reader thread; the other methods are thread-safe.
+ */
+public class Session {
+
+    /**
+     * Connection state.
+     */
+    public enum State {
+        /**
+         * No link.
+         */
+        DISCONNECTED,
+        /**
+         * Link being opened.
+         */
+        CONNECTING,
+        /**
+         * Link open; commands are accepted.
+         */
+        CONNECTED
+    }
+
+    /**
+     * Interface for session events, called on the thread that reported the link event.
+     */
+    public interface Listener {
+        /**
+         * Called when the connection state changes.
+         * @param state New state.
+         * @param detail Target address when connecting, reason when disconnected, otherwise null.
+         */
+        void onStateChanged(State state, String detail);
+
+        /**
+         * Called for every line received from the machine.
+         * @param line Line without terminator.
+         * @param kind Parsed kind of the line.
+         */
+        void onLine(String line, ProtocolParser.Kind kind);
+
+        /**
+         * Called after a line changed the telemetry model.
+         * @param telemetry Snapshot of the model.
+         */
+        void onTelemetry(TelemetryModel telemetry);
+
+        /**
+         * Called with the samples decoded from one backfill frame.
+         * @param samples Samples in sequence order.
+         */
+        default void onSamples(List<TelemetrySample> samples) {
+        }
+
+        /**
+         * Called when a command got no reply after all retries.
+         * @param command Command text.
+         */
+        default void onCommandFailed(String command) {
+        }
+
+        /**
+         * Called when the machine config was received or changed by an acknowledged setpoint.
+         * @param config Copy of the config.
+         */
+        default void onConfig(MachineConfig config) {
+        }
+
+        /**
+         * Called with each loop-timing profile the board reports.
+         * @param report Report.
+         */
+        default void onPerf(PerfReport report) {
+        }
+
+        /**
+         * Called with each averaged raw thermistor reading requested for calibration.
+         * @param adc ADC value, fractional.
+         */
+        default void onAdc(double adc) {
+        }
+
+        /**
+         * Called with each filament diameter reading the firmware streams while the motor runs.
+         * @param diameter Diameter in mm.
+         */
+        default void onDiameter(double diameter) {
+        }
+    }
+
+    /**
+     * Longest line accepted from the firmware.
+     */
+    private static final int MAX_LINE_LENGTH = 256;
+
+    /**
+     * Maximum number of queued commands.
+     */
+    private static final int QUEUE_CAPACITY = 32;
+
+    /**
+     * Maximum number of numbered commands awaiting a reply.
+     */
+    private static final int WINDOW = 4;
+
+    /**
+     * Retransmissions before a command is reported as failed.
+     */
+    private static final int MAX_RETRIES = 4;
+
+    /**
+     * How often timed-out commands are checked for, by the writer while idle or by {@link #retransmit()}'s
+     * caller, in milliseconds.
+     */
+    public static final long RETRANSMIT_CHECK_MS = 50;
+
+    /**
+     * Command that requests a status report.
+     */
+    public static final String CMD_GET_STATUS = "GET_STATUS";
+
+    /**
+     * Acknowledgement of SET_TEMP, followed by the zone number for zones other than 0, " set to " and the new
+     * setpoint.
+     */
+    private static final String ACK_TEMP = "OK: Temp";
+
+    /**
+     * Text between the zone and the value of {@link #ACK_TEMP}.
+     */
+    private static final String ACK_TEMP_VALUE = " set to ";
+
+    /**
+     * Acknowledgement of SET_SPEED, followed by the new speed.
+     */
+    private static final String ACK_SPEED = "OK: Speed set to ";
+
+    /**
+     * Receiver of session events.
+     */
+    private final Listener listener;
+
+    /**
+     * Line decoder, owned by the reader thread.
+     */
+    private final FrameCodec codec = new FrameCodec(MAX_LINE_LENGTH);
+
+    /**
+     * Line parser.
+     */
+    private final ProtocolParser parser = new ProtocolParser();
+
+    /**
+     * Latest machine state, owned by the reader thread.
+     */
+    private final TelemetryModel telemetry = new TelemetryModel();
+
+    /**
+     * Outbound commands waiting for the writer.
+     */
+    private final CommandQueue commandQueue = new CommandQueue(QUEUE_CAPACITY);
+
+    /**
+     * Numbering, acknowledgement and retransmission of commands.
+     */
+    private final ReliableCommandChannel channel = new ReliableCommandChannel(WINDOW, QUEUE_CAPACITY, MAX_RETRIES);
+
+    /**
+     * Keeps frames from concurrent pumps in order.
+     */
+    private final Object pumpLock = new Object();
+
+    /**
+     * Telemetry backfill state.
+     */
+    private final TelemetrySync telemetrySync = new TelemetrySync();
+
+    /**
+     * Current connection state.
+     */
+    private volatile State state = State.DISCONNECTED;
+
+    /**
+     * Address of the current or last target.
+     */
+    private volatile String target;
+
+    /**
+     * Machine config as last known, from the cache or the board; null if unknown.
+     */
+    private volatile MachineConfig config;
+
+    /**
+     * Constructor.
+     * @param listener Receiver of session events.
+     */
+    public Session(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reports that a link to the target is being opened.
+     * @param target Target address.
+     */
+    public synchronized void connecting(String target) {
+        this.target = target;
+        commandQueue.clear();
+        channel.reset();
+        setState(State.CONNECTING, target);
+    }
+
+    /**
+     * Reports that the link is open, requests the machine status and config version and starts catching up
+     * on telemetry.
+     */
+    public synchronized void connected() {
+        if (state != State.CONNECTING) return;
+        codec.reset();
+        setState(State.CONNECTED, null);
+        send(CMD_GET_STATUS);
+        send(MachineConfig.CMD_GET_CFG_VER);
+        requestSync();
+    }
+
+    /**
+     * Reports that the link closed or could not be opened. Queued and in-flight commands are dropped.
+     * @param reason Reason shown to the user.
+     */
+    public synchronized void disconnected(String reason) {
+        channel.reset();
+        commandQueue.clear();
+        telemetrySync.cancel();
+        if (state == State.DISCONNECTED) return;
+        setState(State.DISCONNECTED, reason);
+    }
+
+    /**
+     * Queues a command; it is numbered and handed to the writer as soon as the window allows.
+     * @param command Command text.
+     * @return false if not connected or the queue is full.
+     */
+    public boolean send(String command) {
+        if (state != State.CONNECTED || !channel.submit(command)) return false;
+        pump();
+        return true;
+    }
+
+    /**
+     * Returns a sink that hands each command to {@link #send} on an event loop, for runners ticking on other
+     * threads while the loop owns the session. On the loop it sends at once; elsewhere it queues the command
+     * and returns false only while not connected, so a command the full queue refuses later is dropped.
+     * @param loop Loop owning the session.
+     * @return Command sink.
+     */
+    public RecipeRunner.CommandSink sinkOn(EventLoop loop) {
+        return command -> {
+            if (loop.inLoop()) return send(command);
+            if (state != State.CONNECTED) return false;
+            loop.execute(() -> send(command));
+            return true;
+        };
+    }
+
+    /**
+     * Retransmits timed-out commands and reports abandoned ones. Transports whose writer takes from
+     * {@link #getCommandQueue()} directly call it every {@link #RETRANSMIT_CHECK_MS} on the thread owning the
+     * session instead.
+     */
+    public void retransmit() {
+        pump();
+    }
+
+    /**
+     * Takes the next command for the writer, retransmitting timed-out ones while waiting.
+     * This is what transports should call instead of taking from {@link #getCommandQueue()} directly, unless
+     * they call {@link #retransmit()} themselves.
+     * @return Command text as it goes on the wire (without terminator).
+     * @throws InterruptedException If the writer thread is interrupted.
+     */
+    public String takeCommand() throws InterruptedException {
+        while (true) {
+            String command = commandQueue.poll(RETRANSMIT_CHECK_MS);
+            if (command != null) return command;
+            pump();
+        }
+    }
+
+    /**
+     * Requests the samples recorded since the last backfill, unless a request is still being answered.
+     * Call periodically while connected to keep the history current.
+     * @return true if a request was queued.
+     */
+    public boolean requestSync() {
+        if (state != State.CONNECTED) return false;
+        String command = telemetrySync.request(System.nanoTime());
+        if (command == null) return false;
+        if (commandQueue.offer(command)) return true;
+        telemetrySync.cancel();
+        return false;
+    }
+
+    /**
+     * Feeds bytes received from the machine. Call from the reader thread only.
+     * @param data Received bytes.
+     * @param length Number of bytes.
+     */
+    public void receive(byte[] data, int length) {
+        codec.decode(data, 0, length, this::handleLine);
+    }
+
+    /**
+     * Sets the config cached for the target, checked against the board's version once connected.
+     * @param config Cached config, or null if none.
+     */
+    public void setConfig(MachineConfig config) {
+        this.config = config == null ? null : config.copy();
+    }
+
+    /**
+     * Returns the machine config as last known.
+     * @return Copy of the config, or null if unknown.
+     */
+    public MachineConfig getConfig() {
+        MachineConfig current = config;
+        return current == null ? null : current.copy();
+    }
+
+    /**
+     * Returns whether every queued command has been answered or given up.
+     * @return true if no command is waiting or in flight.
+     */
+    public boolean isIdle() {
+        return channel.isIdle();
+    }
+
+    /**
+     * Returns the link statistics of the command channel.
+     * @return Snapshot of the statistics.
+     */
+    public LinkStats getLinkStats() {
+        return channel.getStats();
+    }
+
+    /**
+     * Returns the queue of commands ready to be written, filled by {@link #send} and the retransmission timer.
+     * @return Command queue.
+     */
+    public CommandQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    /**
+     * Returns the telemetry backfill state, e.g. to resume after stored samples.
+     * @return Telemetry sync.
+     */
+    public TelemetrySync getTelemetrySync() {
+        return telemetrySync;
+    }
+
+    /**
+     * Returns the connection state.
+     * @return State.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the address of the current or last target.
+     * @return Target address, or null.
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Parses a line and notifies the listener.
+     * @param line Line without terminator.
+     */
+    private void handleLine(String line) {
+        String reply = channel.acknowledge(line, System.nanoTime());
+        if (reply != line) {
+            // A reply frees a window slot
+            line = reply;
+            pump();
+        }
+        ProtocolParser.Kind kind = parser.parse(line, telemetry);
+        listener.onLine(line, kind);
+        if (kind == ProtocolParser.Kind.SYNC) {
+            List<TelemetrySample> samples = new ArrayList<>();
+            telemetrySync.accept(line, samples);
+            if (!samples.isEmpty()) listener.onSamples(samples);
+            return;
+        }
+        if (kind == ProtocolParser.Kind.CONFIG) {
+            handleConfig(line);
+            return;
+        }
+        if (kind == ProtocolParser.Kind.PERF) {
+            PerfReport report = PerfReport.parse(line);
+            if (report != null) listener.onPerf(report);
+            return;
+        }
+        if (kind == ProtocolParser.Kind.ADC) {
+            double adc = CalibrationTable.parseAdc(line);
+            if (!Double.isNaN(adc)) listener.onAdc(adc);
+            return;
+        }
+        if (kind == ProtocolParser.Kind.DIAMETER) {
+            double diameter = DiameterController.parse(line);
+            if (!Double.isNaN(diameter)) listener.onDiameter(diameter);
+            return;
+        }
+        if (kind == ProtocolParser.Kind.ACK) {
+            followSetpoint(line);
+            return;
+        }
+        if (kind == ProtocolParser.Kind.STATUS || kind == ProtocolParser.Kind.TELEMETRY) {
+            listener.onTelemetry(telemetry.copy());
+        }
+    }
+
+    /**
+     * Compares a reported config version with the cached one, fetching the config if they differ,
+     * or stores a received config.
+     * @param line "CFG_VER:..." or "CONFIG:..." line.
+     */
+    private void handleConfig(String line) {
+        if (line.startsWith(MachineConfig.VERSION_PREFIX)) {
+            String version = line.substring(MachineConfig.VERSION_PREFIX.length()).trim();
+            MachineConfig current = config;
+            if (current == null || !current.version.equals(version)) send(MachineConfig.CMD_GET_CONFIG);
+            return;
+        }
+        MachineConfig received = MachineConfig.parse(line);
+        if (received == null) return;
+        config = received;
+        listener.onConfig(received.copy());
+    }
+
+    /**
+     * Applies an acknowledged setpoint change to the cached config, so its version stays that of the board.
+     * @param line "OK: ..." reply.
+     */
+    private void followSetpoint(String line) {
+        MachineConfig current = config;
+        if (current == null) return;
+        MachineConfig updated;
+        try {
+            int value = line.indexOf(ACK_TEMP_VALUE);
+            if (line.startsWith(ACK_TEMP) && value >= ACK_TEMP.length()) {
+                int zone = value == ACK_TEMP.length() ? 0 : Integer.parseInt(line.substring(ACK_TEMP.length(), value));
+                float temperature = Float.parseFloat(line.substring(value + ACK_TEMP_VALUE.length()).trim());
+                updated = current.withSetTemperature(zone, temperature);
+            } else if (line.startsWith(ACK_SPEED)) {
+                updated = current.withMaxSpeed(Integer.parseInt(line.substring(ACK_SPEED.length()).trim()));
+            } else {
+                return;
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        config = updated;
+        listener.onConfig(updated.copy());
+    }
+
+    /**
+     * Moves commands the channel releases (new or retransmitted) to the writer's queue and reports abandoned ones.
+     */
+    private void pump() {
+        List<String> frames = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        synchronized (pumpLock) {
+            channel.pump(System.nanoTime(), frames, failed);
+            for (String frame : frames) {
+                commandQueue.offer(frame);
+            }
+        }
+        for (String command : failed) {
+            listener.onCommandFailed(command);
+        }
+    }
+
+    /**
+     * Changes the state and notifies the listener.
+     * @param newState New state.
+     * @param detail Detail passed to the listener.
+     */
+    private void setState(State newState, String detail) {
+        state = newState;
+        listener.onStateChanged(newState, detail);
+    }
+}
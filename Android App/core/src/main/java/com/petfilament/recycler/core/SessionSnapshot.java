@@ -0,0 +1,456 @@
+package com.petfilament.recycler.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SessionSnapshot class mirrors the live session into a small memory-mapped file so the screen can be
+ * restored right after the process was killed in the background: the connection target, the latest status,
+ * the setpoints, the run in progress, the recipe progress and a ring of the latest backfilled samples.
+ * <p>
+ * The file has a fixed, versioned layout of one section per writer, each guarded by a sequence number that
+ * is odd while the section is being written, so a write cut short by the process dying drops that section
+ * on {@link #read()} instead of restoring half of it. Writes are plain stores into the mapping with no
+ * allocation and no system call; the kernel writes the pages back on its own, which survives the process
+ * but not a power loss, hence nothing is forced. A file with another magic, version or layout is cleared.
+ * Methods are synchronized.
+ */
+public final class SessionSnapshot implements Closeable {
+
+    /**
+     * File magic, "PFSS" little-endian.
+     */
+    public static final int MAGIC = 0x53534650;
+
+    /**
+     * Layout version; bump it whenever a section changes.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Samples kept in the ring, as many as a chart shows.
+     */
+    public static final int RING_CAPACITY = 120;
+
+    /**
+     * Longest connection target kept, in chars; a MAC address has 17.
+     */
+    public static final int MAX_TARGET_LENGTH = 32;
+
+    /**
+     * Longest machine status kept, in chars; longer ones are cut.
+     */
+    public static final int MAX_STATUS_LENGTH = 32;
+
+    /**
+     * Offset of the connection section: seq, reconnect flag, target.
+     */
+    private static final int CONNECTION = 16;
+
+    /**
+     * Offset of the status section: seq, save time, zones, temperatures, speed, machine status.
+     */
+    private static final int STATUS = CONNECTION + 12 + 2 * MAX_TARGET_LENGTH;
+
+    /**
+     * Offset of the setpoint section: seq, present flag, zones, temperatures, speed.
+     */
+    private static final int SETPOINTS = STATUS + 24 + 4 * TelemetrySample.MAX_ZONES + 2 * MAX_STATUS_LENGTH;
+
+    /**
+     * Offset of the run section: seq, present flag, then the scalar fields of {@link RunStatistics}.
+     */
+    private static final int RUN = SETPOINTS + 16 + 4 * TelemetrySample.MAX_ZONES;
+
+    /**
+     * Offset of the recipe section: seq, present flag, then the fields of {@link RecipeRunner.Progress}.
+     */
+    private static final int RECIPE = RUN + 120;
+
+    /**
+     * Offset of the ring section: seq, head, size, then the rows.
+     */
+    private static final int RING = RECIPE + 32;
+
+    /**
+     * Offset of the first ring row.
+     */
+    private static final int ROWS = RING + 12;
+
+    /**
+     * Size of a ring row: boot, seq, tick, speed, zones, then a temperature and a duty per zone.
+     */
+    private static final int ROW_SIZE = 28 + 5 * TelemetrySample.MAX_ZONES;
+
+    /**
+     * Size of the file.
+     */
+    public static final int SIZE = ROWS + ROW_SIZE * RING_CAPACITY;
+
+    /**
+     * SessionSnapshot.State class is what {@link #read()} recovered; sections that were never written or
+     * were torn are null or empty.
+     */
+    public static final class State {
+
+        /**
+         * Address of the last device connected to, null if none.
+         */
+        public String target;
+
+        /**
+         * Whether the link to {@link #target} was up, or dropped without being closed, when last written, so
+         * it should be reopened.
+         */
+        public boolean reconnect;
+
+        /**
+         * Wall-clock time of the latest status, in milliseconds since the epoch; 0 if none.
+         */
+        public long savedAt;
+
+        /**
+         * Latest status, null if none.
+         */
+        public TelemetryModel telemetry;
+
+        /**
+         * Temperature setpoints per zone, null if none were written.
+         */
+        public float[] setTemperatures;
+
+        /**
+         * Speed setpoint.
+         */
+        public int maxSpeed;
+
+        /**
+         * Run in progress or last finished, without its sketches and recipe text, which stay in the run
+         * history; null if none.
+         */
+        public RunStatistics run;
+
+        /**
+         * Progress of the running recipe, null if none runs.
+         */
+        public RecipeRunner.Progress recipe;
+
+        /**
+         * Latest samples, oldest first.
+         */
+        public final List<TelemetrySample> samples = new ArrayList<>();
+    }
+
+    /**
+     * Mapping of the file.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * Position of the next ring row.
+     */
+    private int ringHead;
+
+    /**
+     * Rows in the ring.
+     */
+    private int ringSize;
+
+    /**
+     * Constructor. Maps the file, creating it or clearing it if its layout is not this one.
+     * @param file Snapshot file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public SessionSnapshot(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            boolean fits = raf.length() == SIZE;
+            if (!fits) raf.setLength(SIZE);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (!fits || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != TelemetrySample.MAX_ZONES || buffer.getInt(12) != RING_CAPACITY) {
+                for (int i = 0; i < SIZE; i++) buffer.put(i, (byte) 0);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, TelemetrySample.MAX_ZONES);
+                buffer.putInt(12, RING_CAPACITY);
+            }
+        }
+        if (isEven(RING)) {
+            ringHead = Math.floorMod(buffer.getInt(RING + 4), RING_CAPACITY);
+            ringSize = Math.max(0, Math.min(RING_CAPACITY, buffer.getInt(RING + 8)));
+        }
+    }
+
+    /**
+     * Records the connection target.
+     * @param target Device address, null for none.
+     * @param reconnect Whether the link should be reopened on restore.
+     */
+    public synchronized void writeConnection(String target, boolean reconnect) {
+        if (buffer == null) return;
+        begin(CONNECTION);
+        buffer.putInt(CONNECTION + 4, reconnect ? 1 : 0);
+        putString(CONNECTION + 8, target, MAX_TARGET_LENGTH);
+        end(CONNECTION);
+    }
+
+    /**
+     * Records the latest status.
+     * @param telemetry Status.
+     * @param nowMillis Wall-clock time in milliseconds since the epoch.
+     */
+    public synchronized void writeStatus(TelemetryModel telemetry, long nowMillis) {
+        if (buffer == null) return;
+        begin(STATUS);
+        buffer.putLong(STATUS + 4, nowMillis);
+        buffer.putInt(STATUS + 12, telemetry.zones);
+        buffer.putInt(STATUS + 16, telemetry.speed);
+        for (int zone = 0; zone < TelemetrySample.MAX_ZONES; zone++) {
+            buffer.putFloat(STATUS + 20 + 4 * zone, telemetry.temperatures[zone]);
+        }
+        putString(STATUS + 20 + 4 * TelemetrySample.MAX_ZONES, telemetry.machineStatus, MAX_STATUS_LENGTH);
+        end(STATUS);
+    }
+
+    /**
+     * Records the setpoints of a config.
+     * @param config Config, null to forget them.
+     */
+    public synchronized void writeSetpoints(MachineConfig config) {
+        if (buffer == null) return;
+        begin(SETPOINTS);
+        buffer.putInt(SETPOINTS + 4, config != null ? 1 : 0);
+        if (config != null) {
+            int zones = Math.min(config.getZoneCount(), TelemetrySample.MAX_ZONES);
+            buffer.putInt(SETPOINTS + 8, zones);
+            buffer.putInt(SETPOINTS + 12, config.maxSpeed);
+            for (int zone = 0; zone < zones; zone++) {
+                buffer.putFloat(SETPOINTS + 16 + 4 * zone, config.setTemperatures[zone]);
+            }
+        }
+        end(SETPOINTS);
+    }
+
+    /**
+     * Records the run in progress or just finished.
+     * @param run Run, null to forget it.
+     */
+    public synchronized void writeRun(RunStatistics run) {
+        if (buffer == null) return;
+        begin(RUN);
+        buffer.putInt(RUN + 4, run != null ? 1 : 0);
+        if (run != null) {
+            buffer.putLong(RUN + 8, run.id);
+            buffer.putInt(RUN + 16, run.boot);
+            buffer.putInt(RUN + 20, (run.finished ? 1 : 0) | (run.latestWithin ? 2 : 0));
+            buffer.putLong(RUN + 24, run.startTick);
+            buffer.putLong(RUN + 32, run.endTick);
+            buffer.putLong(RUN + 40, run.startedAt);
+            buffer.putLong(RUN + 48, run.samples);
+            buffer.putDouble(RUN + 56, run.meanTemperature);
+            buffer.putDouble(RUN + 64, run.meanError);
+            buffer.putDouble(RUN + 72, run.errorM2);
+            buffer.putDouble(RUN + 80, run.minError);
+            buffer.putDouble(RUN + 88, run.maxError);
+            buffer.putLong(RUN + 96, run.withinToleranceMillis);
+            buffer.putDouble(RUN + 104, run.steps);
+            buffer.putInt(RUN + 112, run.latestSpeed);
+        }
+        end(RUN);
+    }
+
+    /**
+     * Records the progress of the running recipe.
+     * @param progress Progress, null once no recipe runs.
+     */
+    public synchronized void writeRecipe(RecipeRunner.Progress progress) {
+        if (buffer == null) return;
+        begin(RECIPE);
+        buffer.putInt(RECIPE + 4, progress != null ? 1 : 0);
+        if (progress != null) {
+            buffer.putInt(RECIPE + 8, progress.step);
+            buffer.putInt(RECIPE + 12, progress.speed);
+            buffer.putLong(RECIPE + 16, progress.stepElapsedMillis);
+            buffer.putFloat(RECIPE + 24, progress.setTemperature);
+            buffer.putFloat(RECIPE + 28, progress.rampFrom);
+        }
+        end(RECIPE);
+    }
+
+    /**
+     * Appends samples to the ring, overwriting the oldest.
+     * @param samples Samples in sequence order.
+     */
+    public synchronized void appendSamples(List<TelemetrySample> samples) {
+        if (buffer == null || samples.isEmpty()) return;
+        begin(RING);
+        for (int i = Math.max(0, samples.size() - RING_CAPACITY); i < samples.size(); i++) {
+            TelemetrySample sample = samples.get(i);
+            int row = ROWS + ringHead * ROW_SIZE;
+            buffer.putInt(row, sample.boot);
+            buffer.putLong(row + 4, sample.seq);
+            buffer.putLong(row + 12, sample.tick);
+            buffer.putInt(row + 20, sample.speed);
+            buffer.putInt(row + 24, sample.getZoneCount());
+            for (int zone = 0; zone < sample.getZoneCount(); zone++) {
+                buffer.putFloat(row + 28 + 4 * zone, sample.getTemperature(zone));
+                buffer.put(row + 28 + 4 * TelemetrySample.MAX_ZONES + zone, (byte) sample.getDuty(zone));
+            }
+            ringHead = ringHead == RING_CAPACITY - 1 ? 0 : ringHead + 1;
+            if (ringSize < RING_CAPACITY) ringSize++;
+        }
+        buffer.putInt(RING + 4, ringHead);
+        buffer.putInt(RING + 8, ringSize);
+        end(RING);
+    }
+
+    /**
+     * Reads back every intact section.
+     * @return State; empty after {@link #close()}.
+     */
+    public synchronized State read() {
+        State state = new State();
+        if (buffer == null) return state;
+        if (isEven(CONNECTION)) {
+            state.target = getString(CONNECTION + 8, MAX_TARGET_LENGTH);
+            state.reconnect = state.target != null && buffer.getInt(CONNECTION + 4) == 1;
+        }
+        int zones = buffer.getInt(STATUS + 12);
+        if (isEven(STATUS) && zones >= 1 && zones <= TelemetrySample.MAX_ZONES) {
+            String status = getString(STATUS + 20 + 4 * TelemetrySample.MAX_ZONES, MAX_STATUS_LENGTH);
+            if (status != null) {
+                TelemetryModel telemetry = new TelemetryModel();
+                telemetry.zones = zones;
+                telemetry.speed = buffer.getInt(STATUS + 16);
+                for (int zone = 0; zone < TelemetrySample.MAX_ZONES; zone++) {
+                    telemetry.temperatures[zone] = buffer.getFloat(STATUS + 20 + 4 * zone);
+                }
+                telemetry.machineStatus = status;
+                state.telemetry = telemetry;
+                state.savedAt = buffer.getLong(STATUS + 4);
+            }
+        }
+        zones = buffer.getInt(SETPOINTS + 8);
+        if (isEven(SETPOINTS) && buffer.getInt(SETPOINTS + 4) == 1
+                && zones >= 1 && zones <= TelemetrySample.MAX_ZONES) {
+            state.setTemperatures = new float[zones];
+            for (int zone = 0; zone < zones; zone++) {
+                state.setTemperatures[zone] = buffer.getFloat(SETPOINTS + 16 + 4 * zone);
+            }
+            state.maxSpeed = buffer.getInt(SETPOINTS + 12);
+        }
+        if (isEven(RUN) && buffer.getInt(RUN + 4) == 1) {
+            RunStatistics run = new RunStatistics();
+            run.id = buffer.getLong(RUN + 8);
+            run.boot = buffer.getInt(RUN + 16);
+            int flags = buffer.getInt(RUN + 20);
+            run.finished = (flags & 1) != 0;
+            run.latestWithin = (flags & 2) != 0;
+            run.startTick = buffer.getLong(RUN + 24);
+            run.endTick = buffer.getLong(RUN + 32);
+            run.startedAt = buffer.getLong(RUN + 40);
+            run.samples = buffer.getLong(RUN + 48);
+            run.meanTemperature = buffer.getDouble(RUN + 56);
+            run.meanError = buffer.getDouble(RUN + 64);
+            run.errorM2 = buffer.getDouble(RUN + 72);
+            run.minError = buffer.getDouble(RUN + 80);
+            run.maxError = buffer.getDouble(RUN + 88);
+            run.withinToleranceMillis = buffer.getLong(RUN + 96);
+            run.steps = buffer.getDouble(RUN + 104);
+            run.latestSpeed = buffer.getInt(RUN + 112);
+            state.run = run;
+        }
+        if (isEven(RECIPE) && buffer.getInt(RECIPE + 4) == 1) {
+            state.recipe = new RecipeRunner.Progress(buffer.getInt(RECIPE + 8), buffer.getLong(RECIPE + 16),
+                    buffer.getFloat(RECIPE + 24), buffer.getInt(RECIPE + 12), buffer.getFloat(RECIPE + 28));
+        }
+        if (isEven(RING)) {
+            for (int i = 0; i < ringSize; i++) {
+                int row = ROWS + Math.floorMod(ringHead - ringSize + i, RING_CAPACITY) * ROW_SIZE;
+                zones = buffer.getInt(row + 24);
+                if (zones < 1 || zones > TelemetrySample.MAX_ZONES) continue;
+                float[] temperatures = new float[zones];
+                int[] duties = new int[zones];
+                for (int zone = 0; zone < zones; zone++) {
+                    temperatures[zone] = buffer.getFloat(row + 28 + 4 * zone);
+                    duties[zone] = buffer.get(row + 28 + 4 * TelemetrySample.MAX_ZONES + zone) & 0xFF;
+                }
+                state.samples.add(new TelemetrySample(buffer.getInt(row), buffer.getLong(row + 4),
+                        buffer.getLong(row + 12), buffer.getInt(row + 20), temperatures, duties));
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Unmaps the file; writes after this are ignored. The mapping is released by the garbage collector.
+     */
+    @Override
+    public synchronized void close() {
+        buffer = null;
+    }
+
+    /**
+     * Marks a section as being written.
+     * @param section Section offset.
+     */
+    private void begin(int section) {
+        buffer.putInt(section, buffer.getInt(section) | 1);
+    }
+
+    /**
+     * Marks a section as complete.
+     * @param section Section offset.
+     */
+    private void end(int section) {
+        buffer.putInt(section, buffer.getInt(section) + 1);
+    }
+
+    /**
+     * Returns whether a section was completely written.
+     * @param section Section offset.
+     * @return true if its sequence number is even.
+     */
+    private boolean isEven(int section) {
+        return (buffer.getInt(section) & 1) == 0;
+    }
+
+    /**
+     * Stores a string as its length plus one, 0 standing for none as in a fresh file, and UTF-16 chars, cut
+     * to a maximum length.
+     * @param offset Offset.
+     * @param text Text, null for none.
+     * @param maxLength Chars reserved.
+     */
+    private void putString(int offset, String text, int maxLength) {
+        if (text == null) {
+            buffer.putInt(offset, 0);
+            return;
+        }
+        int length = Math.min(text.length(), maxLength);
+        buffer.putInt(offset, length + 1);
+        for (int i = 0; i < length; i++) buffer.putChar(offset + 4 + 2 * i, text.charAt(i));
+    }
+
+    /**
+     * Reads a string stored by {@link #putString}.
+     * @param offset Offset.
+     * @param maxLength Chars reserved.
+     * @return Text, null if none was stored or the length is out of range.
+     */
+    private String getString(int offset, int maxLength) {
+        int length = buffer.getInt(offset) - 1;
+        if (length < 0 || length > maxLength) return null;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = buffer.getChar(offset + 4 + 2 * i);
+        return new String(chars);
+    }
+}
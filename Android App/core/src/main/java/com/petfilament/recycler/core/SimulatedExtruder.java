@@ -0,0 +1,1166 @@
+package com.petfilament.recycler.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * SimulatedExtruder class is an in-process stand-in for a board running Firmware_1.1.
+ * It answers the same serial commands with the same replies, and each of its heater zones follows the firmware
+ * PID loop ({@link FirmwarePid}) driving a {@link HeaterModel} plant through the thermistor ADC. Zone 0 is the
+ * nozzle; commands and accessors without a zone address it.
+ * It also stands in for the filament diameter sensor: the drawn diameter follows the pull speed (cross-section
+ * as 1/speed) and an optional feed variation, reaches the sensor {@link #DIAMETER_DELAY_MS} later and is
+ * streamed as "DIA:" lines after DIA_RATE, collected by {@link #takeOutput()}.
+ * Time is virtual: {@link #advance(long)} steps it explicitly, or {@link #open(double)} runs it on a
+ * background thread behind a byte-stream link, optionally faster than real time.
+ */
+public class SimulatedExtruder {
+
+    /**
+     * Default stepper speed (max_speed in the firmware), steps/s.
+     */
+    public static final int DEFAULT_MAX_SPEED = 1000;
+
+    /**
+     * Default temperature setpoint in °C.
+     */
+    public static final float DEFAULT_SET_TEMPERATURE = 200f;
+
+    /**
+     * Baud rate of Serial1; a link takes as long per byte as the real UART (10 bits per byte).
+     */
+    public static final int BAUD = 9600;
+
+    /**
+     * Telemetry ring size (RING_SIZE in the firmware).
+     */
+    public static final int RING_SIZE = 1024;
+
+    /**
+     * PID updates per recorded sample (SAMPLE_EVERY in the firmware).
+     */
+    public static final int SAMPLE_EVERY = 2;
+
+    /**
+     * Longest SYNC_DATA frame (SYNC_FRAME_MAX in the firmware); SYNC_CHUNK is derived from it.
+     */
+    private static final int SYNC_FRAME_MAX = 240;
+
+    /**
+     * Firmware version reported by GET_CONFIG (FIRMWARE_VERSION in the firmware).
+     */
+    public static final String FIRMWARE_VERSION = "1.1";
+
+    /**
+     * Diameter drawn at {@link #DIAMETER_REFERENCE_SPEED} without feed variation, mm.
+     */
+    public static final double DIAMETER_REFERENCE_MM = 1.75;
+
+    /**
+     * Speed drawing {@link #DIAMETER_REFERENCE_MM}, steps/s.
+     */
+    public static final int DIAMETER_REFERENCE_SPEED = 500;
+
+    /**
+     * Time the filament takes from the nozzle to the diameter sensor while the motor runs, in milliseconds.
+     */
+    public static final long DIAMETER_DELAY_MS = 1500;
+
+    /**
+     * Highest streaming rate (DIA_RATE_MAX in the firmware), Hz.
+     */
+    public static final int DIAMETER_RATE_MAX = 50;
+
+    /**
+     * Resolution of the diameter model, in milliseconds of virtual time.
+     */
+    private static final long DIAMETER_STEP_MS = 10;
+
+    /**
+     * Standard deviation of the sensor noise per reading, mm.
+     */
+    private static final double DIAMETER_NOISE_MM = 0.005;
+
+    /**
+     * Most characters of unsolicited output kept until taken; beyond it lines are dropped, as the firmware
+     * skips a reading when its transmit buffer is full.
+     */
+    private static final int OUTPUT_MAX = 4096;
+
+    /**
+     * Virtual time the link's clock advances per tick, in milliseconds; short enough to stream diameter
+     * readings as they are due.
+     */
+    private static final long LINK_TICK_MS = 50;
+
+    /**
+     * Modeled cost of a loop iteration without PID or LCD update, in microseconds.
+     */
+    private static final int LOOP_MICROS = 40;
+
+    /**
+     * Modeled cost of updatePIDAndHeater() (a log() and float PID), in microseconds.
+     */
+    private static final int PID_MICROS = 900;
+
+    /**
+     * Modeled cost of updateLCD() (two lines over 100 kHz I2C), in microseconds.
+     */
+    private static final int LCD_MICROS = 6000;
+
+    /**
+     * Modeled cost of handleBluetooth() with no command waiting, in microseconds.
+     */
+    private static final int BLUETOOTH_MICROS = 10;
+
+    /**
+     * Remembered replies of numbered commands (REPLY_CACHE_SIZE in the firmware).
+     */
+    private static final int REPLY_CACHE_SIZE = 8;
+
+    /**
+     * Zone class is one heater zone: its plant, the firmware control law driving it and its saved setpoint.
+     */
+    private static final class Zone {
+
+        /**
+         * Plant model.
+         */
+        final HeaterModel model;
+
+        /**
+         * Firmware control law.
+         */
+        final FirmwarePid pid = new FirmwarePid(FirmwarePid.FIRMWARE_KP, FirmwarePid.FIRMWARE_KI,
+                FirmwarePid.FIRMWARE_KD);
+
+        /**
+         * Plant decay factor per update.
+         */
+        final double decay;
+
+        /**
+         * Plant temperature rise per update at full duty.
+         */
+        final double rise;
+
+        /**
+         * Duty history acting as the dead-time delay line.
+         */
+        final float[] delay;
+
+        /**
+         * Next write position in the delay line.
+         */
+        int head;
+
+        /**
+         * True plant temperature in °C.
+         */
+        double plant;
+
+        /**
+         * Setpoint stored by SAVE, in °C.
+         */
+        float savedTemperature = DEFAULT_SET_TEMPERATURE;
+
+        /**
+         * Sum of the PWM values applied since the last sample.
+         */
+        float dutySum;
+
+        /**
+         * Constructor. The plant starts at ambient temperature.
+         * @param model Plant model.
+         */
+        Zone(HeaterModel model) {
+            this.model = model;
+            double dt = FirmwarePid.UPDATE_INTERVAL_MS / 1000.0;
+            this.decay = model.decay(dt);
+            this.rise = model.gain * (1 - decay);
+            this.delay = new float[model.deadSteps(dt) + 1];
+            this.plant = model.ambient;
+            pid.setSetTemperature(DEFAULT_SET_TEMPERATURE);
+        }
+    }
+
+    /**
+     * Heater zones, zone 0 first.
+     */
+    private final Zone[] zones;
+
+    /**
+     * Samples per SYNC_DATA frame (SYNC_CHUNK in the firmware).
+     */
+    private final int syncChunk;
+
+    /**
+     * Heat carried off by the extruded material: steady-state temperature drop per step/s of motor speed, °C.
+     */
+    private double extrusionLoad;
+
+    /**
+     * Drawn diameters on their way from the nozzle to the sensor, one per {@link #DIAMETER_STEP_MS}.
+     */
+    private final double[] diameterLine = new double[(int) (DIAMETER_DELAY_MS / DIAMETER_STEP_MS)];
+
+    /**
+     * Oldest entry of {@link #diameterLine}, the one under the sensor.
+     */
+    private int diameterHead;
+
+    /**
+     * Virtual time of the last diameter model step.
+     */
+    private long lastDiameterMillis;
+
+    /**
+     * Relative amplitude of the feed variation, e.g. 0.05 for a strip whose cross-section varies ±5%.
+     */
+    private double feedVariation;
+
+    /**
+     * Period of the feed variation in milliseconds.
+     */
+    private long feedPeriodMillis = 1;
+
+    /**
+     * Sensor noise source, seeded so runs repeat.
+     */
+    private final Random sensorNoise = new Random(1);
+
+    /**
+     * Diameter streaming rate (diaRateHz in the firmware), 0 when off.
+     */
+    private int diameterRateHz;
+
+    /**
+     * Sum of the sensor readings since the last streamed one, mm.
+     */
+    private double diameterSum;
+
+    /**
+     * Sensor readings since the last streamed one.
+     */
+    private int diameterCount;
+
+    /**
+     * Virtual time of the last streamed reading.
+     */
+    private long diameterSentMillis;
+
+    /**
+     * Unsolicited lines not taken yet, each ended by "\r\n".
+     */
+    private final StringBuilder output = new StringBuilder();
+
+    /**
+     * Stepper speed setting, steps/s.
+     */
+    private int maxSpeed = DEFAULT_MAX_SPEED;
+
+    /**
+     * Whether the stepper runs.
+     */
+    private boolean activateStepper;
+
+    /**
+     * Speed stored by SAVE.
+     */
+    private int savedSpeed = DEFAULT_MAX_SPEED;
+
+    /**
+     * Ring sample times in ms.
+     */
+    private final long[] ringTick = new long[RING_SIZE];
+
+    /**
+     * Ring temperatures ×10, per zone.
+     */
+    private final short[][] ringTemp10;
+
+    /**
+     * Ring stepper speeds.
+     */
+    private final int[] ringSpeed = new int[RING_SIZE];
+
+    /**
+     * Ring heater PWM values, per zone.
+     */
+    private final int[][] ringDuty;
+
+    /**
+     * Sequence number of the next sample.
+     */
+    private long nextSeq;
+
+    /**
+     * PID updates since the last sample.
+     */
+    private int sampleDivider;
+
+    /**
+     * Boot number, incremented by {@link #reset()}.
+     */
+    private int bootId;
+
+    /**
+     * Sequence numbers of remembered replies, -1 for empty slots.
+     */
+    private final long[] cachedSeq = new long[REPLY_CACHE_SIZE];
+
+    /**
+     * Commands of remembered replies (the firmware keeps a CRC16 of them).
+     */
+    private final String[] cachedCommand = new String[REPLY_CACHE_SIZE];
+
+    /**
+     * Remembered replies.
+     */
+    private final String[] cachedReply = new String[REPLY_CACHE_SIZE];
+
+    /**
+     * Next reply cache slot to overwrite.
+     */
+    private int cacheNext;
+
+    /**
+     * Virtual time in milliseconds.
+     */
+    private long clockMillis;
+
+    /**
+     * Calibration table area of the EEPROM, written chunk by chunk during an upload.
+     */
+    private final byte[] calibrationStage = new byte[CalibrationTable.BYTES];
+
+    /**
+     * Whether a calibration upload was started.
+     */
+    private boolean calibrationReceiving;
+
+    /**
+     * Calibration table valid in the EEPROM, loaded on reset; null when there is none.
+     */
+    private CalibrationTable savedCalibration;
+
+    /**
+     * Virtual time of the last PID update.
+     */
+    private long lastUpdateMillis;
+
+    /**
+     * Virtual time of the last GET_PERF, when the profiler was reset.
+     */
+    private long perfSinceMillis;
+
+    /**
+     * Constructor. The plants start at ambient temperature.
+     * @param models Plant model of each heater zone, zone 0 first.
+     * @throws IllegalArgumentException If there are no zones or more than {@link TelemetrySample#MAX_ZONES}.
+     */
+    public SimulatedExtruder(HeaterModel... models) {
+        if (models.length < 1 || models.length > TelemetrySample.MAX_ZONES) {
+            throw new IllegalArgumentException("Need 1 to " + TelemetrySample.MAX_ZONES + " zones");
+        }
+        zones = new Zone[models.length];
+        for (int i = 0; i < models.length; i++) zones[i] = new Zone(models[i]);
+        ringTemp10 = new short[models.length][RING_SIZE];
+        ringDuty = new int[models.length][RING_SIZE];
+        // As SYNC_CHUNK: the Base64 of a frame leaves about 32 characters for the rest of the line
+        syncChunk = ((SYNC_FRAME_MAX - 32) * 3 / 4 - 2) / TelemetrySample.wireSize(models.length);
+        Arrays.fill(diameterLine, DIAMETER_REFERENCE_MM);
+        Arrays.fill(cachedSeq, -1);
+    }
+
+    /**
+     * Handles one command as handleBluetooth() does. A numbered command ("#&lt;seq&gt;:...") gets a numbered reply,
+     * and a repeated one is answered from the reply cache without being applied again.
+     * @param command Command text, terminator optional.
+     * @return Reply without the final terminator; several lines for SYNC_FROM.
+     */
+    public synchronized String handleCommand(String command) {
+        command = command.trim();
+        long seq = -1;
+        if (command.startsWith(ReliableCommandChannel.SEQ_PREFIX)) {
+            int colon = command.indexOf(':');
+            if (colon < 0) return "ERROR: Unknown command";
+            seq = toLong(command.substring(1, colon));
+            command = command.substring(colon + 1);
+        }
+        if (seq < 0 || command.startsWith(TelemetrySync.CMD_SYNC_FROM)) return execute(command);
+        for (int i = 0; i < REPLY_CACHE_SIZE; i++) {
+            if (cachedSeq[i] == seq && cachedCommand[i].equals(command)) return "#" + seq + ":" + cachedReply[i];
+        }
+        String reply = execute(command);
+        if (!command.startsWith("GET_")) {
+            cachedSeq[cacheNext] = seq;
+            cachedCommand[cacheNext] = command;
+            cachedReply[cacheNext] = reply;
+            cacheNext = (cacheNext + 1) % REPLY_CACHE_SIZE;
+        }
+        return "#" + seq + ":" + reply;
+    }
+
+    /**
+     * Applies one command as executeCommand() does.
+     * @param command Command text without sequence number.
+     * @return Reply.
+     */
+    private String execute(String command) {
+        if (command.startsWith("SET_TEMP")) {
+            int colon = command.indexOf(':');
+            int zone = colon < 0 ? -1 : parseZone(command.substring(8, colon));
+            if (zone < 0) return "ERROR: Unknown command";
+            float newTemp = toFloat(command.substring(colon + 1));
+            if (newTemp >= 0 && newTemp <= 300) {
+                zones[zone].pid.setSetTemperature(newTemp);
+                return "OK: Temp" + zoneSuffix(zone) + " set to " + format(newTemp);
+            }
+            return "ERROR: Invalid temp";
+        } else if (command.startsWith("SET_SPEED:")) {
+            int newSpeed = (int) toFloat(command.substring(10));
+            if (newSpeed >= 0 && newSpeed <= 1000) {
+                maxSpeed = newSpeed;
+                return "OK: Speed set to " + newSpeed;
+            }
+            return "ERROR: Invalid speed";
+        } else if (command.equals("START")) {
+            activateStepper = true;
+            return "OK: Motor started";
+        } else if (command.equals("STOP")) {
+            activateStepper = false;
+            return "OK: Motor stopped";
+        } else if (command.equals("GET_STATUS")) {
+            return zoneTemperatures() + ",SPEED:" + getRotatingSpeed()
+                    + ",STATUS:" + (activateStepper ? "ON" : "OFF") + ",CONNECTED:yes";
+        } else if (command.equals("SAVE")) {
+            for (Zone zone : zones) zone.savedTemperature = zone.pid.getSetTemperature();
+            savedSpeed = maxSpeed;
+            return "OK: Settings saved";
+        } else if (command.equals(MachineConfig.CMD_GET_CFG_VER)) {
+            return MachineConfig.VERSION_PREFIX + getConfig().version;
+        } else if (command.equals(MachineConfig.CMD_GET_CONFIG)) {
+            return getConfig().toLine();
+        } else if (command.equals(PerfReport.CMD_GET_PERF)) {
+            return perf().toLine();
+        } else if (command.equals(CalibrationTable.CMD_GET_ADC)) {
+            return CalibrationTable.ADC_PREFIX + format(Thermistor.toAdc(zones[0].plant));
+        } else if (command.startsWith(DiameterController.CMD_RATE)) {
+            int rate = (int) toFloat(command.substring(DiameterController.CMD_RATE.length()));
+            if (rate >= 0 && rate <= DIAMETER_RATE_MAX) {
+                diameterRateHz = rate;
+                diameterSum = 0;
+                diameterCount = 0;
+                diameterSentMillis = clockMillis;
+                return "OK: Diameter rate " + rate;
+            }
+            return "ERROR: Invalid rate";
+        } else if (command.startsWith("CAL_")) {
+            return calibrate(command);
+        } else if (command.startsWith(TelemetrySync.CMD_SYNC_FROM)) {
+            return sync(command.substring(TelemetrySync.CMD_SYNC_FROM.length()));
+        }
+        return "ERROR: Unknown command";
+    }
+
+    /**
+     * Handles the calibration upload commands as the firmware does. The stepper must be stopped, since the
+     * board writes every chunk to EEPROM as it arrives.
+     * @param command CAL_BEGIN, CAL_DATA, CAL_END or CAL_CLEAR command.
+     * @return Reply.
+     */
+    private String calibrate(String command) {
+        if (command.equals(CalibrationTable.CMD_BEGIN)) {
+            if (activateStepper) return "ERROR: Stop motor before calibration";
+            // The stored table is invalidated first; the one in use stays until CAL_END
+            savedCalibration = null;
+            calibrationReceiving = true;
+            return "OK: Calibration started";
+        } else if (command.equals(CalibrationTable.CMD_CLEAR)) {
+            calibrationReceiving = false;
+            savedCalibration = null;
+            for (Zone zone : zones) zone.pid.setCalibration(null);
+            return "OK: Calibration cleared";
+        }
+        boolean data = command.startsWith(CalibrationTable.CMD_DATA);
+        if (!data && !command.startsWith(CalibrationTable.CMD_END)) return "ERROR: Unknown command";
+        if (!calibrationReceiving) return "ERROR: No calibration upload";
+        if (!data) {
+            int crc;
+            try {
+                crc = Integer.parseInt(command.substring(CalibrationTable.CMD_END.length()).trim(), 16);
+            } catch (NumberFormatException e) {
+                crc = -1;
+            }
+            if (crc != Crc16.compute(calibrationStage, 0, calibrationStage.length)) {
+                return "ERROR: Calibration checksum mismatch";
+            }
+            calibrationReceiving = false;
+            savedCalibration = CalibrationTable.fromBytes(calibrationStage);
+            for (Zone zone : zones) zone.pid.setCalibration(savedCalibration);
+            return "OK: Calibration saved";
+        }
+        String args = command.substring(CalibrationTable.CMD_DATA.length());
+        int comma = args.indexOf(',');
+        try {
+            int offset = comma > 0 ? (int) toLong(args.substring(0, comma)) : -1;
+            byte[] chunk = Base64Codec.decode(args, comma + 1, args.length());
+            if (offset < 0 || chunk.length > CalibrationTable.CHUNK_BYTES * 2
+                    || offset + chunk.length > calibrationStage.length) {
+                return "ERROR: Invalid calibration data";
+            }
+            System.arraycopy(chunk, 0, calibrationStage, offset, chunk.length);
+            return "OK: Calibration data " + offset;
+        } catch (IllegalArgumentException e) {
+            return "ERROR: Invalid calibration data";
+        }
+    }
+
+    /**
+     * Builds the loop profile since the last report from fixed modeled costs and resets it, as perfReport()
+     * does. Only the report path is simulated; the numbers say nothing about a real board.
+     * @return Report.
+     */
+    private PerfReport perf() {
+        PerfReport report = new PerfReport();
+        report.windowMillis = clockMillis - perfSinceMillis;
+        perfSinceMillis = clockMillis;
+        long updates = report.windowMillis / FirmwarePid.UPDATE_INTERVAL_MS;
+        long updateMicros = LOOP_MICROS + PID_MICROS + LCD_MICROS;
+        long plain = Math.max(0, (report.windowMillis * 1000 - updates * updateMicros) / LOOP_MICROS);
+        report.loops = plain + updates;
+        report.loopMeanMicros = report.loops > 0 ? report.windowMillis * 1000 / report.loops : 0;
+        report.loopMaxMicros = updates > 0 ? updateMicros : plain > 0 ? LOOP_MICROS : 0;
+        report.histogram[PerfReport.histogramBin(LOOP_MICROS)] += plain;
+        report.histogram[PerfReport.histogramBin(updateMicros)] += updates;
+        report.stepGapMaxMicros = activateStepper && report.loops > 0 ? report.loopMaxMicros : 0;
+        if (updates > 0) {
+            report.pidMeanMicros = report.pidMaxMicros = PID_MICROS;
+            report.lcdMeanMicros = report.lcdMaxMicros = LCD_MICROS;
+        }
+        if (report.loops > 0) report.bluetoothMeanMicros = report.bluetoothMaxMicros = BLUETOOTH_MICROS;
+        report.firmwareVersion = FIRMWARE_VERSION;
+        return report;
+    }
+
+    /**
+     * Returns the configuration as configText() and configVersion() report it.
+     * @return Config.
+     */
+    public synchronized MachineConfig getConfig() {
+        MachineConfig config = new MachineConfig();
+        config.setTemperatures = new float[zones.length];
+        for (int i = 0; i < zones.length; i++) config.setTemperatures[i] = zones[i].pid.getSetTemperature();
+        config.maxSpeed = maxSpeed;
+        config.kp = (int) FirmwarePid.FIRMWARE_KP;
+        config.ki = (int) FirmwarePid.FIRMWARE_KI;
+        config.kd = (int) FirmwarePid.FIRMWARE_KD;
+        config.firmwareVersion = FIRMWARE_VERSION;
+        config.version = config.computeVersion();
+        return config;
+    }
+
+    /**
+     * Advances virtual time, running one PID update per elapsed 250 ms and the diameter model.
+     * @param millis Milliseconds to advance.
+     */
+    public synchronized void advance(long millis) {
+        clockMillis += millis;
+        while (clockMillis - lastDiameterMillis >= DIAMETER_STEP_MS) {
+            lastDiameterMillis += DIAMETER_STEP_MS;
+            stepDiameter();
+        }
+        while (clockMillis - lastUpdateMillis >= FirmwarePid.UPDATE_INTERVAL_MS) {
+            lastUpdateMillis += FirmwarePid.UPDATE_INTERVAL_MS;
+            for (Zone zone : zones) {
+                float duty = zone.pid.update(Thermistor.toAdc(zone.plant));
+                zone.delay[zone.head] = duty;
+                zone.head = zone.head == zone.delay.length - 1 ? 0 : zone.head + 1;
+                zone.plant = zone.model.ambient + (zone.plant - zone.model.ambient) * zone.decay
+                        + zone.delay[zone.head] * zone.rise - getRotatingSpeed() * extrusionLoad * (1 - zone.decay);
+            }
+            recordSample();
+        }
+    }
+
+    /**
+     * Sets the heat the extruded material carries off, so faster extrusion needs more heater duty and the
+     * heater runs out of reserve above some speed. The material passes every zone, so the load applies to all of
+     * them. 0 (the default) makes the plants independent of speed.
+     * @param celsiusPerStepRate Steady-state temperature drop per step/s, °C.
+     */
+    public synchronized void setExtrusionLoad(double celsiusPerStepRate) {
+        extrusionLoad = celsiusPerStepRate;
+    }
+
+    /**
+     * Sets a periodic variation of the material fed, which the diameter follows at a constant pull speed.
+     * @param amplitude Relative amplitude of the cross-section, 0 (the default) for none.
+     * @param periodMillis Period in milliseconds.
+     */
+    public synchronized void setFeedVariation(double amplitude, long periodMillis) {
+        if (periodMillis <= 0) throw new IllegalArgumentException("periodMillis must be > 0");
+        feedVariation = amplitude;
+        feedPeriodMillis = periodMillis;
+    }
+
+    /**
+     * Returns the diameter currently under the sensor, without noise.
+     * @return Diameter in mm.
+     */
+    public synchronized double getSensorDiameter() {
+        return diameterLine[diameterHead];
+    }
+
+    /**
+     * Returns the unsolicited lines produced since the last call, such as streamed diameter readings, and
+     * forgets them.
+     * @return Lines joined by "\r\n", or an empty string if there are none.
+     */
+    public synchronized String takeOutput() {
+        if (output.length() == 0) return "";
+        String lines = output.substring(0, output.length() - 2);
+        output.setLength(0);
+        return lines;
+    }
+
+    /**
+     * Simulates a board reset: the controller restarts and loads the saved settings and calibration table.
+     */
+    public synchronized void reset() {
+        for (Zone zone : zones) {
+            zone.pid.reset();
+            zone.dutySum = 0;
+            zone.pid.setSetTemperature(zone.savedTemperature);
+            zone.pid.setCalibration(savedCalibration);
+        }
+        bootId++;
+        nextSeq = 0;
+        sampleDivider = 0;
+        maxSpeed = savedSpeed;
+        activateStepper = false;
+        calibrationReceiving = false;
+        Arrays.fill(cachedSeq, -1);
+        diameterRateHz = 0;
+        output.setLength(0);
+    }
+
+    /**
+     * Returns the number of heater zones.
+     * @return Zone count.
+     */
+    public int getZoneCount() {
+        return zones.length;
+    }
+
+    /**
+     * Returns the temperature the firmware last read in zone 0.
+     * @return Temperature in °C.
+     */
+    public synchronized float getTemperatureRead() {
+        return getTemperatureRead(0);
+    }
+
+    /**
+     * Returns the temperature the firmware last read in a zone.
+     * @param zone Zone index.
+     * @return Temperature in °C.
+     */
+    public synchronized float getTemperatureRead(int zone) {
+        return zones[zone].pid.getTemperatureRead();
+    }
+
+    /**
+     * Returns the true plant temperature of zone 0.
+     * @return Temperature in °C.
+     */
+    public synchronized double getPlantTemperature() {
+        return zones[0].plant;
+    }
+
+    /**
+     * Returns the heater duty of the last update in zone 0.
+     * @return Duty cycle, 0-1.
+     */
+    public synchronized float getDuty() {
+        return zones[0].pid.getDuty();
+    }
+
+    /**
+     * Returns the temperature setpoint of zone 0.
+     * @return Setpoint in °C.
+     */
+    public synchronized float getSetTemperature() {
+        return getSetTemperature(0);
+    }
+
+    /**
+     * Returns the temperature setpoint of a zone.
+     * @param zone Zone index.
+     * @return Setpoint in °C.
+     */
+    public synchronized float getSetTemperature(int zone) {
+        return zones[zone].pid.getSetTemperature();
+    }
+
+    /**
+     * Returns the current stepper speed (rotating_speed).
+     * @return Speed in steps/s, 0 when stopped.
+     */
+    public synchronized int getRotatingSpeed() {
+        return activateStepper ? maxSpeed : 0;
+    }
+
+    /**
+     * Returns the virtual time.
+     * @return Milliseconds since construction.
+     */
+    public synchronized long getClockMillis() {
+        return clockMillis;
+    }
+
+    /**
+     * Opens a byte-stream link to the simulator and starts its clock on a daemon thread.
+     * @param timeScale Virtual seconds per real second, 1 for real time.
+     * @return Link.
+     */
+    public Link open(double timeScale) {
+        if (!(timeScale > 0)) throw new IllegalArgumentException("timeScale must be > 0");
+        Link link = new Link(timeScale);
+        link.clock.start();
+        return link;
+    }
+
+    /**
+     * Returns the boot number.
+     * @return Boot number.
+     */
+    public synchronized int getBootId() {
+        return bootId;
+    }
+
+    /**
+     * Returns the number of samples recorded since boot.
+     * @return Next sequence number.
+     */
+    public synchronized long getSampleCount() {
+        return nextSeq;
+    }
+
+    /**
+     * Moves the filament by one diameter model step while the motor runs, and streams the sensor reading
+     * when it is due, as serviceDiameter() does.
+     */
+    private void stepDiameter() {
+        int speed = getRotatingSpeed();
+        if (speed == 0) {
+            // Nothing moves under the sensor; the firmware neither samples nor streams
+            diameterSum = 0;
+            diameterCount = 0;
+            return;
+        }
+        double feed = 1 + feedVariation * Math.sin(2 * Math.PI * lastDiameterMillis / feedPeriodMillis);
+        diameterLine[diameterHead] = DIAMETER_REFERENCE_MM * Math.sqrt(feed * DIAMETER_REFERENCE_SPEED / speed);
+        diameterHead = diameterHead == diameterLine.length - 1 ? 0 : diameterHead + 1;
+        if (diameterRateHz == 0) return;
+        diameterSum += diameterLine[diameterHead] + sensorNoise.nextGaussian() * DIAMETER_NOISE_MM;
+        diameterCount++;
+        if (lastDiameterMillis - diameterSentMillis < 1000 / diameterRateHz) return;
+        diameterSentMillis = lastDiameterMillis;
+        String line = DiameterController.PREFIX + String.format(Locale.US, "%.3f", diameterSum / diameterCount);
+        diameterSum = 0;
+        diameterCount = 0;
+        if (output.length() + line.length() + 2 <= OUTPUT_MAX) output.append(line).append("\r\n");
+    }
+
+    /**
+     * Records a ring sample every {@link #SAMPLE_EVERY} updates, as recordSample() does.
+     */
+    private void recordSample() {
+        for (Zone zone : zones) zone.dutySum += zone.pid.getDuty() * FirmwarePid.MAX_PWM;
+        if (++sampleDivider < SAMPLE_EVERY) return;
+        sampleDivider = 0;
+        int index = (int) (nextSeq % RING_SIZE);
+        ringTick[index] = lastUpdateMillis;
+        ringSpeed[index] = getRotatingSpeed();
+        for (int z = 0; z < zones.length; z++) {
+            ringTemp10[z][index] = (short) Math.round(zones[z].pid.getTemperatureRead() * 10f);
+            ringDuty[z][index] = Math.round(zones[z].dutySum / SAMPLE_EVERY);
+            zones[z].dutySum = 0;
+        }
+        nextSeq++;
+    }
+
+    /**
+     * Answers SYNC_FROM:&lt;seq&gt;[,&lt;boot&gt;] with the whole transfer at once, as startSync() and serviceSync() do.
+     * @param args Arguments after the command.
+     * @return Reply lines joined by "\r\n".
+     */
+    private String sync(String args) {
+        int comma = args.indexOf(',');
+        long from = toLong(comma < 0 ? args : args.substring(0, comma));
+        if (comma >= 0 && toLong(args.substring(comma + 1)) != bootId) from = 0;
+        long oldest = Math.max(0, nextSeq - RING_SIZE);
+        if (from < oldest || from > nextSeq) from = oldest;
+
+        StringBuilder reply = new StringBuilder();
+        reply.append("SYNC_BEGIN:").append(bootId).append(',').append(from).append(',').append(nextSeq - from)
+                .append(',').append(zones.length);
+        int size = TelemetrySample.wireSize(zones.length);
+        byte[] raw = new byte[syncChunk * size];
+        ByteBuffer buffer = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        for (long seq = from; seq < nextSeq; ) {
+            int n = (int) Math.min(syncChunk, nextSeq - seq);
+            buffer.clear();
+            for (int i = 0; i < n; i++) {
+                int index = (int) ((seq + i) % RING_SIZE);
+                buffer.putInt((int) ringTick[index]);
+                buffer.putShort((short) ringSpeed[index]);
+                for (int z = 0; z < zones.length; z++) {
+                    buffer.putShort(ringTemp10[z][index]);
+                    buffer.put((byte) ringDuty[z][index]);
+                }
+            }
+            byte[] frame = Arrays.copyOf(raw, n * size);
+            reply.append("\r\nSYNC_DATA:").append(seq).append(',').append(n).append(',')
+                    .append(Base64Codec.encode(frame)).append('*')
+                    .append(Integer.toHexString(Crc16.compute(frame, 0, frame.length)).toUpperCase(Locale.ROOT));
+            seq += n;
+        }
+        return reply.append("\r\nSYNC_END:").append(nextSeq).toString();
+    }
+
+    /**
+     * Returns the setpoints as zoneTemperatures() does: "TEMP:..,TEMP1:..".
+     * @return Text.
+     */
+    private String zoneTemperatures() {
+        StringBuilder text = new StringBuilder();
+        for (int z = 0; z < zones.length; z++) {
+            if (z > 0) text.append(',');
+            text.append("TEMP").append(zoneSuffix(z)).append(':').append(format(zones[z].pid.getSetTemperature()));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses the zone between "SET_TEMP" and the colon as parseZone() does: only digits naming an existing zone
+     * are accepted, and zone 0 is written without a number.
+     * @param digits Text between "SET_TEMP" and the colon.
+     * @return Zone index, or -1 if malformed or out of range.
+     */
+    private int parseZone(String digits) {
+        if (digits.isEmpty()) return 0;
+        int zone = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            zone = zone * 10 + (c - '0');
+            if (zone >= zones.length) return -1;
+        }
+        return zone == 0 ? -1 : zone;
+    }
+
+    /**
+     * Returns a zone as written in commands and field names, as zoneSuffix() does.
+     * @param zone Zone index.
+     * @return "" for zone 0, otherwise the number.
+     */
+    private static String zoneSuffix(int zone) {
+        return zone == 0 ? "" : String.valueOf(zone);
+    }
+
+    /**
+     * Formats a float as Arduino String(float) does (two decimals).
+     * @param value Value.
+     * @return Text.
+     */
+    private static String format(float value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    /**
+     * Parses the leading number of a string as Arduino String.toFloat() does; garbage yields 0.
+     * @param text Text.
+     * @return Parsed value.
+     */
+    private static float toFloat(String text) {
+        text = text.trim();
+        int end = 0;
+        if (end < text.length() && (text.charAt(end) == '-' || text.charAt(end) == '+')) end++;
+        boolean dot = false;
+        while (end < text.length()) {
+            char c = text.charAt(end);
+            if (c == '.' && !dot) {
+                dot = true;
+            } else if (c < '0' || c > '9') {
+                break;
+            }
+            end++;
+        }
+        try {
+            return Float.parseFloat(text.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0f;
+        }
+    }
+
+    /**
+     * Parses the leading digits of a string as strtoul() does; garbage yields 0.
+     * @param text Text.
+     * @return Parsed value.
+     */
+    private static long toLong(String text) {
+        text = text.trim();
+        long value = 0;
+        for (int i = 0; i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9'; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Link class is the serial-port view of the simulator: commands are written to its output stream
+     * and "\r\n"-terminated replies, and unsolicited lines such as diameter readings, are read from its
+     * input stream.
+     * Commands go through the firmware's {@link CommandReader}: one ends at '\n' or '\r' or, for a sender that
+     * never terminates its commands, at the end of the write call, since the line goes quiet after it and the
+     * idle time passes on the virtual clock.
+     * Writes block for the time the command and its reply would occupy a {@link #BAUD} line.
+     */
+    public final class Link implements Closeable {
+
+        /**
+         * Replies waiting to be read.
+         */
+        private final ByteFifo replies = new ByteFifo();
+
+        /**
+         * Thread advancing the virtual clock.
+         */
+        private final Thread clock;
+
+        /**
+         * Command parser, as on the board.
+         */
+        private final CommandReader reader = new CommandReader();
+
+        /**
+         * Real nanoseconds one byte occupies the line.
+         */
+        private final long byteNanos;
+
+        /**
+         * Stream the controller reads replies from.
+         */
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                return replies.read(buffer, offset, length);
+            }
+        };
+
+        /**
+         * Stream the controller writes commands to.
+         */
+        private final OutputStream outputStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                if (replies.isClosed()) throw new IOException("Link closed");
+                long bytes = length;
+                synchronized (reader) {
+                    long now = getClockMillis();
+                    for (int i = offset; i < offset + length; i++) {
+                        bytes += execute(reader.accept(buffer[i], now));
+                    }
+                    bytes += execute(reader.checkIdle(now + CommandReader.IDLE_MILLIS));
+                }
+                long nanos = bytes * byteNanos;
+                try {
+                    Thread.sleep(nanos / 1_000_000L, (int) (nanos % 1_000_000L));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        };
+
+        /**
+         * Constructor.
+         * @param timeScale Virtual seconds per real second.
+         */
+        private Link(double timeScale) {
+            long tickNanos = (long) (LINK_TICK_MS * 1_000_000L / timeScale);
+            byteNanos = (long) (10 * 1_000_000_000L / BAUD / timeScale);
+            clock = new Thread(() -> {
+                long next = System.nanoTime();
+                try {
+                    while (!replies.isClosed()) {
+                        next += tickNanos;
+                        long wait = next - System.nanoTime();
+                        if (wait > 0) Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                        advance(LINK_TICK_MS);
+                        String lines = takeOutput();
+                        if (!lines.isEmpty()) replies.write((lines + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    }
+                } catch (InterruptedException e) {
+                    // Closed
+                }
+            }, "simulated-extruder");
+            clock.setDaemon(true);
+        }
+
+        /**
+         * Runs a completed command, or rejects an overlong line, and queues the reply.
+         * @param result Parser outcome.
+         * @return Length of the reply in bytes, 0 if nothing completed.
+         */
+        private int execute(CommandReader.Result result) {
+            if (result == CommandReader.Result.NONE) return 0;
+            String reply = result == CommandReader.Result.READY
+                    ? handleCommand(reader.getCommand()) : CommandReader.ERROR_TOO_LONG;
+            byte[] bytes = (reply + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            replies.write(bytes);
+            return bytes.length;
+        }
+
+        /**
+         * Returns the stream replies are read from.
+         * @return Input stream.
+         */
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        /**
+         * Returns the stream commands are written to.
+         * @return Output stream.
+         */
+        public OutputStream getOutputStream() {
+            return outputStream;
+        }
+
+        /**
+         * Returns the simulator behind this link.
+         * @return Simulator.
+         */
+        public SimulatedExtruder getExtruder() {
+            return SimulatedExtruder.this;
+        }
+
+        /**
+         * Stops the clock; pending and future reads return end of stream.
+         */
+        @Override
+        public void close() {
+            replies.close();
+            clock.interrupt();
+        }
+    }
+
+    /**
+     * ByteFifo class is a growable byte queue with a blocking read, standing in for the serial receive buffer.
+     */
+    private static final class ByteFifo {
+
+        /**
+         * Queued bytes.
+         */
+        private byte[] data = new byte[256];
+
+        /**
+         * Index of the first queued byte.
+         */
+        private int start;
+
+        /**
+         * Index after the last queued byte.
+         */
+        private int end;
+
+        /**
+         * Whether the FIFO was closed.
+         */
+        private boolean closed;
+
+        /**
+         * Appends bytes.
+         * @param bytes Bytes to queue.
+         */
+        synchronized void write(byte[] bytes) {
+            if (closed) return;
+            if (end + bytes.length > data.length) {
+                int size = end - start;
+                if (size + bytes.length > data.length) {
+                    data = Arrays.copyOfRange(data, start, start + Math.max(data.length * 2, size + bytes.length));
+                } else {
+                    System.arraycopy(data, start, data, 0, size);
+                }
+                start = 0;
+                end = size;
+            }
+            System.arraycopy(bytes, 0, data, end, bytes.length);
+            end += bytes.length;
+            notifyAll();
+        }
+
+        /**
+         * Reads at least one byte, waiting until some are queued.
+         * @param buffer Destination.
+         * @param offset Offset in the destination.
+         * @param length Maximum number of bytes.
+         * @return Number of bytes read, or -1 once closed.
+         * @throws InterruptedIOException If the reading thread is interrupted.
+         */
+        synchronized int read(byte[] buffer, int offset, int length) throws InterruptedIOException {
+            while (start == end && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (start == end) return -1;
+            int n = Math.min(length, end - start);
+            System.arraycopy(data, start, buffer, offset, n);
+            start += n;
+            return n;
+        }
+
+        /**
+         * Returns whether the FIFO was closed.
+         * @return true once closed.
+         */
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Closes the FIFO and wakes blocked readers.
+         */
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.petfilament.recycler.core;
+
+/**
+ * SteinhartHart class is a thermistor curve 1/T = A + B·ln(R) + C·ln(R)³ (T in Kelvin, R in ohms),
+ * fitted by least squares to reference points measured on the machine. The resistance is derived from
+ * the ADC value with the same divider formula as readTemp(), so the fit also absorbs the tolerance of
+ * the series resistor and any fixed offset between the probe and the melt.
+ */
+public final class SteinhartHart {
+
+    /**
+     * Fewest reference points that determine the three coefficients.
+     */
+    public static final int MIN_POINTS = 3;
+
+    /**
+     * Coefficient A.
+     */
+    public final double a;
+
+    /**
+     * Coefficient B.
+     */
+    public final double b;
+
+    /**
+     * Coefficient C.
+     */
+    public final double c;
+
+    /**
+     * Constructor.
+     * @param a Coefficient A.
+     * @param b Coefficient B.
+     * @param c Coefficient C.
+     */
+    public SteinhartHart(double a, double b, double c) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+    }
+
+    /**
+     * Fits the curve to reference points.
+     * @param adc ADC value of each point, possibly averaged (fractional).
+     * @param celsius Reference temperature of each point in °C.
+     * @return Curve.
+     * @throws IllegalArgumentException If there are fewer than three points with distinct ADC values.
+     */
+    public static SteinhartHart fit(double[] adc, double[] celsius) {
+        if (adc.length != celsius.length) {
+            throw new IllegalArgumentException("Got " + adc.length + " ADC values for " + celsius.length + " temperatures");
+        }
+        if (adc.length < MIN_POINTS) {
+            throw new IllegalArgumentException("Need " + MIN_POINTS + " points, got " + adc.length);
+        }
+        // Normal equations of the linear least-squares problem in (A, B, C)
+        double[][] m = new double[3][4];
+        int distinct = 0;
+        for (int i = 0; i < adc.length; i++) {
+            if (!(adc[i] > 0 && adc[i] < Thermistor.ADC_MAX)) {
+                throw new IllegalArgumentException("ADC value out of range: " + adc[i]);
+            }
+            boolean repeated = false;
+            for (int j = 0; j < i; j++) repeated |= adc[j] == adc[i];
+            if (!repeated) distinct++;
+            double lnR = Math.log(resistance(adc[i]));
+            double[] row = {1, lnR, lnR * lnR * lnR};
+            double y = 1.0 / (celsius[i] + 273.15);
+            for (int r = 0; r < 3; r++) {
+                for (int k = 0; k < 3; k++) m[r][k] += row[r] * row[k];
+                m[r][3] += row[r] * y;
+            }
+        }
+        double[] x = solve(m);
+        if (distinct < MIN_POINTS || !Double.isFinite(x[0] + x[1] + x[2])) {
+            throw new IllegalArgumentException("Calibration points do not determine a curve");
+        }
+        return new SteinhartHart(x[0], x[1], x[2]);
+    }
+
+    /**
+     * Returns the thermistor resistance for an ADC value, as readTemp() computes it.
+     * @param adc ADC value, 0-1023 exclusive.
+     * @return Resistance in ohms.
+     */
+    public static double resistance(double adc) {
+        return Thermistor.SERIES_R / (Thermistor.ADC_MAX / adc - 1.0);
+    }
+
+    /**
+     * Converts an ADC value with this curve.
+     * @param adc ADC value, 0-1023 exclusive.
+     * @return Temperature in °C.
+     */
+    public double toCelsius(double adc) {
+        double lnR = Math.log(resistance(adc));
+        return 1.0 / (a + b * lnR + c * lnR * lnR * lnR) - 273.15;
+    }
+
+    /**
+     * Returns how far the curve misses the points it was fitted to.
+     * @param adc ADC value of each point.
+     * @param celsius Reference temperature of each point in °C.
+     * @return Largest absolute difference in °C.
+     */
+    public double maxResidual(double[] adc, double[] celsius) {
+        double max = 0;
+        for (int i = 0; i < adc.length; i++) {
+            max = Math.max(max, Math.abs(toCelsius(adc[i]) - celsius[i]));
+        }
+        return max;
+    }
+
+    /**
+     * Solves a 3x3 system by Gaussian elimination with partial pivoting.
+     * @param m Augmented matrix, overwritten.
+     * @return Solution.
+     */
+    private static double[] solve(double[][] m) {
+        for (int col = 0; col < 3; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < 3; r++) {
+                if (Math.abs(m[r][col]) > Math.abs(m[pivot][col])) pivot = r;
+            }
+            double[] swap = m[col];
+            m[col] = m[pivot];
+            m[pivot] = swap;
+            for (int r = col + 1; r < 3; r++) {
+                double f = m[r][col] / m[col][col];
+                for (int k = col; k < 4; k++) m[r][k] -= f * m[col][k];
+            }
+        }
+        double[] x = new double[3];
+        for (int r = 2; r >= 0; r--) {
+            double sum = m[r][3];
+            for (int k = r + 1; k < 3; k++) sum -= m[r][k] * x[k];
+            x[r] = sum / m[r][r];
+        }
+        return x;
+    }
+}
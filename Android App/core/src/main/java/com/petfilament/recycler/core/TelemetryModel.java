@@ -0,0 +1,63 @@
+package com.petfilament.recycler.core;
+
+/**
+ * TelemetryModel class holds the latest machine state reported by the firmware.
+ */
+public class TelemetryModel {
+
+    /**
+     * Machine status shown before anything is reported.
+     */
+    public static final String STATUS_IDLE = "IDLE";
+
+    /**
+     * Machine status while the stepper runs.
+     */
+    public static final String STATUS_RUNNING = "RUNNING";
+
+    /**
+     * Reported temperature per heater zone in °C, "TEMP" for zone 0 and "TEMP&lt;z&gt;" for the others.
+     */
+    public final float[] temperatures = new float[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Number of zones reported so far, at least 1.
+     */
+    public int zones = 1;
+
+    /**
+     * Reported stepper speed in steps/s.
+     */
+    public int speed;
+
+    /**
+     * Machine status, e.g. {@link #STATUS_IDLE} or {@link #STATUS_RUNNING}.
+     */
+    public String machineStatus = STATUS_IDLE;
+
+    /**
+     * Returns the zone temperatures in whole degrees separated by '/', zone 0 first, as the board's LCD shows them.
+     * @return Text such as "200/180".
+     */
+    public String formatTemperatures() {
+        StringBuilder text = new StringBuilder();
+        for (int zone = 0; zone < zones; zone++) {
+            if (zone > 0) text.append('/');
+            text.append((int) temperatures[zone]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns an independent copy, safe to hand to another thread.
+     * @return Copy of this model.
+     */
+    public TelemetryModel copy() {
+        TelemetryModel copy = new TelemetryModel();
+        System.arraycopy(temperatures, 0, copy.temperatures, 0, temperatures.length);
+        copy.zones = zones;
+        copy.speed = speed;
+        copy.machineStatus = machineStatus;
+        return copy;
+    }
+}
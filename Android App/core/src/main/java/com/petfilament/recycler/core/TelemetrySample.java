@@ -0,0 +1,144 @@
+package com.petfilament.recycler.core;
+
+/**
+ * TelemetrySample class is one entry of the firmware's telemetry ring buffer.
+ * Samples are identified by the board's boot number and their sequence number within that boot.
+ * <p>
+ * A sample carries one temperature and one duty per heater zone, indexed from 0; zone 0 is the nozzle
+ * heater, the only zone of older firmware, and is also available as {@link #temperature} and {@link #duty}.
+ */
+public final class TelemetrySample {
+
+    /**
+     * Most heater zones a sample can carry.
+     */
+    public static final int MAX_ZONES = 4;
+
+    /**
+     * Size of a single-zone sample as sent by firmware without zones: tick (4), temperature ×10 (2), speed (2),
+     * duty (1), little-endian.
+     */
+    public static final int LEGACY_WIRE_SIZE = 9;
+
+    /**
+     * Size of the fields shared by all zones on the wire: tick (4), speed (2).
+     */
+    private static final int HEADER_WIRE_SIZE = 6;
+
+    /**
+     * Size of one zone on the wire: temperature ×10 (2), duty (1).
+     */
+    private static final int ZONE_WIRE_SIZE = 3;
+
+    /**
+     * Boot number of the board when the sample was taken.
+     */
+    public final int boot;
+
+    /**
+     * Sequence number within the boot.
+     */
+    public final long seq;
+
+    /**
+     * Board time of the sample, millis() since boot.
+     */
+    public final long tick;
+
+    /**
+     * Temperature of zone 0 in °C, 0.1 °C resolution.
+     */
+    public final float temperature;
+
+    /**
+     * Stepper speed in steps/s.
+     */
+    public final int speed;
+
+    /**
+     * Heater PWM value of zone 0, 0-255.
+     */
+    public final int duty;
+
+    /**
+     * Temperatures per zone in °C.
+     */
+    private final float[] temperatures;
+
+    /**
+     * Heater PWM values per zone.
+     */
+    private final int[] duties;
+
+    /**
+     * Constructor for a single-zone sample.
+     * @param boot Boot number.
+     * @param seq Sequence number.
+     * @param tick Board time in ms.
+     * @param temperature Temperature in °C.
+     * @param speed Stepper speed.
+     * @param duty Heater PWM value.
+     */
+    public TelemetrySample(int boot, long seq, long tick, float temperature, int speed, int duty) {
+        this(boot, seq, tick, speed, new float[]{temperature}, new int[]{duty});
+    }
+
+    /**
+     * Constructor.
+     * @param boot Boot number.
+     * @param seq Sequence number.
+     * @param tick Board time in ms.
+     * @param speed Stepper speed.
+     * @param temperatures Temperatures per zone in °C; the array is kept, not copied.
+     * @param duties Heater PWM values per zone; the array is kept, not copied.
+     * @throws IllegalArgumentException If the arrays differ in length or the zone count is out of range.
+     */
+    public TelemetrySample(int boot, long seq, long tick, int speed, float[] temperatures, int[] duties) {
+        if (temperatures.length != duties.length || temperatures.length < 1 || temperatures.length > MAX_ZONES) {
+            throw new IllegalArgumentException("Need 1 to " + MAX_ZONES + " zones with a duty each");
+        }
+        this.boot = boot;
+        this.seq = seq;
+        this.tick = tick;
+        this.speed = speed;
+        this.temperatures = temperatures;
+        this.duties = duties;
+        this.temperature = temperatures[0];
+        this.duty = duties[0];
+    }
+
+    /**
+     * Returns the size of a sample on the wire for firmware that reports its zones.
+     * @param zones Number of zones.
+     * @return Size in bytes.
+     */
+    public static int wireSize(int zones) {
+        return HEADER_WIRE_SIZE + ZONE_WIRE_SIZE * zones;
+    }
+
+    /**
+     * Returns the number of zones.
+     * @return Zone count, at least 1.
+     */
+    public int getZoneCount() {
+        return temperatures.length;
+    }
+
+    /**
+     * Returns the temperature of a zone.
+     * @param zone Zone index.
+     * @return Temperature in °C.
+     */
+    public float getTemperature(int zone) {
+        return temperatures[zone];
+    }
+
+    /**
+     * Returns the heater PWM value of a zone.
+     * @param zone Zone index.
+     * @return PWM value, 0-255.
+     */
+    public int getDuty(int zone) {
+        return duties[zone];
+    }
+}
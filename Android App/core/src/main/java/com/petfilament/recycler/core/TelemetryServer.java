@@ -0,0 +1,644 @@
+package com.petfilament.recycler.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TelemetryServer class fans decoded telemetry and command replies out to local dashboards.
+ * Every message is one JSON object. Plain TCP clients receive it as a '\n'-terminated line; clients that open
+ * with an HTTP upgrade request get a WebSocket text frame instead.
+ * One selector thread does all socket I/O. Publishing only queues the message and wakes the selector, so the
+ * link reader never waits for a client. Each client has a bounded send buffer, and a client whose buffer
+ * would overflow is disconnected instead of slowing the others down.
+ */
+public class TelemetryServer implements Closeable {
+
+    /**
+     * Default per-client send buffer limit in bytes.
+     */
+    public static final int DEFAULT_MAX_BUFFERED = 64 * 1024;
+
+    /**
+     * Time a new client has to send an upgrade request before it is treated as a plain TCP client.
+     */
+    private static final long DETECT_MILLIS = 200;
+
+    /**
+     * Size of a client's receive buffer; longer handshakes or frames disconnect the client.
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 4096;
+
+    /**
+     * Messages handed to clients before their sockets are flushed, so a steady publisher cannot starve writes.
+     */
+    private static final int DELIVER_BATCH = 256;
+
+    /**
+     * GUID appended to the WebSocket key (RFC 6455).
+     */
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /**
+     * Selector multiplexing the listening socket and all clients.
+     */
+    private final Selector selector;
+
+    /**
+     * Listening socket.
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * Per-client send buffer limit in bytes.
+     */
+    private final int maxBuffered;
+
+    /**
+     * Messages published since the selector last ran.
+     */
+    private final ConcurrentLinkedQueue<Message> outbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set while a selector wakeup is pending, so bursts of messages cost one wakeup.
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /**
+     * Connected clients, owned by the selector thread.
+     */
+    private final ArrayList<Client> clients = new ArrayList<>();
+
+    /**
+     * Number of clients disconnected for falling behind.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Number of connected clients.
+     */
+    private volatile int clientCount;
+
+    /**
+     * Selector thread.
+     */
+    private final Thread thread;
+
+    /**
+     * Cleared by close().
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. The socket is bound immediately; call {@link #start()} to begin serving.
+     * @param address Address to listen on, e.g. loopback with port 0 for an ephemeral port.
+     * @param maxBuffered Per-client send buffer limit in bytes.
+     * @throws IOException If the socket cannot be bound.
+     */
+    public TelemetryServer(InetSocketAddress address, int maxBuffered) throws IOException {
+        this.maxBuffered = maxBuffered;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::run, "telemetry-server");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the selector thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return Port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the number of connected clients.
+     * @return Client count.
+     */
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Returns the number of clients disconnected for falling behind.
+     * @return Eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Publishes a telemetry snapshot.
+     * @param telemetry Snapshot.
+     */
+    public void publishTelemetry(TelemetryModel telemetry) {
+        StringBuilder temps = new StringBuilder();
+        for (int zone = 0; zone < telemetry.zones; zone++) {
+            if (zone > 0) temps.append(',');
+            temps.append(String.format(Locale.US, "%.2f", telemetry.temperatures[zone]));
+        }
+        publish(String.format(Locale.US,
+                "{\"type\":\"telemetry\",\"temp\":%.2f,\"temps\":[%s],\"speed\":%d,\"status\":%s}",
+                telemetry.temperatures[0], temps, telemetry.speed, quote(telemetry.machineStatus)));
+    }
+
+    /**
+     * Publishes a received line, e.g. a command acknowledgement.
+     * @param line Line.
+     * @param kind Parsed kind.
+     */
+    public void publishLine(String line, ProtocolParser.Kind kind) {
+        publish("{\"type\":\"" + kind.name().toLowerCase(Locale.ROOT) + "\",\"text\":" + quote(line) + "}");
+    }
+
+    /**
+     * Publishes a JSON object to every client. Safe to call from any thread; never blocks.
+     * @param json JSON text without line breaks.
+     */
+    public void publish(String json) {
+        if (!running) return;
+        outbox.add(new Message(json.getBytes(StandardCharsets.UTF_8)));
+        if (wakeupPending.compareAndSet(false, true)) selector.wakeup();
+    }
+
+    /**
+     * Stops the selector thread and disconnects every client.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Selector loop.
+     */
+    private void run() {
+        try {
+            boolean backlog = false;
+            while (running) {
+                if (backlog) {
+                    selector.selectNow();
+                } else {
+                    selector.select(hasUndetectedClients() ? DETECT_MILLIS : 0);
+                }
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        if (key.isReadable()) read(client);
+                        if (key.isValid() && key.isWritable()) flush(client);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                for (int i = clients.size() - 1; i >= 0; i--) {
+                    Client client = clients.get(i);
+                    if (client.mode == Mode.UNDETECTED && now - client.acceptedAt >= DETECT_MILLIS) {
+                        client.mode = Mode.RAW;
+                    }
+                }
+                backlog = deliver();
+            }
+        } catch (IOException e) {
+            // Selector failed; fall through and release everything
+        } finally {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                disconnect(clients.get(i));
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Returns whether any client is still waiting for protocol detection.
+     * @return true if the selector must wake up to promote it.
+     */
+    private boolean hasUndetectedClients() {
+        for (int i = 0; i < clients.size(); i++) {
+            if (clients.get(i).mode == Mode.UNDETECTED) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Accepts pending connections.
+     * @throws IOException If the listening socket fails.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+            clientCount = clients.size();
+        }
+    }
+
+    /**
+     * Hands a batch of queued messages to every detected client and starts writing them.
+     * @return true if more messages are queued.
+     */
+    private boolean deliver() {
+        Message message;
+        boolean any = false;
+        for (int n = 0; n < DELIVER_BATCH && (message = outbox.poll()) != null; n++) {
+            any = true;
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                Client client = clients.get(i);
+                if (client.mode == Mode.RAW) {
+                    enqueue(client, message.raw());
+                } else if (client.mode == Mode.WEBSOCKET) {
+                    enqueue(client, message.frame());
+                }
+            }
+        }
+        if (!any) return false;
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            if (!client.pending.isEmpty() && (client.key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+                flush(client);
+            }
+        }
+        return !outbox.isEmpty();
+    }
+
+    /**
+     * Queues encoded bytes for a client, disconnecting it if its buffer would overflow.
+     * @param client Client.
+     * @param bytes Shared encoded message.
+     */
+    private void enqueue(Client client, byte[] bytes) {
+        if (client.buffered + bytes.length > maxBuffered) {
+            evictionCount.incrementAndGet();
+            disconnect(client);
+            return;
+        }
+        client.pending.add(ByteBuffer.wrap(bytes));
+        client.buffered += bytes.length;
+    }
+
+    /**
+     * Writes as much queued data as the socket takes, waiting for OP_WRITE if it fills.
+     * @param client Client.
+     */
+    private void flush(Client client) {
+        try {
+            ByteBuffer head;
+            while ((head = client.pending.peek()) != null) {
+                int written = client.channel.write(head);
+                client.buffered -= written;
+                if (head.hasRemaining()) {
+                    client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                client.pending.poll();
+            }
+            if (client.closeAfterFlush) {
+                disconnect(client);
+            } else {
+                client.key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    /**
+     * Reads from a client: the upgrade request while undetected, control frames once upgraded.
+     * @param client Client.
+     */
+    private void read(Client client) {
+        ByteBuffer in = client.in;
+        try {
+            int n = client.channel.read(in);
+            if (n < 0) {
+                disconnect(client);
+                return;
+            }
+        } catch (IOException e) {
+            disconnect(client);
+            return;
+        }
+        if (client.mode == Mode.UNDETECTED) {
+            handshake(client);
+        } else if (client.mode == Mode.WEBSOCKET) {
+            readFrames(client);
+        } else {
+            // Plain clients have nothing to say
+            in.clear();
+        }
+        if (client.mode != Mode.CLOSED && !in.hasRemaining()) disconnect(client);
+    }
+
+    /**
+     * Detects a WebSocket upgrade request and answers it.
+     * @param client Client in undetected mode.
+     */
+    private void handshake(Client client) {
+        ByteBuffer in = client.in;
+        String text = new String(in.array(), 0, in.position(), StandardCharsets.ISO_8859_1);
+        if (!text.startsWith("GET ".substring(0, Math.min(4, text.length())))) {
+            client.mode = Mode.RAW;
+            in.clear();
+            return;
+        }
+        int end = text.indexOf("\r\n\r\n");
+        if (end < 0) return;
+
+        String key = null;
+        for (String header : text.substring(0, end).split("\r\n")) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                key = header.substring(colon + 1).trim();
+            }
+        }
+        in.clear();
+        String response;
+        if (key == null) {
+            response = "HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n";
+            client.mode = Mode.RAW;
+            client.closeAfterFlush = true;
+        } else {
+            response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n";
+            client.mode = Mode.WEBSOCKET;
+        }
+        enqueue(client, response.getBytes(StandardCharsets.ISO_8859_1));
+        if (client.mode != Mode.CLOSED) flush(client);
+    }
+
+    /**
+     * Consumes complete frames from a WebSocket client; a close frame disconnects it, others are ignored.
+     * @param client Client in WebSocket mode.
+     */
+    private void readFrames(Client client) {
+        ByteBuffer in = client.in;
+        in.flip();
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int opcode = in.get(start) & 0x0F;
+            int second = in.get(start + 1) & 0xFF;
+            long length = second & 0x7F;
+            int header = 2;
+            if (length == 126) {
+                if (in.remaining() < 4) break;
+                length = in.getShort(start + 2) & 0xFFFF;
+                header = 4;
+            } else if (length == 127) {
+                if (in.remaining() < 10) break;
+                length = in.getLong(start + 2);
+                header = 10;
+            }
+            if ((second & 0x80) != 0) header += 4;
+            if (length > RECEIVE_BUFFER_SIZE) {
+                disconnect(client);
+                return;
+            }
+            if (in.remaining() < header + length) break;
+            in.position(start + header + (int) length);
+            if (opcode == 0x8) {
+                disconnect(client);
+                return;
+            }
+        }
+        in.compact();
+    }
+
+    /**
+     * Closes a client's socket and forgets it.
+     * @param client Client.
+     */
+    private void disconnect(Client client) {
+        if (client.mode == Mode.CLOSED) return;
+        client.mode = Mode.CLOSED;
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        clients.remove(client);
+        clientCount = clients.size();
+    }
+
+    /**
+     * Computes the Sec-WebSocket-Accept value.
+     * @param key Sec-WebSocket-Key sent by the client.
+     * @return Accept value.
+     */
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64Codec.encode(sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     * @param text Text.
+     * @return Quoted text.
+     */
+    private static String quote(String text) {
+        StringBuilder out = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    /**
+     * Protocol state of a client.
+     */
+    private enum Mode {
+        /**
+         * Connected, protocol not known yet; receives nothing.
+         */
+        UNDETECTED,
+        /**
+         * Plain TCP, receives JSON lines.
+         */
+        RAW,
+        /**
+         * Upgraded, receives WebSocket text frames.
+         */
+        WEBSOCKET,
+        /**
+         * Disconnected.
+         */
+        CLOSED
+    }
+
+    /**
+     * Message class holds one published message and its wire encodings, built once on the selector thread
+     * and shared by every client.
+     */
+    private static final class Message {
+        /**
+         * UTF-8 JSON text.
+         */
+        private final byte[] json;
+
+        /**
+         * Line encoding, built on first use.
+         */
+        private byte[] raw;
+
+        /**
+         * WebSocket frame encoding, built on first use.
+         */
+        private byte[] frame;
+
+        /**
+         * Constructor.
+         * @param json UTF-8 JSON text.
+         */
+        Message(byte[] json) {
+            this.json = json;
+        }
+
+        /**
+         * Returns the message as a '\n'-terminated line.
+         * @return Bytes.
+         */
+        byte[] raw() {
+            if (raw == null) {
+                raw = new byte[json.length + 1];
+                System.arraycopy(json, 0, raw, 0, json.length);
+                raw[json.length] = '\n';
+            }
+            return raw;
+        }
+
+        /**
+         * Returns the message as an unmasked WebSocket text frame.
+         * @return Bytes.
+         */
+        byte[] frame() {
+            if (frame == null) {
+                int length = json.length;
+                int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+                frame = new byte[header + length];
+                frame[0] = (byte) 0x81;
+                if (length < 126) {
+                    frame[1] = (byte) length;
+                } else if (length < 65536) {
+                    frame[1] = 126;
+                    frame[2] = (byte) (length >> 8);
+                    frame[3] = (byte) length;
+                } else {
+                    frame[1] = 127;
+                    for (int i = 0; i < 8; i++) frame[2 + i] = (byte) ((long) length >> (56 - 8 * i));
+                }
+                System.arraycopy(json, 0, frame, header, length);
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Client class holds one connection's socket, protocol state and send queue.
+     */
+    private static final class Client {
+        /**
+         * Socket.
+         */
+        final SocketChannel channel;
+
+        /**
+         * Selection key.
+         */
+        SelectionKey key;
+
+        /**
+         * Protocol state.
+         */
+        Mode mode = Mode.UNDETECTED;
+
+        /**
+         * Accept time, for protocol detection.
+         */
+        final long acceptedAt = System.currentTimeMillis();
+
+        /**
+         * Receive buffer.
+         */
+        final ByteBuffer in = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+
+        /**
+         * Encoded messages waiting to be written.
+         */
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+        /**
+         * Bytes waiting to be written.
+         */
+        int buffered;
+
+        /**
+         * Set to disconnect once the queue drains, after an error response.
+         */
+        boolean closeAfterFlush;
+
+        /**
+         * Constructor.
+         * @param channel Socket.
+         */
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
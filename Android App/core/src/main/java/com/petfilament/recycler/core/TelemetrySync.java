@@ -0,0 +1,250 @@
+package com.petfilament.recycler.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * TelemetrySync class backfills the firmware's telemetry ring buffer.
+ * It asks for everything after the last sample it has ("SYNC_FROM:&lt;seq&gt;,&lt;boot&gt;"), then decodes the
+ * reply: "SYNC_BEGIN:&lt;boot&gt;,&lt;first&gt;,&lt;count&gt;,&lt;zones&gt;", one or more
+ * "SYNC_DATA:&lt;seq&gt;,&lt;n&gt;,&lt;base64&gt;*&lt;crc16 hex&gt;" frames of packed samples, and "SYNC_END:&lt;next&gt;".
+ * Samples hold the tick and speed followed by a temperature and duty per zone; firmware that does not
+ * report its zones sends the single-zone layout of {@link TelemetrySample#LEGACY_WIRE_SIZE} instead.
+ * A corrupt frame and the frames after it are skipped and the next request starts again from it, so samples
+ * are delivered once and in sequence order; samples the ring had already overwritten are counted as lost. The same request both catches up after a reconnect and keeps the history
+ * current while connected. Methods are synchronized: lines arrive on the reader thread, requests come from others.
+ */
+public class TelemetrySync {
+
+    /**
+     * Prefix shared by all sync replies.
+     */
+    public static final String PREFIX = "SYNC_";
+
+    /**
+     * Command requesting samples.
+     */
+    public static final String CMD_SYNC_FROM = "SYNC_FROM:";
+
+    /**
+     * Time after which an unanswered request may be repeated.
+     */
+    private static final long REQUEST_TIMEOUT_NANOS = 30_000_000_000L;
+
+    /**
+     * Boot number of the last sample received, or -1 if none.
+     */
+    private int boot = -1;
+
+    /**
+     * Sequence number to request next.
+     */
+    private long nextSeq;
+
+    /**
+     * Boot number announced by the transfer in progress.
+     */
+    private int transferBoot = -1;
+
+    /**
+     * Sequence number the transfer in progress is expected to deliver next.
+     */
+    private long expectedSeq;
+
+    /**
+     * Zones announced by the transfer in progress, 0 for the legacy single-zone layout.
+     */
+    private int transferZones;
+
+    /**
+     * First sequence number of a corrupt frame in this transfer, or -1.
+     */
+    private long firstCorruptSeq = -1;
+
+    /**
+     * Whether a request is outstanding.
+     */
+    private boolean inFlight;
+
+    /**
+     * System.nanoTime() of the outstanding request.
+     */
+    private long requestedAt;
+
+    /**
+     * Samples the ring overwrote before they could be fetched.
+     */
+    private long lostSamples;
+
+    /**
+     * Frames rejected by their checksum.
+     */
+    private long corruptFrames;
+
+    /**
+     * Continues after samples already stored, e.g. from the database.
+     * @param boot Boot number of the newest stored sample.
+     * @param lastSeq Sequence number of the newest stored sample.
+     */
+    public synchronized void resume(int boot, long lastSeq) {
+        this.boot = boot;
+        this.nextSeq = lastSeq + 1;
+    }
+
+    /**
+     * Returns the command for the next request, unless one is still being answered.
+     * @param nowNanos Current System.nanoTime().
+     * @return Command, or null if a request is in flight.
+     */
+    public synchronized String request(long nowNanos) {
+        if (inFlight && nowNanos - requestedAt < REQUEST_TIMEOUT_NANOS) return null;
+        inFlight = true;
+        requestedAt = nowNanos;
+        transferBoot = -1;
+        return boot < 0 ? CMD_SYNC_FROM + "0" : CMD_SYNC_FROM + nextSeq + "," + boot;
+    }
+
+    /**
+     * Forgets the outstanding request, e.g. when the link drops.
+     */
+    public synchronized void cancel() {
+        inFlight = false;
+        transferBoot = -1;
+    }
+
+    /**
+     * Handles one sync reply line.
+     * @param line Line starting with {@link #PREFIX}.
+     * @param out List receiving decoded samples.
+     * @return false if the line was malformed.
+     */
+    public synchronized boolean accept(String line, List<TelemetrySample> out) {
+        try {
+            if (line.startsWith("SYNC_BEGIN:")) {
+                int start = "SYNC_BEGIN:".length();
+                boolean zoned = countFields(line, start) == 4;
+                long[] fields = parseFields(line, start, line.length(), zoned ? 4 : 3);
+                if (zoned && (fields[3] < 1 || fields[3] > TelemetrySample.MAX_ZONES)) return false;
+                transferZones = zoned ? (int) fields[3] : 0;
+                transferBoot = (int) fields[0];
+                expectedSeq = fields[1];
+                firstCorruptSeq = -1;
+                if (transferBoot == boot && expectedSeq > nextSeq) lostSamples += expectedSeq - nextSeq;
+                return true;
+            } else if (line.startsWith("SYNC_DATA:")) {
+                if (transferBoot < 0) return false;
+                return acceptData(line, out);
+            } else if (line.startsWith("SYNC_END:")) {
+                if (transferBoot < 0) return false;
+                long end = parseFields(line, "SYNC_END:".length(), line.length(), 1)[0];
+                boot = transferBoot;
+                nextSeq = firstCorruptSeq >= 0 ? firstCorruptSeq : end;
+                transferBoot = -1;
+                inFlight = false;
+                return true;
+            }
+        } catch (IllegalArgumentException e) {
+            // Covers NumberFormatException and bad Base64
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of samples the ring overwrote before they could be fetched.
+     * @return Lost samples.
+     */
+    public synchronized long getLostSamples() {
+        return lostSamples;
+    }
+
+    /**
+     * Returns the number of frames rejected by their checksum.
+     * @return Corrupt frames.
+     */
+    public synchronized long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    /**
+     * Decodes a SYNC_DATA frame.
+     * @param line Frame line.
+     * @param out List receiving decoded samples.
+     * @return false if the frame was malformed or corrupt.
+     */
+    private boolean acceptData(String line, List<TelemetrySample> out) {
+        int start = "SYNC_DATA:".length();
+        int star = line.lastIndexOf('*');
+        int comma = line.indexOf(',', line.indexOf(',', start) + 1);
+        if (star < 0 || comma < 0 || comma > star) return false;
+        long[] fields = parseFields(line, start, comma, 2);
+        long seq = fields[0];
+        int count = (int) fields[1];
+        byte[] payload = Base64Codec.decode(line, comma + 1, star);
+        int crc = Integer.parseInt(line.substring(star + 1).trim(), 16);
+        int size = transferZones > 0 ? TelemetrySample.wireSize(transferZones) : TelemetrySample.LEGACY_WIRE_SIZE;
+        if (payload.length != count * size || Crc16.compute(payload, 0, payload.length) != crc) {
+            corruptFrames++;
+            if (firstCorruptSeq < 0) firstCorruptSeq = seq;
+            return false;
+        }
+        // The next request starts again at the corrupt frame; emitting later frames now would repeat them then
+        if (firstCorruptSeq >= 0) return true;
+        // Samples overwritten while the transfer was running
+        if (seq > expectedSeq) lostSamples += seq - expectedSeq;
+        expectedSeq = seq + count;
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            long tick = buffer.getInt() & 0xFFFFFFFFL;
+            if (transferZones == 0) {
+                float temperature = buffer.getShort() / 10f;
+                int speed = buffer.getShort() & 0xFFFF;
+                int duty = buffer.get() & 0xFF;
+                out.add(new TelemetrySample(transferBoot, seq + i, tick, temperature, speed, duty));
+                continue;
+            }
+            int speed = buffer.getShort() & 0xFFFF;
+            float[] temperatures = new float[transferZones];
+            int[] duties = new int[transferZones];
+            for (int zone = 0; zone < transferZones; zone++) {
+                temperatures[zone] = buffer.getShort() / 10f;
+                duties[zone] = buffer.get() & 0xFF;
+            }
+            out.add(new TelemetrySample(transferBoot, seq + i, tick, speed, temperatures, duties));
+        }
+        return true;
+    }
+
+    /**
+     * Counts comma-separated fields.
+     * @param line Line.
+     * @param start Start of the first field.
+     * @return Number of fields.
+     */
+    private static int countFields(String line, int start) {
+        int count = 1;
+        for (int i = line.indexOf(',', start); i >= 0; i = line.indexOf(',', i + 1)) count++;
+        return count;
+    }
+
+    /**
+     * Parses comma-separated non-negative integers.
+     * @param line Line.
+     * @param start Start of the first field.
+     * @param end End of the last field, exclusive.
+     * @param count Expected number of fields.
+     * @return Values.
+     * @throws NumberFormatException If a field is malformed or the count differs.
+     */
+    private static long[] parseFields(String line, int start, int end, int count) {
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            int next = i == count - 1 ? end : line.indexOf(',', start);
+            if (next < 0 || next > end) throw new NumberFormatException(line);
+            values[i] = Long.parseLong(line.substring(start, next).trim());
+            start = next + 1;
+        }
+        return values;
+    }
+}
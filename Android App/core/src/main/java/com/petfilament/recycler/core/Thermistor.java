@@ -0,0 +1,100 @@
+package com.petfilament.recycler.core;
+
+/**
+ * Thermistor class reproduces the Beta-equation conversion used by readTemp() in Firmware_1.1,
+ * together with its inverse so a simulated heater can be read back through the same ADC quantisation.
+ */
+public final class Thermistor {
+
+    /**
+     * Beta value of the NTC thermistor.
+     */
+    public static final double BETA = 3950.0;
+
+    /**
+     * Thermistor resistance at 25°C (100k).
+     */
+    public static final double R0 = 100000.0;
+
+    /**
+     * Series/pull-up resistor (4.7k).
+     */
+    public static final double SERIES_R = 4700.0;
+
+    /**
+     * 25°C in Kelvin.
+     */
+    public static final double T0 = 298.15;
+
+    /**
+     * Full-scale value of the 10-bit ADC.
+     */
+    public static final int ADC_MAX = 1023;
+
+    /**
+     * Temperature for every ADC value, computed once with the firmware formula.
+     */
+    private static final double[] CELSIUS = new double[ADC_MAX + 1];
+
+    /**
+     * Temperature at which the ADC value crosses k + 0.5, decreasing in k.
+     */
+    private static final double[] ROUNDING_THRESHOLDS = new double[ADC_MAX];
+
+    static {
+        for (int adc = 0; adc <= ADC_MAX; adc++) {
+            CELSIUS[adc] = betaCelsius(adc);
+        }
+        for (int k = 0; k < ADC_MAX; k++) {
+            ROUNDING_THRESHOLDS[k] = betaCelsius(k + 0.5);
+        }
+    }
+
+    /**
+     * Private constructor, static helpers only.
+     */
+    private Thermistor() {
+    }
+
+    /**
+     * Converts a raw ADC reading to °C exactly as readTemp() does.
+     * @param adc ADC value (0-1023).
+     * @return Temperature in °C, 0 when adc is 0.
+     */
+    public static double toCelsius(int adc) {
+        return CELSIUS[adc];
+    }
+
+    /**
+     * Converts a temperature to the ADC value the firmware would sample for it.
+     * @param celsius Temperature in °C.
+     * @return ADC value clamped to 1-1023.
+     */
+    public static int toAdc(double celsius) {
+        // Rounded ADC value = number of thresholds at or above the temperature
+        int low = 0;
+        int high = ADC_MAX;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ROUNDING_THRESHOLDS[mid] >= celsius) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.max(1, low);
+    }
+
+    /**
+     * Beta-equation body of readTemp() for a possibly fractional ADC value.
+     * @param adc ADC value.
+     * @return Temperature in °C, 0 when adc is 0.
+     */
+    private static double betaCelsius(double adc) {
+        if (adc == 0) return 0.0;
+        double r = SERIES_R / (1023.0 / adc - 1.0);
+        double lnR = Math.log(r / R0);
+        double tempK = 1.0 / (1.0 / T0 + lnR / BETA);
+        return tempK - 273.15;
+    }
+}
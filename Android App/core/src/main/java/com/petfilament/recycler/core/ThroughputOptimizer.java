@@ -0,0 +1,393 @@
+package com.petfilament.recycler.core;
+
+/**
+ * ThroughputOptimizer class searches for the highest motor speed at which the heater still holds its
+ * temperature. Once the temperature has settled it starts the motor at a start speed and raises it in steps,
+ * holding each speed for {@link #DWELL_MS}. The stock PID gains keep the temperature cycling by several degrees
+ * with the heater saturated for part of each cycle, so "holding" is judged against what settling looked like:
+ * a speed fails as soon as one sample drops more than the tolerance below the lowest temperature seen while
+ * settling, or when the mean over the last {@link #WINDOW_SAMPLES} samples (about one cycle) sags more than the
+ * tolerance below the settled mean; it also fails if at the end of the dwell the mean duty over that window
+ * leaves less than {@link #RESERVE_PWM} of headroom. The levels are measured rather than taken from the setpoint, because the
+ * firmware regulates a few degrees off the setpoint without a calibration table. After a failure the motor goes
+ * straight back to the last speed that held, the step is halved and, once the temperature settled again, the
+ * search continues between the two, down to {@link #MIN_STEP}. The result is the highest speed that held for
+ * a full dwell.
+ * <p>
+ * Every heater zone is judged the same way against its own levels: the temperature has settled only when all
+ * zones have, and a speed fails when any zone sags or runs out of reserve, since the material passes them all.
+ * <p>
+ * It is driven by the telemetry samples alone, with per-zone running sums over {@link ChannelRing}s of the last
+ * samples and no allocation per sample, and times the dwell by their firmware ticks, so it reacts within one
+ * sample period of a sag and runs in virtual time against a {@link SimulatedExtruder}. Commands the sink refuses are offered again with the next sample.
+ * Methods are synchronized.
+ */
+public class ThroughputOptimizer {
+
+    /**
+     * Interface for search events, called on the thread feeding the samples.
+     */
+    public interface Listener {
+        /**
+         * Called when a new speed is tried.
+         * @param speed Speed in steps/s.
+         */
+        void onTrying(int speed);
+
+        /**
+         * Called once when the search ends.
+         * @param completed true if the search converged, false if it failed or was stopped.
+         * @param recommendedSpeed Highest speed that held, 0 if none did.
+         * @param reason Reason when not completed, otherwise null.
+         */
+        void onFinished(boolean completed, int recommendedSpeed, String reason);
+    }
+
+    /**
+     * First speed increment, steps/s.
+     */
+    public static final int INITIAL_STEP = 100;
+
+    /**
+     * Smallest increment; the search ends when the step would drop below it.
+     */
+    public static final int MIN_STEP = 10;
+
+    /**
+     * Time a speed must hold, in milliseconds of firmware time.
+     */
+    public static final long DWELL_MS = 60_000;
+
+    /**
+     * Time the windowed mean temperature must stay within half the tolerance before the first and after every
+     * failed speed.
+     */
+    public static final long SETTLE_MS = 30_000;
+
+    /**
+     * Samples in the averaging window, 20 s: about one cycle of the firmware's temperature oscillation.
+     */
+    public static final int WINDOW_SAMPLES = 40;
+
+    /**
+     * Smallest headroom of the windowed mean duty below full power, in PWM counts (about 3%).
+     */
+    public static final int RESERVE_PWM = 8;
+
+    /**
+     * Phase of the search.
+     */
+    private enum State {
+        /**
+         * Waiting for the temperature to hold before trying the next speed.
+         */
+        SETTLING,
+        /**
+         * Holding a candidate speed.
+         */
+        TRYING,
+        /**
+         * Search ended.
+         */
+        FINISHED
+    }
+
+    /**
+     * Receiver of the commands.
+     */
+    private final RecipeRunner.CommandSink sink;
+
+    /**
+     * Receiver of search events.
+     */
+    private final Listener listener;
+
+    /**
+     * Highest speed tried.
+     */
+    private final int maxSpeed;
+
+    /**
+     * Largest allowed sag below the settled levels, °C.
+     */
+    private final float tolerance;
+
+    /**
+     * Current phase.
+     */
+    private State state = State.SETTLING;
+
+    /**
+     * Speed being tried, or next to try while settling.
+     */
+    private int candidate;
+
+    /**
+     * Current increment.
+     */
+    private int step = INITIAL_STEP;
+
+    /**
+     * Highest speed that held, 0 if none yet.
+     */
+    private int stable;
+
+    /**
+     * Lowest speed that failed, 0 if none yet.
+     */
+    private int failed;
+
+    /**
+     * Speed the motor should run at, 0 while it should stay as it is.
+     */
+    private int wantedSpeed;
+
+    /**
+     * Speed last handed to the sink, -1 if none.
+     */
+    private int sentSpeed = -1;
+
+    /**
+     * Whether START still has to be sent.
+     */
+    private boolean startPending;
+
+    /**
+     * Tick from which the current phase is timed, -1 until its condition first holds.
+     */
+    private long since = -1;
+
+    /**
+     * Temperatures of the last {@link #WINDOW_SAMPLES} samples, one channel per zone.
+     */
+    private final ChannelRing temperatures = new ChannelRing(TelemetrySample.MAX_ZONES, WINDOW_SAMPLES);
+
+    /**
+     * Duties of the last {@link #WINDOW_SAMPLES} samples, one channel per zone.
+     */
+    private final ChannelRing duties = new ChannelRing(TelemetrySample.MAX_ZONES, WINDOW_SAMPLES);
+
+    /**
+     * Lowest windowed mean per zone since {@link #since} while settling, °C.
+     */
+    private final double[] meanLow = new double[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Highest windowed mean per zone since {@link #since} while settling, °C.
+     */
+    private final double[] meanHigh = new double[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Lowest sample per zone since {@link #since} while settling, °C.
+     */
+    private final float[] sampleLow = new float[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Windowed mean temperature per zone when settled, the reference for sags of the mean, °C.
+     */
+    private final double[] level = new double[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Lowest sample per zone while settled, the reference for single-sample sags, °C.
+     */
+    private final float[] floor = new float[TelemetrySample.MAX_ZONES];
+
+    /**
+     * Boot number of the first sample, -1 before it.
+     */
+    private int boot = -1;
+
+    /**
+     * Constructor.
+     * @param startSpeed First speed tried, steps/s.
+     * @param maxSpeed Highest speed tried, steps/s.
+     * @param tolerance Largest allowed sag below the settled levels, °C.
+     * @param sink Receiver of the commands.
+     * @param listener Receiver of search events.
+     * @throws IllegalArgumentException If the speeds or the tolerance are out of range.
+     */
+    public ThroughputOptimizer(int startSpeed, int maxSpeed, float tolerance, RecipeRunner.CommandSink sink,
+                               Listener listener) {
+        if (startSpeed <= 0 || maxSpeed < startSpeed || !(tolerance > 0)) {
+            throw new IllegalArgumentException("Need 0 < startSpeed <= maxSpeed and tolerance > 0");
+        }
+        this.candidate = startSpeed;
+        this.maxSpeed = maxSpeed;
+        this.tolerance = tolerance;
+        this.sink = sink;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds one telemetry sample and sends the commands that are due.
+     * @param sample Sample, in sequence order.
+     * @return true while the search is running.
+     */
+    public synchronized boolean accept(TelemetrySample sample) {
+        if (state == State.FINISHED) return false;
+        if (boot < 0) boot = sample.boot;
+        if (sample.boot != boot) {
+            finish(false, "板子重新啟動");
+            return false;
+        }
+        int zones = sample.getZoneCount();
+        temperatures.push();
+        duties.push();
+        for (int zone = 0; zone < zones; zone++) {
+            temperatures.set(zone, sample.getTemperature(zone));
+            duties.set(zone, sample.getDuty(zone));
+        }
+        if (!temperatures.isFull()) return true;
+        boolean saturated = false;
+        boolean unsettled = false;
+        boolean sagged = false;
+        for (int zone = 0; zone < zones; zone++) {
+            double mean = temperatures.getMean(zone);
+            float temperature = sample.getTemperature(zone);
+            saturated |= duties.getMean(zone) > FirmwarePid.MAX_PWM - RESERVE_PWM;
+            if (state == State.SETTLING) {
+                meanLow[zone] = Math.min(meanLow[zone], mean);
+                meanHigh[zone] = Math.max(meanHigh[zone], mean);
+                sampleLow[zone] = Math.min(sampleLow[zone], temperature);
+                unsettled |= meanHigh[zone] - meanLow[zone] > tolerance / 2;
+            } else {
+                sagged |= temperature < floor[zone] - tolerance || mean < level[zone] - tolerance;
+            }
+        }
+
+        if (state == State.SETTLING) {
+            if (since < 0 || unsettled || saturated) {
+                since = sample.tick;
+                for (int zone = 0; zone < zones; zone++) {
+                    meanLow[zone] = meanHigh[zone] = temperatures.getMean(zone);
+                    sampleLow[zone] = sample.getTemperature(zone);
+                }
+            } else if (sample.tick - since >= SETTLE_MS) {
+                System.arraycopy(sampleLow, 0, floor, 0, zones);
+                for (int zone = 0; zone < zones; zone++) level[zone] = temperatures.getMean(zone);
+                tryCandidate();
+            }
+        } else if (sagged) {
+            fail();
+        } else if (since < 0) {
+            // The dwell starts once the board runs at the new speed
+            if (sample.speed == candidate) since = sample.tick;
+        } else if (sample.tick - since >= DWELL_MS) {
+            // Only the end of the dwell shows the steady duty; the PID saturates while it takes up a new load
+            if (saturated) {
+                fail();
+            } else {
+                pass();
+            }
+        }
+        flush();
+        return state != State.FINISHED;
+    }
+
+    /**
+     * Ends the search without sending anything further; the motor keeps its current speed.
+     * @param reason Reason reported to the listener.
+     */
+    public synchronized void stop(String reason) {
+        if (state == State.FINISHED) return;
+        finish(false, reason);
+    }
+
+    /**
+     * Returns whether the search ended.
+     * @return true once finished.
+     */
+    public synchronized boolean isFinished() {
+        return state == State.FINISHED;
+    }
+
+    /**
+     * Returns the highest speed that held so far.
+     * @return Speed in steps/s, 0 if none did.
+     */
+    public synchronized int getStableSpeed() {
+        return stable;
+    }
+
+    /**
+     * Returns the speed being tried.
+     * @return Speed in steps/s.
+     */
+    public synchronized int getCandidate() {
+        return candidate;
+    }
+
+    /**
+     * Moves the motor to the candidate and starts its dwell.
+     */
+    private void tryCandidate() {
+        state = State.TRYING;
+        since = -1;
+        wantedSpeed = candidate;
+        if (stable == 0 && failed == 0) startPending = true;
+        listener.onTrying(candidate);
+    }
+
+    /**
+     * The candidate held: moves up by the step, halving it below a known failure.
+     */
+    private void pass() {
+        stable = candidate;
+        if (stable >= maxSpeed) {
+            finish(true, null);
+            return;
+        }
+        while (failed > 0 && stable + step >= failed) {
+            step /= 2;
+            if (step < MIN_STEP) {
+                finish(true, null);
+                return;
+            }
+        }
+        candidate = Math.min(maxSpeed, stable + step);
+        tryCandidate();
+    }
+
+    /**
+     * The candidate failed: falls back to the last speed that held and settles before a smaller step.
+     */
+    private void fail() {
+        failed = candidate;
+        if (stable == 0) {
+            wantedSpeed = 0;
+            sink.send("STOP");
+            finish(false, "起始速度 " + candidate + " 已無法維持溫度");
+            return;
+        }
+        wantedSpeed = stable;
+        step /= 2;
+        if (step < MIN_STEP) {
+            finish(true, null);
+            return;
+        }
+        candidate = stable + step;
+        state = State.SETTLING;
+        since = -1;
+    }
+
+    /**
+     * Ends the search and reports it.
+     * @param completed true if it converged.
+     * @param reason Reason when not completed.
+     */
+    private void finish(boolean completed, String reason) {
+        state = State.FINISHED;
+        listener.onFinished(completed, stable, reason);
+    }
+
+    /**
+     * Hands the commands that are due to the sink.
+     */
+    private void flush() {
+        if (wantedSpeed > 0 && wantedSpeed != sentSpeed) {
+            if (!sink.send("SET_SPEED:" + wantedSpeed)) return;
+            sentSpeed = wantedSpeed;
+        }
+        if (startPending && sink.send("START")) startPending = false;
+    }
+}
@@ -0,0 +1,106 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the Steinhart-Hart fit and the calibration table upload.
+ */
+public class CalibrationTableTest {
+
+    private static final HeaterModel MODEL = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Mean true temperature over the last minute of a 20-minute heat-up.
+     * @param extruder Simulator.
+     * @return Temperature in °C.
+     */
+    private static double settledTemperature(SimulatedExtruder extruder) {
+        extruder.advance(19 * 60 * 1000);
+        double sum = 0;
+        for (int i = 0; i < 240; i++) {
+            extruder.advance(FirmwarePid.UPDATE_INTERVAL_MS);
+            sum += extruder.getPlantTemperature();
+        }
+        return sum / 240;
+    }
+
+    @Test
+    public void fitRecoversTheCurve() {
+        SteinhartHart truth = new SteinhartHart(7.343e-4, 2.157e-4, 9.51e-8);
+        double[] adc = {900, 400, 150, 70, 45};
+        double[] celsius = new double[adc.length];
+        for (int i = 0; i < adc.length; i++) celsius[i] = truth.toCelsius(adc[i]);
+
+        SteinhartHart fit = SteinhartHart.fit(adc, celsius);
+        assertEquals(0, fit.maxResidual(adc, celsius), 1e-6);
+        for (int a = 20; a < 1000; a += 7) assertEquals(truth.toCelsius(a), fit.toCelsius(a), 1e-3);
+
+        try {
+            SteinhartHart.fit(new double[]{100, 100, 200}, new double[]{150, 151, 90});
+            fail("Two distinct points accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void uploadedTableRemovesTheOffset() {
+        // Reference points from the plant itself, so the fitted table reads the true temperature
+        double[] adc = {60, 120, 300, 700};
+        double[] celsius = new double[adc.length];
+        for (int i = 0; i < adc.length; i++) celsius[i] = Thermistor.toCelsius((int) adc[i]);
+        CalibrationTable table = CalibrationTable.fromCurve(SteinhartHart.fit(adc, celsius));
+        assertEquals(Thermistor.toCelsius(80), table.toCelsius(80), 0.1);
+        assertTrue(table.toCelsius(0) > FirmwarePid.SAFETY_LIMIT);
+        assertArrayEquals(table.toBytes(), CalibrationTable.fromBytes(table.toBytes()).toBytes());
+
+        SimulatedExtruder beta = new SimulatedExtruder(MODEL);
+        double betaSettled = settledTemperature(beta);
+
+        SimulatedExtruder calibrated = new SimulatedExtruder(MODEL);
+        List<String> commands = table.toCommands();
+        assertEquals(2 + (CalibrationTable.BYTES + CalibrationTable.CHUNK_BYTES - 1) / CalibrationTable.CHUNK_BYTES,
+                commands.size());
+        long seq = 1;
+        for (String command : commands) {
+            String frame = "#" + seq + ":" + command;
+            assertTrue(frame, frame.length() <= CommandReader.MAX_LENGTH);
+            assertTrue(command, calibrated.handleCommand(frame).startsWith("#" + seq++ + ":OK:"));
+        }
+        // Survives a reset, like the EEPROM copy
+        calibrated.reset();
+        double calibratedSettled = settledTemperature(calibrated);
+        // The plant settles a little below target either way; the table removes exactly the +6 offset
+        assertEquals(FirmwarePid.ERROR_OFFSET, betaSettled - calibratedSettled, 0.5);
+        assertEquals(200, calibratedSettled, 3);
+
+        String adcLine = calibrated.handleCommand(CalibrationTable.CMD_GET_ADC);
+        assertEquals(ProtocolParser.Kind.ADC, new ProtocolParser().parse(adcLine, new TelemetryModel()));
+        assertEquals(Thermistor.toAdc(calibrated.getPlantTemperature()), CalibrationTable.parseAdc(adcLine), 1);
+    }
+
+    @Test
+    public void corruptUploadIsRejected() {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL);
+        List<String> commands = CalibrationTable.fromCurve(new SteinhartHart(7.343e-4, 2.157e-4, 9.51e-8))
+                .toCommands();
+        assertEquals("ERROR: No calibration upload", extruder.handleCommand(commands.get(1)));
+        extruder.handleCommand("START");
+        assertEquals("ERROR: Stop motor before calibration", extruder.handleCommand(CalibrationTable.CMD_BEGIN));
+        extruder.handleCommand("STOP");
+        for (int i = 0; i < commands.size() - 1; i++) {
+            // One chunk lost
+            if (i != 5) extruder.handleCommand(commands.get(i));
+        }
+        assertEquals("ERROR: Calibration checksum mismatch", extruder.handleCommand(commands.get(commands.size() - 1)));
+        assertEquals("ERROR: Invalid calibration data", extruder.handleCommand(CalibrationTable.CMD_DATA + "2046,AAAAAA=="));
+        assertEquals("ERROR: Invalid calibration data", extruder.handleCommand(CalibrationTable.CMD_DATA + "0,AA!A"));
+
+        extruder.handleCommand(commands.get(5));
+        assertEquals("OK: Calibration saved", extruder.handleCommand(commands.get(commands.size() - 1)));
+        assertEquals("OK: Calibration cleared", extruder.handleCommand(CalibrationTable.CMD_CLEAR));
+    }
+}
@@ -0,0 +1,133 @@
+package com.petfilament.recycler.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the raw capture journal and its replay engine.
+ */
+public class CaptureJournalTest {
+
+    /**
+     * Temporary journal directory.
+     */
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void appendedChunksReadBackInOrderAcrossSegments() throws IOException {
+        try (CaptureJournal journal = new CaptureJournal(directory, 256, 100)) {
+            for (int i = 0; i < 100; i++) {
+                byte[] chunk = ("chunk-" + i).getBytes(StandardCharsets.US_ASCII);
+                journal.append(i % 2 == 0 ? CaptureJournal.DIRECTION_IN : CaptureJournal.DIRECTION_OUT, chunk, 0, chunk.length);
+            }
+        }
+        assertTrue(CaptureJournal.listSegments(directory).length > 1);
+
+        CaptureJournal.Record record = new CaptureJournal.Record();
+        long lastTime = Long.MIN_VALUE;
+        try (CaptureJournal.Reader reader = new CaptureJournal.Reader(directory)) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(reader.next(record));
+                assertEquals("chunk-" + i, new String(record.data, 0, record.length, StandardCharsets.US_ASCII));
+                assertEquals(i % 2 == 0 ? CaptureJournal.DIRECTION_IN : CaptureJournal.DIRECTION_OUT, record.direction);
+                assertTrue(record.nanoTime >= lastTime);
+                lastTime = record.nanoTime;
+            }
+            assertFalse(reader.next(record));
+        }
+    }
+
+    @Test
+    public void rotationKeepsOnlyNewestSegments() throws IOException {
+        byte[] chunk = new byte[100];
+        try (CaptureJournal journal = new CaptureJournal(directory, 256, 3)) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(CaptureJournal.DIRECTION_IN, chunk, 0, chunk.length);
+            }
+        }
+        assertEquals(3, CaptureJournal.listSegments(directory).length);
+    }
+
+    @Test
+    public void replayAtMaxSpeedDeliversEveryByte() throws IOException {
+        byte[] chunk = "TEMP:200.00,SPEED:500,STATUS:ON,CONNECTED:yes\n".getBytes(StandardCharsets.US_ASCII);
+        try (CaptureJournal journal = new CaptureJournal(directory, 64 * 1024, 4)) {
+            for (int i = 0; i < 1000; i++) {
+                journal.append(CaptureJournal.DIRECTION_IN, chunk, 0, chunk.length);
+            }
+        }
+
+        long[] received = new long[1];
+        JournalReplayer.Stats stats = new JournalReplayer(directory).replay(JournalReplayer.MAX_SPEED,
+                (direction, data, length) -> received[0] += length);
+        assertEquals(1000, stats.records);
+        assertEquals(1000L * chunk.length, stats.bytes);
+        assertEquals(stats.bytes, received[0]);
+    }
+
+    @Test
+    public void segmentsFromAnotherBootArePacedByWallClock() throws IOException {
+        // Two segments 10 ms apart by wall clock, the second written after a reboot reset the monotonic clock
+        writeSegment(0, 1_000_000L, 900_000_000_000L, 900_000_000_000L, 900_001_000_000L);
+        writeSegment(1, 1_000_010L, 100L, 100L, 2_000_100L);
+
+        CaptureJournal.Record record = new CaptureJournal.Record();
+        long[] expected = {0, 1_000_000L, 10_000_000L, 12_000_000L};
+        try (CaptureJournal.Reader reader = new CaptureJournal.Reader(directory)) {
+            for (long offset : expected) {
+                assertTrue(reader.next(record));
+                assertEquals(1_000_000L * 1_000_000L + offset, record.wallNanos);
+            }
+            assertEquals(1_000_010L, reader.getSegmentWallMillis());
+            assertEquals(100L, reader.getSegmentMonoNanos());
+            assertFalse(reader.next(record));
+        }
+
+        JournalReplayer.Stats stats = new JournalReplayer(directory).replay(1, (direction, data, length) -> { });
+        assertEquals(4, stats.records);
+        assertEquals(12_000_000L, stats.capturedNanos);
+        assertTrue(stats.elapsedNanos >= 12_000_000L);
+        assertTrue(stats.elapsedNanos < 2_000_000_000L);
+    }
+
+    /**
+     * Writes a segment file by hand, holding one single-byte IN record per timestamp.
+     * @param index Segment index.
+     * @param wallMillis Wall-clock start in the header.
+     * @param monoNanos Monotonic start in the header.
+     * @param recordNanos Monotonic record timestamps.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeSegment(long index, long wallMillis, long monoNanos, long... recordNanos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(20 + 14 * recordNanos.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0x50464A31).putLong(wallMillis).putLong(monoNanos);
+        for (long nanos : recordNanos) {
+            buffer.putLong(nanos).put(CaptureJournal.DIRECTION_IN).putInt(1).put((byte) 'x');
+        }
+        Files.write(new File(directory, String.format("capture-%010d.pfj", index)).toPath(), buffer.array());
+    }
+}
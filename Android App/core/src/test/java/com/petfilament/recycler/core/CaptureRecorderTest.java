@@ -0,0 +1,141 @@
+package com.petfilament.recycler.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for raw capture recording and replay.
+ */
+public class CaptureRecorderTest {
+
+    /**
+     * Temporary journal directory.
+     */
+    private File directory;
+
+    /**
+     * Loop owning the replay session.
+     */
+    private final EventLoop loop = new EventLoop("capture-loop");
+
+    /**
+     * Lines the replay session decoded.
+     */
+    private final List<String> lines = new ArrayList<>();
+
+    /**
+     * Session decoding replayed chunks.
+     */
+    private final Session session = new Session(new Session.Listener() {
+        @Override
+        public void onStateChanged(Session.State state, String detail) {
+        }
+
+        @Override
+        public void onLine(String line, ProtocolParser.Kind kind) {
+            lines.add(line);
+        }
+
+        @Override
+        public void onTelemetry(TelemetryModel telemetry) {
+        }
+    });
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        loop.shutdown();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recordsOnlyWhileRunningAndReplaysBareCommands() throws IOException {
+        CaptureRecorder recorder = new CaptureRecorder(directory, 4096, 2);
+        record(recorder, CaptureJournal.DIRECTION_OUT, "#1:START\n");
+        assertFalse(recorder.isRunning());
+        recorder.start();
+        record(recorder, CaptureJournal.DIRECTION_OUT, "#2:SET_SPEED:400\n");
+        record(recorder, CaptureJournal.DIRECTION_OUT, "SYNC_FROM:0:0\n");
+        record(recorder, CaptureJournal.DIRECTION_IN, "#2:OK: Speed set to ");
+        record(recorder, CaptureJournal.DIRECTION_IN, "400\r\n");
+        recorder.stop();
+        assertFalse(recorder.isRunning());
+        record(recorder, CaptureJournal.DIRECTION_OUT, "#3:STOP\n");
+
+        List<String> commands = new ArrayList<>();
+        JournalReplayer.Stats stats = CaptureRecorder.replay(directory, JournalReplayer.MAX_SPEED, loop, session,
+                new CaptureRecorder.ReplayTarget() {
+                    @Override
+                    public boolean isLinkOpen() {
+                        return false;
+                    }
+
+                    @Override
+                    public void onCommand(String command) {
+                        commands.add(command);
+                    }
+                });
+        assertEquals(4, stats.records);
+        assertEquals(Arrays.asList("SET_SPEED:400"), commands);
+        assertEquals(Arrays.asList("OK: Speed set to 400"), loop.call(() -> new ArrayList<>(lines)));
+    }
+
+    @Test
+    public void replayIsRefusedWhileALinkIsOpen() throws IOException {
+        CaptureRecorder recorder = new CaptureRecorder(directory, 4096, 2);
+        recorder.start();
+        record(recorder, CaptureJournal.DIRECTION_IN, "OK: Motor started\r\n");
+        recorder.stop();
+        loop.call(() -> {
+            session.connecting("test");
+            return null;
+        });
+        try {
+            CaptureRecorder.replay(directory, JournalReplayer.MAX_SPEED, loop, session, new CaptureRecorder.ReplayTarget() {
+                @Override
+                public boolean isLinkOpen() {
+                    return false;
+                }
+
+                @Override
+                public void onCommand(String command) {
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Cannot replay while a link is open", e.getMessage());
+        }
+        assertTrue(loop.call(() -> lines.isEmpty()));
+    }
+
+    /**
+     * Records one ASCII chunk.
+     * @param recorder Recorder.
+     * @param direction Journal direction.
+     * @param text Chunk text.
+     * @throws IOException If the journal fails.
+     */
+    private static void record(CaptureRecorder recorder, byte direction, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        recorder.record(direction, bytes, bytes.length);
+    }
+}
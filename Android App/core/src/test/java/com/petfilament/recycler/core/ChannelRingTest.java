@@ -0,0 +1,42 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the per-channel ring.
+ */
+public class ChannelRingTest {
+
+    @Test
+    public void keepsTheLastRowsPerChannelAndSkipsAbsentValues() {
+        ChannelRing ring = new ChannelRing(2, 3);
+        for (int row = 0; row < 5; row++) {
+            ring.push();
+            ring.set(0, row);
+            // Channel 1 is only present in odd rows
+            if (row % 2 == 1) ring.set(1, 10 * row);
+        }
+
+        assertTrue(ring.isFull());
+        assertEquals(3, ring.size());
+        assertEquals(2f, ring.get(0, 0), 0f);
+        assertEquals(4f, ring.get(0, 2), 0f);
+        assertEquals(3.0, ring.getMean(0), 1e-9);
+        assertTrue(Float.isNaN(ring.get(1, 0)));
+        assertEquals(1, ring.getCount(1));
+        assertEquals(30.0, ring.getMean(1), 1e-9);
+        assertEquals(30f, ring.getMin(1), 0f);
+        assertEquals(30f, ring.getMax(1), 0f);
+        assertEquals(2f, ring.getMin(0), 0f);
+
+        // Overwriting a value keeps the running sum right
+        ring.set(0, 10);
+        assertEquals(5.0, ring.getMean(0), 1e-9);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertTrue(Double.isNaN(ring.getMean(0)));
+        assertTrue(Float.isNaN(ring.getMax(0)));
+    }
+}
@@ -0,0 +1,146 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the firmware's non-blocking command parser and the simulated link built on it.
+ */
+public class CommandReaderTest {
+
+    /**
+     * Feeds bytes one loop iteration at a time, a random number of bytes per iteration.
+     * @param reader Parser.
+     * @param text Received text.
+     * @param random Chunk sizes.
+     * @return Completed commands, with "!" for dropped overlong lines.
+     */
+    private static List<String> feed(CommandReader reader, String text, Random random) {
+        List<String> commands = new ArrayList<>();
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        long now = 0;
+        int i = 0;
+        while (i < bytes.length) {
+            // Bytes arrive at 9600 baud, about one per millisecond; an iteration takes what is there
+            int available = Math.min(bytes.length - i, random.nextInt(4));
+            for (int end = i + available; i < end; i++) {
+                collect(reader.accept(bytes[i], now), reader, commands);
+            }
+            collect(reader.checkIdle(now), reader, commands);
+            now += 1;
+        }
+        collect(reader.checkIdle(now + CommandReader.IDLE_MILLIS), reader, commands);
+        return commands;
+    }
+
+    private static void collect(CommandReader.Result result, CommandReader reader, List<String> commands) {
+        if (result == CommandReader.Result.READY) commands.add(reader.getCommand());
+        if (result == CommandReader.Result.TOO_LONG) commands.add("!");
+    }
+
+    @Test
+    public void commandsAreReassembledFromAnyChunking() {
+        StringBuilder overlong = new StringBuilder();
+        for (int i = 0; i <= CommandReader.MAX_LENGTH; i++) overlong.append('X');
+        String text = "#1:SET_TEMP:180.5\r\n\n  START \r" + overlong + "\n#2:GET_STATUS\nSTOP\n";
+        for (int seed = 0; seed < 50; seed++) {
+            List<String> commands = feed(new CommandReader(), text, new Random(seed));
+            assertEquals(String.valueOf(seed), List.of("#1:SET_TEMP:180.5", "START", "!", "#2:GET_STATUS", "STOP"), commands);
+        }
+    }
+
+    @Test
+    public void unterminatedCommandEndsOnlyAfterTheLineIsIdle() {
+        CommandReader reader = new CommandReader();
+        long now = 100;
+        for (byte b : "GET_ST".getBytes(StandardCharsets.US_ASCII)) {
+            assertEquals(CommandReader.Result.NONE, reader.accept(b, now++));
+        }
+        // A gap shorter than the idle time, as between two radio packets, does not split the command
+        assertEquals(CommandReader.Result.NONE, reader.checkIdle(now + CommandReader.IDLE_MILLIS - 2));
+        for (byte b : "ATUS".getBytes(StandardCharsets.US_ASCII)) {
+            assertEquals(CommandReader.Result.NONE, reader.accept(b, now++));
+        }
+        assertEquals(CommandReader.Result.NONE, reader.checkIdle(now + CommandReader.IDLE_MILLIS - 2));
+        assertEquals(CommandReader.Result.READY, reader.checkIdle(now + CommandReader.IDLE_MILLIS));
+        assertEquals("GET_STATUS", reader.getCommand());
+        assertEquals(CommandReader.Result.NONE, reader.checkIdle(now + 1000));
+    }
+
+    @Test
+    public void frameSplitByAPauseIsNeverRunInHalves() {
+        // A "#seq:" prefix marks a sender that terminates its commands, even before its first terminator
+        CommandReader reader = new CommandReader();
+        long now = 100;
+        for (byte b : "#12:SET_TEMP:2".getBytes(StandardCharsets.US_ASCII)) reader.accept(b, now++);
+        assertEquals(CommandReader.Result.NONE, reader.checkIdle(now + 500));
+        now += 500;
+        for (byte b : "00".getBytes(StandardCharsets.US_ASCII)) reader.accept(b, now++);
+        assertEquals(CommandReader.Result.READY, reader.accept('\n', now));
+        assertEquals("#12:SET_TEMP:200", reader.getCommand());
+
+        // Once a terminator was seen, unprefixed commands wait for theirs too
+        for (byte b : "SET_SPEED:4".getBytes(StandardCharsets.US_ASCII)) reader.accept(b, now++);
+        assertEquals(CommandReader.Result.NONE, reader.checkIdle(now + 500));
+        now += 500;
+        assertEquals(CommandReader.Result.NONE, reader.accept('0', now));
+        assertEquals(CommandReader.Result.READY, reader.accept('\r', now));
+        assertEquals("SET_SPEED:40", reader.getCommand());
+    }
+
+    @Test
+    public void linkJoinsAFrameWrittenInTwoParts() throws Exception {
+        SimulatedExtruder.Link link = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25)).open(1);
+        try {
+            OutputStream out = link.getOutputStream();
+            out.write("#12:SET_TEMP:2".getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(2 * CommandReader.IDLE_MILLIS);
+            out.write("00\n".getBytes(StandardCharsets.US_ASCII));
+            String expected = "#12:OK: Temp set to 200.00\r\n";
+            assertEquals(expected, readExactly(link.getInputStream(), expected.length()));
+            assertEquals(200f, link.getExtruder().getSetTemperature(), 0f);
+            out.write("#13:SET_TEMP:2".getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(2 * CommandReader.IDLE_MILLIS);
+            out.write("10\n".getBytes(StandardCharsets.US_ASCII));
+            expected = "#13:OK: Temp set to 210.00\r\n";
+            assertEquals(expected, readExactly(link.getInputStream(), expected.length()));
+        } finally {
+            link.close();
+        }
+    }
+
+    @Test
+    public void linkRejectsOverlongLinesAndKeepsServing() throws Exception {
+        SimulatedExtruder.Link link = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25)).open(1);
+        try {
+            OutputStream out = link.getOutputStream();
+            StringBuilder overlong = new StringBuilder("SET_TEMP:");
+            while (overlong.length() <= CommandReader.MAX_LENGTH) overlong.append('1');
+            out.write((overlong + "\r\n#5:START\r\n").getBytes(StandardCharsets.US_ASCII));
+            String expected = CommandReader.ERROR_TOO_LONG + "\r\n#5:OK: Motor started\r\n";
+            assertEquals(expected, readExactly(link.getInputStream(), expected.length()));
+            assertEquals(200f, link.getExtruder().getSetTemperature(), 0f);
+        } finally {
+            link.close();
+        }
+    }
+
+    private static String readExactly(InputStream in, int length) throws Exception {
+        byte[] buffer = new byte[length];
+        int n = 0;
+        while (n < length) {
+            int r = in.read(buffer, n, length - n);
+            assertTrue(r > 0);
+            n += r;
+        }
+        return new String(buffer, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,126 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the diameter loop, run in virtual time against the simulated sensor.
+ */
+public class DiameterControllerTest {
+
+    private static final long MS = 1_000_000L;
+
+    private static final HeaterModel MODEL = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Builds a simulator pulling at a speed and streaming diameter readings.
+     * @param speed Speed in steps/s.
+     * @return Simulator.
+     */
+    private static SimulatedExtruder pulling(int speed) {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL);
+        extruder.handleCommand("SET_SPEED:" + speed);
+        extruder.handleCommand("START");
+        assertEquals("OK: Diameter rate 20",
+                extruder.handleCommand(DiameterController.CMD_RATE + DiameterController.DEFAULT_RATE_HZ));
+        return extruder;
+    }
+
+    /**
+     * Runs the loop as the app does: readings are delivered as the link's clock produces them and the
+     * controller ticks every {@link DiameterController#DEFAULT_PERIOD_MS}.
+     * @param extruder Simulator.
+     * @param controller Controller, or null to leave the speed alone.
+     * @param millis Virtual time to run.
+     * @return Diameters under the sensor, one per tick.
+     */
+    private static List<Double> run(SimulatedExtruder extruder, DiameterController controller, long millis) {
+        List<Double> diameters = new ArrayList<>();
+        for (long t = 0; t < millis; t += 50) {
+            extruder.advance(50);
+            long now = extruder.getClockMillis() * MS;
+            String lines = extruder.takeOutput();
+            for (String line : lines.isEmpty() ? new String[0] : lines.split("\r\n")) {
+                assertEquals(ProtocolParser.Kind.DIAMETER, new ProtocolParser().parse(line, new TelemetryModel()));
+                if (controller != null) controller.accept(DiameterController.parse(line), now);
+            }
+            if (controller != null && t % DiameterController.DEFAULT_PERIOD_MS == 0) controller.update(now);
+            diameters.add(extruder.getSensorDiameter());
+        }
+        return diameters;
+    }
+
+    /**
+     * Returns the largest deviation from a target.
+     * @param values Values.
+     * @param from First index considered.
+     * @param target Target.
+     * @return Largest absolute deviation.
+     */
+    private static double maxDeviation(List<Double> values, int from, double target) {
+        double max = 0;
+        for (int i = from; i < values.size(); i++) max = Math.max(max, Math.abs(values.get(i) - target));
+        return max;
+    }
+
+    @Test
+    public void pullsToTheTargetDiameterWithBoundedCommands() {
+        // 400 steps/s draws 1.75 * sqrt(500 / 400) = 1.96 mm
+        SimulatedExtruder extruder = pulling(400);
+        List<String> sent = new ArrayList<>();
+        DiameterController controller = new DiameterController(1.75, 400, 100, 1000, command -> {
+            sent.add(command);
+            extruder.handleCommand(command);
+            return true;
+        });
+        List<Double> diameters = run(extruder, controller, 60_000);
+
+        assertEquals(SimulatedExtruder.DIAMETER_REFERENCE_SPEED, extruder.getRotatingSpeed(), 5);
+        assertEquals(1.75, controller.getDiameter(), 0.01);
+        // Started 0.2 mm thick once the first filament reached the sensor, settled within 30 s without hunting
+        assertTrue(maxDeviation(diameters, diameters.size() / 2, 1.75) < 0.01);
+        assertTrue(Math.abs(diameters.get(40) - 1.75) > 0.2);
+        // At most one SET_SPEED per MIN_COMMAND_INTERVAL_MS, all of them within the limits
+        assertFalse(sent.isEmpty());
+        assertTrue("Commands " + sent.size(), sent.size() <= 60_000 / DiameterController.MIN_COMMAND_INTERVAL_MS);
+        assertEquals(sent.size(), controller.getCommandCount());
+        assertEquals(20 * 60, controller.getReadingCount(), 20);
+    }
+
+    @Test
+    public void rejectsFeedVariationAndHoldsWithoutReadings() {
+        SimulatedExtruder open = pulling(SimulatedExtruder.DIAMETER_REFERENCE_SPEED);
+        open.setFeedVariation(0.1, 60_000);
+        double openLoop = maxDeviation(run(open, null, 120_000), 0, 1.75);
+
+        SimulatedExtruder closed = pulling(SimulatedExtruder.DIAMETER_REFERENCE_SPEED);
+        closed.setFeedVariation(0.1, 60_000);
+        DiameterController controller = new DiameterController(1.75, SimulatedExtruder.DIAMETER_REFERENCE_SPEED,
+                100, 1000, command -> {
+                    closed.handleCommand(command);
+                    return true;
+                });
+        List<Double> diameters = run(closed, controller, 120_000);
+        double closedLoop = maxDeviation(diameters, diameters.size() / 2, 1.75);
+        assertTrue("Open " + openLoop + " closed " + closedLoop, closedLoop < openLoop / 3);
+
+        // The stream stops with the motor: once a speed still held back by the rate limit went out, the
+        // speed holds and nothing more is sent
+        closed.handleCommand("STOP");
+        run(closed, controller, DiameterController.MIN_COMMAND_INTERVAL_MS);
+        long commands = controller.getCommandCount();
+        int speed = controller.getSpeed();
+        run(closed, controller, 10_000);
+        assertEquals(commands, controller.getCommandCount());
+        assertEquals(speed, controller.getSpeed());
+
+        assertEquals(1.752, DiameterController.parse("DIA:1.752"), 0);
+        assertTrue(Double.isNaN(DiameterController.parse("DIA:abc")));
+        assertTrue(Double.isNaN(DiameterController.parse("DIA:-1")));
+        assertEquals("ERROR: Invalid rate", closed.handleCommand("DIA_RATE:100"));
+    }
+}
@@ -0,0 +1,195 @@
+package com.petfilament.recycler.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the single-threaded event loop.
+ */
+public class EventLoopTest {
+
+    /**
+     * Loop under test.
+     */
+    private final EventLoop loop = new EventLoop("test-loop");
+
+    @After
+    public void tearDown() {
+        loop.shutdown();
+    }
+
+    @Test
+    public void tasksRunInPostingOrderOnOneThread() {
+        List<Integer> order = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int value = i;
+            loop.execute(() -> {
+                order.add(value);
+                threads.add(Thread.currentThread());
+            });
+        }
+        // A call queues behind the tasks already posted, so it sees all of their effects
+        int size = loop.call(order::size);
+        assertEquals(1000, size);
+        for (int i = 0; i < 1000; i++) assertEquals(i, (int) order.get(i));
+        assertEquals(1, new HashSet<>(threads).size());
+        assertEquals("test-loop", threads.get(0).getName());
+        assertFalse(loop.inLoop());
+        assertTrue(loop.call(loop::inLoop));
+        assertEquals(1002, loop.getTaskCount());
+        assertTrue(loop.getMaxQueueDelayMillis() >= loop.getMeanQueueDelayMillis());
+    }
+
+    @Test
+    public void dispatchOnTheLoopRunsAtOnceWhileExecuteQueues() {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        loop.call(() -> {
+            loop.execute(() -> order.add("queued"));
+            loop.dispatch(() -> order.add("dispatched"));
+            // Nested calls do not wait for the loop they run on
+            order.add(loop.call(() -> "called"));
+            return null;
+        });
+        loop.call(() -> null);
+        assertEquals(Arrays.asList("dispatched", "called", "queued"), order);
+    }
+
+    @Test
+    public void callRethrowsWhatTheTaskThrew() {
+        try {
+            loop.call(() -> {
+                throw new IllegalArgumentException("bad");
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("bad", e.getMessage());
+        }
+        try {
+            loop.call(() -> {
+                throw new IOException("io");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        // A failing posted task goes to the thread's handler; one that returns lets the loop carry on
+        loop.execute(() -> Thread.currentThread().setUncaughtExceptionHandler((thread, e) -> { }));
+        loop.execute(() -> {
+            throw new IllegalStateException("ignored");
+        });
+        assertEquals(Integer.valueOf(7), loop.call(() -> 7));
+    }
+
+    @Test
+    public void scheduledTasksRunWhenDueAndCanBeCancelled() throws InterruptedException {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        loop.schedule(() -> {
+            order.add("late");
+            done.countDown();
+        }, 50);
+        ScheduledFuture<?> cancelled = loop.schedule(() -> order.add("cancelled"), 20);
+        loop.schedule(() -> order.add("early"), 10);
+        loop.execute(() -> order.add("now"));
+        cancelled.cancel(false);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("now", "early", "late"), order);
+    }
+
+    @Test
+    public void shutdownRunsPostedTasksThenDropsNewOnes() {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        loop.execute(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            order.add("before");
+        });
+        assertNotNull(loop.schedule(() -> order.add("delayed"), 60_000));
+        loop.shutdown();
+        assertTrue(loop.isShutdown());
+        loop.execute(() -> order.add("after"));
+        assertNull(loop.schedule(() -> order.add("after"), 0));
+        // The call waits for the posted tasks to drain, then the caller owns the state and runs it itself
+        assertFalse(loop.call(() -> {
+            order.add("call");
+            return loop.inLoop();
+        }));
+        assertEquals(Arrays.asList("before", "call"), order);
+    }
+
+    @Test
+    public void runnerCommandsReachTheSessionOnTheLoop() throws InterruptedException {
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        List<String> offLoop = Collections.synchronizedList(new ArrayList<>());
+        Session session = new Session(new Session.Listener() {
+            @Override
+            public void onStateChanged(Session.State state, String detail) {
+            }
+
+            @Override
+            public void onLine(String line, ProtocolParser.Kind kind) {
+            }
+
+            @Override
+            public void onTelemetry(TelemetryModel telemetry) {
+            }
+        }) {
+            @Override
+            public boolean send(String command) {
+                if (!loop.inLoop()) offLoop.add(command);
+                sent.add(command);
+                return super.send(command);
+            }
+        };
+        loop.call(() -> {
+            session.connecting("test");
+            session.connected();
+            return null;
+        });
+        CountDownLatch done = new CountDownLatch(1);
+        RecipeRunner runner = new RecipeRunner(Recipe.parse("START;SPEED:400;HOLD:0.05;STOP"), session.sinkOn(loop),
+                new RecipeRunner.Listener() {
+                    @Override
+                    public void onStep(int index, Recipe.Step step) {
+                    }
+
+                    @Override
+                    public void onFinished(boolean completed, String reason) {
+                        done.countDown();
+                    }
+                });
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        try {
+            runner.begin(System.nanoTime(), 25, 0);
+            runner.start(ticker, 10, () -> Double.NaN);
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+        } finally {
+            ticker.shutdownNow();
+        }
+        loop.call(() -> {
+            session.retransmit();
+            return null;
+        });
+        assertTrue(sent.containsAll(Arrays.asList("START", "SET_SPEED:400", "STOP")));
+        // The recipe ticked on its own thread, yet the session only ever sent on the loop
+        assertEquals(Collections.emptyList(), offLoop);
+    }
+}
@@ -0,0 +1,87 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for online heater identification and the warm-up estimate.
+ */
+public class HeaterIdentifierTest {
+
+    private static final HeaterModel MODEL = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Runs the simulator and feeds its backfilled samples to the identifier.
+     * @param extruder Simulator.
+     * @param sync Backfill state for the simulator.
+     * @param identifier Identifier.
+     * @param millis Time to run.
+     */
+    private static void run(SimulatedExtruder extruder, TelemetrySync sync, HeaterIdentifier identifier, long millis) {
+        extruder.advance(millis);
+        List<TelemetrySample> samples = new ArrayList<>();
+        for (String line : extruder.handleCommand(sync.request(System.nanoTime())).split("\r\n")) {
+            assertTrue(line, sync.accept(line, samples));
+        }
+        for (TelemetrySample sample : samples) identifier.accept(sample);
+    }
+
+    @Test
+    public void predictsWarmupWhileHeating() {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL);
+        TelemetrySync sync = new TelemetrySync();
+        HeaterIdentifier identifier = new HeaterIdentifier();
+        extruder.handleCommand("SET_TEMP:220");
+        assertFalse(identifier.estimate(220).hasEta());
+
+        // 40 s into a warm-up that takes about 90 s, the heater has only run flat out
+        run(extruder, sync, identifier, 40_000);
+        HeaterEstimate estimate = identifier.estimate(220);
+        assertTrue(estimate.hasEta());
+        long start = extruder.getClockMillis();
+        while (extruder.getTemperatureRead() < 220) extruder.advance(FirmwarePid.UPDATE_INTERVAL_MS);
+        double actual = (extruder.getClockMillis() - start) / 1000.0;
+        assertEquals(actual, estimate.etaSeconds, 0.3 * actual);
+        assertTrue(estimate.etaLowSeconds <= actual && actual <= estimate.etaHighSeconds);
+
+        // Once the PID modulates, gain and ambient separate
+        run(extruder, sync, identifier, 5 * 60_000);
+        HeaterModel model = identifier.estimate(220).model;
+        assertNotNull(model);
+        assertEquals(MODEL.gain, model.gain, 0.1 * MODEL.gain);
+        assertEquals(MODEL.tau, model.tau, 0.15 * MODEL.tau);
+        assertEquals(MODEL.deadTime, model.deadTime, 1);
+    }
+
+    @Test
+    public void flagsAWeakerHeater() {
+        SimulatedExtruder healthy = new SimulatedExtruder(MODEL);
+        TelemetrySync sync = new TelemetrySync();
+        HeaterIdentifier identifier = new HeaterIdentifier();
+        for (int minute = 0; minute < 10; minute++) {
+            run(healthy, sync, identifier, 60_000);
+            HeaterEstimate estimate = identifier.estimate(200);
+            if (identifier.getBaseline() == null) {
+                identifier.setBaseline(estimate.model);
+            } else {
+                assertFalse(estimate.drifted);
+            }
+        }
+        assertNotNull(identifier.getBaseline());
+        assertEquals(MODEL.gain, identifier.getBaseline().gain, 0.1 * MODEL.gain);
+
+        // Same extruder after a heater band lost 30% of its power, holding the setpoint with a nearly constant duty
+        SimulatedExtruder weak = new SimulatedExtruder(new HeaterModel(0.7 * MODEL.gain, 90, 4, 25));
+        sync = new TelemetrySync();
+        for (int minute = 0; minute < 20; minute++) run(weak, sync, identifier, 60_000);
+        HeaterEstimate estimate = identifier.estimate(200);
+        assertTrue(estimate.drifted);
+        assertEquals(-0.3, estimate.gainDrift, 0.08);
+        // As read through the uncalibrated thermistor, a few degrees below the plant
+        assertEquals(0.7 * MODEL.gain + 25, estimate.fullPowerTemperature, 15);
+    }
+}
@@ -0,0 +1,62 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for compressed log blocks and message dictionary promotion.
+ */
+public class LogBlockTest {
+
+    @Test
+    public void blockRoundTripsAndCompressesSimilarLines() {
+        List<String> messages = new ArrayList<>();
+        int rawBytes = 0;
+        for (int i = 0; i < 256; i++) {
+            String message = String.format(Locale.US, "SET_TEMP:%.1f", 150 + i * 0.5);
+            messages.add(message);
+            rawBytes += message.length();
+        }
+        messages.add("");
+        messages.add("溫度 200°C");
+
+        byte[] block = LogBlock.encode(messages);
+        assertEquals(messages, Arrays.asList(LogBlock.decode(block)));
+        assertTrue(block.length * 4 < rawBytes);
+
+        try {
+            LogBlock.decode(Arrays.copyOf(block, block.length / 2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void repeatedMessagesArePromotedUpToTheCap() {
+        MessageInterner interner = new MessageInterner(2, 3);
+        assertFalse(interner.shouldIntern("OK: Motor started"));
+        assertTrue(interner.shouldIntern("OK: Motor started"));
+        interner.put("OK: Motor started", 7);
+        assertEquals(7, interner.lookup("OK: Motor started"));
+
+        // Seen again only after three other messages: forgotten, so not promoted yet
+        interner.shouldIntern("GET_STATUS");
+        for (String other : new String[]{"a", "b", "c"}) interner.shouldIntern(other);
+        assertFalse(interner.shouldIntern("GET_STATUS"));
+        assertTrue(interner.shouldIntern("GET_STATUS"));
+        interner.put("GET_STATUS", 8);
+
+        // Full dictionary
+        interner.shouldIntern("STOP");
+        assertFalse(interner.shouldIntern("STOP"));
+        assertEquals(-1, interner.lookup("STOP"));
+        assertEquals(2, interner.size());
+    }
+}
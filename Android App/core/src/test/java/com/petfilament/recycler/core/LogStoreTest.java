@@ -0,0 +1,51 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the columnar log store.
+ */
+public class LogStoreTest {
+
+    @Test
+    public void formatHeader_matchesSqliteTimestampText() {
+        LogStore store = new LogStore(new LogStore.Dictionary());
+        // 2025-03-01 13:05:09 as wall-clock seconds
+        store.append(1, 1740834309L, true, "GET_STATUS");
+        store.append(2, 951782400L, false, "STOP");
+
+        char[] buffer = new char[LogStore.HEADER_LENGTH];
+        assertEquals("[2025-03-01 13:05:09] IN:", new String(buffer, 0, store.formatHeader(0, buffer)));
+        assertEquals("[2000-02-29 00:00:00] OUT:", new String(buffer, 0, store.formatHeader(1, buffer)));
+    }
+
+    @Test
+    public void repeatedMessagesShareOneDictionaryEntry() {
+        LogStore.Dictionary dictionary = new LogStore.Dictionary();
+        LogStore store = new LogStore(dictionary);
+        for (int i = 0; i < 1000; i++) {
+            store.append(i, i, i % 2 == 0, new String(i % 3 == 0 ? "OK: Motor started" : "OK: Settings saved"));
+        }
+        assertEquals(2, dictionary.size());
+        assertSame(store.getMessage(0), store.getMessage(3));
+    }
+
+    @Test
+    public void appendAllPreservesDirectionBitsAcrossWordBoundaries() {
+        LogStore.Dictionary dictionary = new LogStore.Dictionary();
+        LogStore store = new LogStore(dictionary);
+        for (int i = 0; i < 70; i++) store.append(i, i, false, "OUT");
+        LogStore batch = new LogStore(dictionary);
+        for (int i = 70; i < 400; i++) batch.append(i, i, i % 7 == 0, "X");
+
+        store.appendAll(batch);
+
+        assertEquals(400, store.size());
+        for (int i = 0; i < 400; i++) {
+            assertEquals(i, store.getId(i));
+            assertEquals(i >= 70 && i % 7 == 0, store.isInbound(i));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the firmware PID replica, the heater model fit and the parallel sweep.
+ */
+public class PidSimulatorTest {
+
+    /**
+     * Plant roughly matching a 40 W band heater on an aluminium block.
+     */
+    private static final HeaterModel MODEL = new HeaterModel(320, 90, 4, 25);
+
+    @Test
+    public void firmwarePid_matchesHandComputedFirstTick() {
+        FirmwarePid pid = new FirmwarePid(90, 30, 80);
+        pid.setSetTemperature(200f);
+        int adc = Thermistor.toAdc(190.0);
+        float reading = (float) Thermistor.toCelsius(adc);
+
+        float error = 200f - reading + 6;
+        float integral = 30 * error * 0.25f;
+        integral = Math.max(-255f, Math.min(255f, integral));
+        float expected = Math.max(0f, Math.min(255f, 90 * error + integral + 80 * error / 0.25f));
+
+        assertEquals(expected / 255f, pid.update(adc), 0f);
+    }
+
+    @Test
+    public void firmwarePid_cutsHeaterAboveSafetyLimit() {
+        FirmwarePid pid = new FirmwarePid(90, 30, 80);
+        pid.setSetTemperature(290f);
+        assertEquals(0f, pid.update(Thermistor.toAdc(320.0)), 0f);
+    }
+
+    @Test
+    public void thermistor_roundTripsWithinQuantisation() {
+        for (int t = 30; t <= 280; t += 10) {
+            assertEquals(t, Thermistor.toCelsius(Thermistor.toAdc(t)), 3.0);
+        }
+    }
+
+    @Test
+    public void heaterModel_fitRecoversSimulatedPlant() {
+        int n = 2400;
+        float[] temp = new float[n];
+        float[] duty = new float[n];
+        double a = MODEL.decay(PidSimulator.DT);
+        int d = MODEL.deadSteps(PidSimulator.DT);
+        double t = MODEL.ambient;
+        for (int k = 0; k < n; k++) {
+            duty[k] = (k / 200) % 2 == 0 ? 0.8f : 0.2f;
+            temp[k] = (float) t;
+            double u = k >= d ? duty[k - d] : 0;
+            t = MODEL.ambient + (t - MODEL.ambient) * a + MODEL.gain * (1 - a) * u;
+        }
+
+        HeaterModel fitted = HeaterModel.fit(temp, duty, PidSimulator.DT, 40);
+        assertEquals(MODEL.gain, fitted.gain, 2.0);
+        assertEquals(MODEL.tau, fitted.tau, 1.0);
+        assertEquals(MODEL.deadTime, fitted.deadTime, PidSimulator.DT);
+        assertEquals(MODEL.ambient, fitted.ambient, 1.0);
+    }
+
+    @Test
+    public void simulator_reachesTargetWithFirmwareGains() {
+        PidSimulator simulator = new PidSimulator(MODEL, 200f, 25, 1200, 2f);
+        PidSimulator.Result result = simulator.simulate(90, 30, 80);
+        assertTrue(result.toString(), result.meanAbsError < 20f);
+        assertTrue(result.toString(), result.overshoot < 20f);
+    }
+
+    @Test
+    public void sweep_ranksSettledCandidatesFirst() {
+        PidSimulator simulator = new PidSimulator(MODEL, 200f, 25, 900, 2f);
+        PidSimulator.Result[] ranked = PidSweep.random(simulator,
+                new float[]{1, 150}, new float[]{0, 60}, new float[]{0, 150}, 500, 42).run();
+
+        assertEquals(500, ranked.length);
+        for (int i = 1; i < ranked.length; i++) {
+            assertTrue(ranked[i - 1].compareTo(ranked[i]) <= 0);
+        }
+        assertTrue(ranked[0].isSettled());
+        assertTrue(ranked[0].compareTo(simulator.simulate(90, 30, 80)) <= 0);
+    }
+}
@@ -0,0 +1,112 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the mergeable quantile sketch.
+ */
+public class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.1, 0.5, 0.9, 0.99, 0.999, 1};
+
+    /**
+     * Setpoint errors of a regulated heater: mostly within a degree, with rare excursions.
+     * @param random Random source.
+     * @param n Number of values.
+     * @return Values.
+     */
+    private static double[] errors(Random random, int n) {
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian() * (random.nextInt(100) == 0 ? 8 : 0.6) - 0.3;
+        }
+        return values;
+    }
+
+    @Test
+    public void quantilesAreWithinTheRelativeAccuracy() {
+        double[] values = errors(new Random(1), 100_000);
+        QuantileSketch sketch = new QuantileSketch();
+        for (double value : values) sketch.add(value);
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        assertEquals(values.length, sketch.getCount());
+        for (double q : QUANTILES) {
+            double exact = sorted[(int) (q * (values.length - 1))];
+            double tolerance = QuantileSketch.RELATIVE_ACCURACY * Math.abs(exact) + QuantileSketch.MIN_VALUE;
+            assertEquals("q=" + q, exact, sketch.quantile(q), tolerance);
+        }
+        assertEquals(sorted[0], sketch.quantile(0), 0);
+        assertEquals(sorted[values.length - 1], sketch.quantile(1), 0);
+
+        double[] magnitudes = new double[values.length];
+        for (int i = 0; i < values.length; i++) magnitudes[i] = Math.abs(values[i]);
+        Arrays.sort(magnitudes);
+        double exact = magnitudes[(int) (0.99 * (values.length - 1))];
+        assertEquals(exact, sketch.absolute().quantile(0.99), QuantileSketch.RELATIVE_ACCURACY * exact);
+
+        assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+        try {
+            sketch.quantile(1.5);
+            fail("Quantile above 1 accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void storedSketchesMergeIntoTheWholeSketch() {
+        Random random = new Random(7);
+        QuantileSketch whole = new QuantileSketch();
+        QuantileSketch merged = new QuantileSketch();
+        int totalBytes = 0;
+        for (int run = 0; run < 30; run++) {
+            QuantileSketch part = new QuantileSketch();
+            for (double value : errors(random, 2000)) {
+                part.add(value);
+                whole.add(value);
+            }
+            // Through the stored form, as the run history does
+            byte[] stored = part.toBytes();
+            totalBytes += stored.length;
+            merged.merge(QuantileSketch.fromBytes(stored));
+        }
+        assertTrue("Average stored size " + totalBytes / 30, totalBytes / 30 < 1024);
+        assertEquals(whole.getCount(), merged.getCount());
+        assertEquals(whole.getMin(), merged.getMin(), 0);
+        assertEquals(whole.getMax(), merged.getMax(), 0);
+        for (double q : QUANTILES) assertEquals(whole.quantile(q), merged.quantile(q), 0);
+        assertArrayEquals(whole.toBytes(), merged.toBytes());
+
+        QuantileSketch empty = QuantileSketch.fromBytes(new QuantileSketch().toBytes());
+        assertEquals(0, empty.getCount());
+        merged.merge(empty);
+        assertEquals(whole.getCount(), merged.getCount());
+    }
+
+    @Test
+    public void bucketsStayBoundedAndCorruptDataIsRejected() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int e = -3; e <= 300; e++) sketch.add(Math.pow(10, e));
+        for (int i = 0; i < 1000; i++) sketch.add(1e290);
+        // The smallest magnitudes collapsed; the top of the distribution keeps its accuracy
+        assertEquals(1e290, sketch.quantile(0.5), 1e290 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(1e300, sketch.quantile(1), 0);
+        assertTrue(sketch.toBytes().length < 4 * QuantileSketch.MAX_BUCKETS);
+
+        byte[] stored = sketch.toBytes();
+        for (byte[] corrupt : new byte[][]{{}, {9}, Arrays.copyOf(stored, stored.length - 1),
+                Arrays.copyOf(stored, stored.length + 1)}) {
+            try {
+                QuantileSketch.fromBytes(corrupt);
+                fail("Corrupt sketch accepted: " + corrupt.length + " bytes");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for recipes and their execution in virtual and real time.
+ */
+public class RecipeRunnerTest {
+
+    private static final long MS = 1_000_000L;
+
+    /**
+     * Listener recording every event.
+     */
+    private static class Recorder implements RecipeRunner.Listener {
+        final List<Integer> steps = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Boolean completed;
+        String reason;
+
+        @Override
+        public void onStep(int index, Recipe.Step step) {
+            steps.add(index);
+        }
+
+        @Override
+        public void onFinished(boolean completed, String reason) {
+            this.completed = completed;
+            this.reason = reason;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void recipeTextRoundTrips() {
+        Recipe recipe = Recipe.parse(" temp:180@10; WAIT_TEMP:8,600;START;SPEED:400@20.5;HOLD:1.5;STOP; ");
+        assertEquals(6, recipe.getSteps().size());
+        assertEquals("TEMP:180@10;WAIT_TEMP:8,600;START;SPEED:400@20.5;HOLD:1.5;STOP", recipe.toString());
+        assertEquals(1500, recipe.getSteps().get(4).durationMillis);
+        assertEquals(recipe.toString(), Recipe.parse(recipe.toString()).toString());
+        for (String bad : new String[]{"", ";", "TEMP", "TEMP:abc", "HOLD:-1", "WAIT_TEMP:0", "START:1", "JUMP:3"}) {
+            try {
+                Recipe.parse(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void profileRunsAgainstSimulatorInAcceleratedTime() {
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25));
+        List<String> sent = new ArrayList<>();
+        Recorder recorder = new Recorder();
+        RecipeRunner runner = new RecipeRunner(
+                Recipe.parse("TEMP:180@20;WAIT_TEMP:8,1800;START;SPEED:400@20;HOLD:60;TEMP:200@10;STOP"),
+                command -> {
+                    sent.add(command);
+                    return extruder.handleCommand(command).startsWith("OK");
+                }, recorder);
+        runner.begin(0, 25, 0);
+        long now = 0;
+        while (runner.update(now, extruder.getTemperatureRead())) {
+            extruder.advance(RecipeRunner.DEFAULT_PERIOD_MS);
+            now += RecipeRunner.DEFAULT_PERIOD_MS * MS;
+            assertTrue(now < 3600_000 * MS);
+        }
+
+        assertTrue(recorder.completed);
+        assertEquals(7, recorder.steps.size());
+        assertEquals(200f, extruder.getSetTemperature(), 0f);
+        assertEquals(0, extruder.getRotatingSpeed());
+        assertEquals("STOP", sent.get(sent.size() - 1));
+        // Setpoints climb monotonically in steps of at least the resolution, ending on the exact targets
+        float previous = 0;
+        int setTemps = 0;
+        for (String command : sent) {
+            if (!command.startsWith("SET_TEMP:")) continue;
+            float value = Float.parseFloat(command.substring(9));
+            assertTrue(command, value > previous && (value - previous >= 0.5f || value == 180f || value == 200f));
+            previous = value;
+            setTemps++;
+        }
+        assertTrue(setTemps <= (180 - 25) * 2 + (200 - 180) * 2 + 2);
+        assertTrue(sent.contains("SET_TEMP:180.0") && sent.contains("SET_SPEED:400"));
+    }
+
+    @Test
+    public void lateTicksDoNotDelayTimedSteps() {
+        Random random = new Random(7);
+        long lastRunning = 0;
+        long now = 0;
+        RecipeRunner runner = new RecipeRunner(Recipe.parse("TEMP:100@60;HOLD:10;SPEED:300@100;HOLD:5"),
+                command -> true, new Recorder());
+        runner.begin(0, 40, 0);
+        while (runner.update(now, Float.NaN)) {
+            lastRunning = now;
+            now += (50 + random.nextInt(700)) * MS;
+        }
+        // 60 s ramp + 10 s hold + 3 s ramp + 5 s hold, noticed by the first tick after it
+        long nominal = 78_000 * MS;
+        assertTrue(lastRunning < nominal);
+        assertTrue(now >= nominal && now - nominal < 750 * MS);
+    }
+
+    @Test
+    public void progressResumesTheRampWhereItStopped() {
+        List<String> sent = new ArrayList<>();
+        Recipe recipe = Recipe.parse("HOLD:1;TEMP:160@60;START");
+        RecipeRunner first = new RecipeRunner(recipe, command -> sent.add(command), new Recorder());
+        first.begin(0, 100, 0);
+        first.update(31_000 * MS, Float.NaN);
+        RecipeRunner.Progress progress = RecipeRunner.Progress.parse(first.getProgress(31_000 * MS).toString());
+        assertEquals(1, progress.step);
+        assertEquals(30_000, progress.stepElapsedMillis);
+        assertEquals(130f, progress.setTemperature, 1e-3f);
+        assertNull(RecipeRunner.Progress.parse("1,2,3"));
+
+        sent.clear();
+        Recorder recorder = new Recorder();
+        RecipeRunner second = new RecipeRunner(recipe, command -> sent.add(command), recorder);
+        second.resume(progress, 500_000 * MS);
+        second.update(500_000 * MS, Float.NaN);
+        assertEquals("SET_TEMP:130.0", sent.get(0));
+        assertFalse(second.update(530_000 * MS, Float.NaN));
+        assertEquals("SET_TEMP:160.0", sent.get(sent.size() - 2));
+        assertEquals("START", sent.get(sent.size() - 1));
+        assertTrue(recorder.completed);
+    }
+
+    @Test
+    public void waitTimesOutAndScheduledTicksStayOnTheirGrid() throws Exception {
+        Recorder recorder = new Recorder();
+        RecipeRunner runner = new RecipeRunner(Recipe.parse("HOLD:0.3;WAIT_TEMP:2,0.2"), command -> true, recorder);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            long begin = System.nanoTime();
+            runner.begin(begin, 200, 0);
+            runner.start(executor, 10, () -> 150);
+            assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+            long elapsed = System.nanoTime() - begin;
+            assertFalse(recorder.completed);
+            assertNotNull(recorder.reason);
+            assertTrue(elapsed >= 500 * MS);
+            // Every deadline on the 10 ms grid was either run or skipped, none were bunched
+            long gridTicks = runner.getTickCount() + runner.getSkippedTicks();
+            assertTrue(Math.abs(gridTicks - elapsed / (10 * MS)) <= 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
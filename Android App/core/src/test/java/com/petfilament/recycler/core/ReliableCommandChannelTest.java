@@ -0,0 +1,154 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for numbered commands, retransmission and link statistics.
+ */
+public class ReliableCommandChannelTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void firmwareAnswersRepeatedCommandFromCacheWithoutApplyingIt() {
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25));
+        assertEquals("#7:OK: Motor started", extruder.handleCommand("#7:START"));
+        assertEquals("#8:OK: Motor stopped", extruder.handleCommand("#8:STOP"));
+        // The reply to #7 was lost and START is sent again after STOP went through
+        assertEquals("#7:OK: Motor started", extruder.handleCommand("#7:START"));
+        assertEquals(0, extruder.getRotatingSpeed());
+        assertEquals("#9:TEMP:200.00,SPEED:0,STATUS:OFF,CONNECTED:yes", extruder.handleCommand("#9:GET_STATUS"));
+        assertEquals("OK: Motor started", extruder.handleCommand("START"));
+    }
+
+    @Test
+    public void sameStateCommandsAreNeverInFlightTogether() {
+        ReliableCommandChannel channel = new ReliableCommandChannel(4, 32, 4);
+        channel.submit("START");
+        channel.submit("SET_TEMP:200");
+        channel.submit("STOP");
+        channel.submit("GET_STATUS");
+        List<String> frames = new ArrayList<>();
+        channel.pump(0, frames, new ArrayList<>());
+        assertEquals(2, frames.size());
+        assertTrue(frames.get(0).endsWith(":START"));
+        assertTrue(frames.get(1).endsWith(":SET_TEMP:200"));
+
+        String start = frames.get(0);
+        frames.clear();
+        channel.acknowledge(start.replace("START", "OK: Motor started"), 10 * MS);
+        channel.pump(10 * MS, frames, new ArrayList<>());
+        assertEquals(2, frames.size());
+        assertTrue(frames.get(0).endsWith(":STOP"));
+        assertTrue(frames.get(1).endsWith(":GET_STATUS"));
+    }
+
+    @Test
+    public void marginalLinkAppliesEveryCommandOnce() {
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25));
+        ReliableCommandChannel channel = new ReliableCommandChannel(4, 64, 8);
+        Random random = new Random(42);
+        List<long[]> replyTimes = new ArrayList<>();
+        List<String> replies = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(channel.submit("SET_TEMP:" + (150 + i)));
+            assertTrue(channel.submit(i % 2 == 0 ? "START" : "STOP"));
+            assertTrue(channel.submit("SET_SPEED:" + (10 * i)));
+        }
+        channel.submit("START");
+        long now = 0;
+        while (!channel.isIdle()) {
+            now += 10 * MS;
+            List<String> frames = new ArrayList<>();
+            channel.pump(now, frames, failed);
+            for (String frame : frames) {
+                // 30 % of commands and 30 % of replies are lost, the rest arrive after 80-200 ms
+                if (random.nextDouble() < 0.3) continue;
+                String reply = extruder.handleCommand(frame);
+                if (random.nextDouble() < 0.3) continue;
+                replyTimes.add(new long[]{now + (80 + random.nextInt(120)) * MS});
+                replies.add(reply);
+            }
+            for (int i = replies.size() - 1; i >= 0; i--) {
+                if (replyTimes.get(i)[0] > now) continue;
+                channel.acknowledge(replies.remove(i), now);
+                replyTimes.remove(i);
+            }
+            assertTrue(now < 600_000 * MS);
+        }
+
+        assertTrue(failed.isEmpty());
+        assertEquals(169f, extruder.getSetTemperature(), 0f);
+        assertEquals(190, extruder.getRotatingSpeed());
+        LinkStats stats = channel.getStats();
+        // Setpoints waiting behind an unacknowledged one were coalesced
+        assertTrue(stats.commands < 61);
+        assertEquals(stats.commands, stats.replies);
+        assertTrue(stats.retransmissions > 0);
+        assertTrue(stats.lossPercent() > 30 && stats.lossPercent() < 70);
+        assertTrue(stats.rttPercentileMillis(50) >= 80 && stats.rttPercentileMillis(99) <= 210);
+    }
+
+    @Test
+    public void unansweredCommandIsGivenUpAndPollsAreNotRepeated() {
+        ReliableCommandChannel channel = new ReliableCommandChannel(4, 32, 2);
+        channel.submit("SAVE");
+        List<String> frames = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        for (long now = 0; now < 20_000 * MS; now += 50 * MS) channel.pump(now, frames, failed);
+        assertEquals(3, frames.size());
+        assertEquals(1, failed.size());
+        assertEquals("SAVE", failed.get(0));
+
+        frames.clear();
+        channel.submit("GET_STATUS");
+        for (long now = 0; now < 20_000 * MS; now += 50 * MS) channel.pump(now, frames, failed);
+        assertEquals(1, frames.size());
+        assertTrue(channel.isIdle());
+
+        LinkStats stats = channel.getStats();
+        assertEquals(1, stats.failures);
+        assertEquals(100.0, stats.lossPercent(), 0);
+        assertTrue(Double.isNaN(stats.rttPercentileMillis(50)));
+    }
+
+    @Test
+    public void unframeStripsOnlyASequenceNumber() {
+        ReliableCommandChannel channel = new ReliableCommandChannel(4, 32, 2);
+        channel.submit("SET_SPEED:400");
+        List<String> frames = new ArrayList<>();
+        channel.pump(0, frames, new ArrayList<>());
+        assertEquals("SET_SPEED:400", ReliableCommandChannel.unframe(frames.get(0)));
+        assertEquals("SYNC_FROM:0:12", ReliableCommandChannel.unframe("SYNC_FROM:0:12"));
+        assertEquals("#x:START", ReliableCommandChannel.unframe("#x:START"));
+        assertEquals("#:START", ReliableCommandChannel.unframe("#:START"));
+    }
+
+    @Test
+    public void rttPercentilesUseNearestRank() {
+        ReliableCommandChannel channel = new ReliableCommandChannel(1, 128, 0);
+        long now = 0;
+        for (int i = 1; i <= 100; i++) {
+            channel.submit("GET_STATUS");
+            List<String> frames = new ArrayList<>();
+            channel.pump(now, frames, new ArrayList<>());
+            now += i * MS;
+            assertEquals("TEMP:1", channel.acknowledge(frames.get(0).replace("GET_STATUS", "TEMP:1"), now));
+        }
+        LinkStats stats = channel.getStats();
+        assertEquals(50.0, stats.rttPercentileMillis(50), 1e-9);
+        assertEquals(99.0, stats.rttPercentileMillis(99), 1e-9);
+        assertEquals(0.0, stats.lossPercent(), 0);
+        // A reply nobody waits for is counted, not matched
+        assertEquals("OK", channel.acknowledge("#1:OK", now));
+        assertEquals(1, channel.getStats().duplicateReplies);
+    }
+}
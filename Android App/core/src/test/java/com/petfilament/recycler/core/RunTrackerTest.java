@@ -0,0 +1,113 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for run detection and incremental run statistics.
+ */
+public class RunTrackerTest {
+
+    /**
+     * Builds samples 500 ms apart, as the firmware records them.
+     * @param boot Boot number.
+     * @param firstSeq Sequence number of the first sample.
+     * @param temperatures Temperatures.
+     * @param speeds Speeds.
+     * @return Samples.
+     */
+    private static List<TelemetrySample> samples(int boot, int firstSeq, float[] temperatures, int[] speeds) {
+        List<TelemetrySample> samples = new ArrayList<>();
+        for (int i = 0; i < temperatures.length; i++) {
+            int seq = firstSeq + i;
+            samples.add(new TelemetrySample(boot, seq, seq * 500L, temperatures[i], speeds[i], 128));
+        }
+        return samples;
+    }
+
+    @Test
+    public void runIsSummarizedFromStartToStop() {
+        RunTracker tracker = new RunTracker(5);
+        List<RunStatistics> changed = tracker.accept(samples(3, 10,
+                new float[]{190, 198, 202, 210, 200, 204},
+                new int[]{0, 400, 400, 400, 400, 0}), 200, 1_000_000);
+
+        assertEquals(1, changed.size());
+        RunStatistics run = changed.get(0);
+        assertTrue(run.finished);
+        assertNull(tracker.getCurrent());
+        assertEquals(3, run.boot);
+        assertEquals(5, run.samples);
+        assertEquals(2000, run.getDurationMillis());
+        // Dated by its first sample, 2 s before the newest one
+        assertEquals(998_000, run.startedAt);
+        assertEquals(202.8, run.meanTemperature, 1e-9);
+        assertEquals(2.8, run.meanError, 1e-9);
+        assertEquals(-2, run.minError, 0);
+        assertEquals(10, run.maxError, 0);
+        assertEquals(Math.sqrt((4.8 * 4.8 + 0.8 * 0.8 + 7.2 * 7.2 + 2.8 * 2.8 + 1.2 * 1.2) / 5), run.getErrorStdDev(), 1e-9);
+        // 198, 202 and 200 are within 5 °C and each lasts 500 ms until the next sample
+        assertEquals(1500, run.withinToleranceMillis);
+        assertEquals(75.0, run.getWithinTolerancePercent(), 1e-9);
+        assertEquals(800, run.steps, 1e-9);
+        assertEquals(0.8, run.getFilamentMetres(1.0), 1e-9);
+        // Deviations 2, 2, 10, 0, 4: the median is 2 and the maximum exact
+        assertEquals(2, run.getDeviationPercentile(50), 2 * QuantileSketch.RELATIVE_ACCURACY);
+        assertEquals(10, run.getDeviationPercentile(100), 0);
+        assertEquals(400, run.speedSketch.quantile(0.5), 4);
+    }
+
+    @Test
+    public void batchesAndRestartsGiveTheSameSummary() {
+        float[] temperatures = new float[40];
+        int[] speeds = new int[40];
+        for (int i = 0; i < 40; i++) {
+            temperatures[i] = 195 + (i * 7) % 11;
+            speeds[i] = i < 35 ? 100 + 10 * i : 0;
+        }
+        List<TelemetrySample> all = samples(1, 0, temperatures, speeds);
+        RunStatistics whole = new RunTracker(3).accept(all, 200, 0).get(0);
+
+        RunTracker first = new RunTracker(3);
+        assertFalse(first.acceptDiameter(1.9));
+        first.accept(all.subList(0, 16), 200, 0);
+        first.setCurrentId(42);
+        assertTrue(first.acceptDiameter(1.70));
+        assertTrue(first.acceptDiameter(1.80));
+        // The app stops; the stored run continues in a new tracker
+        RunTracker second = new RunTracker(3);
+        second.resume(first.getCurrent());
+        second.accept(all.subList(16, 32), 200, 0);
+        RunStatistics split = second.accept(all.subList(32, 40), 200, 0).get(0);
+
+        assertEquals(42, split.id);
+        assertTrue(split.finished);
+        assertEquals(whole.samples, split.samples);
+        assertEquals(whole.meanError, split.meanError, 1e-9);
+        assertEquals(whole.getErrorStdDev(), split.getErrorStdDev(), 1e-9);
+        assertEquals(whole.withinToleranceMillis, split.withinToleranceMillis);
+        assertEquals(whole.steps, split.steps, 1e-9);
+        assertArrayEquals(whole.errorSketch.toBytes(), split.errorSketch.toBytes());
+        assertArrayEquals(whole.speedSketch.toBytes(), split.speedSketch.toBytes());
+        // Diameter readings count only while the run is open, and survive the restart
+        assertEquals(2, split.diameterSketch.getCount());
+        assertEquals(1.70, split.getDiameterPercentile(0), 0);
+        assertEquals(1.80, split.getDiameterPercentile(100), 0);
+        assertTrue(Double.isNaN(whole.getDiameterPercentile(50)));
+    }
+
+    @Test
+    public void boardResetEndsTheRun() {
+        RunTracker tracker = new RunTracker(5);
+        tracker.accept(samples(1, 100, new float[]{200, 200}, new int[]{300, 300}), 200, 0);
+        List<RunStatistics> changed = tracker.accept(samples(2, 0, new float[]{25, 26}, new int[]{0, 0}), 200, 0);
+        assertEquals(1, changed.size());
+        assertTrue(changed.get(0).finished);
+        assertEquals(1, changed.get(0).boot);
+        assertNull(tracker.getCurrent());
+    }
+}
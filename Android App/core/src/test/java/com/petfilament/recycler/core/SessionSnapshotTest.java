@@ -0,0 +1,148 @@
+package com.petfilament.recycler.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the memory-mapped session snapshot.
+ */
+public class SessionSnapshotTest {
+
+    /**
+     * Temporary snapshot file.
+     */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("session", ".snapshot");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Builds consecutive two-zone samples.
+     * @param from First sequence number.
+     * @param count Number of samples.
+     * @return Samples.
+     */
+    private static List<TelemetrySample> samples(int from, int count) {
+        List<TelemetrySample> samples = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            samples.add(new TelemetrySample(3, i, 1000L * i, 400, new float[]{150 + i * 0.1f, 90}, new int[]{255, i % 256}));
+        }
+        return samples;
+    }
+
+    @Test
+    public void everySectionSurvivesReopening() throws IOException {
+        SessionSnapshot snapshot = new SessionSnapshot(file);
+        assertNull(snapshot.read().target);
+        assertNull(snapshot.read().telemetry);
+        assertTrue(snapshot.read().samples.isEmpty());
+
+        snapshot.writeConnection("00:11:22:33:44:55", true);
+        TelemetryModel telemetry = new TelemetryModel();
+        telemetry.zones = 2;
+        telemetry.temperatures[0] = 200.5f;
+        telemetry.temperatures[1] = 181f;
+        telemetry.speed = 400;
+        telemetry.machineStatus = TelemetryModel.STATUS_RUNNING;
+        snapshot.writeStatus(telemetry, 1234L);
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25),
+                new HeaterModel(280, 90, 4, 25));
+        snapshot.writeSetpoints(extruder.getConfig());
+        RunStatistics run = new RunStatistics();
+        run.id = 7;
+        run.boot = 3;
+        run.samples = 42;
+        run.meanError = -1.5;
+        run.latestWithin = true;
+        snapshot.writeRun(run);
+        snapshot.writeRecipe(new RecipeRunner.Progress(2, 1500, 210f, 300, 200f));
+        // Three batches wrap the ring; only the newest RING_CAPACITY samples remain
+        snapshot.appendSamples(samples(0, 100));
+        snapshot.appendSamples(samples(100, 100));
+        snapshot.appendSamples(samples(200, 10));
+        snapshot.close();
+
+        SessionSnapshot.State state = new SessionSnapshot(file).read();
+        assertEquals("00:11:22:33:44:55", state.target);
+        assertTrue(state.reconnect);
+        assertEquals(1234L, state.savedAt);
+        assertEquals("200/181", state.telemetry.formatTemperatures());
+        assertEquals(400, state.telemetry.speed);
+        assertEquals(TelemetryModel.STATUS_RUNNING, state.telemetry.machineStatus);
+        assertArrayEquals(extruder.getConfig().setTemperatures, state.setTemperatures, 0f);
+        assertEquals(extruder.getConfig().maxSpeed, state.maxSpeed);
+        assertEquals(7, state.run.id);
+        assertEquals(42, state.run.samples);
+        assertEquals(-1.5, state.run.meanError, 0);
+        assertTrue(state.run.latestWithin);
+        assertFalse(state.run.finished);
+        assertEquals(2, state.recipe.step);
+        assertEquals(1500, state.recipe.stepElapsedMillis);
+        assertEquals(210f, state.recipe.setTemperature, 0);
+        assertEquals(SessionSnapshot.RING_CAPACITY, state.samples.size());
+        TelemetrySample oldest = state.samples.get(0);
+        TelemetrySample newest = state.samples.get(state.samples.size() - 1);
+        assertEquals(210 - SessionSnapshot.RING_CAPACITY, oldest.seq);
+        assertEquals(209, newest.seq);
+        assertEquals(209_000L, newest.tick);
+        assertEquals(2, newest.getZoneCount());
+        assertEquals(150 + 209 * 0.1f, newest.temperature, 1e-3);
+        assertEquals(209 % 256, newest.getDuty(1));
+
+        // A user disconnect keeps the target but no longer asks for a reconnect; cleared sections read null
+        SessionSnapshot reopened = new SessionSnapshot(file);
+        reopened.writeConnection("00:11:22:33:44:55", false);
+        reopened.writeRun(null);
+        reopened.writeRecipe(null);
+        reopened.appendSamples(samples(210, 1));
+        state = reopened.read();
+        assertFalse(state.reconnect);
+        assertNull(state.run);
+        assertNull(state.recipe);
+        assertEquals(210, state.samples.get(state.samples.size() - 1).seq);
+    }
+
+    @Test
+    public void tornSectionsAndForeignFilesAreDropped() throws IOException {
+        SessionSnapshot snapshot = new SessionSnapshot(file);
+        snapshot.writeConnection("AA:BB:CC:DD:EE:FF", true);
+        snapshot.writeRecipe(new RecipeRunner.Progress(1, 0, 200f, 100, 200f));
+        snapshot.close();
+
+        // The process died while writing the connection section: its sequence number is left odd
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(16);
+            raf.write(3);
+        }
+        SessionSnapshot.State state = new SessionSnapshot(file).read();
+        assertNull(state.target);
+        assertFalse(state.reconnect);
+        assertEquals(1, state.recipe.step);
+
+        // Another layout version is cleared rather than misread
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.write(SessionSnapshot.VERSION + 1);
+        }
+        state = new SessionSnapshot(file).read();
+        assertNull(state.recipe);
+        assertEquals(SessionSnapshot.SIZE, file.length());
+    }
+}
@@ -0,0 +1,195 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the protocol session, line framing and command queue.
+ */
+public class SessionTest {
+
+    /**
+     * Listener recording every event.
+     */
+    private static class Recorder implements Session.Listener {
+        final List<String> lines = new ArrayList<>();
+        final List<TelemetryModel> telemetry = new ArrayList<>();
+        final List<Session.State> states = new ArrayList<>();
+        final List<MachineConfig> configs = new ArrayList<>();
+
+        @Override
+        public void onStateChanged(Session.State state, String detail) {
+            states.add(state);
+        }
+
+        @Override
+        public void onLine(String line, ProtocolParser.Kind kind) {
+            lines.add(line);
+        }
+
+        @Override
+        public void onTelemetry(TelemetryModel snapshot) {
+            telemetry.add(snapshot);
+        }
+
+        @Override
+        public void onConfig(MachineConfig config) {
+            configs.add(config);
+        }
+    }
+
+    private static void feed(Session session, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        session.receive(bytes, bytes.length);
+    }
+
+    @Test
+    public void statusReplySplitAcrossReadsIsParsed() {
+        Recorder recorder = new Recorder();
+        Session session = new Session(recorder);
+        feed(session, "TEMP:215.5,SPE");
+        assertTrue(recorder.lines.isEmpty());
+        feed(session, "ED:400,STATUS:ON,CONNECTED:yes\r\nOK: Motor started\r\n");
+
+        assertEquals(2, recorder.lines.size());
+        assertEquals("OK: Motor started", recorder.lines.get(1));
+        assertEquals(1, recorder.telemetry.size());
+        TelemetryModel model = recorder.telemetry.get(0);
+        assertEquals(215.5f, model.temperatures[0], 0f);
+        assertEquals(400, model.speed);
+        assertEquals(TelemetryModel.STATUS_RUNNING, model.machineStatus);
+    }
+
+    @Test
+    public void parserClassifiesLines() {
+        ProtocolParser parser = new ProtocolParser();
+        TelemetryModel model = new TelemetryModel();
+        assertEquals(ProtocolParser.Kind.ACK, parser.parse("OK: Settings saved", model));
+        assertEquals(ProtocolParser.Kind.ERROR, parser.parse("ERROR: Unknown command", model));
+        assertEquals(ProtocolParser.Kind.TELEMETRY, parser.parse("TEMP:180", model));
+        assertEquals(ProtocolParser.Kind.STATUS, parser.parse("STATUS_UPDATE:SPEED:120,STATUS:OFF", model));
+        assertEquals(ProtocolParser.Kind.UNKNOWN, parser.parse("TEMP:abc", model));
+        assertEquals(180f, model.temperatures[0], 0f);
+        assertEquals(120, model.speed);
+        assertEquals(TelemetryModel.STATUS_IDLE, model.machineStatus);
+    }
+
+    @Test
+    public void commandsAreQueuedOnlyWhileConnectedAndSetpointsCoalesce() throws InterruptedException {
+        Session session = new Session(new Recorder());
+        assertFalse(session.send("START"));
+
+        session.connecting("00:11:22:33:44:55");
+        session.connected();
+        assertTrue(session.send("SET_TEMP:200"));
+        assertTrue(session.send("START"));
+        assertTrue(session.send("SET_TEMP:210"));
+
+        CommandQueue queue = session.getCommandQueue();
+        assertTrue(queue.take().matches("#\\d+:GET_STATUS"));
+        assertTrue(queue.take().matches("#\\d+:GET_CFG_VER"));
+        assertEquals("SYNC_FROM:0", queue.take());
+        String setTemp = queue.take();
+        assertTrue(setTemp.matches("#\\d+:SET_TEMP:200"));
+        assertTrue(queue.take().matches("#\\d+:START"));
+        // The second setpoint waits for the first to be acknowledged, and coalesces meanwhile
+        assertEquals(0, queue.size());
+        assertTrue(session.send("SET_TEMP:220"));
+        feed(session, setTemp.substring(0, setTemp.indexOf(':') + 1) + "OK: Temp set to 200.00\r\n");
+        assertTrue(queue.take().matches("#\\d+:SET_TEMP:220"));
+        assertEquals(0, queue.size());
+
+        session.send("STOP");
+        session.disconnected("test");
+        assertEquals(0, queue.size());
+        assertEquals(Session.State.DISCONNECTED, session.getState());
+    }
+
+    @Test
+    public void configIsFetchedOnlyWhenTheVersionDiffersAndFollowsSetpoints() throws InterruptedException {
+        // Replies produced by Firmware_1.1 for GET_CONFIG before and after SET_TEMP:215.5
+        String defaults = "CONFIG:TEMP:200.00,SPEED:1000,KP:90,KI:30,KD:80,FW:1.1,VER:57FA";
+        MachineConfig cached = MachineConfig.parse(defaults);
+        assertEquals("57FA", cached.computeVersion());
+        assertEquals(defaults, cached.toLine());
+        assertEquals("CDD9", cached.withSetTemperature(0, 215.5f).version);
+        assertNull(MachineConfig.parse("CONFIG:TEMP:200.00,SPEED:1000"));
+        assertEquals(defaults, new SimulatedExtruder(new HeaterModel(320, 90, 4, 25)).handleCommand("GET_CONFIG"));
+
+        Recorder recorder = new Recorder();
+        Session session = new Session(recorder);
+        session.setConfig(cached);
+        session.connecting("00:11:22:33:44:55");
+        session.connected();
+        CommandQueue queue = session.getCommandQueue();
+        while (queue.size() > 0) queue.take();
+        feed(session, "CFG_VER:57FA\r\n");
+        assertEquals(0, queue.size());
+
+        feed(session, "OK: Temp set to 215.50\r\n");
+        assertEquals("CDD9", session.getConfig().version);
+        assertEquals(215.5f, recorder.configs.get(0).setTemperatures[0], 0f);
+        feed(session, "CFG_VER:1234\r\n");
+        assertTrue(queue.take().matches("#\\d+:GET_CONFIG"));
+        feed(session, defaults + "\r\n");
+        assertEquals("57FA", session.getConfig().version);
+        assertEquals(2, recorder.configs.size());
+    }
+
+    @Test
+    public void zoneSetpointsAreParsedAndFollowed() throws InterruptedException {
+        HeaterModel model = new HeaterModel(320, 90, 4, 25);
+        SimulatedExtruder extruder = new SimulatedExtruder(model, model);
+        assertEquals("OK: Temp1 set to 180.00", extruder.handleCommand(MachineConfig.setTemperatureCommand(1, 180)));
+        assertEquals("ERROR: Unknown command", extruder.handleCommand("SET_TEMP2:180"));
+        String line = extruder.handleCommand("GET_CONFIG");
+        assertTrue(line, line.startsWith("CONFIG:TEMP:200.00,TEMP1:180.00,SPEED:1000,"));
+        MachineConfig config = MachineConfig.parse(line);
+        assertEquals(2, config.getZoneCount());
+        assertEquals(line, config.toLine());
+        assertEquals(config.version, config.computeVersion());
+        assertNull(MachineConfig.parse(line.replace("TEMP1:", "TEMP2:")));
+
+        TelemetryModel status = new TelemetryModel();
+        assertEquals(ProtocolParser.Kind.STATUS, new ProtocolParser().parse(extruder.handleCommand("GET_STATUS"), status));
+        assertEquals(2, status.zones);
+        assertEquals(180f, status.temperatures[1], 0f);
+        assertEquals("200/180", status.formatTemperatures());
+
+        Recorder recorder = new Recorder();
+        Session session = new Session(recorder);
+        session.setConfig(config);
+        session.connecting("00:11:22:33:44:55");
+        session.connected();
+        // Each zone is its own state: setpoints of different zones go out together
+        assertTrue(session.send(MachineConfig.setTemperatureCommand(1, 190)));
+        assertTrue(session.send(MachineConfig.setTemperatureCommand(0, 210)));
+        CommandQueue queue = session.getCommandQueue();
+        List<String> sent = new ArrayList<>();
+        while (queue.size() > 0) sent.add(queue.take());
+        assertTrue(sent.toString(), sent.get(sent.size() - 2).endsWith(":SET_TEMP1:190.0"));
+        assertTrue(sent.toString(), sent.get(sent.size() - 1).endsWith(":SET_TEMP:210.0"));
+
+        String reply = extruder.handleCommand("SET_TEMP1:190");
+        feed(session, reply + "\r\n");
+        assertEquals(190f, session.getConfig().setTemperatures[1], 0f);
+        assertEquals(200f, session.getConfig().setTemperatures[0], 0f);
+        assertEquals(extruder.getConfig().version, session.getConfig().version);
+    }
+
+    @Test
+    public void overlongLinesAreDropped() {
+        Recorder recorder = new Recorder();
+        Session session = new Session(recorder);
+        StringBuilder noise = new StringBuilder();
+        for (int i = 0; i < 1000; i++) noise.append('x');
+        feed(session, noise + "\nSPEED:50\n");
+        assertEquals(1, recorder.lines.size());
+        assertEquals("SPEED:50", recorder.lines.get(0));
+    }
+}
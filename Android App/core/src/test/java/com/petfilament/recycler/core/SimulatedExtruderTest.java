@@ -0,0 +1,112 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the in-process firmware simulator.
+ */
+public class SimulatedExtruderTest {
+
+    private static final HeaterModel MODEL = new HeaterModel(320, 90, 4, 25);
+
+    @Test
+    public void repliesMatchFirmware() {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL);
+        assertEquals("TEMP:200.00,SPEED:0,STATUS:OFF,CONNECTED:yes", extruder.handleCommand("GET_STATUS"));
+        assertEquals("OK: Temp set to 215.50", extruder.handleCommand("SET_TEMP:215.5\r"));
+        assertEquals("ERROR: Invalid temp", extruder.handleCommand("SET_TEMP:301"));
+        assertEquals("OK: Speed set to 400", extruder.handleCommand("SET_SPEED:400"));
+        assertEquals("ERROR: Invalid speed", extruder.handleCommand("SET_SPEED:1001"));
+        assertEquals("OK: Motor started", extruder.handleCommand("START"));
+        assertEquals("TEMP:215.50,SPEED:400,STATUS:ON,CONNECTED:yes", extruder.handleCommand("GET_STATUS"));
+        assertEquals("ERROR: Unknown command", extruder.handleCommand("HELLO"));
+
+        extruder.handleCommand("SAVE");
+        extruder.handleCommand("SET_TEMP:100");
+        extruder.reset();
+        assertEquals(215.5f, extruder.getSetTemperature(), 0f);
+        assertEquals(0, extruder.getRotatingSpeed());
+    }
+
+    @Test
+    public void zoneIndexMustBeDigitsNamingAZone() {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL, MODEL);
+        assertEquals("OK: Temp1 set to 150.00", extruder.handleCommand("SET_TEMP1:150"));
+        for (String bad : new String[]{"SET_TEMP-1:100", "SET_TEMP0:100", "SET_TEMP2:100", "SET_TEMP1x:100",
+                "SET_TEMP 1:100", "SET_TEMP+1:100", "SET_TEMP4294967297:100", "SET_TEMP100"}) {
+            assertEquals(bad, "ERROR: Unknown command", extruder.handleCommand(bad));
+        }
+        assertEquals(200f, extruder.getSetTemperature(), 0f);
+    }
+
+    @Test
+    public void heaterApproachesSetpointInVirtualTime() {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL);
+        extruder.handleCommand("SET_TEMP:200");
+        extruder.advance(15 * 60 * 1000);
+        assertEquals(15 * 60 * 1000, extruder.getClockMillis());
+        // The firmware's +6 offset regulates slightly above the setpoint
+        assertEquals(206, extruder.getTemperatureRead(), 15);
+    }
+
+    @Test
+    public void perfReportCoversTheTimeSinceTheLastOne() {
+        SimulatedExtruder extruder = new SimulatedExtruder(MODEL);
+        extruder.handleCommand("START");
+        extruder.advance(10_000);
+        String line = extruder.handleCommand("#3:GET_PERF");
+        assertTrue(line, line.startsWith("#3:" + PerfReport.PREFIX));
+        PerfReport report = PerfReport.parse(line.substring(3));
+        assertNotNull(report);
+        assertEquals(line.substring(3), report.toLine());
+        assertEquals(10_000, report.windowMillis);
+        assertEquals("1.1", report.firmwareVersion);
+        long histogramTotal = 0;
+        for (long count : report.histogram) histogramTotal += count;
+        assertEquals(report.loops, histogramTotal);
+        // 40 PID/LCD updates, each the slowest iteration and the longest pause between steps
+        assertEquals(40, report.histogram[PerfReport.histogramBin(report.loopMaxMicros)]);
+        assertEquals(report.loopMaxMicros, report.stepGapMaxMicros);
+        assertEquals(100.0 * 40 / report.loops, report.percentSlowerThan(5000), 1e-9);
+        assertEquals(ProtocolParser.Kind.PERF, new ProtocolParser().parse(report.toLine(), new TelemetryModel()));
+
+        PerfReport next = PerfReport.parse(extruder.handleCommand("GET_PERF"));
+        assertEquals(0, next.windowMillis);
+        assertEquals(0, next.loops);
+
+        assertNull(PerfReport.parse(line.substring(3).replace(",FW:1.1", "")));
+        assertNull(PerfReport.parse(line.substring(3).replaceFirst("HIST:\\d+/", "HIST:")));
+    }
+
+    @Test
+    public void linkAnswersTerminatedAndUnterminatedCommands() throws Exception {
+        SimulatedExtruder.Link link = new SimulatedExtruder(MODEL).open(1);
+        try {
+            OutputStream out = link.getOutputStream();
+            // Idleness ends a command only until the sender has terminated one
+            out.write("STOP".getBytes(StandardCharsets.US_ASCII));
+            out.write("START\n".getBytes(StandardCharsets.US_ASCII));
+            assertEquals("OK: Motor stopped\r\nOK: Motor started\r\n", readExactly(link.getInputStream(), 38));
+        } finally {
+            link.close();
+        }
+        assertEquals(-1, link.getInputStream().read());
+    }
+
+    private static String readExactly(InputStream in, int length) throws Exception {
+        byte[] buffer = new byte[length];
+        int n = 0;
+        while (n < length) {
+            int r = in.read(buffer, n, length - n);
+            assertTrue(r > 0);
+            n += r;
+        }
+        return new String(buffer, StandardCharsets.US_ASCII);
+    }
+}
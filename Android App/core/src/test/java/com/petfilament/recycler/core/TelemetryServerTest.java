@@ -0,0 +1,184 @@
+package com.petfilament.recycler.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loopback tests for the dashboard fan-out server.
+ */
+public class TelemetryServerTest {
+
+    private TelemetryServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TelemetryServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 32 * 1024);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void base64MatchesRfc6455Example() throws Exception {
+        java.security.MessageDigest sha1 = java.security.MessageDigest.getInstance("SHA-1");
+        byte[] digest = sha1.digest("dGhlIHNhbXBsZSBub25jZQ==258EAFA5-E914-47DA-95CA-C5AB0DC85B11"
+                .getBytes(StandardCharsets.US_ASCII));
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", Base64Codec.encode(digest));
+        assertEquals("Zm8=", Base64Codec.encode("fo".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void simulatedExtruderIsFannedOutToTcpAndWebSocketClients() throws Exception {
+        try (Socket raw = connect(); Socket ws = connect()) {
+            OutputStream wsOut = ws.getOutputStream();
+            wsOut.write(("GET / HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            DataInputStream wsIn = new DataInputStream(ws.getInputStream());
+            String response = readHeaders(wsIn);
+            assertTrue(response.startsWith("HTTP/1.1 101"));
+            assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+            waitFor(() -> server.getClientCount() == 2);
+            // Let the plain client pass protocol detection
+            Thread.sleep(400);
+
+            Session session = new Session(new Session.Listener() {
+                @Override
+                public void onStateChanged(Session.State state, String detail) {
+                }
+
+                @Override
+                public void onLine(String line, ProtocolParser.Kind kind) {
+                    if (kind == ProtocolParser.Kind.ACK) server.publishLine(line, kind);
+                }
+
+                @Override
+                public void onTelemetry(TelemetryModel telemetry) {
+                    server.publishTelemetry(telemetry);
+                }
+            });
+            SimulatedExtruder.Link link = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25)).open(1);
+            try {
+                session.connecting("simulator");
+                session.connected();
+                session.send("START");
+                // GET_STATUS, GET_CFG_VER, the initial SYNC_FROM and START
+                for (int i = 0; i < 4; i++) {
+                    link.getOutputStream().write(FrameCodec.encodeLine(session.takeCommand()));
+                }
+                byte[] buffer = new byte[256];
+                StringBuilder received = new StringBuilder();
+                while (received.indexOf("OK: Motor started") < 0) {
+                    int n = link.getInputStream().read(buffer);
+                    received.append(new String(buffer, 0, n, StandardCharsets.US_ASCII));
+                    session.receive(buffer, n);
+                }
+            } finally {
+                link.close();
+            }
+
+            String telemetry = "{\"type\":\"telemetry\",\"temp\":200.00,\"temps\":[200.00],\"speed\":0,\"status\":\"IDLE\"}";
+            String ack = "{\"type\":\"ack\",\"text\":\"OK: Motor started\"}";
+            BufferedReader rawIn = new BufferedReader(new InputStreamReader(raw.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals(telemetry, rawIn.readLine());
+            assertEquals(ack, rawIn.readLine());
+            assertEquals(telemetry, readTextFrame(wsIn));
+            assertEquals(ack, readTextFrame(wsIn));
+        }
+    }
+
+    @Test
+    public void slowConsumerIsEvictedWithoutStallingOthers() throws Exception {
+        try (Socket slow = new Socket(); Socket fast = connect()) {
+            slow.setReceiveBufferSize(1024);
+            slow.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+            waitFor(() -> server.getClientCount() == 2);
+            Thread.sleep(400);
+
+            // Large enough to fill the slow client's kernel buffers as well as its send queue
+            int messages = 20000;
+            StringBuilder padding = new StringBuilder();
+            for (int i = 0; i < 500; i++) padding.append('x');
+            String pad = padding.toString();
+            AtomicInteger inOrder = new AtomicInteger();
+            Thread reader = new Thread(() -> {
+                try {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(fast.getInputStream(), StandardCharsets.UTF_8));
+                    for (int i = 0; i < messages; i++) {
+                        if (!("{\"seq\":" + i + ",\"pad\":\"" + pad + "\"}").equals(in.readLine())) return;
+                        inOrder.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // Counted as missing messages
+                }
+            });
+            reader.start();
+            for (int i = 0; i < messages; i++) {
+                server.publish("{\"seq\":" + i + ",\"pad\":\"" + pad + "\"}");
+                // Keep the fast client within a few messages, well inside its buffer limit
+                while (i - inOrder.get() > 16 && reader.isAlive()) Thread.yield();
+            }
+            reader.join(20000);
+            assertEquals(messages, inOrder.get());
+            assertEquals(1, server.getEvictionCount());
+            assertEquals(1, server.getClientCount());
+            assertEquals(-1, readToEnd(slow.getInputStream()));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (!text.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            assertTrue(b >= 0);
+            text.append((char) b);
+        }
+        return text.toString();
+    }
+
+    private static String readTextFrame(DataInputStream in) throws IOException {
+        assertEquals(0x81, in.readUnsignedByte());
+        int length = in.readUnsignedByte();
+        if (length == 126) length = in.readUnsignedShort();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    private static int readToEnd(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            // Drain what was sent before the eviction
+        }
+        return n;
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertTrue(condition.getAsBoolean());
+    }
+}
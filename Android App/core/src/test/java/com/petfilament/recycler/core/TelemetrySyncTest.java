@@ -0,0 +1,153 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for telemetry backfill.
+ */
+public class TelemetrySyncTest {
+
+    /**
+     * Transfer produced by Firmware_1.1's startSync()/serviceSync() for "SYNC_FROM:716,7".
+     */
+    private static final String[] FIRMWARE_TRANSFER = {
+            "SYNC_BEGIN:7,716,3",
+            "SYNC_DATA:716,3,ZHgFAMoEkAH/WHoFAMkEkAH/THwFAMkEkAH/*2407",
+            "SYNC_END:719"
+    };
+
+    @Test
+    public void decodesFirmwareTransfer() {
+        TelemetrySync sync = new TelemetrySync();
+        sync.resume(7, 715);
+        assertEquals("SYNC_FROM:716,7", sync.request(0));
+        assertNull(sync.request(1));
+
+        List<TelemetrySample> samples = new ArrayList<>();
+        for (String line : FIRMWARE_TRANSFER) assertTrue(sync.accept(line, samples));
+
+        assertEquals(3, samples.size());
+        TelemetrySample first = samples.get(0);
+        assertEquals(7, first.boot);
+        assertEquals(716, first.seq);
+        assertEquals(358500, first.tick);
+        assertEquals(122.6f, first.temperature, 1e-4f);
+        assertEquals(400, first.speed);
+        assertEquals(255, first.duty);
+        assertEquals(718, samples.get(2).seq);
+        assertEquals("SYNC_FROM:719,7", sync.request(2));
+    }
+
+    @Test
+    public void corruptFrameIsRequestedAgain() {
+        TelemetrySync sync = new TelemetrySync();
+        sync.resume(7, 715);
+        sync.request(0);
+        List<TelemetrySample> samples = new ArrayList<>();
+        sync.accept(FIRMWARE_TRANSFER[0], samples);
+        assertFalse(sync.accept(FIRMWARE_TRANSFER[1].replace("*2407", "*2408"), samples));
+        sync.accept(FIRMWARE_TRANSFER[2], samples);
+
+        assertTrue(samples.isEmpty());
+        assertEquals(1, sync.getCorruptFrames());
+        assertEquals("SYNC_FROM:716,7", sync.request(1));
+    }
+
+    @Test
+    public void framesAfterACorruptOneWaitForTheRetry() {
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25));
+        TelemetrySync sync = new TelemetrySync();
+        List<TelemetrySample> samples = new ArrayList<>();
+        extruder.advance(5 * 60_000);
+
+        String[] lines = extruder.handleCommand(sync.request(System.nanoTime())).split("\r\n");
+        int corrupted = -1;
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].startsWith("SYNC_DATA:") && corrupted < 0) {
+                corrupted = i;
+                lines[i] = lines[i].replace("*", "*F");
+            }
+        }
+        int dataFrames = 0;
+        for (String line : lines) if (line.startsWith("SYNC_DATA:")) dataFrames++;
+        assertTrue(dataFrames > 2);
+        for (int i = 0; i < lines.length; i++) assertEquals(lines[i], i != corrupted, sync.accept(lines[i], samples));
+        // Nothing after the corrupt first frame is handed out ahead of it
+        assertTrue(samples.isEmpty());
+        assertEquals(1, sync.getCorruptFrames());
+
+        transfer(extruder, sync, samples);
+        assertEquals(extruder.getSampleCount(), samples.size());
+        for (int i = 0; i < samples.size(); i++) assertEquals(i, samples.get(i).seq);
+    }
+
+    @Test
+    public void catchesUpAfterFiveMinuteDropWithoutHoles() {
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25));
+        TelemetrySync sync = new TelemetrySync();
+        List<TelemetrySample> samples = new ArrayList<>();
+
+        extruder.advance(60_000);
+        transfer(extruder, sync, samples);
+        // Link down for five minutes
+        extruder.advance(5 * 60_000);
+        int before = samples.size();
+        int bytes = transfer(extruder, sync, samples);
+
+        assertEquals(extruder.getSampleCount(), samples.size());
+        for (int i = 0; i < samples.size(); i++) assertEquals(i, samples.get(i).seq);
+        assertEquals(0, sync.getLostSamples());
+        // Five minutes of samples fit in a few seconds of a 9600 baud link
+        assertEquals(600, samples.size() - before);
+        assertTrue(bytes * 10.0 / SimulatedExtruder.BAUD < 10);
+    }
+
+    @Test
+    public void overwrittenSamplesAreCountedAsLost() {
+        SimulatedExtruder extruder = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25));
+        TelemetrySync sync = new TelemetrySync();
+        List<TelemetrySample> samples = new ArrayList<>();
+        transfer(extruder, sync, samples);
+        extruder.advance(SimulatedExtruder.RING_SIZE * SimulatedExtruder.SAMPLE_EVERY * 250L + 50_000);
+        transfer(extruder, sync, samples);
+
+        assertEquals(SimulatedExtruder.RING_SIZE, samples.size());
+        assertEquals(extruder.getSampleCount() - SimulatedExtruder.RING_SIZE, sync.getLostSamples());
+    }
+
+    @Test
+    public void decodesOneTemperatureAndDutyPerZone() {
+        HeaterModel nozzle = new HeaterModel(320, 90, 4, 25);
+        HeaterModel barrel = new HeaterModel(300, 180, 8, 25);
+        SimulatedExtruder extruder = new SimulatedExtruder(nozzle, barrel);
+        extruder.handleCommand("SET_TEMP1:150");
+        extruder.advance(5 * 60_000);
+        TelemetrySync sync = new TelemetrySync();
+        List<TelemetrySample> samples = new ArrayList<>();
+        transfer(extruder, sync, samples);
+
+        assertEquals(extruder.getSampleCount(), samples.size());
+        TelemetrySample last = samples.get(samples.size() - 1);
+        assertEquals(2, last.getZoneCount());
+        assertEquals(extruder.getTemperatureRead(0), last.getTemperature(0), 0.05f);
+        assertEquals(extruder.getTemperatureRead(1), last.getTemperature(1), 0.05f);
+        assertEquals(last.temperature, last.getTemperature(0), 0f);
+        // A hundred seconds in the nozzle cycles around its setpoint while the slower barrel still heats at full power
+        TelemetrySample early = samples.get(200);
+        assertTrue(early.getTemperature(0) > 190);
+        assertTrue(early.getTemperature(1) < 150);
+        assertEquals(FirmwarePid.MAX_PWM, early.getDuty(1));
+        assertEquals(0, sync.getCorruptFrames());
+    }
+
+    private static int transfer(SimulatedExtruder extruder, TelemetrySync sync, List<TelemetrySample> samples) {
+        String reply = extruder.handleCommand(sync.request(System.nanoTime()));
+        for (String line : reply.split("\r\n")) assertTrue(line, sync.accept(line, samples));
+        return reply.length();
+    }
+}
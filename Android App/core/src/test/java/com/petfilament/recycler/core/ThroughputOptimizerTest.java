@@ -0,0 +1,139 @@
+package com.petfilament.recycler.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the maximum-throughput search, run in virtual time against the simulator.
+ */
+public class ThroughputOptimizerTest {
+
+    private static final HeaterModel MODEL = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Listener recording the search events.
+     */
+    private static class Recorder implements ThroughputOptimizer.Listener {
+        final List<Integer> tried = new ArrayList<>();
+        Boolean completed;
+        int recommended = -1;
+        String reason;
+
+        @Override
+        public void onTrying(int speed) {
+            tried.add(speed);
+        }
+
+        @Override
+        public void onFinished(boolean completed, int recommendedSpeed, String reason) {
+            this.completed = completed;
+            this.recommended = recommendedSpeed;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Returns a sink delivering commands straight to the simulator.
+     * @param extruder Simulator.
+     * @return Sink.
+     */
+    private static RecipeRunner.CommandSink sink(SimulatedExtruder extruder) {
+        return command -> {
+            extruder.handleCommand(command);
+            return true;
+        };
+    }
+
+    /**
+     * Runs a search to the end, fetching samples every sample period as the app does while optimizing.
+     * @param extruder Simulator, already at temperature.
+     * @param optimizer Optimizer sending its commands to the simulator.
+     * @return Largest drop below the bottom of the idle temperature cycle seen by the firmware while the motor
+     * ran, °C.
+     */
+    private static double run(SimulatedExtruder extruder, ThroughputOptimizer optimizer) {
+        float idleLow = Float.MAX_VALUE;
+        for (int i = 0; i < 240; i++) {
+            extruder.advance(FirmwarePid.UPDATE_INTERVAL_MS);
+            idleLow = Math.min(idleLow, extruder.getTemperatureRead());
+        }
+        TelemetrySync sync = new TelemetrySync();
+        sync.resume(extruder.getBootId(), extruder.getSampleCount());
+        double sag = 0;
+        for (int i = 0; i < 4 * 3600 && !optimizer.isFinished(); i++) {
+            extruder.advance(500);
+            List<TelemetrySample> samples = new ArrayList<>();
+            for (String line : extruder.handleCommand(sync.request(System.nanoTime())).split("\r\n")) {
+                sync.accept(line, samples);
+            }
+            for (TelemetrySample sample : samples) {
+                optimizer.accept(sample);
+                if (sample.speed > 0) sag = Math.max(sag, idleLow - sample.temperature);
+            }
+        }
+        assertTrue(optimizer.isFinished());
+        return sag;
+    }
+
+    /**
+     * Builds a simulator that has settled at its setpoint with the motor stopped.
+     * @param load Extrusion load, °C per step/s.
+     * @param zones Plant model of each zone.
+     * @return Simulator.
+     */
+    private static SimulatedExtruder warmExtruder(double load, HeaterModel... zones) {
+        SimulatedExtruder extruder = new SimulatedExtruder(zones);
+        extruder.setExtrusionLoad(load);
+        for (int zone = 0; zone < zones.length; zone++) {
+            extruder.handleCommand(MachineConfig.setTemperatureCommand(zone, 200));
+        }
+        extruder.advance(15 * 60_000);
+        return extruder;
+    }
+
+    @Test
+    public void findsTheSpeedWhereTheHeaterRunsOutOfReserve() {
+        // Full power holds the temperature up to about (320 - 180) / 0.2 = 700 steps/s; 3% reserve leaves ~650
+        SimulatedExtruder extruder = warmExtruder(0.2, MODEL);
+        Recorder recorder = new Recorder();
+        ThroughputOptimizer optimizer = new ThroughputOptimizer(200, 1000, 5, sink(extruder), recorder);
+        double sag = run(extruder, optimizer);
+
+        assertEquals(Boolean.TRUE, recorder.completed);
+        assertNull(recorder.reason);
+        assertEquals(200, (int) recorder.tried.get(0));
+        assertTrue("Recommended " + recorder.recommended, recorder.recommended >= 600 && recorder.recommended < 700);
+        assertEquals(recorder.recommended, optimizer.getStableSpeed());
+        // Left running at the recommended speed
+        assertEquals(recorder.recommended, extruder.getRotatingSpeed());
+        // Backed off within a sample of the first sag
+        assertTrue("Sag " + sag, sag < 5 + 1.5);
+    }
+
+    @Test
+    public void theWeakestZoneLimitsTheSpeed() {
+        // The nozzle alone holds ~650 steps/s; a barrel zone with 40 °C less reach holds only about
+        // (280 - 180) / 0.2 = 500 before it runs out of reserve
+        SimulatedExtruder extruder = warmExtruder(0.2, MODEL, new HeaterModel(280, 90, 4, 25));
+        Recorder recorder = new Recorder();
+        run(extruder, new ThroughputOptimizer(200, 1000, 5, sink(extruder), recorder));
+
+        assertEquals(Boolean.TRUE, recorder.completed);
+        assertTrue("Recommended " + recorder.recommended, recorder.recommended >= 400 && recorder.recommended < 500);
+    }
+
+    @Test
+    public void stopsWhenEvenTheStartSpeedSags() {
+        SimulatedExtruder extruder = warmExtruder(1.0, MODEL);
+        Recorder recorder = new Recorder();
+        run(extruder, new ThroughputOptimizer(300, 1000, 5, sink(extruder), recorder));
+        assertEquals(Boolean.FALSE, recorder.completed);
+        assertEquals(0, recorder.recommended);
+        assertNotNull(recorder.reason);
+        assertEquals(0, extruder.getRotatingSpeed());
+    }
+}
@@ -0,0 +1,38 @@
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+application {
+    mainClass.set("com.petfilament.recycler.headless.HeadlessController")
+}
+
+// End-to-end Save latency against the simulator; CI keeps build/latency.json per commit
+tasks.register<JavaExec>("latencyReport") {
+    group = "verification"
+    description = "Runs the latency harness and writes build/latency.json"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.petfilament.recycler.headless.LatencyHarness")
+    args("--iterations", "2000", "--time-scale", "10",
+        "--out", layout.buildDirectory.file("latency.json").get().asFile.path)
+}
+
+// Unpaced replay of a capture journal through the receive pipeline; -Pjournal=<dir> replays one pulled from the app
+tasks.register<JavaExec>("replayBenchmark") {
+    group = "verification"
+    description = "Replays a capture journal and writes build/replay.json"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.petfilament.recycler.headless.ReplayBenchmark")
+    val journal = project.findProperty("journal")
+    if (journal != null) args("--journal", journal.toString()) else args("--records", "20000")
+    args("--out", layout.buildDirectory.file("replay.json").get().asFile.path)
+}
+
+dependencies {
+    implementation(project(":core"))
+    testImplementation(libs.junit)
+}
@@ -0,0 +1,458 @@
+package com.petfilament.recycler.headless;
+
+import com.petfilament.recycler.core.FrameCodec;
+import com.petfilament.recycler.core.HeaterModel;
+import com.petfilament.recycler.core.ProtocolParser;
+import com.petfilament.recycler.core.Session;
+import com.petfilament.recycler.core.SimulatedExtruder;
+import com.petfilament.recycler.core.TelemetryModel;
+import com.petfilament.recycler.core.TelemetryServer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HeadlessController class drives an extruder from a Linux box without the app: it runs the shared
+ * {@link Session} over a serial byte stream (or an in-process {@link SimulatedExtruder}), logs every line to a
+ * {@link RollingLogStore}, polls GET_STATUS back to back and accepts the same commands as ControlActivity
+ * from standard input. With --serve, telemetry and replies are also fanned out to local dashboards through
+ * a {@link TelemetryServer}.
+ */
+public class HeadlessController implements Session.Listener, Closeable {
+
+    /**
+     * How long a poll waits for its status reply before the next one is sent.
+     */
+    private static final long POLL_TIMEOUT_MS = 2000;
+
+    /**
+     * Plant used with --simulate.
+     */
+    private static final HeaterModel SIMULATED_PLANT = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Read buffer size.
+     */
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * Protocol session.
+     */
+    private final Session session = new Session(this);
+
+    /**
+     * Name of the link, e.g. the device path.
+     */
+    private final String target;
+
+    /**
+     * Stream from the machine.
+     */
+    private final InputStream inputStream;
+
+    /**
+     * Stream to the machine.
+     */
+    private final OutputStream outputStream;
+
+    /**
+     * Log store.
+     */
+    private final RollingLogStore logStore;
+
+    /**
+     * Minimum time between two polls in milliseconds; 0 polls as fast as replies arrive.
+     */
+    private final long pollIntervalMs;
+
+    /**
+     * Console for replies and errors.
+     */
+    private final PrintStream console;
+
+    /**
+     * Released once per status reply, paces the poller.
+     */
+    private final Semaphore statusReplies = new Semaphore(0);
+
+    /**
+     * Number of status replies received.
+     */
+    private final AtomicLong statusCount = new AtomicLong();
+
+    /**
+     * Latest telemetry snapshot.
+     */
+    private volatile TelemetryModel telemetry = new TelemetryModel();
+
+    /**
+     * Thread reading from the machine.
+     */
+    private final Thread readerThread;
+
+    /**
+     * Thread writing queued commands.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Thread polling the status.
+     */
+    private final Thread pollerThread;
+
+    /**
+     * Cleared by close().
+     */
+    private volatile boolean running;
+
+    /**
+     * Optional dashboard server.
+     */
+    private volatile TelemetryServer telemetryServer;
+
+    /**
+     * Constructor.
+     * @param target Name of the link, e.g. the device path.
+     * @param inputStream Stream from the machine.
+     * @param outputStream Stream to the machine.
+     * @param logStore Log store.
+     * @param pollIntervalMs Minimum time between two polls in milliseconds; 0 polls as fast as replies arrive.
+     * @param console Console for replies and errors.
+     */
+    public HeadlessController(String target, InputStream inputStream, OutputStream outputStream,
+                              RollingLogStore logStore, long pollIntervalMs, PrintStream console) {
+        this.target = target;
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.logStore = logStore;
+        this.pollIntervalMs = pollIntervalMs;
+        this.console = console;
+        readerThread = new Thread(this::readLoop, "serial-reader");
+        writerThread = new Thread(this::writeLoop, "serial-writer");
+        pollerThread = new Thread(this::pollLoop, "status-poller");
+        readerThread.setDaemon(true);
+        writerThread.setDaemon(true);
+        pollerThread.setDaemon(true);
+    }
+
+    /**
+     * Opens the session and starts the I/O and polling threads.
+     */
+    public void start() {
+        running = true;
+        session.connecting(target);
+        session.connected();
+        readerThread.start();
+        writerThread.start();
+        pollerThread.start();
+    }
+
+    /**
+     * Queues a console command.
+     * Accepts "start", "stop", "temp &lt;°C&gt;", "speed &lt;steps/s&gt;", "save" and raw firmware commands.
+     * @param line Console line.
+     * @return false if the command was not queued.
+     */
+    public boolean submit(String line) {
+        String command = translate(line);
+        return command != null && session.send(command);
+    }
+
+    /**
+     * Publishes telemetry and replies to a dashboard server from now on.
+     * @param server Server, or null to stop publishing.
+     */
+    public void setTelemetryServer(TelemetryServer server) {
+        this.telemetryServer = server;
+    }
+
+    /**
+     * Returns the latest telemetry snapshot.
+     * @return Telemetry.
+     */
+    public TelemetryModel getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Returns the number of status replies received.
+     * @return Count.
+     */
+    public long getStatusCount() {
+        return statusCount.get();
+    }
+
+    /**
+     * Waits until the link closes.
+     * @throws InterruptedException If the waiting thread is interrupted.
+     */
+    public void awaitDisconnect() throws InterruptedException {
+        readerThread.join();
+    }
+
+    /**
+     * Stops the threads and closes the session. The streams are left to their owner.
+     */
+    @Override
+    public void close() {
+        running = false;
+        session.disconnected("已停止");
+        writerThread.interrupt();
+        pollerThread.interrupt();
+        readerThread.interrupt();
+    }
+
+    /**
+     * Prints state changes.
+     * @param state New state.
+     * @param detail Detail.
+     */
+    @Override
+    public void onStateChanged(Session.State state, String detail) {
+        console.println("連接狀態: " + state + (detail == null ? "" : " (" + detail + ")"));
+    }
+
+    /**
+     * Logs a received line, prints and publishes replies and paces the poller on status reports.
+     * Backfill frames are only logged.
+     * @param line Received line.
+     * @param kind Parsed kind.
+     */
+    @Override
+    public void onLine(String line, ProtocolParser.Kind kind) {
+        log("IN", line);
+        if (kind == ProtocolParser.Kind.STATUS) {
+            statusCount.incrementAndGet();
+            statusReplies.release();
+        } else if (kind != ProtocolParser.Kind.SYNC) {
+            console.println(line);
+            TelemetryServer server = telemetryServer;
+            if (server != null) server.publishLine(line, kind);
+        }
+    }
+
+    /**
+     * Keeps and publishes the latest telemetry snapshot.
+     * @param snapshot Snapshot.
+     */
+    @Override
+    public void onTelemetry(TelemetryModel snapshot) {
+        telemetry = snapshot;
+        TelemetryServer server = telemetryServer;
+        if (server != null) server.publishTelemetry(snapshot);
+    }
+
+    /**
+     * Reports a command that got no reply after all retries.
+     * @param command Command text.
+     */
+    @Override
+    public void onCommandFailed(String command) {
+        console.println("命令未獲回應: " + command);
+    }
+
+    /**
+     * Translates a console command into a firmware command.
+     * @param line Console line.
+     * @return Firmware command, or null if the line is empty or malformed.
+     */
+    static String translate(String line) {
+        String[] words = line.trim().split("\\s+");
+        if (words[0].isEmpty()) return null;
+        String verb = words[0].toLowerCase(Locale.ROOT);
+        try {
+            switch (verb) {
+                case "start":
+                    return "START";
+                case "stop":
+                    return "STOP";
+                case "save":
+                    return "SAVE";
+                case "temp":
+                    return words.length == 2 ? "SET_TEMP:" + Float.parseFloat(words[1]) : null;
+                case "speed":
+                    return words.length == 2 ? "SET_SPEED:" + Integer.parseInt(words[1]) : null;
+                default:
+                    return line.trim();
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads from the machine until the link closes.
+     */
+    private void readLoop() {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int n;
+            while ((n = inputStream.read(buffer)) >= 0) {
+                session.receive(buffer, n);
+            }
+            if (running) session.disconnected("連接斷開");
+        } catch (IOException e) {
+            if (running) session.disconnected("連接斷開: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes queued commands, terminated so the firmware handles them at once.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                String command = session.takeCommand();
+                outputStream.write(FrameCodec.encodeLine(command));
+                outputStream.flush();
+                log("OUT", command);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (IOException e) {
+            if (running) session.disconnected("發送失敗: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps one GET_STATUS in flight: the next poll goes out when the previous reply arrives (or times out),
+     * so telemetry flows at whatever rate the link and firmware sustain.
+     */
+    private void pollLoop() {
+        try {
+            while (running) {
+                long sent = System.nanoTime();
+                statusReplies.drainPermits();
+                if (session.send(Session.CMD_GET_STATUS)) {
+                    statusReplies.tryAcquire(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                long remaining = pollIntervalMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+                if (remaining > 0) Thread.sleep(remaining);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Appends a line to the log store, reporting failures on the console.
+     * @param direction "IN" or "OUT".
+     * @param message Message.
+     */
+    private void log(String direction, String message) {
+        try {
+            logStore.append(direction, message);
+        } catch (IOException e) {
+            console.println("寫入日誌失敗: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Entry point.
+     * Usage: (--port &lt;device&gt; [--baud &lt;n&gt;] | --simulate [--time-scale &lt;x&gt;]) [--log-dir &lt;dir&gt;]
+     * [--poll-ms &lt;n&gt;] [--segment-mb &lt;n&gt;] [--segments &lt;n&gt;] [--serve &lt;port&gt;]
+     * @param args Command-line arguments.
+     * @throws Exception If the link or log store cannot be opened.
+     */
+    public static void main(String[] args) throws Exception {
+        String port = null;
+        boolean simulate = false;
+        int baud = SerialLink.FIRMWARE_BAUD;
+        double timeScale = 1;
+        File logDir = new File("logs");
+        long pollMs = 0;
+        int servePort = -1;
+        long segmentMb = 16;
+        int segments = 8;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port": port = args[++i]; break;
+                    case "--baud": baud = Integer.parseInt(args[++i]); break;
+                    case "--simulate": simulate = true; break;
+                    case "--time-scale": timeScale = Double.parseDouble(args[++i]); break;
+                    case "--log-dir": logDir = new File(args[++i]); break;
+                    case "--poll-ms": pollMs = Long.parseLong(args[++i]); break;
+                    case "--segment-mb": segmentMb = Long.parseLong(args[++i]); break;
+                    case "--segments": segments = Integer.parseInt(args[++i]); break;
+                    case "--serve": servePort = Integer.parseInt(args[++i]); break;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if ((port == null) == !simulate) throw new IllegalArgumentException("--port or --simulate");
+        } catch (RuntimeException e) {
+            System.err.println("Usage: (--port <device> [--baud <n>] | --simulate [--time-scale <x>])"
+                    + " [--log-dir <dir>] [--poll-ms <n>] [--segment-mb <n>] [--segments <n>]"
+                    + " [--serve <port>]");
+            System.exit(2);
+            return;
+        }
+
+        Closeable link;
+        InputStream in;
+        OutputStream out;
+        if (simulate) {
+            SimulatedExtruder.Link simulated = new SimulatedExtruder(SIMULATED_PLANT).open(timeScale);
+            link = simulated;
+            in = simulated.getInputStream();
+            out = simulated.getOutputStream();
+            port = "simulator";
+        } else {
+            SerialLink serial = new SerialLink(port, baud);
+            link = serial;
+            in = serial.getInputStream();
+            out = serial.getOutputStream();
+        }
+
+        TelemetryServer server = null;
+        if (servePort >= 0) {
+            // Loopback only: dashboards run on the same box
+            server = new TelemetryServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), servePort),
+                    TelemetryServer.DEFAULT_MAX_BUFFERED);
+            server.start();
+            System.out.println("儀表板伺服器: 127.0.0.1:" + server.getPort());
+        }
+
+        boolean linkLost = false;
+        try (RollingLogStore store = new RollingLogStore(logDir, segmentMb << 20, segments);
+             HeadlessController controller = new HeadlessController(port, in, out, store, pollMs, System.out)) {
+            controller.setTelemetryServer(server);
+            controller.start();
+            BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = stdin.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.equals("quit") || trimmed.equals("exit")) {
+                    return;
+                } else if (trimmed.equals("status")) {
+                    TelemetryModel t = controller.getTelemetry();
+                    System.out.println(String.format(Locale.US, "TEMP:%s SPEED:%d STATUS:%s (%d polls)",
+                            t.formatTemperatures(), t.speed, t.machineStatus, controller.getStatusCount()));
+                } else if (!trimmed.isEmpty() && !controller.submit(trimmed)) {
+                    System.out.println("無法發送: " + trimmed);
+                }
+            }
+            // Standard input closed (running as a daemon): keep controlling until the link drops
+            controller.awaitDisconnect();
+            linkLost = true;
+        } finally {
+            if (server != null) server.close();
+            link.close();
+        }
+        // Non-zero so a supervisor restarts the controller
+        if (linkLost) System.exit(1);
+    }
+}
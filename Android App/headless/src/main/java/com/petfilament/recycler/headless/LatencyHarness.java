@@ -0,0 +1,513 @@
+package com.petfilament.recycler.headless;
+
+import com.petfilament.recycler.core.FrameCodec;
+import com.petfilament.recycler.core.HeaterModel;
+import com.petfilament.recycler.core.LinkStats;
+import com.petfilament.recycler.core.ProtocolParser;
+import com.petfilament.recycler.core.ReliableCommandChannel;
+import com.petfilament.recycler.core.Session;
+import com.petfilament.recycler.core.SimulatedExtruder;
+import com.petfilament.recycler.core.TelemetryModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LatencyHarness class measures the Save path end to end: a SET_TEMP sent as ControlActivity does, through the
+ * session's command channel, the writer, the 9600 baud link and a {@link SimulatedExtruder}, back through line
+ * decoding and parsing, into the log store, until a status poll reports the new setpoint and a UI thread has
+ * rendered it. Every stage is timestamped; the run ends with a JSON report of per-stage and total percentiles
+ * that CI can keep and compare against the report of another commit (--baseline). A time scale above 1 runs the
+ * simulated line and firmware faster than real time for quicker runs; reports are only comparable at equal scale.
+ */
+public class LatencyHarness implements Session.Listener {
+
+    /**
+     * Stage names, each ending at the timestamp of the same index + 1 in a {@link Trace}.
+     * queue: press to handed to the link; uplink: to applied by the firmware; reply: to acknowledgement parsed;
+     * persist: to acknowledgement logged; report: to a status line showing the new value; render: to rendered
+     * on the UI thread.
+     */
+    static final String[] STAGES = {"queue", "uplink", "reply", "persist", "report", "render"};
+
+    /**
+     * Name of the press-to-render figure in the report.
+     */
+    static final String TOTAL = "total";
+
+    /**
+     * How long one iteration may take before it is counted as a timeout.
+     */
+    private static final long ITERATION_TIMEOUT_MS = 10_000;
+
+    /**
+     * How long a poll waits for its status reply before the next one is sent.
+     */
+    private static final long POLL_TIMEOUT_MS = 2000;
+
+    /**
+     * Plant of the simulated extruder.
+     */
+    private static final HeaterModel PLANT = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Timestamps of one Save press.
+     */
+    private static final class Trace {
+        /**
+         * Setpoint sent.
+         */
+        final float target;
+
+        /**
+         * Command text without sequence number.
+         */
+        final String command;
+
+        /**
+         * System.nanoTime() at press, handed to the link, applied, acknowledged, persisted, reported and rendered;
+         * 0 until reached.
+         */
+        final long[] stamps = new long[STAGES.length + 1];
+
+        /**
+         * Released when the value has been rendered.
+         */
+        final CountDownLatch rendered = new CountDownLatch(1);
+
+        /**
+         * Constructor.
+         * @param target Setpoint to send.
+         */
+        Trace(float target) {
+            this.target = target;
+            this.command = "SET_TEMP:" + target;
+        }
+
+        /**
+         * Records a timestamp the first time a stage is reached, after the one before it.
+         * @param index Timestamp index.
+         * @return true if recorded now.
+         */
+        synchronized boolean stamp(int index) {
+            if (stamps[index] != 0 || stamps[index - 1] == 0) return false;
+            stamps[index] = System.nanoTime();
+            return true;
+        }
+    }
+
+    /**
+     * Protocol session under test.
+     */
+    private final Session session = new Session(this);
+
+    /**
+     * Simulated link and firmware.
+     */
+    private final SimulatedExtruder.Link link;
+
+    /**
+     * Log store the replies are persisted to.
+     */
+    private final RollingLogStore logStore;
+
+    /**
+     * Stand-in for the main thread.
+     */
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ui");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Interval between status polls in milliseconds, 0 for back to back.
+     */
+    private final long pollMs;
+
+    /**
+     * Interval between telemetry backfill requests in milliseconds, 0 for none.
+     */
+    private final long syncMs;
+
+    /**
+     * Virtual seconds per real second of the simulated link.
+     */
+    private final double timeScale;
+
+    /**
+     * Iteration in progress, or null.
+     */
+    private volatile Trace current;
+
+    /**
+     * Last text "rendered" by the UI thread.
+     */
+    private volatile String screen = "";
+
+    /**
+     * Released once per status reply, paces the poller.
+     */
+    private final Semaphore statusReplies = new Semaphore(0);
+
+    /**
+     * Cleared by close().
+     */
+    private volatile boolean running = true;
+
+    /**
+     * I/O and load threads.
+     */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Constructor.
+     * @param logStore Log store the replies are persisted to.
+     * @param pollMs Interval between status polls in milliseconds, 0 for back to back.
+     * @param syncMs Interval between telemetry backfill requests in milliseconds, 0 for none.
+     * @param timeScale Virtual seconds per real second of the simulated link.
+     */
+    public LatencyHarness(RollingLogStore logStore, long pollMs, long syncMs, double timeScale) {
+        this.logStore = logStore;
+        this.pollMs = pollMs;
+        this.syncMs = syncMs;
+        this.timeScale = timeScale;
+        SimulatedExtruder extruder = new SimulatedExtruder(PLANT) {
+            @Override
+            public synchronized String handleCommand(String command) {
+                Trace trace = current;
+                if (trace != null && command.trim().endsWith(":" + trace.command)) trace.stamp(2);
+                return super.handleCommand(command);
+            }
+        };
+        link = extruder.open(timeScale);
+    }
+
+    /**
+     * Runs the harness.
+     * @param iterations Measured Save presses.
+     * @param warmup Presses before measuring.
+     * @return JSON report.
+     * @throws InterruptedException If interrupted.
+     */
+    public String run(int iterations, int warmup) throws InterruptedException {
+        session.connecting("simulator");
+        session.connected();
+        start("latency-reader", this::readLoop);
+        start("latency-writer", this::writeLoop);
+        start("latency-poller", this::pollLoop);
+        if (syncMs > 0) start("latency-sync", this::syncLoop);
+
+        long[][] samples = new long[STAGES.length + 1][iterations];
+        int timeouts = 0;
+        int measured = 0;
+        for (int i = 0; i < warmup + iterations; i++) {
+            // Consecutive setpoints always differ, so a status line shows whether the new one arrived
+            Trace trace = new Trace(150f + (i % 100) * 0.5f);
+            current = trace;
+            trace.stamps[0] = System.nanoTime();
+            if (!session.send(trace.command) || !trace.rendered.await(ITERATION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                timeouts++;
+                continue;
+            }
+            if (i < warmup) continue;
+            for (int s = 0; s < STAGES.length; s++) {
+                samples[s][measured] = trace.stamps[s + 1] - trace.stamps[s];
+            }
+            samples[STAGES.length][measured] = trace.stamps[STAGES.length] - trace.stamps[0];
+            measured++;
+        }
+        current = null;
+        return report(samples, measured, timeouts, session.getLinkStats());
+    }
+
+    /**
+     * Stops the threads and the link.
+     */
+    public void close() {
+        running = false;
+        session.disconnected("已停止");
+        link.close();
+        uiThread.shutdownNow();
+        for (Thread thread : threads) thread.interrupt();
+    }
+
+    /**
+     * Ignored.
+     * @param state New state.
+     * @param detail Detail.
+     */
+    @Override
+    public void onStateChanged(Session.State state, String detail) {
+    }
+
+    /**
+     * Stamps and persists the acknowledgement of the command being measured; other lines are only persisted.
+     * Status lines also pace the poller.
+     * @param line Received line.
+     * @param kind Parsed kind.
+     */
+    @Override
+    public void onLine(String line, ProtocolParser.Kind kind) {
+        Trace trace = current;
+        boolean ack = trace != null && kind == ProtocolParser.Kind.ACK && line.startsWith("OK: Temp set to")
+                && trace.stamp(3);
+        if (kind != ProtocolParser.Kind.SYNC) {
+            try {
+                logStore.append("IN", line);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (ack) trace.stamp(4);
+        if (kind == ProtocolParser.Kind.STATUS) statusReplies.release();
+    }
+
+    /**
+     * Stamps the first status showing the new setpoint and renders it on the UI thread.
+     * @param telemetry Snapshot.
+     */
+    @Override
+    public void onTelemetry(TelemetryModel telemetry) {
+        Trace trace = current;
+        if (trace == null || Math.abs(telemetry.temperatures[0] - trace.target) > 0.005f || !trace.stamp(5)) return;
+        uiThread.execute(() -> {
+            // Same text as ControlActivity.updateMachineStatusUI()
+            screen = "機器狀態: " + telemetry.machineStatus + "\n"
+                    + "溫度: " + telemetry.formatTemperatures() + "°C\n"
+                    + "速度: " + telemetry.speed + " mm/s";
+            if (trace.stamp(6)) trace.rendered.countDown();
+        });
+    }
+
+    /**
+     * Returns the text last rendered.
+     * @return Screen text.
+     */
+    String getScreen() {
+        return screen;
+    }
+
+    /**
+     * Starts a daemon thread.
+     * @param name Thread name.
+     * @param body Thread body.
+     */
+    private void start(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Feeds the session from the link.
+     */
+    private void readLoop() {
+        InputStream in = link.getInputStream();
+        byte[] buffer = new byte[1024];
+        try {
+            int n;
+            while ((n = in.read(buffer)) >= 0) session.receive(buffer, n);
+        } catch (IOException e) {
+            if (running) session.disconnected(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes commands as the transports do, stamping the measured one as it is handed to the link.
+     */
+    private void writeLoop() {
+        OutputStream out = link.getOutputStream();
+        try {
+            while (true) {
+                String command = session.takeCommand();
+                Trace trace = current;
+                if (trace != null && command.startsWith(ReliableCommandChannel.SEQ_PREFIX)
+                        && command.endsWith(":" + trace.command)) {
+                    trace.stamp(1);
+                }
+                out.write(FrameCodec.encodeLine(command));
+                out.flush();
+                logStore.append("OUT", command);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        } catch (IOException e) {
+            if (running) session.disconnected(e.getMessage());
+        }
+    }
+
+    /**
+     * Telemetry load: keeps one GET_STATUS in flight as HeadlessController does, at most one per interval.
+     */
+    private void pollLoop() {
+        try {
+            while (running) {
+                long sent = System.nanoTime();
+                statusReplies.drainPermits();
+                if (session.send(Session.CMD_GET_STATUS)) {
+                    statusReplies.tryAcquire(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                }
+                long remaining = pollMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+                if (remaining > 0) Thread.sleep(remaining);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Telemetry load: requests backfill like the app's periodic sync.
+     */
+    private void syncLoop() {
+        try {
+            while (running) {
+                session.requestSync();
+                Thread.sleep(syncMs);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Builds the JSON report.
+     * @param samples Nanosecond durations per stage, the last row being the total.
+     * @param count Number of valid samples per row.
+     * @param timeouts Iterations that did not complete.
+     * @param stats Link statistics.
+     * @return JSON text.
+     */
+    String report(long[][] samples, int count, int timeouts, LinkStats stats) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"iterations\": ").append(count)
+                .append(",\n  \"timeouts\": ").append(timeouts)
+                .append(",\n  \"pollMs\": ").append(pollMs)
+                .append(",\n  \"syncMs\": ").append(syncMs)
+                .append(",\n  \"timeScale\": ").append(timeScale)
+                .append(",\n  \"unit\": \"us\",\n  \"stages\": {\n");
+        for (int s = 0; s <= STAGES.length; s++) {
+            long[] sorted = Arrays.copyOf(samples[s], count);
+            Arrays.sort(sorted);
+            json.append(String.format(Locale.ROOT, "    \"%s\": {\"p50\": %d, \"p99\": %d, \"p999\": %d, \"max\": %d}%s\n",
+                    s < STAGES.length ? STAGES[s] : TOTAL, micros(sorted, 50), micros(sorted, 99),
+                    micros(sorted, 99.9), micros(sorted, 100), s < STAGES.length ? "," : ""));
+        }
+        json.append(String.format(Locale.ROOT, "  },\n  \"link\": {\"lossPercent\": %.2f, \"retransmissions\": %d,"
+                + " \"failures\": %d}\n}\n", stats.lossPercent(), stats.retransmissions, stats.failures));
+        return json.toString();
+    }
+
+    /**
+     * Returns a percentile of sorted nanosecond durations (nearest rank) in microseconds.
+     * @param sorted Sorted durations.
+     * @param percentile Percentile, 0-100.
+     * @return Microseconds, 0 if there are no samples.
+     */
+    static long micros(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)] / 1000;
+    }
+
+    /**
+     * Compares the p99 of every stage of two reports.
+     * @param baseline Earlier report.
+     * @param report Current report.
+     * @param maxRegressionPercent Allowed increase in percent.
+     * @return One line per stage that got slower than allowed; empty if none.
+     */
+    static List<String> compare(String baseline, String report, double maxRegressionPercent) {
+        List<String> regressions = new ArrayList<>();
+        Pattern stage = Pattern.compile("\"(\\w+)\": \\{\"p50\": \\d+, \"p99\": (\\d+)");
+        Matcher old = stage.matcher(baseline);
+        while (old.find()) {
+            Matcher now = Pattern.compile("\"" + old.group(1) + "\": \\{\"p50\": \\d+, \"p99\": (\\d+)").matcher(report);
+            if (!now.find()) continue;
+            long before = Long.parseLong(old.group(2));
+            long after = Long.parseLong(now.group(1));
+            if (after > before * (1 + maxRegressionPercent / 100)) {
+                regressions.add(String.format(Locale.ROOT, "%s p99 %d us -> %d us", old.group(1), before, after));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Entry point.
+     * Usage: [--iterations &lt;n&gt;] [--warmup &lt;n&gt;] [--poll-ms &lt;n&gt;] [--sync-ms &lt;n&gt;] [--time-scale &lt;x&gt;]
+     * [--out &lt;file&gt;] [--baseline &lt;file&gt; [--max-regression &lt;percent&gt;]]
+     * Exits with 3 if a stage's p99 regressed against the baseline.
+     * @param args Command-line arguments.
+     * @throws Exception If the log store or a report cannot be written or read.
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations = 1000;
+        int warmup = 50;
+        long pollMs = 0;
+        long syncMs = 5000;
+        double timeScale = 1;
+        File out = null;
+        File baseline = null;
+        double maxRegression = 20;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--iterations": iterations = Integer.parseInt(args[++i]); break;
+                    case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                    case "--poll-ms": pollMs = Long.parseLong(args[++i]); break;
+                    case "--sync-ms": syncMs = Long.parseLong(args[++i]); break;
+                    case "--time-scale": timeScale = Double.parseDouble(args[++i]); break;
+                    case "--out": out = new File(args[++i]); break;
+                    case "--baseline": baseline = new File(args[++i]); break;
+                    case "--max-regression": maxRegression = Double.parseDouble(args[++i]); break;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: [--iterations <n>] [--warmup <n>] [--poll-ms <n>] [--sync-ms <n>]"
+                    + " [--time-scale <x>] [--out <file>] [--baseline <file> [--max-regression <percent>]]");
+            System.exit(2);
+            return;
+        }
+
+        File logDir = Files.createTempDirectory("latency").toFile();
+        String report;
+        try (RollingLogStore store = new RollingLogStore(logDir, 16L << 20, 2)) {
+            LatencyHarness harness = new LatencyHarness(store, pollMs, syncMs, timeScale);
+            try {
+                report = harness.run(iterations, warmup);
+            } finally {
+                harness.close();
+            }
+        } finally {
+            for (File file : RollingLogStore.listSegments(logDir)) file.delete();
+            logDir.delete();
+        }
+
+        System.out.print(report);
+        if (out != null) Files.write(out.toPath(), report.getBytes(StandardCharsets.UTF_8));
+        if (baseline != null) {
+            List<String> regressions = compare(new String(Files.readAllBytes(baseline.toPath()), StandardCharsets.UTF_8),
+                    report, maxRegression);
+            for (String regression : regressions) System.err.println("延遲退步: " + regression);
+            if (!regressions.isEmpty()) System.exit(3);
+        }
+    }
+}
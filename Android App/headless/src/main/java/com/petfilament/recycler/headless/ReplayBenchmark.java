@@ -0,0 +1,237 @@
+package com.petfilament.recycler.headless;
+
+import com.petfilament.recycler.core.CaptureJournal;
+import com.petfilament.recycler.core.CaptureRecorder;
+import com.petfilament.recycler.core.EventLoop;
+import com.petfilament.recycler.core.FrameCodec;
+import com.petfilament.recycler.core.HeaterModel;
+import com.petfilament.recycler.core.JournalReplayer;
+import com.petfilament.recycler.core.ProtocolParser;
+import com.petfilament.recycler.core.ReliableCommandChannel;
+import com.petfilament.recycler.core.Session;
+import com.petfilament.recycler.core.SimulatedExtruder;
+import com.petfilament.recycler.core.TelemetryModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * ReplayBenchmark class measures the receive pipeline on recorded traffic: a {@link CaptureJournal}, either one
+ * pulled from the app (files/capture) or a synthetic one recorded from a {@link SimulatedExtruder}, is replayed
+ * by {@link CaptureRecorder} as in the app, each chunk handed to an event loop and waited for, decoded and parsed
+ * by a {@link Session} and persisted to a log store. Replaying unpaced gives the pipeline's throughput.
+ */
+public class ReplayBenchmark implements Session.Listener {
+
+    /**
+     * Plant of the simulated extruder.
+     */
+    private static final HeaterModel PLANT = new HeaterModel(320, 90, 4, 25);
+
+    /**
+     * Session decoding the replayed bytes; never connected.
+     */
+    private final Session session = new Session(this);
+
+    /**
+     * Loop the chunks are handed to.
+     */
+    private final EventLoop loop = new EventLoop("replay-loop");
+
+    /**
+     * Log store the lines and commands are persisted to.
+     */
+    private final RollingLogStore logStore;
+
+    /**
+     * Lines decoded.
+     */
+    private long lines;
+
+    /**
+     * Status lines decoded.
+     */
+    private long statuses;
+
+    /**
+     * Constructor.
+     * @param logStore Log store the lines and commands are persisted to.
+     */
+    public ReplayBenchmark(RollingLogStore logStore) {
+        this.logStore = logStore;
+    }
+
+    /**
+     * Replays a journal.
+     * @param directory Journal directory.
+     * @param speed Speed factor, or {@link JournalReplayer#MAX_SPEED}.
+     * @return Replay statistics.
+     * @throws IOException If the journal cannot be read.
+     */
+    public JournalReplayer.Stats replay(File directory, double speed) throws IOException {
+        return CaptureRecorder.replay(directory, speed, loop, session, new CaptureRecorder.ReplayTarget() {
+            @Override
+            public boolean isLinkOpen() {
+                return false;
+            }
+
+            @Override
+            public void onCommand(String command) {
+                append("OUT", command);
+            }
+        });
+    }
+
+    /**
+     * Stops the loop.
+     */
+    public void close() {
+        loop.shutdown();
+    }
+
+    /**
+     * Returns the number of lines decoded.
+     * @return Line count.
+     */
+    long getLines() {
+        return loop.call(() -> lines);
+    }
+
+    /**
+     * Returns the number of status lines decoded.
+     * @return Status count.
+     */
+    long getStatuses() {
+        return loop.call(() -> statuses);
+    }
+
+    /**
+     * Ignored.
+     * @param state New state.
+     * @param detail Detail.
+     */
+    @Override
+    public void onStateChanged(Session.State state, String detail) {
+    }
+
+    /**
+     * Counts and persists a decoded line; backfill lines are only counted.
+     * @param line Received line.
+     * @param kind Parsed kind.
+     */
+    @Override
+    public void onLine(String line, ProtocolParser.Kind kind) {
+        lines++;
+        if (kind != ProtocolParser.Kind.SYNC) append("IN", line);
+    }
+
+    /**
+     * Counts a status.
+     * @param telemetry Snapshot.
+     */
+    @Override
+    public void onTelemetry(TelemetryModel telemetry) {
+        statuses++;
+    }
+
+    /**
+     * Persists one log entry.
+     * @param direction Direction ("IN" or "OUT").
+     * @param message Message.
+     */
+    private void append(String direction, String message) {
+        try {
+            logStore.append(direction, message);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Records a synthetic capture: status polls with a setpoint change every tenth exchange, each command and
+     * its reply journaled as the app's writer and reader do.
+     * @param directory Journal directory.
+     * @param exchanges Command/reply pairs to record.
+     * @throws IOException If the journal cannot be written.
+     */
+    static void record(File directory, int exchanges) throws IOException {
+        SimulatedExtruder extruder = new SimulatedExtruder(PLANT);
+        try (CaptureJournal journal = new CaptureJournal(directory, 4 << 20, 8)) {
+            for (int seq = 0; seq < exchanges; seq++) {
+                String command = seq % 10 == 9 ? "SET_TEMP:" + (150 + seq % 100) : Session.CMD_GET_STATUS;
+                byte[] out = FrameCodec.encodeLine(ReliableCommandChannel.SEQ_PREFIX + seq + ":" + command);
+                journal.append(CaptureJournal.DIRECTION_OUT, out, 0, out.length);
+                byte[] in = (extruder.handleCommand(new String(out, StandardCharsets.US_ASCII)) + "\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                journal.append(CaptureJournal.DIRECTION_IN, in, 0, in.length);
+            }
+        }
+    }
+
+    /**
+     * Entry point.
+     * Usage: [--journal &lt;dir&gt; | --records &lt;n&gt;] [--speed &lt;x&gt;] [--out &lt;file&gt;]
+     * Without --journal, a synthetic capture of the given number of exchanges is recorded and replayed.
+     * @param args Command-line arguments.
+     * @throws Exception If a journal, the log store or the report cannot be read or written.
+     */
+    public static void main(String[] args) throws Exception {
+        File journal = null;
+        int records = 10_000;
+        double speed = JournalReplayer.MAX_SPEED;
+        File out = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--journal": journal = new File(args[++i]); break;
+                    case "--records": records = Integer.parseInt(args[++i]); break;
+                    case "--speed": speed = Double.parseDouble(args[++i]); break;
+                    case "--out": out = new File(args[++i]); break;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: [--journal <dir> | --records <n>] [--speed <x>] [--out <file>]");
+            System.exit(2);
+            return;
+        }
+
+        File synthetic = null;
+        if (journal == null) {
+            synthetic = Files.createTempDirectory("replay").toFile();
+            record(synthetic, records);
+            journal = synthetic;
+        }
+        File logDir = Files.createTempDirectory("replay-log").toFile();
+        JournalReplayer.Stats stats;
+        long lines;
+        try (RollingLogStore store = new RollingLogStore(logDir, 16L << 20, 2)) {
+            ReplayBenchmark benchmark = new ReplayBenchmark(store);
+            try {
+                stats = benchmark.replay(journal, speed);
+                lines = benchmark.getLines();
+            } finally {
+                benchmark.close();
+            }
+        } finally {
+            for (File file : RollingLogStore.listSegments(logDir)) file.delete();
+            logDir.delete();
+            if (synthetic != null) {
+                File[] segments = synthetic.listFiles();
+                if (segments != null) {
+                    for (File file : segments) file.delete();
+                }
+                synthetic.delete();
+            }
+        }
+
+        String report = String.format(Locale.ROOT, "{\n  \"records\": %d,\n  \"bytes\": %d,\n  \"lines\": %d,"
+                        + "\n  \"elapsedMs\": %.1f,\n  \"recordsPerSecond\": %.0f\n}\n",
+                stats.records, stats.bytes, lines, stats.elapsedNanos / 1e6, stats.recordsPerSecond());
+        System.out.print(report);
+        if (out != null) Files.write(out.toPath(), report.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,158 @@
+package com.petfilament.recycler.headless;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * RollingLogStore class is the headless counterpart of the app's log database: an append-only text log
+ * split into fixed-size segment files, with the oldest segments deleted beyond a fixed count.
+ * Each line is "timestamp\tdirection\tmessage", timestamps in the same format SQLite's CURRENT_TIMESTAMP
+ * gives the app's logs. Disk use is bounded by segmentSize * maxSegments and memory by one write buffer,
+ * so the controller can run unattended for days.
+ */
+public class RollingLogStore implements Closeable {
+
+    /**
+     * Segment file name prefix.
+     */
+    private static final String PREFIX = "log-";
+
+    /**
+     * Segment file name suffix.
+     */
+    private static final String SUFFIX = ".txt";
+
+    /**
+     * Directory holding the segment files.
+     */
+    private final File directory;
+
+    /**
+     * Size at which a segment is closed, in bytes.
+     */
+    private final long segmentSize;
+
+    /**
+     * Number of segments kept.
+     */
+    private final int maxSegments;
+
+    /**
+     * Timestamp formatter.
+     */
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+
+    /**
+     * Stream of the open segment.
+     */
+    private OutputStream out;
+
+    /**
+     * Bytes written to the open segment.
+     */
+    private long written;
+
+    /**
+     * Sequence number of the open segment.
+     */
+    private long sequence;
+
+    /**
+     * Constructor. Numbering continues after the segments already in the directory.
+     * @param directory Directory holding the segment files.
+     * @param segmentSize Size at which a segment is closed, in bytes.
+     * @param maxSegments Number of segments kept.
+     * @throws IOException If the directory cannot be created or the first segment opened.
+     */
+    public RollingLogStore(File directory, long segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= 0 || maxSegments < 1) {
+            throw new IllegalArgumentException("segmentSize must be > 0 and maxSegments >= 1");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        File[] existing = listSegments(directory);
+        sequence = existing.length == 0 ? 0 : sequenceOf(existing[existing.length - 1]) + 1;
+        openSegment();
+    }
+
+    /**
+     * Appends one log line and flushes it to the file.
+     * @param direction "IN" or "OUT".
+     * @param message Message, without line breaks.
+     * @throws IOException If writing fails.
+     */
+    public synchronized void append(String direction, String message) throws IOException {
+        if (out == null) throw new IOException("Store closed");
+        byte[] line = (dateFormat.format(new Date()) + '\t' + direction + '\t' + message + '\n')
+                .getBytes(StandardCharsets.UTF_8);
+        if (written > 0 && written + line.length > segmentSize) {
+            out.close();
+            sequence++;
+            openSegment();
+        }
+        out.write(line);
+        out.flush();
+        written += line.length;
+    }
+
+    /**
+     * Returns the segment files in the directory, oldest first.
+     * @param directory Directory holding the segment files.
+     * @return Segment files.
+     */
+    public static File[] listSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    /**
+     * Closes the open segment.
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Opens the segment for the current sequence number and deletes the oldest ones beyond the limit.
+     * @throws IOException If the file cannot be opened.
+     */
+    private void openSegment() throws IOException {
+        File file = new File(directory, String.format(Locale.US, PREFIX + "%010d" + SUFFIX, sequence));
+        out = new BufferedOutputStream(new FileOutputStream(file), 8192);
+        written = 0;
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segments[i].delete()) throw new IOException("Cannot delete " + segments[i]);
+        }
+    }
+
+    /**
+     * Returns the sequence number encoded in a segment file name.
+     * @param file Segment file.
+     * @return Sequence number.
+     */
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
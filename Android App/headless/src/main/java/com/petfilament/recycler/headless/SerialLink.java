@@ -0,0 +1,91 @@
+package com.petfilament.recycler.headless;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * SerialLink class opens a serial device (e.g. /dev/ttyUSB0 wired to the board's Serial1, or a pseudo-terminal)
+ * as a pair of byte streams. The line is put in raw mode at the requested baud rate with stty, so no native
+ * serial library is needed on Linux.
+ */
+public class SerialLink implements Closeable {
+
+    /**
+     * Baud rate of Serial1 in Firmware_1.1.
+     */
+    public static final int FIRMWARE_BAUD = 9600;
+
+    /**
+     * Stream reading from the device.
+     */
+    private final FileInputStream inputStream;
+
+    /**
+     * Stream writing to the device.
+     */
+    private final FileOutputStream outputStream;
+
+    /**
+     * Constructor.
+     * @param device Device path.
+     * @param baud Baud rate, or 0 to leave the line settings untouched (e.g. for a pseudo-terminal).
+     * @throws IOException If stty fails or the device cannot be opened.
+     */
+    public SerialLink(String device, int baud) throws IOException {
+        if (baud > 0) configure(device, baud);
+        inputStream = new FileInputStream(device);
+        outputStream = new FileOutputStream(device);
+    }
+
+    /**
+     * Returns the stream reading from the device.
+     * @return Input stream.
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Returns the stream writing to the device.
+     * @return Output stream.
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Closes both streams.
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Sets raw mode, baud rate and no echo on the device.
+     * @param device Device path.
+     * @param baud Baud rate.
+     * @throws IOException If stty cannot be run or fails.
+     */
+    private static void configure(String device, int baud) throws IOException {
+        Process process = new ProcessBuilder("stty", "-F", device, Integer.toString(baud), "raw", "-echo", "-hupcl")
+                .redirectErrorStream(true)
+                .start();
+        try {
+            int status = process.waitFor();
+            if (status != 0) throw new IOException("stty failed for " + device + " (exit " + status + ")");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted configuring " + device, e);
+        }
+    }
+}
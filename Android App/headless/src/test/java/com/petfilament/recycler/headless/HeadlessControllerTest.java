@@ -0,0 +1,83 @@
+package com.petfilament.recycler.headless;
+
+import com.petfilament.recycler.core.HeaterModel;
+import com.petfilament.recycler.core.SimulatedExtruder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the headless controller against the in-process simulator.
+ */
+public class HeadlessControllerTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("headless").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : RollingLogStore.listSegments(directory)) file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void controlsSimulatorAndPollsBackToBack() throws Exception {
+        SimulatedExtruder.Link link = new SimulatedExtruder(new HeaterModel(320, 90, 4, 25)).open(1);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        try (RollingLogStore store = new RollingLogStore(directory, 1 << 20, 4);
+             HeadlessController controller = new HeadlessController("simulator", link.getInputStream(),
+                     link.getOutputStream(), store, 0, new PrintStream(console, true))) {
+            controller.start();
+            assertTrue(controller.submit("speed 400"));
+            assertTrue(controller.submit("start"));
+            assertFalse(controller.submit("temp hot"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((controller.getTelemetry().speed != 400 || controller.getStatusCount() < 20)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(400, controller.getTelemetry().speed);
+            assertEquals("RUNNING", controller.getTelemetry().machineStatus);
+            assertTrue(controller.getStatusCount() >= 20);
+        } finally {
+            link.close();
+        }
+        String output = console.toString("UTF-8");
+        assertTrue(output.contains("OK: Motor started"));
+
+        String log = new String(Files.readAllBytes(RollingLogStore.listSegments(directory)[0].toPath()), "UTF-8");
+        assertTrue(log.matches("(?s).*\tOUT\t#\\d+:SET_SPEED:400\n.*"));
+        assertTrue(log.contains("\tIN\tOK: Speed set to 400\n"));
+    }
+
+    @Test
+    public void logStoreKeepsOnlyNewestSegments() throws IOException {
+        try (RollingLogStore store = new RollingLogStore(directory, 100, 3)) {
+            for (int i = 0; i < 50; i++) store.append("IN", "TEMP:200.00,SPEED:0,STATUS:OFF " + i);
+        }
+        File[] segments = RollingLogStore.listSegments(directory);
+        assertEquals(3, segments.length);
+        String newest = new String(Files.readAllBytes(segments[2].toPath()), "UTF-8");
+        assertTrue(newest.endsWith(" 49\n"));
+
+        // Reopening continues the numbering instead of overwriting
+        try (RollingLogStore store = new RollingLogStore(directory, 100, 3)) {
+            store.append("OUT", "STOP");
+        }
+        assertEquals(segments[2].getName(), RollingLogStore.listSegments(directory)[1].getName());
+    }
+}
@@ -0,0 +1,52 @@
+package com.petfilament.recycler.headless;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the end-to-end latency harness.
+ */
+public class LatencyHarnessTest {
+
+    @Test
+    public void reportsEveryStageUnderTelemetryLoad() throws Exception {
+        File directory = Files.createTempDirectory("latency").toFile();
+        String report;
+        try (RollingLogStore store = new RollingLogStore(directory, 1 << 20, 2)) {
+            LatencyHarness harness = new LatencyHarness(store, 0, 100, 20);
+            try {
+                report = harness.run(30, 2);
+                assertTrue(harness.getScreen().startsWith("機器狀態: "));
+            } finally {
+                harness.close();
+            }
+        } finally {
+            for (File file : RollingLogStore.listSegments(directory)) file.delete();
+            directory.delete();
+        }
+
+        assertTrue(report.contains("\"iterations\": 30,"));
+        assertTrue(report.contains("\"timeouts\": 0,"));
+        for (String stage : LatencyHarness.STAGES) {
+            assertTrue(stage, report.matches("(?s).*\"" + stage + "\": \\{\"p50\": \\d+, \"p99\": \\d+, \"p999\": \\d+.*"));
+        }
+        assertTrue(report.contains("\"" + LatencyHarness.TOTAL + "\": {"));
+        assertTrue(LatencyHarness.compare(report, report, 0).isEmpty());
+    }
+
+    @Test
+    public void comparisonFlagsSlowerStages() {
+        String baseline = "{\"stages\": {\n    \"queue\": {\"p50\": 10, \"p99\": 100, \"p999\": 200, \"max\": 300},\n"
+                + "    \"total\": {\"p50\": 20, \"p99\": 1000, \"p999\": 2000, \"max\": 3000}\n}}";
+        String current = baseline.replace("\"p99\": 100,", "\"p99\": 119,").replace("\"p99\": 1000,", "\"p99\": 1300,");
+        List<String> regressions = LatencyHarness.compare(baseline, current, 20);
+        assertEquals(1, regressions.size());
+        assertEquals("total p99 1000 us -> 1300 us", regressions.get(0));
+        assertEquals(50, LatencyHarness.micros(new long[]{10_000, 50_000, 90_000}, 50));
+    }
+}
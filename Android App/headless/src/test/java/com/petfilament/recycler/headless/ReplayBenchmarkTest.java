@@ -0,0 +1,53 @@
+package com.petfilament.recycler.headless;
+
+import com.petfilament.recycler.core.JournalReplayer;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the capture replay benchmark.
+ */
+public class ReplayBenchmarkTest {
+
+    @Test
+    public void syntheticCaptureReplaysEveryReplyAndBareCommand() throws Exception {
+        File journal = Files.createTempDirectory("replay").toFile();
+        File logDir = Files.createTempDirectory("replay-log").toFile();
+        try {
+            ReplayBenchmark.record(journal, 200);
+            JournalReplayer.Stats stats;
+            try (RollingLogStore store = new RollingLogStore(logDir, 1 << 20, 2)) {
+                ReplayBenchmark benchmark = new ReplayBenchmark(store);
+                try {
+                    stats = benchmark.replay(journal, JournalReplayer.MAX_SPEED);
+                    assertEquals(200, benchmark.getLines());
+                    assertEquals(180, benchmark.getStatuses());
+                } finally {
+                    benchmark.close();
+                }
+            }
+            assertEquals(400, stats.records);
+
+            StringBuilder log = new StringBuilder();
+            for (File file : RollingLogStore.listSegments(logDir)) {
+                log.append(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            }
+            assertTrue(log.toString().contains("SET_TEMP:159"));
+            // Commands are logged without the sequence number they were sent with
+            assertFalse(log.toString().contains("#9:SET_TEMP"));
+        } finally {
+            for (File directory : new File[]{journal, logDir}) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) file.delete();
+                }
+                directory.delete();
+            }
+        }
+    }
+}
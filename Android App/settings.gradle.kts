@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "PETFilamentRecycler"
 include(":app")
+include(":core")
+include(":headless")